@@ -0,0 +1,46 @@
+package com.github.bwinant.cognito.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.github.bwinant.cognito.spring.CognitoJwkStore;
+import com.github.bwinant.jwk.JwkException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing a JWKS document into a {@link CognitoJwkStore}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwkStoreLoadBenchmark
+{
+    private byte[] jwks;
+
+    @Setup
+    public void setup()
+    {
+        jwks = new TokenFixtures().getJwks();
+    }
+
+    @Benchmark
+    public CognitoJwkStore load() throws IOException, JwkException
+    {
+        CognitoJwkStore jwkStore = new CognitoJwkStore();
+        jwkStore.load(new ByteArrayInputStream(jwks));
+        return jwkStore;
+    }
+}
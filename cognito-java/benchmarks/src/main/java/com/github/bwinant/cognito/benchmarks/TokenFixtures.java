@@ -0,0 +1,152 @@
+package com.github.bwinant.cognito.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.github.bwinant.cognito.spring.CognitoJwkStore;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+/**
+ * Generates Cognito shaped signing keys and tokens locally so benchmarks never need network access.
+ */
+public class TokenFixtures
+{
+    public static final String REGION = "us-east-1";
+    public static final String USER_POOL_ID = "us-east-1_Bench1234";
+    public static final String ISSUER = "https://cognito-idp." + REGION + ".amazonaws.com/" + USER_POOL_ID;
+    public static final String KEY_ID = "bench-access-key";
+    public static final String UNKNOWN_KEY_ID = "bench-unknown-key";
+
+    private final KeyPair signingKeys;
+    private final KeyPair forgingKeys;
+    private final byte[] jwks;
+
+    public TokenFixtures()
+    {
+        try
+        {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            signingKeys = generator.generateKeyPair();
+            forgingKeys = generator.generateKeyPair();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // This cannot happen, RSA must be supported by JVM for it to be Java spec compliant
+            throw new RuntimeException(e);
+        }
+
+        jwks = buildJwks((RSAPublicKey) signingKeys.getPublic());
+    }
+
+    /**
+     * The JWKS JSON containing the public signing key, in the format served at .well-known/jwks.json
+     *
+     * @return the JWKS JSON bytes
+     */
+    public byte[] getJwks()
+    {
+        return jwks;
+    }
+
+    /**
+     * Builds a key store containing the public signing key
+     *
+     * @return a loaded key store
+     */
+    public CognitoJwkStore newJwkStore()
+    {
+        try
+        {
+            CognitoJwkStore jwkStore = new CognitoJwkStore();
+            jwkStore.load(new ByteArrayInputStream(jwks));
+            return jwkStore;
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Unable to load generated JWKS", e);
+        }
+    }
+
+    public String validToken()
+    {
+        return builder(KEY_ID, future()).signWith(SignatureAlgorithm.RS256, signingKeys.getPrivate()).compact();
+    }
+
+    public String expiredToken()
+    {
+        Date exp = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        return builder(KEY_ID, exp).signWith(SignatureAlgorithm.RS256, signingKeys.getPrivate()).compact();
+    }
+
+    public String forgedToken()
+    {
+        return builder(KEY_ID, future()).signWith(SignatureAlgorithm.RS256, forgingKeys.getPrivate()).compact();
+    }
+
+    public String unknownKidToken()
+    {
+        return builder(UNKNOWN_KEY_ID, future()).signWith(SignatureAlgorithm.RS256, signingKeys.getPrivate()).compact();
+    }
+
+    private JwtBuilder builder(String keyId, Date exp)
+    {
+        Date now = new Date();
+        return Jwts.builder()
+            .setHeaderParam("kid", keyId)
+            .setSubject(UUID.randomUUID().toString())
+            .setIssuer(ISSUER)
+            .setIssuedAt(now)
+            .setExpiration(exp)
+            .setId(UUID.randomUUID().toString())
+            .claim("token_use", "access")
+            .claim("scope", "aws.cognito.signin.user.admin")
+            .claim("auth_time", now.getTime() / 1000)
+            .claim("client_id", "benchclient1234567890")
+            .claim("username", "bench-user")
+            .claim("cognito:username", "bench-user")
+            .claim("cognito:groups", Arrays.asList("admins", "users"));
+    }
+
+    private Date future()
+    {
+        // Long enough that tokens never expire during a benchmark run
+        return new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+    }
+
+    private static byte[] buildJwks(RSAPublicKey key)
+    {
+        String json = "{\"keys\":[{"
+            + "\"alg\":\"RS256\","
+            + "\"e\":\"" + base64Url(key.getPublicExponent()) + "\","
+            + "\"kid\":\"" + KEY_ID + "\","
+            + "\"kty\":\"RSA\","
+            + "\"n\":\"" + base64Url(key.getModulus()) + "\","
+            + "\"use\":\"sig\""
+            + "}]}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String base64Url(BigInteger value)
+    {
+        // Drop the sign byte BigInteger adds to values with the high bit set
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0)
+        {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
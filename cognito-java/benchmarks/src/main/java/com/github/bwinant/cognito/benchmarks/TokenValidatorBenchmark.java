@@ -0,0 +1,82 @@
+package com.github.bwinant.cognito.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.bwinant.cognito.spring.CognitoTokenValidator;
+import com.github.bwinant.cognito.spring.CountingCognitoMetrics;
+import com.github.bwinant.cognito.spring.InvalidTokenException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CognitoTokenValidator#validate(String)} for accepted and rejected tokens,
+ * with metrics disabled and with the in-memory counting metrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenValidatorBenchmark
+{
+    @Param({ "valid", "expired", "forged", "unknownKid" })
+    public String tokenKind;
+
+    @Param({ "none", "counting" })
+    public String metrics;
+
+    private CognitoTokenValidator validator;
+    private String token;
+
+    @Setup
+    public void setup()
+    {
+        TokenFixtures fixtures = new TokenFixtures();
+        validator = new CognitoTokenValidator(fixtures.newJwkStore());
+        if ("counting".equals(metrics))
+        {
+            validator.setMetrics(new CountingCognitoMetrics());
+        }
+
+        switch (tokenKind)
+        {
+            case "valid":
+                token = fixtures.validToken();
+                break;
+            case "expired":
+                token = fixtures.expiredToken();
+                break;
+            case "forged":
+                token = fixtures.forgedToken();
+                break;
+            case "unknownKid":
+                token = fixtures.unknownKidToken();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown token kind " + tokenKind);
+        }
+    }
+
+    @Benchmark
+    public Object validate()
+    {
+        try
+        {
+            return validator.validate(token);
+        }
+        catch (InvalidTokenException e)
+        {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.bwinant.cognito.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.bwinant.cognito.spring.CognitoTokenValidator;
+import com.github.bwinant.cognito.spring.CognitoUserDetailsService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+
+/**
+ * Measures the full {@link CognitoUserDetailsService#loadUserDetails} path the pre-authentication provider runs per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserDetailsServiceBenchmark
+{
+    private CognitoUserDetailsService userDetailsService;
+    private PreAuthenticatedAuthenticationToken preAuthToken;
+
+    @Setup
+    public void setup()
+    {
+        TokenFixtures fixtures = new TokenFixtures();
+        userDetailsService = new CognitoUserDetailsService(new CognitoTokenValidator(fixtures.newJwkStore()));
+        preAuthToken = new PreAuthenticatedAuthenticationToken(fixtures.validToken(), "_cognito");
+    }
+
+    @Benchmark
+    public UserDetails loadUserDetails()
+    {
+        return userDetailsService.loadUserDetails(preAuthToken);
+    }
+}
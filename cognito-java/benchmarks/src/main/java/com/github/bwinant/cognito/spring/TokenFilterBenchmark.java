@@ -0,0 +1,54 @@
+package com.github.bwinant.cognito.spring;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.bwinant.cognito.benchmarks.TokenFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Measures Authorization header extraction in {@link CognitoTokenFilter}.
+ * Lives in the filter's package because getPreAuthenticatedPrincipal is protected. Request attributes are cleared
+ * before each call so every call sees a first dispatch, not one the filter has already authenticated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenFilterBenchmark
+{
+    private CognitoTokenFilter filter;
+    private MockHttpServletRequest request;
+
+    @Setup
+    public void setup()
+    {
+        filter = new CognitoTokenFilter();
+        request = new MockHttpServletRequest("GET", "/example/authtest");
+        request.addHeader("Authorization", "Bearer " + new TokenFixtures().validToken());
+    }
+
+    @Setup(Level.Invocation)
+    public void clearAttributes()
+    {
+        request.clearAttributes();
+    }
+
+    @Benchmark
+    public Object getPreAuthenticatedPrincipal()
+    {
+        return filter.getPreAuthenticatedPrincipal(request);
+    }
+}
@@ -1,6 +1,8 @@
 package com.github.bwinant.examples.cognito;
 
 import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
 
 import com.github.bwinant.cognito.spring.CognitoJwkStore;
 import com.github.bwinant.cognito.spring.CognitoTokenValidator;
@@ -18,12 +20,25 @@ public class Application
 {
     // Create a JwkStore bean, loading the signing keys however you need to
     @Bean
-    public JwkStore jwkStore(@Value("${aws.region}") String region,
-                             @Value("${aws.cognito.userpool.id}") String userPoolId)
+    public CognitoJwkStore jwkStore(@Value("${aws.region}") String region,
+                                    @Value("${aws.cognito.userpool.id}") String userPoolId,
+                                    @Value("${aws.cognito.jwks.url:}") String jwksUrl)
         throws IOException, JwkException
     {
         CognitoJwkStore jwkStore = new CognitoJwkStore();
-        jwkStore.load(region, userPoolId);
+
+        // aws.cognito.jwks.url points the app at a local key server, e.g. the testkit JwksServer
+        if (jwksUrl.isEmpty())
+        {
+            jwkStore.load(region, userPoolId);
+        }
+        else
+        {
+            jwkStore.load(new URL(jwksUrl));
+        }
+
+        // Pick up Cognito signing key rotation without a restart
+        jwkStore.startRefresh(1, TimeUnit.HOURS);
         return jwkStore;
     }
 
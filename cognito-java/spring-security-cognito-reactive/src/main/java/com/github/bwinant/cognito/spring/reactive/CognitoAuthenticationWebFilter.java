@@ -0,0 +1,24 @@
+package com.github.bwinant.cognito.spring.reactive;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.web.server.authentication.AuthenticationWebFilter;
+import org.springframework.security.web.server.authentication.HttpStatusServerEntryPoint;
+import org.springframework.security.web.server.authentication.ServerAuthenticationEntryPointFailureHandler;
+
+/**
+ * WebFilter that authenticates requests carrying a Cognito User Pool token. Requests without a token pass through
+ * unauthenticated, requests with an invalid token are answered with 401.
+ * <p>
+ * Add it to a SecurityWebFilterChain at SecurityWebFiltersOrder.AUTHENTICATION.
+ */
+public class CognitoAuthenticationWebFilter extends AuthenticationWebFilter
+{
+    public CognitoAuthenticationWebFilter(ReactiveAuthenticationManager authenticationManager)
+    {
+        super(authenticationManager);
+
+        setServerAuthenticationConverter(new CognitoServerAuthenticationConverter());
+        setAuthenticationFailureHandler(new ServerAuthenticationEntryPointFailureHandler(new HttpStatusServerEntryPoint(HttpStatus.UNAUTHORIZED)));
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.bwinant.cognito.spring.reactive;
+
+import com.github.bwinant.cognito.spring.CognitoAuthorityMapper;
+import com.github.bwinant.cognito.spring.CognitoTokenValidator;
+import com.github.bwinant.cognito.spring.CognitoUserDetails;
+import com.github.bwinant.cognito.spring.InvalidTokenException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Authenticates the Cognito User Pool id or access tokens produced by {@link CognitoServerAuthenticationConverter}.
+ * <p>
+ * Token validation verifies an RSA signature and may look up signing keys, so it is run on a bounded scheduler
+ * rather than on the event loop thread that received the request.
+ */
+public class CognitoReactiveAuthenticationManager implements ReactiveAuthenticationManager
+{
+    private final CognitoTokenValidator tokenValidator;
+    private final Scheduler scheduler;
+
+    private CognitoAuthorityMapper authorityMapper = CognitoAuthorityMapper.DEFAULT;
+
+    /**
+     * Constructs a new CognitoReactiveAuthenticationManager that validates tokens on Reactor's shared parallel scheduler,
+     * which has one thread per CPU and is never disposed by this manager
+     *
+     * @param tokenValidator the token validator
+     */
+    public CognitoReactiveAuthenticationManager(CognitoTokenValidator tokenValidator)
+    {
+        this(tokenValidator, Schedulers.parallel());
+    }
+
+    /**
+     * Constructs a new CognitoReactiveAuthenticationManager
+     *
+     * @param tokenValidator the token validator
+     * @param scheduler      bounded scheduler token validation runs on, owned and disposed by the caller
+     */
+    public CognitoReactiveAuthenticationManager(CognitoTokenValidator tokenValidator, Scheduler scheduler)
+    {
+        this.tokenValidator = tokenValidator;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Sets how token groups, scopes and claims are mapped to granted authorities. By default every user is granted ROLE_USER
+     *
+     * @param authorityMapper the mapper, or null to restore the default
+     */
+    public void setAuthorityMapper(CognitoAuthorityMapper authorityMapper)
+    {
+        this.authorityMapper = authorityMapper != null ? authorityMapper : CognitoAuthorityMapper.DEFAULT;
+    }
+
+    @Override
+    public Mono<Authentication> authenticate(Authentication authentication)
+    {
+        if (!(authentication instanceof PreAuthenticatedAuthenticationToken) || !(authentication.getPrincipal() instanceof String))
+        {
+            return Mono.empty();
+        }
+
+        String token = (String) authentication.getPrincipal();
+
+        return Mono.fromCallable(() -> validate(token))
+            .subscribeOn(scheduler)
+            .onErrorMap(InvalidTokenException.class, e -> new BadCredentialsException("Cannot authenticate request", e));
+    }
+
+    private Authentication validate(String token) throws InvalidTokenException
+    {
+        CognitoUserDetails userDetails = tokenValidator.validate(token);
+        userDetails.setAuthorities(authorityMapper.map(userDetails));
+
+        // The raw JWT is not kept as credentials, so it cannot leak through the security context
+        PreAuthenticatedAuthenticationToken result = new PreAuthenticatedAuthenticationToken(userDetails, "_cognito", userDetails.getAuthorities());
+        result.setDetails(userDetails);
+        return result;
+    }
+}
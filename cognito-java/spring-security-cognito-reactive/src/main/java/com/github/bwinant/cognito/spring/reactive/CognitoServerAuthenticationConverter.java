@@ -0,0 +1,29 @@
+package com.github.bwinant.cognito.spring.reactive;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
+import org.springframework.security.web.server.authentication.ServerAuthenticationConverter;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * Looks for Cognito User Pool id or access token in the HTTP Authorization header
+ */
+public class CognitoServerAuthenticationConverter implements ServerAuthenticationConverter
+{
+    @Override
+    public Mono<Authentication> convert(ServerWebExchange exchange)
+    {
+        String authHeader = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        if (authHeader == null || authHeader.isEmpty())
+        {
+            return Mono.empty();
+        }
+
+        String token = authHeader.startsWith("Bearer ") ? authHeader.substring(7) : authHeader;
+
+        // Same principal/credentials shape as the servlet CognitoTokenFilter
+        return Mono.just(new PreAuthenticatedAuthenticationToken(token, "_cognito"));
+    }
+}
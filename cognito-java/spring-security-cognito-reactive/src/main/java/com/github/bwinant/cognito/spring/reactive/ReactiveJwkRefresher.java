@@ -0,0 +1,124 @@
+package com.github.bwinant.cognito.spring.reactive;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.bwinant.cognito.spring.CognitoJwkStore;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Refreshes a {@link CognitoJwkStore} from the Cognito User Pool .well-known/jwks.json file with a non-blocking
+ * WebClient, so key refreshes never tie up a thread waiting on HTTP.
+ * Only parsing the downloaded key set runs on the given scheduler.
+ */
+public class ReactiveJwkRefresher implements Disposable
+{
+    private static final Logger log = Logger.getLogger(ReactiveJwkRefresher.class.getName());
+
+    private final CognitoJwkStore jwkStore;
+    private final WebClient webClient;
+    private final String jwksUrl;
+    private final Scheduler scheduler;
+
+    private volatile Disposable refreshing;
+
+    /**
+     * Constructs a new ReactiveJwkRefresher for a Cognito User Pool
+     *
+     * @param jwkStore   the key store to refresh
+     * @param region     the AWS region of the user pool
+     * @param userPoolId the Cognito User Pool id
+     */
+    public ReactiveJwkRefresher(CognitoJwkStore jwkStore, String region, String userPoolId)
+    {
+        this(jwkStore, WebClient.create(), "https://cognito-idp." + region + ".amazonaws.com/" + userPoolId + "/.well-known/jwks.json",
+             Schedulers.parallel());
+    }
+
+    /**
+     * Constructs a new ReactiveJwkRefresher
+     *
+     * @param jwkStore  the key store to refresh
+     * @param webClient the client used to download the key set
+     * @param jwksUrl   the JWKS URL
+     * @param scheduler scheduler the downloaded key set is parsed on
+     */
+    public ReactiveJwkRefresher(CognitoJwkStore jwkStore, WebClient webClient, String jwksUrl, Scheduler scheduler)
+    {
+        this.jwkStore = jwkStore;
+        this.webClient = webClient;
+        this.jwksUrl = jwksUrl;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Downloads the key set and replaces the keys in the store
+     *
+     * @return completes once the store has been refreshed
+     */
+    public Mono<Void> refresh()
+    {
+        return webClient.get()
+            .uri(jwksUrl)
+            .retrieve()
+            .bodyToMono(byte[].class)
+            .publishOn(scheduler)
+            .flatMap(body -> Mono.fromCallable(() -> {
+                jwkStore.refresh(new ByteArrayInputStream(body));
+                return body.length;
+            }))
+            .then();
+    }
+
+    /**
+     * Starts refreshing keys in the background. Failed refreshes are logged and the current key set is kept.
+     *
+     * @param interval the refresh interval
+     *
+     * @return this refresher, dispose it to stop refreshing
+     */
+    public ReactiveJwkRefresher start(Duration interval)
+    {
+        Disposable previous = refreshing;
+        refreshing = Flux.interval(interval, interval, scheduler)
+            .onBackpressureDrop()
+            .concatMap(tick -> refresh().onErrorResume(e -> {
+                log.log(Level.WARNING, "Unable to refresh JSON Web Keys from " + jwksUrl, e);
+                return Mono.empty();
+            }))
+            .subscribe();
+
+        if (previous != null)
+        {
+            previous.dispose();
+        }
+        return this;
+    }
+
+    /**
+     * Stops any background refresh
+     */
+    @Override
+    public void dispose()
+    {
+        Disposable current = refreshing;
+        if (current != null)
+        {
+            current.dispose();
+        }
+    }
+
+    @Override
+    public boolean isDisposed()
+    {
+        Disposable current = refreshing;
+        return current == null || current.isDisposed();
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.bwinant.cognito.spring;
+
+import java.util.Arrays;
+
+/**
+ * Unpadded base64url decoder that works directly on a range of a String, so token segments can be decoded without
+ * first being copied out with substring.
+ */
+final class Base64Url
+{
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static
+    {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++)
+        {
+            DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private Base64Url()
+    {
+    }
+
+    /**
+     * The number of bytes a base64url range of the given length decodes to
+     *
+     * @param length the number of encoded characters
+     *
+     * @return the decoded length, or -1 if no valid unpadded base64url value has that length
+     */
+    static int decodedLength(int length)
+    {
+        if (length % 4 == 1)
+        {
+            return -1;
+        }
+        return (int) ((long) length * 6 / 8);
+    }
+
+    /**
+     * Decodes src[from, to) into a new array
+     *
+     * @param src  the encoded string
+     * @param from start index, inclusive
+     * @param to   end index, exclusive
+     *
+     * @return the decoded bytes
+     *
+     * @throws IllegalArgumentException if the range is not valid unpadded base64url
+     */
+    static byte[] decode(String src, int from, int to)
+    {
+        int length = decodedLength(to - from);
+        if (length < 0)
+        {
+            throw new IllegalArgumentException("Invalid base64url length");
+        }
+
+        byte[] dst = new byte[length];
+        decode(src, from, to, dst, 0);
+        return dst;
+    }
+
+    /**
+     * Decodes src[from, to) into dst starting at offset
+     *
+     * @param src    the encoded string
+     * @param from   start index, inclusive
+     * @param to     end index, exclusive
+     * @param dst    destination buffer, must have room for {@link #decodedLength(int)} bytes
+     * @param offset offset into the destination buffer
+     *
+     * @return the number of bytes written
+     *
+     * @throws IllegalArgumentException if the range is not valid unpadded base64url
+     */
+    static int decode(String src, int from, int to, byte[] dst, int offset)
+    {
+        int pos = offset;
+        int bits = 0;
+        int bitCount = 0;
+
+        for (int i = from; i < to; i++)
+        {
+            char ch = src.charAt(i);
+            int value = ch < 128 ? DECODE_TABLE[ch] : -1;
+            if (value < 0)
+            {
+                throw new IllegalArgumentException("Invalid base64url character");
+            }
+
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8)
+            {
+                bitCount -= 8;
+                dst[pos++] = (byte) (bits >> bitCount);
+            }
+        }
+
+        if (bitCount >= 6)
+        {
+            throw new IllegalArgumentException("Invalid base64url length");
+        }
+
+        // Leftover bits must be zero, otherwise several encodings decode to the same bytes
+        if ((bits & ((1 << bitCount) - 1)) != 0)
+        {
+            throw new IllegalArgumentException("Invalid base64url trailing bits");
+        }
+
+        return pos - offset;
+    }
+}
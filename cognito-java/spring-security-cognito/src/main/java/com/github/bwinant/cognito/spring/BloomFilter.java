@@ -0,0 +1,104 @@
+package com.github.bwinant.cognito.spring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size Bloom filter over strings. Bits are set with compare and swap, so entries can be added while other
+ * threads are reading without any locking. A positive answer may be wrong, a negative answer never is.
+ */
+final class BloomFilter
+{
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final int capacity;
+
+    /**
+     * @param capacity          the number of entries the filter is sized for
+     * @param falsePositiveRate the false positive rate wanted at capacity
+     */
+    BloomFilter(int capacity, double falsePositiveRate)
+    {
+        long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max((m + 63) >>> 6, 1);
+
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words << 6;
+        this.hashCount = Math.max((int) Math.round((double) bitCount / capacity * Math.log(2)), 1);
+        this.capacity = capacity;
+    }
+
+    int capacity()
+    {
+        return capacity;
+    }
+
+    void add(String prefix, String value)
+    {
+        long hash = hash(prefix, value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++)
+        {
+            long bit = index(h1 + i * h2);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+
+            long current;
+            do
+            {
+                current = bits.get(word);
+            }
+            while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /**
+     * Checks for prefix + value without building the concatenated string
+     */
+    boolean mightContain(String prefix, String value)
+    {
+        long hash = hash(prefix, value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++)
+        {
+            long bit = index(h1 + i * h2);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long index(int combined)
+    {
+        return (combined & 0xffffffffL) % bitCount;
+    }
+
+    /**
+     * 64 bit FNV-1a over the chars of prefix + value, finished with a murmur3 style mix so both halves are well spread
+     */
+    private static long hash(String prefix, String value)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < prefix.length(); i++)
+        {
+            h ^= prefix.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        for (int i = 0; i < value.length(); i++)
+        {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,400 @@
+package com.github.bwinant.cognito.spring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Maps the cognito:groups, scope and custom claims of a verified token to Spring Security authorities.
+ * <p>
+ * Rules are compiled into lookup tables when the mapper is built. The authority set for each distinct combination of
+ * the groups, scopes and claim values the rules read is computed once, then cached and shared by every user with that
+ * combination, so mapping a returning combination costs one lock-free hash lookup. Groups are keyed in sorted order,
+ * so their order in the token does not matter. When the cache reaches its size cap it is cleared and refills with the
+ * combinations still in use. Shared sets are unmodifiable; {@link CognitoUserDetails#addAuthority} copies before
+ * adding. A single instance is safe to share between request threads.
+ * <pre>
+ * CognitoAuthorityMapper mapper = CognitoAuthorityMapper.builder()
+ *     .defaultAuthorities("ROLE_USER")
+ *     .groupPrefix("GROUP_")
+ *     .mapGroup("admins", "ROLE_ADMIN")
+ *     .mapScope("orders/write", "ORDERS_WRITE")
+ *     .mapClaim("custom:tier", "gold", "TIER_GOLD")
+ *     .build();
+ * </pre>
+ */
+public class CognitoAuthorityMapper
+{
+    public static final int DEFAULT_MAX_CACHE_SIZE = 1024;
+
+    /**
+     * Grants every user ROLE_USER, as {@link CognitoUserDetailsService} always has
+     */
+    public static final CognitoAuthorityMapper DEFAULT = builder().defaultAuthorities("ROLE_USER").build();
+
+    private final Map<String, GrantedAuthority> interned;
+    private final Set<GrantedAuthority> defaults;
+    private final String groupPrefix;
+    private final Map<String, GrantedAuthority[]> groupRules;
+    private final String scopePrefix;
+    private final Map<String, GrantedAuthority[]> scopeRules;
+    private final String[] claimNames;
+    private final List<Map<String, GrantedAuthority[]>> claimRules;
+    private final Map<Key, Set<GrantedAuthority>> cache;
+    private final int maxCacheSize;
+
+    private CognitoAuthorityMapper(Builder builder)
+    {
+        this.interned = new ConcurrentHashMap<>();
+        this.defaults = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(intern(builder.defaults))));
+        this.groupPrefix = builder.groupPrefix;
+        this.groupRules = compile(builder.groupRules);
+        this.scopePrefix = builder.scopePrefix;
+        this.scopeRules = compile(builder.scopeRules);
+        this.claimNames = builder.claimRules.keySet().toArray(new String[0]);
+        this.claimRules = new ArrayList<>(claimNames.length);
+        for (String claim : claimNames)
+        {
+            claimRules.add(compile(builder.claimRules.get(claim)));
+        }
+        this.maxCacheSize = builder.maxCacheSize;
+        this.cache = new ConcurrentHashMap<>();
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Returns the authorities for a user
+     *
+     * @param userDetails the verified user
+     *
+     * @return an unmodifiable set, shared between users with the same groups, scopes and mapped claims
+     */
+    public Set<GrantedAuthority> map(CognitoUserDetails userDetails)
+    {
+        List<String> groups = sorted(groupPrefix != null ? userDetails.getGroups() : mapped(userDetails.getGroups()));
+        String scope = scopePrefix != null || !scopeRules.isEmpty() ? userDetails.getScope() : null;
+
+        Object[] claims = null;
+        if (claimNames.length > 0)
+        {
+            claims = new Object[claimNames.length];
+            for (int i = 0; i < claimNames.length; i++)
+            {
+                // Values no rule matches grant nothing, so they all share the null key
+                Object value = userDetails.getAttribute(claimNames[i], Object.class);
+                claims[i] = value != null && claimRules.get(i).containsKey(value.toString()) ? value.toString() : null;
+            }
+        }
+
+        if (maxCacheSize == 0)
+        {
+            return compute(groups, scope, claims);
+        }
+
+        Key key = new Key(groups, scope, claims);
+        Set<GrantedAuthority> authorities = cache.get(key);
+        if (authorities == null)
+        {
+            authorities = compute(groups, scope, claims);
+
+            // Only reached by a combination not seen since the last clear, so the hot path never pays for eviction
+            if (cache.size() >= maxCacheSize)
+            {
+                cache.clear();
+            }
+            Set<GrantedAuthority> existing = cache.putIfAbsent(key, authorities);
+            if (existing != null)
+            {
+                authorities = existing;
+            }
+        }
+        return authorities;
+    }
+
+    /**
+     * @return the number of distinct authority sets cached
+     */
+    public int getCacheSize()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Returns the groups in sorted order, copying them only if they are not sorted already
+     */
+    private static List<String> sorted(List<String> groups)
+    {
+        for (int i = 1; i < groups.size(); i++)
+        {
+            if (groups.get(i - 1).compareTo(groups.get(i)) > 0)
+            {
+                List<String> sorted = new ArrayList<>(groups);
+                Collections.sort(sorted);
+                return sorted;
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Drops the groups no rule maps, as without a group prefix they do not change the authorities
+     */
+    private List<String> mapped(List<String> groups)
+    {
+        int i = 0;
+        while (i < groups.size() && groupRules.containsKey(groups.get(i)))
+        {
+            i++;
+        }
+        if (i == groups.size())
+        {
+            return groups;
+        }
+
+        List<String> mapped = new ArrayList<>(groups.size() - 1);
+        mapped.addAll(groups.subList(0, i));
+        for (i++; i < groups.size(); i++)
+        {
+            if (groupRules.containsKey(groups.get(i)))
+            {
+                mapped.add(groups.get(i));
+            }
+        }
+        return mapped;
+    }
+
+    private Set<GrantedAuthority> compute(List<String> groups, String scope, Object[] claims)
+    {
+        Set<GrantedAuthority> authorities = new LinkedHashSet<>(defaults);
+
+        for (String group : groups)
+        {
+            add(authorities, groupRules.get(group));
+            if (groupPrefix != null)
+            {
+                authorities.add(intern(groupPrefix + group));
+            }
+        }
+
+        if (scope != null)
+        {
+            for (String s : scope.split(" "))
+            {
+                if (s.isEmpty())
+                {
+                    continue;
+                }
+                add(authorities, scopeRules.get(s));
+                if (scopePrefix != null)
+                {
+                    authorities.add(intern(scopePrefix + s));
+                }
+            }
+        }
+
+        if (claims != null)
+        {
+            for (int i = 0; i < claims.length; i++)
+            {
+                if (claims[i] != null)
+                {
+                    add(authorities, claimRules.get(i).get(claims[i].toString()));
+                }
+            }
+        }
+
+        return authorities.equals(defaults) ? defaults : Collections.unmodifiableSet(authorities);
+    }
+
+    private Map<String, GrantedAuthority[]> compile(Map<String, Set<String>> rules)
+    {
+        Map<String, GrantedAuthority[]> compiled = new HashMap<>(rules.size() * 2);
+        for (Map.Entry<String, Set<String>> rule : rules.entrySet())
+        {
+            compiled.put(rule.getKey(), intern(rule.getValue()));
+        }
+        return compiled;
+    }
+
+    private GrantedAuthority[] intern(Set<String> names)
+    {
+        GrantedAuthority[] authorities = new GrantedAuthority[names.size()];
+        int i = 0;
+        for (String name : names)
+        {
+            authorities[i++] = intern(name);
+        }
+        return authorities;
+    }
+
+    private GrantedAuthority intern(String name)
+    {
+        return interned.computeIfAbsent(name, SimpleGrantedAuthority::new);
+    }
+
+    private static void add(Set<GrantedAuthority> authorities, GrantedAuthority[] mapped)
+    {
+        if (mapped != null)
+        {
+            Collections.addAll(authorities, mapped);
+        }
+    }
+
+    /**
+     * Collects mapping rules for a {@link CognitoAuthorityMapper}
+     */
+    public static class Builder
+    {
+        private final Set<String> defaults;
+        private final Map<String, Set<String>> groupRules;
+        private final Map<String, Set<String>> scopeRules;
+        private final Map<String, Map<String, Set<String>>> claimRules;
+        private String groupPrefix;
+        private String scopePrefix;
+        private int maxCacheSize;
+
+        private Builder()
+        {
+            this.defaults = new LinkedHashSet<>();
+            this.groupRules = new HashMap<>();
+            this.scopeRules = new HashMap<>();
+            this.claimRules = new HashMap<>();
+            this.maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+        }
+
+        /**
+         * Authorities granted to every user
+         */
+        public Builder defaultAuthorities(String... authorities)
+        {
+            defaults.addAll(Arrays.asList(authorities));
+            return this;
+        }
+
+        /**
+         * Grants every group as an authority named prefix + group name, e.g. GROUP_admins
+         */
+        public Builder groupPrefix(String prefix)
+        {
+            this.groupPrefix = prefix;
+            return this;
+        }
+
+        /**
+         * Grants authorities to members of a group
+         */
+        public Builder mapGroup(String group, String... authorities)
+        {
+            add(groupRules, group, authorities);
+            return this;
+        }
+
+        /**
+         * Grants every access token scope as an authority named prefix + scope, e.g. SCOPE_orders/read
+         */
+        public Builder scopePrefix(String prefix)
+        {
+            this.scopePrefix = prefix;
+            return this;
+        }
+
+        /**
+         * Grants authorities to access tokens with a scope
+         */
+        public Builder mapScope(String scope, String... authorities)
+        {
+            add(scopeRules, scope, authorities);
+            return this;
+        }
+
+        /**
+         * Grants authorities to users whose claim has a value. Claims other than the standard Cognito ones are only
+         * available by decoding the whole token payload, so each mapped custom claim adds that cost to every request
+         */
+        public Builder mapClaim(String claim, String value, String... authorities)
+        {
+            add(claimRules.computeIfAbsent(claim, c -> new HashMap<>()), value, authorities);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of distinct authority sets cached; the cache is cleared when a new set would exceed it.
+         * 0 disables the cache. Defaults to {@link #DEFAULT_MAX_CACHE_SIZE}
+         */
+        public Builder maxCacheSize(int maxCacheSize)
+        {
+            if (maxCacheSize < 0)
+            {
+                throw new IllegalArgumentException("maxCacheSize must not be negative");
+            }
+            this.maxCacheSize = maxCacheSize;
+            return this;
+        }
+
+        public CognitoAuthorityMapper build()
+        {
+            return new CognitoAuthorityMapper(this);
+        }
+
+        private static void add(Map<String, Set<String>> rules, String key, String[] authorities)
+        {
+            Objects.requireNonNull(key);
+            rules.computeIfAbsent(key, k -> new LinkedHashSet<>()).addAll(Arrays.asList(authorities));
+        }
+    }
+
+    /**
+     * A combination of mapped groups in sorted order, scope and matched claim values
+     */
+    private static final class Key
+    {
+        private final List<String> groups;
+        private final String scope;
+        private final Object[] claims;
+        private final int hash;
+
+        Key(List<String> groups, String scope, Object[] claims)
+        {
+            this.groups = groups;
+            this.scope = scope;
+            this.claims = claims;
+            this.hash = 31 * (31 * groups.hashCode() + Objects.hashCode(scope)) + Arrays.hashCode(claims);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return hash == key.hash && groups.equals(key.groups) && Objects.equals(scope, key.scope) && Arrays.equals(claims, key.claims);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
@@ -1,16 +1,25 @@
 package com.github.bwinant.cognito.spring;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
+import java.security.spec.KeySpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.Arrays;
 import java.util.Base64;
@@ -19,7 +28,15 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.bwinant.jwk.Jwk;
 import com.github.bwinant.jwk.JwkException;
@@ -27,14 +44,38 @@ import com.github.bwinant.jwk.JwkStore;
 
 /**
  * JSON Web Key store that loads the Cognito User Pool .well-known/jwks.json file directly from AWS or from a local file.
+ * <p>
+ * Keys are held in an immutable snapshot that is swapped atomically on every load, so {@link #getKey(String)} never
+ * blocks. Once keys have been loaded from a URL, the store can refresh them from that URL in the background, and a
+ * lookup for an unknown key id triggers a single, rate limited refetch so that Cognito key rotation does not require
+ * a restart.
+ * <p>
+ * With a snapshot file configured, every key set fetched from the URL is also saved locally, so later startups can
+ * begin serving with the saved keys straight away and revalidate them against the URL in the background.
  */
-public class CognitoJwkStore implements JwkStore
+public class CognitoJwkStore implements JwkStore, Closeable
 {
+    private static final Logger log = Logger.getLogger(CognitoJwkStore.class.getName());
+
     private static final String KEY_ALGORITHM = "RSA";
 
+    public static final long DEFAULT_MIN_REFETCH_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_FETCH_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
     private final KeyFactory keyFactory;
     private final ObjectMapper objectMapper;
-    private final Map<String, PublicKey> keys;
+    private final Object lock;
+    private final AtomicBoolean refetching;
+    private final AtomicLong lastRefetch;
+
+    private volatile Map<String, PublicKey> keys;
+    private volatile URL jwksUrl;
+    private volatile long minRefetchInterval;
+    private volatile int fetchTimeout;
+    private volatile CognitoMetrics metrics;
+    private volatile File snapshotFile;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean closed;
 
     public CognitoJwkStore()
     {
@@ -49,34 +90,140 @@ public class CognitoJwkStore implements JwkStore
         }
 
         objectMapper = new ObjectMapper();
-        keys = new HashMap<>();
+        lock = new Object();
+        refetching = new AtomicBoolean();
+        lastRefetch = new AtomicLong(Long.MIN_VALUE / 2);
+        keys = Collections.emptyMap();
+        minRefetchInterval = DEFAULT_MIN_REFETCH_INTERVAL;
+        fetchTimeout = (int) DEFAULT_FETCH_TIMEOUT;
+        metrics = CognitoMetrics.NOOP;
     }
 
     @Override
     public Set<String> getKeyIds()
     {
-        return Collections.unmodifiableSet(keys.keySet());
+        return keys.keySet();
     }
 
     @Override
     public PublicKey getKey(String keyId)
+    {
+        PublicKey key = keys.get(keyId);
+        if (key == null && keyId != null)
+        {
+            refetchUnknownKey();
+        }
+        return key;
+    }
+
+    /**
+     * Looks up a key without triggering a refetch if the key id is unknown
+     */
+    PublicKey findKey(String keyId)
     {
         return keys.get(keyId);
     }
 
+    /**
+     * Sets the minimum time between refetches triggered by lookups of unknown key ids.
+     * Defaults to {@link #DEFAULT_MIN_REFETCH_INTERVAL}
+     *
+     * @param interval the minimum interval
+     * @param unit     the interval time unit
+     */
+    public void setMinRefetchInterval(long interval, TimeUnit unit)
+    {
+        this.minRefetchInterval = unit.toMillis(interval);
+    }
+
+    /**
+     * Sets the connect and read timeout for fetching keys from a URL. Defaults to {@link #DEFAULT_FETCH_TIMEOUT}
+     *
+     * @param timeout the timeout
+     * @param unit    the timeout time unit
+     */
+    public void setFetchTimeout(long timeout, TimeUnit unit)
+    {
+        this.fetchTimeout = (int) Math.min(unit.toMillis(timeout), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Sets the metrics hook key loads and refreshes are recorded to. By default nothing is recorded
+     *
+     * @param metrics the metrics hook, or null to disable metrics
+     */
+    public void setMetrics(CognitoMetrics metrics)
+    {
+        this.metrics = metrics != null ? metrics : CognitoMetrics.NOOP;
+    }
+
+    /**
+     * Sets a local file that every key set fetched from a URL is saved to. Saving replaces the file atomically,
+     * and a failure to save is logged without failing the fetch.
+     *
+     * @param snapshotFile the snapshot file, or null to stop saving snapshots
+     */
+    public void setSnapshotFile(File snapshotFile)
+    {
+        this.snapshotFile = snapshotFile;
+    }
+
     public void load(String region, String userPoolId) throws IOException, JwkException
     {
-        String url = "https://cognito-idp." + region + ".amazonaws.com/" + userPoolId + "/.well-known/jwks.json";
-        load(new URL(url));
+        load(jwksUrl(region, userPoolId));
     }
 
-    public void load(URL url) throws IOException, JwkException
+    /**
+     * Loads keys for a user pool without waiting on the network when a snapshot is available.
+     * <p>
+     * If the snapshot can be read, its keys are used immediately and the current key set is fetched in the
+     * background. Otherwise keys are fetched before returning, as {@link #load(String, String)} does. Either way
+     * the snapshot file is kept up to date with every key set later fetched from the user pool.
+     * The snapshot may be a JWKS file or the PEM key map written by download-jwks.js.
+     *
+     * @param region     the AWS region of the user pool
+     * @param userPoolId the Cognito User Pool id
+     * @param snapshot   the snapshot file, which does not need to exist yet
+     *
+     * @throws IOException  if there is no usable snapshot and the URL cannot be read
+     * @throws JwkException if there is no usable snapshot and the URL contains an invalid key
+     */
+    public void load(String region, String userPoolId, File snapshot) throws IOException, JwkException
     {
-        URLConnection conn = url.openConnection();
-        try (InputStream in = conn.getInputStream())
+        URL url = jwksUrl(region, userPoolId);
+        snapshotFile = snapshot;
+
+        if (snapshot.isFile())
         {
-            load(in);
+            try
+            {
+                load(snapshot);
+                jwksUrl = url;
+                openScheduler().execute(this::refreshQuietly);
+                return;
+            }
+            catch (IOException | JwkException e)
+            {
+                log.log(Level.WARNING, "Ignoring unreadable JSON Web Key snapshot " + snapshot, e);
+            }
         }
+
+        load(url);
+    }
+
+    /**
+     * Loads keys from a URL. The URL is remembered as the source for {@link #refresh()}.
+     *
+     * @param url the JWKS URL
+     *
+     * @throws IOException  if the URL cannot be read
+     * @throws JwkException if the URL contains an invalid key
+     */
+    public void load(URL url) throws IOException, JwkException
+    {
+        long start = System.nanoTime();
+        merge(fetch(url), start);
+        jwksUrl = url;
     }
 
     public void load(File file) throws IOException, JwkException
@@ -95,14 +242,300 @@ public class CognitoJwkStore implements JwkStore
         }
     }
 
+    /**
+     * Adds keys to the key set, replacing any keys with the same key ids
+     *
+     * @param in the JWKS JSON
+     *
+     * @throws IOException  if the stream cannot be read
+     * @throws JwkException if the stream contains an invalid key
+     */
     public void load(InputStream in) throws IOException, JwkException
     {
-        CognitoKeys cognitoKeys = objectMapper.readValue(in, CognitoKeys.class);
-        for (Jwk jwk : cognitoKeys)
+        long start = System.nanoTime();
+        merge(readKeys(in), start);
+    }
+
+    /**
+     * Replaces the whole key set with the keys in the stream
+     *
+     * @param in the JWKS JSON
+     *
+     * @throws IOException  if the stream cannot be read
+     * @throws JwkException if the stream contains an invalid key
+     */
+    public void refresh(InputStream in) throws IOException, JwkException
+    {
+        long start = System.nanoTime();
+        replace(readKeys(in), start);
+    }
+
+    /**
+     * Replaces the whole key set with the keys currently published at the URL last passed to {@link #load(URL)}
+     *
+     * @throws IOException  if the URL cannot be read
+     * @throws JwkException if the URL contains an invalid key
+     * @throws IllegalStateException if keys were never loaded from a URL
+     */
+    public void refresh() throws IOException, JwkException
+    {
+        URL url = jwksUrl;
+        if (url == null)
         {
-            PublicKey publicKey = getPublicKey(jwk);
-            keys.put(jwk.getKid(), publicKey);
+            throw new IllegalStateException("Keys were not loaded from a URL");
         }
+
+        long start = System.nanoTime();
+        replace(fetch(url), start);
+    }
+
+    /**
+     * Starts refreshing keys in the background from the URL last passed to {@link #load(URL)}.
+     * Failed refreshes are logged and the current key set is kept.
+     *
+     * @param interval the refresh interval
+     * @param unit     the interval time unit
+     */
+    public void startRefresh(long interval, TimeUnit unit)
+    {
+        if (jwksUrl == null)
+        {
+            throw new IllegalStateException("Keys were not loaded from a URL");
+        }
+
+        openScheduler().scheduleWithFixedDelay(this::refreshQuietly, interval, interval, unit);
+    }
+
+    /**
+     * Stops any background refresh. Once closed, lookups of unknown key ids no longer trigger refetches
+     */
+    @Override
+    public void close()
+    {
+        synchronized (lock)
+        {
+            closed = true;
+            if (scheduler != null)
+            {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+    }
+
+    private void refetchUnknownKey()
+    {
+        if (jwksUrl == null || closed)
+        {
+            return;
+        }
+
+        // Rate limit refetches, then collapse concurrent misses into the one fetch that won the race
+        long now = System.currentTimeMillis();
+        long last = lastRefetch.get();
+        if (now - last < minRefetchInterval || !lastRefetch.compareAndSet(last, now))
+        {
+            return;
+        }
+
+        if (refetching.compareAndSet(false, true))
+        {
+            try
+            {
+                ScheduledExecutorService executor = scheduler();
+                if (executor == null)
+                {
+                    // Closed since the check above
+                    refetching.set(false);
+                    return;
+                }
+
+                executor.execute(() -> {
+                    try
+                    {
+                        refreshQuietly();
+                    }
+                    finally
+                    {
+                        refetching.set(false);
+                    }
+                });
+            }
+            catch (RuntimeException e)
+            {
+                refetching.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void refreshQuietly()
+    {
+        try
+        {
+            refresh();
+        }
+        catch (IOException | JwkException | RuntimeException e)
+        {
+            metrics.keyRefreshFailed();
+            log.log(Level.WARNING, "Unable to refresh JSON Web Keys from " + jwksUrl, e);
+        }
+    }
+
+    private ScheduledExecutorService openScheduler()
+    {
+        ScheduledExecutorService executor = scheduler();
+        if (executor == null)
+        {
+            throw new IllegalStateException("Key store is closed");
+        }
+        return executor;
+    }
+
+    /**
+     * @return the background scheduler, created on first use, or null once the store is closed
+     */
+    private ScheduledExecutorService scheduler()
+    {
+        synchronized (lock)
+        {
+            if (closed)
+            {
+                return null;
+            }
+            if (scheduler == null)
+            {
+                scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "cognito-jwk-refresh");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            return scheduler;
+        }
+    }
+
+    private static URL jwksUrl(String region, String userPoolId) throws MalformedURLException
+    {
+        return new URL("https://cognito-idp." + region + ".amazonaws.com/" + userPoolId + "/.well-known/jwks.json");
+    }
+
+    private Map<String, PublicKey> fetch(URL url) throws IOException, JwkException
+    {
+        ByteArrayOutputStream jwks = new ByteArrayOutputStream();
+        URLConnection conn = url.openConnection();
+        conn.setConnectTimeout(fetchTimeout);
+        conn.setReadTimeout(fetchTimeout);
+        try (InputStream in = conn.getInputStream())
+        {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                jwks.write(buffer, 0, read);
+            }
+        }
+
+        // Only a key set that parsed cleanly is worth keeping
+        Map<String, PublicKey> loaded = readKeys(new ByteArrayInputStream(jwks.toByteArray()));
+        saveSnapshot(jwks.toByteArray());
+        return loaded;
+    }
+
+    private void saveSnapshot(byte[] jwks)
+    {
+        File file = snapshotFile;
+        if (file == null)
+        {
+            return;
+        }
+
+        // Write next to the snapshot and rename over it so a crash never leaves a truncated snapshot behind
+        Path target = file.toPath().toAbsolutePath();
+        Path tmp = null;
+        try
+        {
+            tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            Files.write(tmp, jwks);
+            try
+            {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e)
+            {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e)
+        {
+            log.log(Level.WARNING, "Unable to save JSON Web Key snapshot " + file, e);
+            if (tmp != null)
+            {
+                try
+                {
+                    Files.deleteIfExists(tmp);
+                }
+                catch (IOException ignored)
+                {
+                    // Nothing more can be done
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads either a JWKS document or a map of key id to PEM encoded key, as written by download-jwks.js
+     */
+    private Map<String, PublicKey> readKeys(InputStream in) throws IOException, JwkException
+    {
+        JsonNode root = objectMapper.readTree(in);
+        if (root == null || !root.isObject())
+        {
+            throw new JwkException("Expected a JSON Web Key Set or a PEM key map");
+        }
+
+        Map<String, PublicKey> loaded = new HashMap<>();
+        if (root.has("keys"))
+        {
+            CognitoKeys cognitoKeys = objectMapper.treeToValue(root, CognitoKeys.class);
+            for (Jwk jwk : cognitoKeys)
+            {
+                PublicKey publicKey = getPublicKey(jwk);
+                loaded.put(jwk.getKid(), publicKey);
+            }
+        }
+        else
+        {
+            Iterator<Map.Entry<String, JsonNode>> fields = root.fields();
+            while (fields.hasNext())
+            {
+                Map.Entry<String, JsonNode> field = fields.next();
+                loaded.put(field.getKey(), getPublicKey(field.getKey(), field.getValue().asText()));
+            }
+        }
+        return loaded;
+    }
+
+    private void merge(Map<String, PublicKey> loaded, long start)
+    {
+        int keyCount;
+        synchronized (lock)
+        {
+            Map<String, PublicKey> merged = new HashMap<>(keys);
+            merged.putAll(loaded);
+            keys = Collections.unmodifiableMap(merged);
+            keyCount = merged.size();
+        }
+        metrics.keysLoaded(keyCount, System.nanoTime() - start);
+    }
+
+    private void replace(Map<String, PublicKey> loaded, long start)
+    {
+        synchronized (lock)
+        {
+            keys = Collections.unmodifiableMap(loaded);
+        }
+        metrics.keysRefreshed(loaded.size(), System.nanoTime() - start);
     }
 
     private PublicKey getPublicKey(Jwk jwk) throws JwkException
@@ -116,7 +549,12 @@ public class CognitoJwkStore implements JwkStore
         {
             BigInteger mod = new BigInteger(1, base64Decode(jwk.getN()));
             BigInteger exp = new BigInteger(1, base64Decode(jwk.getE()));
-            return keyFactory.generatePublic(new RSAPublicKeySpec(mod, exp));
+
+            // KeyFactory is not thread safe and keys may be loaded by a background refresh
+            synchronized (keyFactory)
+            {
+                return keyFactory.generatePublic(new RSAPublicKeySpec(mod, exp));
+            }
         }
         catch (InvalidKeySpecException e)
         {
@@ -124,6 +562,22 @@ public class CognitoJwkStore implements JwkStore
         }
     }
 
+    private PublicKey getPublicKey(String kid, String pem) throws JwkException
+    {
+        try
+        {
+            KeySpec keySpec = PemKeys.keySpec(pem);
+            synchronized (keyFactory)
+            {
+                return keyFactory.generatePublic(keySpec);
+            }
+        }
+        catch (InvalidKeySpecException e)
+        {
+            throw new JwkException("Unable to build public key for PEM key " + kid, e);
+        }
+    }
+
     private byte[] base64Decode(String val)
     {
         return Base64.getUrlDecoder().decode(val);
@@ -0,0 +1,116 @@
+package com.github.bwinant.cognito.spring;
+
+/**
+ * Hook for recording what token authentication costs. Implementations bridge to whatever metrics library is in use;
+ * {@link CountingCognitoMetrics} records into plain in-memory counters without depending on any library.
+ * <p>
+ * Every method has an empty default so implementations only override what they care about. Methods are called on
+ * request threads and must not block.
+ */
+public interface CognitoMetrics
+{
+    /**
+     * Records nothing. Components using it skip all timing work.
+     */
+    CognitoMetrics NOOP = new CognitoMetrics()
+    {
+        @Override
+        public boolean isEnabled()
+        {
+            return false;
+        }
+    };
+
+    /**
+     * Whether anything is recorded. When false callers skip reading the clock altogether.
+     *
+     * @return true if this instance records metrics
+     */
+    default boolean isEnabled()
+    {
+        return true;
+    }
+
+    /**
+     * A token passed validation
+     *
+     * @param nanos time spent validating
+     */
+    default void tokenAccepted(long nanos)
+    {
+    }
+
+    /**
+     * A token failed validation
+     *
+     * @param reason why the token was rejected
+     * @param nanos  time spent validating
+     */
+    default void tokenRejected(InvalidTokenException.Reason reason, long nanos)
+    {
+    }
+
+    /**
+     * A token was found in the verified token cache
+     */
+    default void cacheHit()
+    {
+    }
+
+    /**
+     * A token was not found in the verified token cache
+     */
+    default void cacheMiss()
+    {
+    }
+
+    /**
+     * A token was rejected because it was found in the rejected token cache
+     */
+    default void rejectedCacheHit()
+    {
+    }
+
+    /**
+     * A session token was accepted on its MAC alone, without verifying the Cognito token it was issued from
+     */
+    default void sessionTokenAccepted()
+    {
+    }
+
+    /**
+     * Keys were added to a key store from a file, stream or URL
+     *
+     * @param keyCount the number of keys in the store afterwards
+     * @param nanos    time spent loading
+     */
+    default void keysLoaded(int keyCount, long nanos)
+    {
+    }
+
+    /**
+     * A key store's key set was replaced
+     *
+     * @param keyCount the number of keys in the store afterwards
+     * @param nanos    time spent refreshing
+     */
+    default void keysRefreshed(int keyCount, long nanos)
+    {
+    }
+
+    /**
+     * A background key refresh failed and the current key set was kept
+     */
+    default void keyRefreshFailed()
+    {
+    }
+
+    /**
+     * User details were loaded for an authentication request, whether or not the token was valid
+     *
+     * @param nanos time spent loading, including token validation
+     */
+    default void userDetailsLoaded(long nanos)
+    {
+    }
+}
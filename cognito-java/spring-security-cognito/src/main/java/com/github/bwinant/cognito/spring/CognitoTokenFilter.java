@@ -1,29 +1,211 @@
 package com.github.bwinant.cognito.spring;
 
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.preauth.AbstractPreAuthenticatedProcessingFilter;
+import org.springframework.security.web.util.matcher.RequestMatcher;
 
 /**
  * Looks for Cognito User Pool id or access token in the HTTP Authorization header
+ * <p>
+ * Once a token is authenticated it is remembered in a request attribute together with the authentication it produced,
+ * so forward, error and async dispatches of the same request reuse that authentication instead of validating the token
+ * again.
+ * <p>
+ * With a {@link SessionTokenCodec} set, a request authenticated with a Cognito token is answered with an HMAC signed
+ * session token carrying the verified claims, in a response header or a cookie. Clients that send the session token
+ * back, as the bearer token or in the cookie, are then authenticated without an RSA signature verification by a
+ * {@link CognitoTokenValidator} configured with the same codec. The Authorization header always wins over the cookie.
+ * A new session token is only issued when the request does not already carry a valid one for the same user.
  */
 public class CognitoTokenFilter extends AbstractPreAuthenticatedProcessingFilter
 {
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String BEARER = "Bearer ";
+    private static final String REQUESTED_WITH = "X-Requested-With";
+    private static final String TOKEN_ATTRIBUTE = CognitoTokenFilter.class.getName() + ".TOKEN";
+    private static final String DEFAULT_SESSION_TOKEN_HEADER = "X-Cognito-Session";
+
+    private RejectionRateLimiter rejectionLimiter;
+    private RequestMatcher bypassMatcher;
+    private SessionTokenCodec sessionTokenCodec;
+    private String sessionTokenHeader = DEFAULT_SESSION_TOKEN_HEADER;
+    private String sessionTokenCookie;
+
+    /**
+     * Sets an optional limiter on invalid tokens per client. Clients over the limit get a 429 response for any
+     * request carrying a token, before the token is looked at. By default clients are not limited
+     *
+     * @param rejectionLimiter the limiter, or null to disable limiting
+     */
+    public void setRejectionLimiter(RejectionRateLimiter rejectionLimiter)
+    {
+        this.rejectionLimiter = rejectionLimiter;
+    }
+
+    /**
+     * Sets an optional matcher for requests that need no authentication, such as health checks or static content.
+     * Matching requests are passed down the chain untouched, without looking at the token or the security context.
+     * By default every request is processed
+     *
+     * @param bypassMatcher the matcher, or null to process every request
+     */
+    public void setBypassMatcher(RequestMatcher bypassMatcher)
+    {
+        this.bypassMatcher = bypassMatcher;
+    }
+
+    /**
+     * Sets an optional codec to issue session tokens with. The {@link CognitoTokenValidator} behind this filter must be
+     * given the same codec to accept them. By default no session tokens are issued
+     *
+     * @param sessionTokenCodec the codec, or null to disable session tokens
+     */
+    public void setSessionTokenCodec(SessionTokenCodec sessionTokenCodec)
+    {
+        this.sessionTokenCodec = sessionTokenCodec;
+    }
+
+    /**
+     * Sets the response header session tokens are returned in, unless a cookie is used. Clients that keep sending their
+     * Cognito token can echo the session token back in the same request header, so no new one is issued while it is
+     * valid. Defaults to X-Cognito-Session
+     *
+     * @param sessionTokenHeader the header name
+     */
+    public void setSessionTokenHeader(String sessionTokenHeader)
+    {
+        this.sessionTokenHeader = sessionTokenHeader;
+    }
+
+    /**
+     * Returns session tokens in an HttpOnly, SameSite=Strict cookie instead of a header. The cookie is only read from
+     * requests without an Authorization header that carry an X-Requested-With header, which a cross-site form or link
+     * cannot add, so a browser sending the cookie on its own does not authenticate a forged request. A rejected cookie
+     * is cleared
+     *
+     * @param sessionTokenCookie the cookie name, or null to use a header
+     */
+    public void setSessionTokenCookie(String sessionTokenCookie)
+    {
+        this.sessionTokenCookie = sessionTokenCookie;
+    }
+
     @Override
-    protected Object getPreAuthenticatedPrincipal(HttpServletRequest request)
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
     {
-        String authHeader = request.getHeader("Authorization");
-        if (authHeader == null || authHeader.isEmpty())
+        if (!(request instanceof HttpServletRequest))
         {
-            return null;
+            super.doFilter(request, response, chain);
+            return;
+        }
+
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        RequestMatcher bypass = bypassMatcher;
+        if (bypass != null && bypass.matches(httpRequest))
+        {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String value = getTokenValue(httpRequest);
+        BearerToken token = getAuthenticatedToken(httpRequest, value);
+        if (token != null)
+        {
+            // An earlier dispatch of this request already authenticated this exact header
+            SecurityContext context = SecurityContextHolder.getContext();
+            Authentication current = context.getAuthentication();
+            if (current == null || current == token.authentication)
+            {
+                if (current == null)
+                {
+                    context.setAuthentication(token.authentication);
+                }
+                chain.doFilter(request, response);
+                return;
+            }
+        }
+
+        RejectionRateLimiter limiter = rejectionLimiter;
+        if (limiter != null && value != null && limiter.isBlocked(getClientAddress(httpRequest)))
+        {
+            ((HttpServletResponse) response).sendError(SC_TOO_MANY_REQUESTS, "Too many invalid tokens");
+            return;
+        }
+
+        super.doFilter(request, response, chain);
+    }
+
+    @Override
+    protected void successfulAuthentication(HttpServletRequest request, HttpServletResponse response, Authentication authResult)
+        throws IOException, ServletException
+    {
+        String value = getTokenValue(request);
+        if (value != null)
+        {
+            // Only authenticated tokens are remembered, so a first dispatch allocates nothing extra
+            BearerToken token = new BearerToken(value, stripBearer(value), authResult);
+            request.setAttribute(TOKEN_ATTRIBUTE, token);
+            issueSessionToken(request, response, token, authResult);
+        }
+
+        super.successfulAuthentication(request, response, authResult);
+    }
+
+    @Override
+    protected void unsuccessfulAuthentication(HttpServletRequest request, HttpServletResponse response, AuthenticationException failed)
+        throws IOException, ServletException
+    {
+        RejectionRateLimiter limiter = rejectionLimiter;
+        if (limiter != null)
+        {
+            limiter.recordRejection(getClientAddress(request));
+        }
+
+        String cookieName = sessionTokenCookie;
+        if (cookieName != null && isEmpty(request.getHeader(AUTHORIZATION)) && getCookie(request, cookieName) != null)
+        {
+            addSessionCookie(request, response, cookieName, "", 0);
         }
 
-        if (authHeader.startsWith("Bearer "))
+        super.unsuccessfulAuthentication(request, response, failed);
+    }
+
+    /**
+     * The address rejections are counted against. Override to use a forwarded address when running behind a proxy
+     *
+     * @param request the request
+     *
+     * @return the client address
+     */
+    protected String getClientAddress(HttpServletRequest request)
+    {
+        return request.getRemoteAddr();
+    }
+
+    @Override
+    protected Object getPreAuthenticatedPrincipal(HttpServletRequest request)
+    {
+        String value = getTokenValue(request);
+        if (value == null)
         {
-            return authHeader.substring(7);
+            return null;
         }
 
-        return authHeader;
+        BearerToken token = getAuthenticatedToken(request, value);
+        return token != null ? token.token : stripBearer(value);
     }
 
     @Override
@@ -32,4 +214,154 @@ public class CognitoTokenFilter extends AbstractPreAuthenticatedProcessingFilter
         // Have to return something non-null for Spring Security PreAuthentication process to work
         return "_cognito";
     }
+
+    private void issueSessionToken(HttpServletRequest request, HttpServletResponse response, BearerToken token, Authentication authResult)
+    {
+        SessionTokenCodec codec = sessionTokenCodec;
+        if (codec == null || SessionTokenCodec.isSessionToken(token.token) || !(authResult.getPrincipal() instanceof CognitoUserDetails))
+        {
+            return;
+        }
+
+        CompactClaims claims = ((CognitoUserDetails) authResult.getPrincipal()).getClaims();
+        long now = System.currentTimeMillis();
+        if (claims == null || hasSessionToken(request, codec, claims, now))
+        {
+            return;
+        }
+
+        String sessionToken = codec.encode(claims, now);
+        if (sessionToken == null)
+        {
+            return;
+        }
+
+        String cookieName = sessionTokenCookie;
+        if (cookieName != null)
+        {
+            // No max age, the session token carries its own expiry
+            addSessionCookie(request, response, cookieName, sessionToken, -1);
+        }
+        else
+        {
+            response.setHeader(sessionTokenHeader, sessionToken);
+        }
+    }
+
+    /**
+     * Whether the request already carries an unexpired session token for the same user, in the session cookie or the
+     * session token header, so a client that keeps sending its Cognito token is not issued a new session every request
+     */
+    private boolean hasSessionToken(HttpServletRequest request, SessionTokenCodec codec, CompactClaims claims, long now)
+    {
+        String cookieName = sessionTokenCookie;
+        String current = cookieName != null ? getCookie(request, cookieName) : request.getHeader(sessionTokenHeader);
+        if (!SessionTokenCodec.isSessionToken(current))
+        {
+            return false;
+        }
+
+        try
+        {
+            CompactClaims session = codec.decode(current, now);
+            return claims.getSub().equals(session.getSub()) && claims.getIssuer().equals(session.getIssuer());
+        }
+        catch (InvalidTokenException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Written as a header because the Servlet 3.1 Cookie has no SameSite attribute
+     */
+    private static void addSessionCookie(HttpServletRequest request, HttpServletResponse response, String name, String value, int maxAge)
+    {
+        StringBuilder cookie = new StringBuilder(name.length() + value.length() + 80);
+        cookie.append(name).append('=').append(value);
+        cookie.append("; Path=").append(request.getContextPath().isEmpty() ? "/" : request.getContextPath());
+        if (maxAge >= 0)
+        {
+            cookie.append("; Max-Age=").append(maxAge);
+        }
+        if (request.isSecure())
+        {
+            cookie.append("; Secure");
+        }
+        cookie.append("; HttpOnly; SameSite=Strict");
+        response.addHeader("Set-Cookie", cookie.toString());
+    }
+
+    private static String getCookie(HttpServletRequest request, String name)
+    {
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null)
+        {
+            for (Cookie cookie : cookies)
+            {
+                if (name.equals(cookie.getName()) && !cookie.getValue().isEmpty())
+                {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private String getTokenValue(HttpServletRequest request)
+    {
+        String header = request.getHeader(AUTHORIZATION);
+        if (!isEmpty(header))
+        {
+            return header;
+        }
+
+        String cookieName = sessionTokenCookie;
+        if (cookieName == null || isEmpty(request.getHeader(REQUESTED_WITH)))
+        {
+            return null;
+        }
+        return getCookie(request, cookieName);
+    }
+
+    private static boolean isEmpty(String value)
+    {
+        return value == null || value.isEmpty();
+    }
+
+    /**
+     * Returns the token an earlier dispatch of this request authenticated, as long as the header or cookie is unchanged
+     */
+    private static BearerToken getAuthenticatedToken(HttpServletRequest request, String value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+
+        Object cached = request.getAttribute(TOKEN_ATTRIBUTE);
+        return cached instanceof BearerToken && ((BearerToken) cached).value.equals(value) ? (BearerToken) cached : null;
+    }
+
+    private static String stripBearer(String value)
+    {
+        return value.startsWith(BEARER) ? value.substring(BEARER.length()) : value;
+    }
+
+    /**
+     * A token found in a request's session cookie or Authorization header, and the authentication it produced
+     */
+    private static final class BearerToken
+    {
+        private final String value;
+        private final String token;
+        private final Authentication authentication;
+
+        BearerToken(String value, String token, Authentication authentication)
+        {
+            this.value = value;
+            this.token = token;
+            this.authentication = authentication;
+        }
+    }
 }
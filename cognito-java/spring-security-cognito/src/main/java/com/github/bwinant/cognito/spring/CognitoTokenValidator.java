@@ -1,30 +1,40 @@
 package com.github.bwinant.cognito.spring;
 
-import java.security.Key;
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiFunction;
 
 import com.github.bwinant.jwk.JwkStore;
-import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.ExpiredJwtException;
-import io.jsonwebtoken.Jws;
-import io.jsonwebtoken.JwsHeader;
-import io.jsonwebtoken.JwtParser;
-import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.MalformedJwtException;
-import io.jsonwebtoken.SignatureException;
-import io.jsonwebtoken.SigningKeyResolverAdapter;
-import io.jsonwebtoken.UnsupportedJwtException;
 
 /**
  * Validates id and access tokens returned by Cognito User Pool authentication
  */
 public class CognitoTokenValidator
 {
+    private static final String SIGNATURE_ALGORITHM = "RS256";
+
     private final JwkStore jwkStore;
-    private final JwtParser parser;
+    private final BiFunction<String, String, PublicKey> keyResolver;
     private final Set<String> tokenTypes;
+    private final MultiPoolJwkStore multiPoolStore;
+
+    private volatile String[] lastIssuer;
+
+    private VerifiedTokenCache tokenCache;
+    private RejectedTokenCache rejectedTokenCache;
+    private TokenRevocationIndex revocationIndex;
+    private SessionTokenCodec sessionTokenCodec;
+    private CognitoMetrics metrics = CognitoMetrics.NOOP;
+    private ForkJoinPool batchPool;
 
     /**
      * Constructs a new CognitoTokenValidator with a specified signing key source
@@ -34,11 +44,13 @@ public class CognitoTokenValidator
     public CognitoTokenValidator(JwkStore jwkStore)
     {
         this.jwkStore = jwkStore;
-        this.parser = Jwts.parser().setSigningKeyResolver(new KeyResolverImpl());
+        this.keyResolver = jwkStore::getKey;
 
         this.tokenTypes = new HashSet<>();
         this.tokenTypes.add("access");
         this.tokenTypes.add("id");
+
+        this.multiPoolStore = jwkStore instanceof MultiPoolJwkStore ? (MultiPoolJwkStore) jwkStore : null;
     }
 
     /**
@@ -51,55 +63,398 @@ public class CognitoTokenValidator
     {
         tokenTypes.clear();
         tokenTypes.addAll(type);
+
+        // Cached tokens were accepted or rejected under the old token types
+        if (tokenCache != null)
+        {
+            tokenCache.clear();
+        }
+        if (rejectedTokenCache != null)
+        {
+            rejectedTokenCache.clear();
+        }
+    }
+
+    /**
+     * Sets an optional cache of already verified tokens. Cache hits skip signature verification entirely.
+     * By default no cache is used and every token is fully verified
+     *
+     * @param tokenCache the verified token cache, or null to disable caching
+     */
+    public void setTokenCache(VerifiedTokenCache tokenCache)
+    {
+        this.tokenCache = tokenCache;
+    }
+
+    /**
+     * Sets an optional cache of recently rejected tokens. Replays of a cached token are rejected without being parsed
+     * or verified again. By default no cache is used
+     *
+     * @param rejectedTokenCache the rejected token cache, or null to disable caching
+     */
+    public void setRejectedTokenCache(RejectedTokenCache rejectedTokenCache)
+    {
+        this.rejectedTokenCache = rejectedTokenCache;
+    }
+
+    /**
+     * Sets an optional index of revoked tokens. Revoked tokens are rejected even if they come from the verified token
+     * cache. By default tokens are valid until they expire
+     *
+     * @param revocationIndex the revocation index, or null to disable revocation checks
+     */
+    public void setRevocationIndex(TokenRevocationIndex revocationIndex)
+    {
+        this.revocationIndex = revocationIndex;
+    }
+
+    /**
+     * Sets an optional codec for session tokens. Session tokens issued by {@link CognitoTokenFilter} with the same codec
+     * are then accepted after an HMAC check instead of an RSA signature verification, and are still subject to the token
+     * types and revocation index. By default session tokens are rejected like any other malformed token
+     *
+     * @param sessionTokenCodec the codec, or null to disable session tokens
+     */
+    public void setSessionTokenCodec(SessionTokenCodec sessionTokenCodec)
+    {
+        this.sessionTokenCodec = sessionTokenCodec;
+    }
+
+    /**
+     * Sets the metrics hook validations are recorded to. By default nothing is recorded
+     *
+     * @param metrics the metrics hook, or null to disable metrics
+     */
+    public void setMetrics(CognitoMetrics metrics)
+    {
+        this.metrics = metrics != null ? metrics : CognitoMetrics.NOOP;
     }
 
     public CognitoUserDetails validate(String token) throws InvalidTokenException
     {
+        return validate(token, keyResolver);
+    }
+
+    /**
+     * Validates a batch of tokens in parallel. Identical tokens are validated once, and each distinct issuer and kid
+     * is resolved against the key store once for the whole batch. Invalid tokens do not fail the batch.
+     * <p>
+     * Validation runs on the common fork-join pool unless another pool was set with {@link #setBatchPool(ForkJoinPool)}.
+     *
+     * @param tokens the tokens to validate
+     *
+     * @return one result per token, in the same order
+     */
+    public List<TokenValidationResult> validateAll(List<String> tokens)
+    {
+        Map<String, Integer> distinct = new LinkedHashMap<>();
+        for (String token : tokens)
+        {
+            if (token != null)
+            {
+                distinct.putIfAbsent(token, distinct.size());
+            }
+        }
+
+        String[] unique = distinct.keySet().toArray(new String[distinct.size()]);
+        TokenValidationResult[] uniqueResults = new TokenValidationResult[unique.length];
+
+        // Keys are looked up once per issuer and kid; null keys are not remembered and simply looked up again
+        Map<String, PublicKey> keys = new ConcurrentHashMap<>();
+        BiFunction<String, String, PublicKey> batchResolver = (issuer, kid) ->
+            keys.computeIfAbsent(issuer + ' ' + kid, k -> jwkStore.getKey(issuer, kid));
+
+        ForkJoinPool pool = batchPool != null ? batchPool : ForkJoinPool.commonPool();
+        pool.invoke(new BatchTask(unique, uniqueResults, 0, unique.length, batchResolver));
+
+        List<TokenValidationResult> results = new ArrayList<>(tokens.size());
+        boolean[] handedOut = new boolean[unique.length];
+        for (String token : tokens)
+        {
+            if (token == null)
+            {
+                results.add(TokenValidationResult.rejected(null, InvalidTokenException.Reason.MALFORMED, "Missing token"));
+                continue;
+            }
+
+            int idx = distinct.get(token);
+            TokenValidationResult result = uniqueResults[idx];
+
+            // Duplicates get their own user details, since authorities are added to them after validation
+            results.add(handedOut[idx] ? result.copy() : result);
+            handedOut[idx] = true;
+        }
+        return results;
+    }
+
+    /**
+     * Sets the pool {@link #validateAll(List)} runs on. By default the common fork-join pool is used
+     *
+     * @param batchPool the pool, or null to use the common pool
+     */
+    public void setBatchPool(ForkJoinPool batchPool)
+    {
+        this.batchPool = batchPool;
+    }
+
+    private CognitoUserDetails validate(String token, BiFunction<String, String, PublicKey> keys) throws InvalidTokenException
+    {
+        CognitoMetrics metrics = this.metrics;
+        if (!metrics.isEnabled())
+        {
+            return verify(token, metrics, keys);
+        }
+
+        long start = System.nanoTime();
+        try
+        {
+            CognitoUserDetails userDetails = verify(token, metrics, keys);
+            metrics.tokenAccepted(System.nanoTime() - start);
+            return userDetails;
+        }
+        catch (InvalidTokenException e)
+        {
+            metrics.tokenRejected(e.getReason(), System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    private CognitoUserDetails verify(String token, CognitoMetrics metrics, BiFunction<String, String, PublicKey> keys) throws InvalidTokenException
+    {
+        SessionTokenCodec codec = sessionTokenCodec;
+        if (codec != null && SessionTokenCodec.isSessionToken(token))
+        {
+            // Cheaper to check than a cache lookup, so session tokens bypass the token caches
+            CognitoUserDetails userDetails = accept(codec.decode(token, System.currentTimeMillis()));
+            metrics.sessionTokenAccepted();
+            return userDetails;
+        }
+
+        VerifiedTokenCache cache = tokenCache;
+        RejectedTokenCache rejectedCache = rejectedTokenCache;
+        if ((cache == null && rejectedCache == null) || token == null)
+        {
+            return verify(token, null, null, keys);
+        }
+
+        ByteBuffer digest = TokenDigest.of(token);
+        if (rejectedCache != null)
+        {
+            InvalidTokenException.Reason reason = rejectedCache.get(digest);
+            if (reason != null)
+            {
+                metrics.rejectedCacheHit();
+                throw InvalidTokenException.rejected(reason, "Token recently rejected");
+            }
+        }
+
+        if (cache != null)
+        {
+            CognitoUserDetails userDetails = cache.get(digest);
+            if (userDetails != null)
+            {
+                metrics.cacheHit();
+                checkRevoked(userDetails.getClaims());
+                return userDetails;
+            }
+            metrics.cacheMiss();
+        }
+
         try
         {
-            Jws<Claims> claims = parser.parseClaimsJws(token);
-            Claims body = claims.getBody();
+            return verify(token, digest, cache, keys);
+        }
+        catch (InvalidTokenException e)
+        {
+            if (rejectedCache != null)
+            {
+                rejectedCache.put(digest, e.getReason());
+            }
+            throw e;
+        }
+    }
+
+    private CognitoUserDetails verify(String token, ByteBuffer digest, VerifiedTokenCache cache, BiFunction<String, String, PublicKey> keys)
+        throws InvalidTokenException
+    {
+        UnverifiedJws jws = UnverifiedJws.parse(token);
+        PublicKey key = precheck(jws, keys);
+
+        if (!Rs256Verifier.verify(jws, key))
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.BAD_SIGNATURE, "Invalid token signature");
+        }
+
+        CompactClaims claims = jws.getClaims();
+        CognitoUserDetails userDetails = accept(claims);
+
+        if (cache != null && claims.getExp() >= 0)
+        {
+            cache.put(digest, userDetails, claims.getExp() * 1000);
+        }
+
+        return userDetails;
+    }
+
+    /**
+     * Checks the claims of a token whose signature or session MAC has been verified
+     */
+    private CognitoUserDetails accept(CompactClaims claims) throws InvalidTokenException
+    {
+        // Reject the token if type is not supported
+        // If we only want access tokens, then an id token is invalid (and vice versa)
+        String type = claims.getTokenUse();
+        if (!tokenTypes.contains(type))
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.WRONG_TOKEN_USE, "Unsupported token type " + type);
+        }
+
+        if (!isUuid(claims.getSub()) || claims.getIssuer() == null)
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.MALFORMED, "Invalid token");
+        }
+
+        checkRevoked(claims);
+
+        return new CognitoUserDetails(getUserPoolId(claims.getIssuer()), claims);
+    }
+
+    /**
+     * Checks the canonical 8-4-4-4-12 hex form of a Cognito sub, so that CognitoUserDetails can parse it later on demand
+     */
+    static boolean isUuid(String value)
+    {
+        if (value == null || value.length() != 36)
+        {
+            return false;
+        }
 
-            // Reject the token if type is not supported
-            // If we only want access tokens, then an id token is invalid (and vice versa)
-            String type = body.get("token_use", String.class);
-            if (!tokenTypes.contains(type))
+        for (int i = 0; i < 36; i++)
+        {
+            char c = value.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23)
             {
-                throw new InvalidTokenException("Unsupported token type " + type);
+                if (c != '-')
+                {
+                    return false;
+                }
             }
+            else if (Character.digit(c, 16) < 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rejects obviously invalid tokens before any signature verification is done
+     *
+     * @return the key the token claims to be signed with
+     */
+    private PublicKey precheck(UnverifiedJws jws, BiFunction<String, String, PublicKey> keys) throws InvalidTokenException
+    {
+        if (!SIGNATURE_ALGORITHM.equals(jws.getAlg()))
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.UNSUPPORTED_ALGORITHM, "Unsupported signature algorithm " + jws.getAlg());
+        }
 
-            String userPoolId = getUserPoolId(body);
-            UUID sub = UUID.fromString(body.getSubject());
-            String username = body.get("cognito:username", String.class);
+        PublicKey key = jws.getKid() != null ? keys.apply(jws.getClaims().getIssuer(), jws.getKid()) : null;
+        if (key == null)
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.UNKNOWN_KEY, "Unknown signing key " + jws.getKid());
+        }
 
-            return new CognitoUserDetails(userPoolId, sub, username, body);
+        long now = System.currentTimeMillis();
+        if (jws.isExpired(now))
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.EXPIRED, "Token expired");
         }
-        catch (IllegalArgumentException | UnsupportedJwtException | MalformedJwtException | SignatureException | ExpiredJwtException e)
+
+        if (jws.isNotYetValid(now))
         {
-            throw new InvalidTokenException("Invalid token", e);
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.NOT_YET_VALID, "Token not yet valid");
         }
+
+        return key;
     }
 
-    private String getUserPoolId(Claims body)
+    private void checkRevoked(CompactClaims claims) throws InvalidTokenException
     {
-        String iss = body.getIssuer();
-        int idx = iss.lastIndexOf('/');
-        return iss.substring(idx + 1);
+        TokenRevocationIndex index = revocationIndex;
+        if (index != null && index.isRevoked(claims))
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.REVOKED, "Token revoked");
+        }
     }
 
-    private class KeyResolverImpl extends SigningKeyResolverAdapter
+    private String getUserPoolId(String iss)
     {
-        @Override
-        public Key resolveSigningKey(JwsHeader header, Claims claims)
+        if (multiPoolStore != null)
         {
-            return jwkStore.getKey(header.getKeyId());
+            // The store already maps every allowed issuer to its pool id
+            String userPoolId = multiPoolStore.getUserPoolId(iss);
+            if (userPoolId != null)
+            {
+                return userPoolId;
+            }
+        }
+
+        // Tokens almost always come from one pool, so only the last issuer is remembered
+        String[] last = lastIssuer;
+        if (last != null && last[0].equals(iss))
+        {
+            return last[1];
+        }
+
+        String userPoolId = iss.substring(iss.lastIndexOf('/') + 1);
+        lastIssuer = new String[] { iss, userPoolId };
+        return userPoolId;
+    }
+
+    /**
+     * Splits a batch in halves until the pieces are small enough to validate on one thread
+     */
+    private class BatchTask extends RecursiveAction
+    {
+        private static final int THRESHOLD = 8;
+
+        private final String[] tokens;
+        private final TokenValidationResult[] results;
+        private final int from;
+        private final int to;
+        private final BiFunction<String, String, PublicKey> keys;
+
+        BatchTask(String[] tokens, TokenValidationResult[] results, int from, int to, BiFunction<String, String, PublicKey> keys)
+        {
+            this.tokens = tokens;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.keys = keys;
         }
 
         @Override
-        public Key resolveSigningKey(JwsHeader header, String plaintext)
+        protected void compute()
         {
-            return jwkStore.getKey(header.getKeyId());
+            if (to - from > THRESHOLD)
+            {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BatchTask(tokens, results, from, mid, keys), new BatchTask(tokens, results, mid, to, keys));
+                return;
+            }
+
+            for (int i = from; i < to; i++)
+            {
+                try
+                {
+                    results[i] = TokenValidationResult.valid(tokens[i], validate(tokens[i], keys));
+                }
+                catch (InvalidTokenException e)
+                {
+                    results[i] = TokenValidationResult.rejected(tokens[i], e.getReason(), e.getMessage());
+                }
+            }
         }
     }
 }
-
@@ -3,6 +3,7 @@ package com.github.bwinant.cognito.spring;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -15,11 +16,15 @@ import org.springframework.security.core.userdetails.UserDetails;
  */
 public class CognitoUserDetails implements UserDetails
 {
+    private static final long serialVersionUID = 1L;
+
     private final String userPoolId;
-    private final UUID sub;
+    private final String subject;
     private final String username;
     private final Map<String, Object> attributes;
-    private final Set<GrantedAuthority> authorities;
+    private final CompactClaims claims;
+    private Set<GrantedAuthority> authorities;
+    private transient UUID sub;
 
     /**
      * Construct a new CognitoUserDetails
@@ -32,10 +37,28 @@ public class CognitoUserDetails implements UserDetails
     public CognitoUserDetails(String userPoolId, UUID sub, String username, Map<String, Object> attributes)
     {
         this.userPoolId = userPoolId;
+        this.subject = sub.toString();
         this.sub = sub;
         this.username = username;
         this.attributes = attributes != null ? attributes : Collections.emptyMap();
-        this.authorities = new HashSet<>();
+        this.claims = null;
+        this.authorities = Collections.emptySet();
+    }
+
+    /**
+     * Construct a new CognitoUserDetails backed by compact token claims that are only decoded when asked for
+     *
+     * @param userPoolId    the id of the Cognito User Pool the user authenticated against
+     * @param claims        the verified token claims
+     */
+    CognitoUserDetails(String userPoolId, CompactClaims claims)
+    {
+        this.userPoolId = userPoolId;
+        this.subject = claims.getSub();
+        this.username = claims.getUsername();
+        this.attributes = null;
+        this.claims = claims;
+        this.authorities = Collections.emptySet();
     }
 
     /**
@@ -55,7 +78,51 @@ public class CognitoUserDetails implements UserDetails
      */
     public UUID getSub()
     {
-        return sub;
+        // Parsed on first use, most requests never need the UUID form
+        UUID uuid = sub;
+        if (uuid == null)
+        {
+            uuid = UUID.fromString(subject);
+            sub = uuid;
+        }
+        return uuid;
+    }
+
+    /**
+     * The user's email attribute, only present if authentication was performed with an id token
+     *
+     * @return the email address, or null
+     */
+    public String getEmail()
+    {
+        return claims != null ? claims.getEmail() : getAttribute("email", String.class);
+    }
+
+    /**
+     * The Cognito User Pool groups the user belongs to
+     *
+     * @return the group names, empty if the user is not in any group
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getGroups()
+    {
+        if (claims != null)
+        {
+            return claims.getGroups();
+        }
+
+        List<String> groups = getAttribute("cognito:groups", List.class);
+        return groups != null ? groups : Collections.emptyList();
+    }
+
+    /**
+     * The OAuth scopes granted to the token, only present if authentication was performed with an access token
+     *
+     * @return the space separated scopes, or null
+     */
+    public String getScope()
+    {
+        return claims != null ? claims.getScope() : getAttribute("scope", String.class);
     }
 
     /**
@@ -69,7 +136,7 @@ public class CognitoUserDetails implements UserDetails
      */
     public <T> T getAttribute(String name, Class<T> type)
     {
-        Object value = attributes.get(name);
+        Object value = claims != null ? claims.get(name) : attributes.get(name);
         return type.cast(value);
     }
 
@@ -115,11 +182,47 @@ public class CognitoUserDetails implements UserDetails
         return authorities;
     }
 
+    /**
+     * Replaces the user's authorities with a set that is shared rather than copied, such as one returned by
+     * {@link CognitoAuthorityMapper}. The set is copied before {@link #addAuthority} modifies it
+     *
+     * @param authorities the authorities, which must not be modified afterwards
+     */
+    public void setAuthorities(Set<GrantedAuthority> authorities)
+    {
+        this.authorities = authorities != null ? authorities : Collections.emptySet();
+    }
+
     public void addAuthority(GrantedAuthority authority)
     {
+        // Authorities start out as a shared empty set, only allocate once one is actually added
+        if (!(authorities instanceof HashSet))
+        {
+            authorities = new HashSet<>(authorities);
+        }
         authorities.add(authority);
     }
 
+    /**
+     * Copies this user without any of its granted authorities
+     *
+     * @return a new CognitoUserDetails sharing this user's immutable state
+     */
+    CognitoUserDetails copy()
+    {
+        return claims != null ? new CognitoUserDetails(userPoolId, claims) : new CognitoUserDetails(userPoolId, getSub(), username, attributes);
+    }
+
+    /**
+     * The token claims this user was built from
+     *
+     * @return the claims, or null if this user was built from an attribute map
+     */
+    CompactClaims getClaims()
+    {
+        return claims;
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -133,7 +236,7 @@ public class CognitoUserDetails implements UserDetails
         }
 
         final CognitoUserDetails cud = (CognitoUserDetails) o;
-        return sub.equals(cud.getSub());
+        return subject.equals(cud.subject);
     }
 
     @Override
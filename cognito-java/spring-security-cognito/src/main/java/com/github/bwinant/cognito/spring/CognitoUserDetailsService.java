@@ -1,7 +1,6 @@
 package com.github.bwinant.cognito.spring;
 
 import org.springframework.security.authentication.BadCredentialsException;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.AuthenticationUserDetailsService;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -11,25 +10,57 @@ public class CognitoUserDetailsService implements AuthenticationUserDetailsServi
 {
     private final CognitoTokenValidator tokenValidator;
 
+    private CognitoMetrics metrics = CognitoMetrics.NOOP;
+    private CognitoAuthorityMapper authorityMapper = CognitoAuthorityMapper.DEFAULT;
+
     public CognitoUserDetailsService(CognitoTokenValidator tokenValidator)
     {
         this.tokenValidator = tokenValidator;
     }
 
+    /**
+     * Sets the metrics hook user details loads are recorded to. By default nothing is recorded
+     *
+     * @param metrics the metrics hook, or null to disable metrics
+     */
+    public void setMetrics(CognitoMetrics metrics)
+    {
+        this.metrics = metrics != null ? metrics : CognitoMetrics.NOOP;
+    }
+
+    /**
+     * Sets how token groups, scopes and claims are mapped to granted authorities. By default every user is granted ROLE_USER
+     *
+     * @param authorityMapper the mapper, or null to restore the default
+     */
+    public void setAuthorityMapper(CognitoAuthorityMapper authorityMapper)
+    {
+        this.authorityMapper = authorityMapper != null ? authorityMapper : CognitoAuthorityMapper.DEFAULT;
+    }
+
     @Override
     public UserDetails loadUserDetails(PreAuthenticatedAuthenticationToken preAuthToken) throws UsernameNotFoundException
     {
         String token = (String) preAuthToken.getPrincipal();
 
+        CognitoMetrics metrics = this.metrics;
+        long start = metrics.isEnabled() ? System.nanoTime() : 0;
         try
         {
             CognitoUserDetails userDetails = tokenValidator.validate(token);
-            userDetails.addAuthority(new SimpleGrantedAuthority("ROLE_USER"));
+            userDetails.setAuthorities(authorityMapper.map(userDetails));
             return userDetails;
         }
         catch (InvalidTokenException e)
         {
             throw new BadCredentialsException("Cannot authenticate request", e);
         }
+        finally
+        {
+            if (metrics.isEnabled())
+            {
+                metrics.userDetailsLoaded(System.nanoTime() - start);
+            }
+        }
     }
 }
@@ -0,0 +1,358 @@
+package com.github.bwinant.cognito.spring;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Claims of a Cognito token kept as the raw JSON payload plus the handful of standard Cognito claims read in a single
+ * streaming pass. Any other claim is decoded on demand the first time it is asked for, so the common case never
+ * builds a full claims map.
+ */
+final class CompactClaims implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String[] NO_GROUPS = new String[0];
+
+    private final byte[] payload;
+    private final String sub;
+    private final String username;
+    private final String issuer;
+    private final String tokenUse;
+    private final String email;
+    private final String scope;
+    private final String[] groups;
+    private final String jti;
+    private final String originJti;
+    private final long exp;
+    private final long iat;
+    private final long nbf;
+    private final boolean irregular;
+
+    private transient volatile Map<String, Object> all;
+
+    private CompactClaims(byte[] payload, String sub, String username, String issuer, String tokenUse, String email,
+                          String scope, String[] groups, String jti, String originJti, long exp, long iat, long nbf,
+                          boolean irregular)
+    {
+        this.payload = payload;
+        this.sub = sub;
+        this.username = username;
+        this.issuer = issuer;
+        this.tokenUse = tokenUse;
+        this.email = email;
+        this.scope = scope;
+        this.groups = groups;
+        this.jti = jti;
+        this.originJti = originJti;
+        this.exp = exp;
+        this.iat = iat;
+        this.nbf = nbf;
+        this.irregular = irregular;
+    }
+
+    /**
+     * Reads the standard Cognito claims from a decoded JSON payload
+     *
+     * @param payload the decoded JSON payload, kept by reference
+     *
+     * @return the claims
+     *
+     * @throws IOException if the payload is not a JSON object
+     */
+    static CompactClaims parse(byte[] payload) throws IOException
+    {
+        String sub = null;
+        String cognitoUsername = null;
+        String username = null;
+        String issuer = null;
+        String tokenUse = null;
+        String email = null;
+        String scope = null;
+        String[] groups = null;
+        String jti = null;
+        String originJti = null;
+        long exp = -1;
+        long iat = -1;
+        long nbf = -1;
+        boolean irregular = false;
+
+        try (JsonParser parser = JSON_FACTORY.createParser(payload))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+            {
+                throw new IOException("Expected a JSON object");
+            }
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                boolean text = value == JsonToken.VALUE_STRING;
+                boolean expected = text;
+
+                switch (name)
+                {
+                    case "sub":
+                        sub = text ? parser.getText() : null;
+                        break;
+                    case "cognito:username":
+                        cognitoUsername = text ? parser.getText() : null;
+                        break;
+                    case "username":
+                        username = text ? parser.getText() : null;
+                        break;
+                    case "iss":
+                        issuer = text ? parser.getText() : null;
+                        break;
+                    case "token_use":
+                        tokenUse = text ? parser.getText() : null;
+                        break;
+                    case "email":
+                        email = text ? parser.getText() : null;
+                        break;
+                    case "scope":
+                        scope = text ? parser.getText() : null;
+                        break;
+                    case "jti":
+                        jti = text ? parser.getText() : null;
+                        break;
+                    case "origin_jti":
+                        originJti = text ? parser.getText() : null;
+                        break;
+                    case "exp":
+                        expected = value == JsonToken.VALUE_NUMBER_INT;
+                        exp = expected ? parser.getLongValue() : -1;
+                        break;
+                    case "iat":
+                        expected = value == JsonToken.VALUE_NUMBER_INT;
+                        iat = expected ? parser.getLongValue() : -1;
+                        break;
+                    case "nbf":
+                        expected = value == JsonToken.VALUE_NUMBER_INT;
+                        nbf = expected ? parser.getLongValue() : -1;
+                        break;
+                    case "cognito:groups":
+                        groups = value == JsonToken.START_ARRAY ? readStrings(parser) : null;
+                        expected = groups != null;
+                        break;
+                    default:
+                        parser.skipChildren();
+                        expected = true;
+                        break;
+                }
+
+                // A standard claim with an unexpected type is still served, just from the full claims map
+                if (!expected)
+                {
+                    parser.skipChildren();
+                    irregular = true;
+                }
+            }
+        }
+
+        return new CompactClaims(payload, sub, cognitoUsername != null ? cognitoUsername : username, issuer, tokenUse,
+                                 email, scope, groups, jti, originJti, exp, iat, nbf, irregular);
+    }
+
+    private static String[] readStrings(JsonParser parser) throws IOException
+    {
+        List<String> values = null;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY)
+        {
+            if (token != JsonToken.VALUE_STRING)
+            {
+                // Skip the rest of the array, the full claims map will serve this claim
+                parser.skipChildren();
+                while (parser.nextToken() != JsonToken.END_ARRAY)
+                {
+                    parser.skipChildren();
+                }
+                return null;
+            }
+
+            if (values == null)
+            {
+                values = new ArrayList<>(4);
+            }
+            values.add(parser.getText());
+        }
+        return values != null ? values.toArray(new String[values.size()]) : NO_GROUPS;
+    }
+
+    /**
+     * The decoded JSON payload the claims were read from
+     */
+    byte[] getPayload()
+    {
+        return payload;
+    }
+
+    String getSub()
+    {
+        return sub;
+    }
+
+    /**
+     * The cognito:username claim of id tokens, or the username claim of access tokens
+     */
+    String getUsername()
+    {
+        return username;
+    }
+
+    String getIssuer()
+    {
+        return issuer;
+    }
+
+    String getTokenUse()
+    {
+        return tokenUse;
+    }
+
+    String getEmail()
+    {
+        return email;
+    }
+
+    String getScope()
+    {
+        return scope;
+    }
+
+    List<String> getGroups()
+    {
+        return groups != null ? Collections.unmodifiableList(Arrays.asList(groups)) : Collections.emptyList();
+    }
+
+    String getJti()
+    {
+        return jti;
+    }
+
+    /**
+     * The jti of the refresh token session the token was issued from, present in newer Cognito tokens
+     */
+    String getOriginJti()
+    {
+        return originJti;
+    }
+
+    /**
+     * The iat claim in seconds since the epoch
+     *
+     * @return the issue time, or -1 if the token has no iat claim
+     */
+    long getIat()
+    {
+        return iat;
+    }
+
+    /**
+     * The exp claim in seconds since the epoch
+     *
+     * @return the expiration time, or -1 if the token has no exp claim
+     */
+    long getExp()
+    {
+        return exp;
+    }
+
+    /**
+     * The nbf claim in seconds since the epoch
+     *
+     * @return the time the token becomes valid, or -1 if the token has no nbf claim
+     */
+    long getNbf()
+    {
+        return nbf;
+    }
+
+    /**
+     * Looks up a claim by name, decoding the full payload only for claims without a fast path
+     *
+     * @param name the claim name
+     *
+     * @return the claim value as Jackson would decode it, or null if absent
+     */
+    Object get(String name)
+    {
+        if (!irregular)
+        {
+            switch (name)
+            {
+                case "sub":
+                    return sub;
+                case "iss":
+                    return issuer;
+                case "token_use":
+                    return tokenUse;
+                case "email":
+                    return email;
+                case "scope":
+                    return scope;
+                case "cognito:groups":
+                    return groups != null ? getGroups() : null;
+                case "jti":
+                    return jti;
+                case "origin_jti":
+                    return originJti;
+                case "exp":
+                    return number(exp);
+                case "iat":
+                    return number(iat);
+                case "nbf":
+                    return number(nbf);
+                default:
+                    break;
+            }
+        }
+
+        return all().get(name);
+    }
+
+    private static Object number(long value)
+    {
+        if (value < 0)
+        {
+            return null;
+        }
+        // Match the Integer/Long choice Jackson makes for the full claims map
+        return value <= Integer.MAX_VALUE ? (Object) (int) value : (Object) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> all()
+    {
+        Map<String, Object> map = all;
+        if (map == null)
+        {
+            try
+            {
+                map = Collections.unmodifiableMap(OBJECT_MAPPER.readValue(payload, Map.class));
+            }
+            catch (IOException e)
+            {
+                // The payload was already parsed once, so it is well formed JSON
+                throw new IllegalStateException("Unable to decode token claims", e);
+            }
+            all = map;
+        }
+        return map;
+    }
+}
@@ -0,0 +1,208 @@
+package com.github.bwinant.cognito.spring;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link CognitoMetrics} that keeps in-memory counters and latency histograms without any metrics library.
+ * Values can be read at any time, for example from a health endpoint or a scheduled reporter.
+ */
+public class CountingCognitoMetrics implements CognitoMetrics
+{
+    private final LatencyHistogram validationLatency;
+    private final Map<InvalidTokenException.Reason, LongAdder> rejections;
+    private final LongAdder accepted;
+    private final LongAdder cacheHits;
+    private final LongAdder cacheMisses;
+    private final LongAdder rejectedCacheHits;
+    private final LongAdder sessionTokens;
+    private final LatencyHistogram keyLoadLatency;
+    private final LatencyHistogram keyRefreshLatency;
+    private final LongAdder keyRefreshFailures;
+    private final LatencyHistogram userDetailsLatency;
+
+    private volatile int keyCount;
+
+    public CountingCognitoMetrics()
+    {
+        validationLatency = new LatencyHistogram();
+        rejections = new EnumMap<>(InvalidTokenException.Reason.class);
+        for (InvalidTokenException.Reason reason : InvalidTokenException.Reason.values())
+        {
+            rejections.put(reason, new LongAdder());
+        }
+        accepted = new LongAdder();
+        cacheHits = new LongAdder();
+        cacheMisses = new LongAdder();
+        rejectedCacheHits = new LongAdder();
+        sessionTokens = new LongAdder();
+        keyLoadLatency = new LatencyHistogram();
+        keyRefreshLatency = new LatencyHistogram();
+        keyRefreshFailures = new LongAdder();
+        userDetailsLatency = new LatencyHistogram();
+    }
+
+    @Override
+    public void tokenAccepted(long nanos)
+    {
+        accepted.increment();
+        validationLatency.record(nanos);
+    }
+
+    @Override
+    public void tokenRejected(InvalidTokenException.Reason reason, long nanos)
+    {
+        rejections.get(reason).increment();
+        validationLatency.record(nanos);
+    }
+
+    @Override
+    public void cacheHit()
+    {
+        cacheHits.increment();
+    }
+
+    @Override
+    public void cacheMiss()
+    {
+        cacheMisses.increment();
+    }
+
+    @Override
+    public void rejectedCacheHit()
+    {
+        rejectedCacheHits.increment();
+    }
+
+    @Override
+    public void sessionTokenAccepted()
+    {
+        sessionTokens.increment();
+    }
+
+    @Override
+    public void keysLoaded(int keyCount, long nanos)
+    {
+        this.keyCount = keyCount;
+        keyLoadLatency.record(nanos);
+    }
+
+    @Override
+    public void keysRefreshed(int keyCount, long nanos)
+    {
+        this.keyCount = keyCount;
+        keyRefreshLatency.record(nanos);
+    }
+
+    @Override
+    public void keyRefreshFailed()
+    {
+        keyRefreshFailures.increment();
+    }
+
+    @Override
+    public void userDetailsLoaded(long nanos)
+    {
+        userDetailsLatency.record(nanos);
+    }
+
+    /**
+     * @return latency of every validation, accepted or rejected
+     */
+    public LatencyHistogram getValidationLatency()
+    {
+        return validationLatency;
+    }
+
+    public long getAccepted()
+    {
+        return accepted.sum();
+    }
+
+    public long getRejected(InvalidTokenException.Reason reason)
+    {
+        return rejections.get(reason).sum();
+    }
+
+    public long getRejected()
+    {
+        long total = 0;
+        for (LongAdder count : rejections.values())
+        {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    public long getCacheHits()
+    {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses()
+    {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @return the fraction of cache lookups that were hits, or 0 if the cache was never used
+     */
+    public double getCacheHitRatio()
+    {
+        long hits = cacheHits.sum();
+        long total = hits + cacheMisses.sum();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    /**
+     * @return the number of rejections served from the rejected token cache, also counted under their original reason
+     */
+    public long getRejectedCacheHits()
+    {
+        return rejectedCacheHits.sum();
+    }
+
+    /**
+     * @return the number of session tokens accepted, also counted as accepted tokens
+     */
+    public long getSessionTokensAccepted()
+    {
+        return sessionTokens.sum();
+    }
+
+    public LatencyHistogram getKeyLoadLatency()
+    {
+        return keyLoadLatency;
+    }
+
+    public LatencyHistogram getKeyRefreshLatency()
+    {
+        return keyRefreshLatency;
+    }
+
+    public long getKeyRefreshFailures()
+    {
+        return keyRefreshFailures.sum();
+    }
+
+    /**
+     * @return the number of keys after the most recent load or refresh
+     */
+    public int getKeyCount()
+    {
+        return keyCount;
+    }
+
+    public LatencyHistogram getUserDetailsLatency()
+    {
+        return userDetailsLatency;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "accepted=" + getAccepted() + " rejected=" + getRejected() + " cacheHitRatio=" + getCacheHitRatio()
+            + " keys=" + keyCount + " validation[" + validationLatency + "]";
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.bwinant.cognito.spring;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded, thread safe map whose entries each carry their own expiration time.
+ * Expired entries are never returned. When the size cap is reached, expired entries are swept first and then
+ * arbitrary entries are dropped until the cache is back under its low water mark.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+class ExpiringCache<K, V>
+{
+    private final Map<K, Entry<V>> entries;
+    private final int maxSize;
+    private final int lowWaterMark;
+    private final AtomicBoolean evicting;
+
+    ExpiringCache(int maxSize)
+    {
+        if (maxSize <= 0)
+        {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+
+        this.entries = new ConcurrentHashMap<>(Math.min(maxSize, 1024));
+        this.maxSize = maxSize;
+        this.lowWaterMark = Math.max(maxSize - Math.max(maxSize / 10, 1), 0);
+        this.evicting = new AtomicBoolean();
+    }
+
+    V get(K key, long now)
+    {
+        Entry<V> entry = entries.get(key);
+        if (entry == null)
+        {
+            return null;
+        }
+
+        if (entry.expiresAt <= now)
+        {
+            entries.remove(key, entry);
+            return null;
+        }
+
+        return entry.value;
+    }
+
+    void put(K key, V value, long expiresAt, long now)
+    {
+        if (expiresAt <= now)
+        {
+            return;
+        }
+
+        if (entries.size() >= maxSize)
+        {
+            evict(now);
+        }
+
+        entries.put(key, new Entry<>(value, expiresAt));
+    }
+
+    void remove(K key)
+    {
+        entries.remove(key);
+    }
+
+    int size()
+    {
+        return entries.size();
+    }
+
+    int maxSize()
+    {
+        return maxSize;
+    }
+
+    void clear()
+    {
+        entries.clear();
+    }
+
+    private void evict(long now)
+    {
+        // Only one thread sweeps at a time, the others keep going and may briefly overshoot the cap
+        if (!evicting.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        try
+        {
+            entries.values().removeIf(e -> e.expiresAt <= now);
+
+            Iterator<K> it = entries.keySet().iterator();
+            while (entries.size() > lowWaterMark && it.hasNext())
+            {
+                it.next();
+                it.remove();
+            }
+        }
+        finally
+        {
+            evicting.set(false);
+        }
+    }
+
+    private static final class Entry<V>
+    {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt)
+        {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -5,13 +5,68 @@ package com.github.bwinant.cognito.spring;
  */
 public class InvalidTokenException extends Exception
 {
+    /**
+     * Why a token was rejected
+     */
+    public enum Reason
+    {
+        MALFORMED,
+        UNSUPPORTED_ALGORITHM,
+        UNKNOWN_KEY,
+        EXPIRED,
+        NOT_YET_VALID,
+        BAD_SIGNATURE,
+        WRONG_TOKEN_USE,
+        REVOKED,
+        INVALID
+    }
+
+    private final Reason reason;
+
     public InvalidTokenException(String message)
     {
-        super(message);
+        this(Reason.INVALID, message);
     }
 
     public InvalidTokenException(String message, Throwable cause)
+    {
+        this(Reason.INVALID, message, cause);
+    }
+
+    public InvalidTokenException(Reason reason, String message)
+    {
+        super(message);
+        this.reason = reason;
+    }
+
+    public InvalidTokenException(Reason reason, String message, Throwable cause)
     {
         super(message, cause);
+        this.reason = reason;
+    }
+
+    private InvalidTokenException(Reason reason, String message, boolean writableStackTrace)
+    {
+        super(message, null, true, writableStackTrace);
+        this.reason = reason;
+    }
+
+    /**
+     * Creates an exception without a stack trace. Rejecting a token is routine, and the validator's stack trace adds
+     * nothing, so filling one in for every bad token is wasted work.
+     *
+     * @param reason  why the token was rejected
+     * @param message the detail message
+     *
+     * @return the exception
+     */
+    static InvalidTokenException rejected(Reason reason, String message)
+    {
+        return new InvalidTokenException(reason, message, false);
+    }
+
+    public Reason getReason()
+    {
+        return reason;
     }
 }
@@ -0,0 +1,96 @@
+package com.github.bwinant.cognito.spring;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free latency histogram with power of two nanosecond buckets. Bucket i counts durations in [2^(i-1), 2^i),
+ * so percentiles are accurate to within a factor of two, which is plenty to spot a regression.
+ */
+public class LatencyHistogram
+{
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] counts;
+    private final LongAdder total;
+
+    public LatencyHistogram()
+    {
+        counts = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] = new LongAdder();
+        }
+        total = new LongAdder();
+    }
+
+    public void record(long nanos)
+    {
+        long value = Math.max(nanos, 0);
+        counts[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+        total.add(value);
+    }
+
+    public long getCount()
+    {
+        long count = 0;
+        for (LongAdder bucket : counts)
+        {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return the mean recorded duration in nanoseconds, or 0 if nothing was recorded
+     */
+    public double getMean()
+    {
+        long count = getCount();
+        return count > 0 ? (double) total.sum() / count : 0;
+    }
+
+    /**
+     * The upper bound of the bucket holding the given percentile
+     *
+     * @param percentile the percentile, between 0 and 100
+     *
+     * @return the duration in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            snapshot[i] = counts[i].sum();
+            count += snapshot[i];
+        }
+
+        long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0)
+            {
+                return (1L << i) - 1;
+            }
+        }
+        return 0;
+    }
+
+    public void reset()
+    {
+        for (LongAdder bucket : counts)
+        {
+            bucket.reset();
+        }
+        total.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "count=" + getCount() + " mean=" + (long) getMean() + "ns p50=" + getPercentile(50) + "ns p99=" + getPercentile(99) + "ns";
+    }
+}
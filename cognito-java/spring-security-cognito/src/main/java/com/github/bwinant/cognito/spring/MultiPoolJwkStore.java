@@ -0,0 +1,479 @@
+package com.github.bwinant.cognito.spring;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.bwinant.jwk.JwkException;
+import com.github.bwinant.jwk.JwkStore;
+
+/**
+ * JSON Web Key store for applications that accept tokens from many Cognito User Pools, such as one pool per tenant.
+ * <p>
+ * Keys are indexed by issuer and then by key id, so a token is only ever verified with keys published by the pool
+ * named in its iss claim. Only allow-listed issuers are accepted. Call {@link #preload()} at startup to load the keys of
+ * every allowed pool up front; otherwise a pool's keys are fetched in the background the first time one of its tokens
+ * is seen, and requests for that pool wait at most the fetch timeout for them. Tokens of a pool whose keys could not
+ * be loaded are rejected with an unknown key until a later attempt succeeds. Every pool gets its own
+ * {@link CognitoJwkStore} with the usual rotation handling.
+ * Lookups are a single hash map access whatever the number of pools.
+ */
+public class MultiPoolJwkStore implements JwkStore, Closeable
+{
+    private static final Logger log = Logger.getLogger(MultiPoolJwkStore.class.getName());
+
+    private final Map<String, Pool> pools;
+    private final Object lock;
+
+    private ExecutorService loader;
+    private boolean closed;
+
+    private volatile long minRetryInterval;
+    private volatile long refreshInterval;
+    private volatile long fetchTimeout;
+    private volatile CognitoMetrics metrics;
+
+    public MultiPoolJwkStore()
+    {
+        pools = new ConcurrentHashMap<>();
+        lock = new Object();
+        fetchTimeout = CognitoJwkStore.DEFAULT_FETCH_TIMEOUT;
+        minRetryInterval = CognitoJwkStore.DEFAULT_MIN_REFETCH_INTERVAL;
+        metrics = CognitoMetrics.NOOP;
+    }
+
+    /**
+     * The issuer of tokens from a Cognito User Pool
+     *
+     * @param region     the AWS region of the user pool
+     * @param userPoolId the Cognito User Pool id
+     *
+     * @return the iss claim value of the pool's tokens
+     */
+    public static String issuer(String region, String userPoolId)
+    {
+        return "https://cognito-idp." + region + ".amazonaws.com/" + userPoolId;
+    }
+
+    /**
+     * Allows tokens from a user pool. Its keys are loaded by {@link #preload()}, or the first time one of its tokens
+     * is seen.
+     *
+     * @param region     the AWS region of the user pool
+     * @param userPoolId the Cognito User Pool id
+     */
+    public void allowUserPool(String region, String userPoolId)
+    {
+        String issuer = issuer(region, userPoolId);
+        pools.putIfAbsent(issuer, new Pool(issuer, userPoolId, null));
+    }
+
+    /**
+     * Allows tokens from a user pool whose keys are already loaded, for example from a local file
+     *
+     * @param region     the AWS region of the user pool
+     * @param userPoolId the Cognito User Pool id
+     * @param jwkStore   the pool's keys
+     */
+    public void addUserPool(String region, String userPoolId, CognitoJwkStore jwkStore)
+    {
+        String issuer = issuer(region, userPoolId);
+        Pool previous = pools.put(issuer, new Pool(issuer, userPoolId, jwkStore));
+        if (previous != null)
+        {
+            previous.close();
+        }
+    }
+
+    /**
+     * Stops accepting tokens from a user pool and drops its keys
+     *
+     * @param region     the AWS region of the user pool
+     * @param userPoolId the Cognito User Pool id
+     */
+    public void removeUserPool(String region, String userPoolId)
+    {
+        Pool pool = pools.remove(issuer(region, userPoolId));
+        if (pool != null)
+        {
+            pool.close();
+        }
+    }
+
+    /**
+     * Sets the minimum time between attempts to load the keys of a pool whose keys could not be loaded.
+     * Defaults to {@link CognitoJwkStore#DEFAULT_MIN_REFETCH_INTERVAL}
+     *
+     * @param interval the minimum interval
+     * @param unit     the interval time unit
+     */
+    public void setMinRetryInterval(long interval, TimeUnit unit)
+    {
+        this.minRetryInterval = unit.toMillis(interval);
+    }
+
+    /**
+     * Sets the connect and read timeout for fetching a pool's keys, which is also the longest a request waits for the
+     * first load of its pool's keys. Defaults to {@link CognitoJwkStore#DEFAULT_FETCH_TIMEOUT}
+     *
+     * @param timeout the timeout
+     * @param unit    the timeout time unit
+     */
+    public void setFetchTimeout(long timeout, TimeUnit unit)
+    {
+        this.fetchTimeout = unit.toMillis(timeout);
+    }
+
+    /**
+     * Loads the keys of every allowed pool whose keys are not loaded yet, on the calling thread. Pools whose keys
+     * cannot be loaded are logged and left to be loaded when their tokens are seen
+     *
+     * @return the number of pools whose keys are loaded
+     */
+    public int preload()
+    {
+        int loaded = 0;
+        for (Pool pool : pools.values())
+        {
+            try
+            {
+                pool.load();
+                loaded++;
+            }
+            catch (IOException | JwkException e)
+            {
+                log.log(Level.WARNING, "Unable to load JSON Web Keys for " + pool.issuer, e);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Refreshes the keys of every loaded pool in the background, including pools loaded later
+     *
+     * @param interval the refresh interval
+     * @param unit     the interval time unit
+     */
+    public void startRefresh(long interval, TimeUnit unit)
+    {
+        refreshInterval = unit.toMillis(interval);
+        for (Pool pool : pools.values())
+        {
+            CognitoJwkStore store = pool.store;
+            if (store != null)
+            {
+                store.startRefresh(refreshInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Sets the metrics hook key loads and refreshes of every pool are recorded to. By default nothing is recorded
+     *
+     * @param metrics the metrics hook, or null to disable metrics
+     */
+    public void setMetrics(CognitoMetrics metrics)
+    {
+        this.metrics = metrics != null ? metrics : CognitoMetrics.NOOP;
+        for (Pool pool : pools.values())
+        {
+            CognitoJwkStore store = pool.store;
+            if (store != null)
+            {
+                store.setMetrics(this.metrics);
+            }
+        }
+    }
+
+    /**
+     * The Cognito User Pool id for an allowed issuer
+     *
+     * @param issuer the iss claim value
+     *
+     * @return the user pool id, or null if the issuer is not allowed
+     */
+    public String getUserPoolId(String issuer)
+    {
+        Pool pool = issuer != null ? pools.get(issuer) : null;
+        return pool != null ? pool.userPoolId : null;
+    }
+
+    @Override
+    public Set<String> getKeyIds()
+    {
+        Set<String> keyIds = new HashSet<>();
+        for (Pool pool : pools.values())
+        {
+            CognitoJwkStore store = pool.store;
+            if (store != null)
+            {
+                keyIds.addAll(store.getKeyIds());
+            }
+        }
+        return Collections.unmodifiableSet(keyIds);
+    }
+
+    /**
+     * Looks up a key in every loaded pool. Prefer {@link #getKey(String, String)}, which only considers the keys
+     * of the token's own issuer. A miss here does not refetch any pool's keys, as one unknown key id would otherwise
+     * refetch every pool.
+     */
+    @Override
+    public PublicKey getKey(String keyId)
+    {
+        for (Pool pool : pools.values())
+        {
+            CognitoJwkStore store = pool.store;
+            PublicKey key = store != null ? store.findKey(keyId) : null;
+            if (key != null)
+            {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public PublicKey getKey(String issuer, String keyId)
+    {
+        Pool pool = issuer != null ? pools.get(issuer) : null;
+        if (pool == null)
+        {
+            return null;
+        }
+
+        CognitoJwkStore store = pool.store;
+        if (store == null)
+        {
+            // The first tokens after a deploy would otherwise all be rejected, so wait a little for the pool's keys
+            store = pool.await(fetchTimeout);
+            if (store == null)
+            {
+                return null;
+            }
+        }
+        return store.getKey(keyId);
+    }
+
+    /**
+     * Stops background refresh of every pool and any background key loads
+     */
+    @Override
+    public void close()
+    {
+        synchronized (lock)
+        {
+            closed = true;
+            if (loader != null)
+            {
+                loader.shutdownNow();
+                loader = null;
+            }
+        }
+
+        for (Pool pool : pools.values())
+        {
+            pool.close();
+        }
+    }
+
+    /**
+     * @return the executor first time key loads run on, or null once this store is closed
+     */
+    private ExecutorService loader()
+    {
+        synchronized (lock)
+        {
+            if (closed)
+            {
+                return null;
+            }
+            if (loader == null)
+            {
+                // Loads are rare and bounded by the fetch timeout, a couple of threads keep one slow pool from blocking the rest
+                loader = Executors.newFixedThreadPool(2, r -> {
+                    Thread t = new Thread(r, "cognito-jwk-load");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            return loader;
+        }
+    }
+
+    private class Pool
+    {
+        private final String issuer;
+        private final String userPoolId;
+
+        private final AtomicReference<CompletableFuture<CognitoJwkStore>> loading;
+
+        private volatile CognitoJwkStore store;
+        private volatile long lastAttempt = Long.MIN_VALUE / 2;
+        private volatile boolean closed;
+
+        Pool(String issuer, String userPoolId, CognitoJwkStore store)
+        {
+            this.issuer = issuer;
+            this.userPoolId = userPoolId;
+            this.store = store;
+            this.loading = new AtomicReference<>();
+        }
+
+        /**
+         * Waits for the pool's keys to be loaded in the background
+         *
+         * @param timeout the longest to wait, in milliseconds
+         *
+         * @return the pool's keys, or null if they could not be loaded in time
+         */
+        CognitoJwkStore await(long timeout)
+        {
+            CompletableFuture<CognitoJwkStore> load = loadAsync();
+            if (load == null)
+            {
+                return null;
+            }
+
+            try
+            {
+                return load.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            catch (ExecutionException | TimeoutException e)
+            {
+                return null;
+            }
+        }
+
+        /**
+         * Starts loading the pool's keys in the background, unless a load is already running or failed recently
+         *
+         * @return the running load, completed with null if it fails, or null if no load is running
+         */
+        CompletableFuture<CognitoJwkStore> loadAsync()
+        {
+            // Concurrent requests for a pool share the one load
+            CompletableFuture<CognitoJwkStore> running = loading.get();
+            if (running != null)
+            {
+                return running;
+            }
+
+            // Do not hammer the JWKS endpoint of a pool whose keys cannot be loaded
+            long now = System.currentTimeMillis();
+            if (now - lastAttempt < minRetryInterval)
+            {
+                return null;
+            }
+
+            CompletableFuture<CognitoJwkStore> load = new CompletableFuture<>();
+            if (!loading.compareAndSet(null, load))
+            {
+                return loading.get();
+            }
+            lastAttempt = now;
+
+            ExecutorService executor = loader();
+            if (executor == null)
+            {
+                finish(load, null);
+                return null;
+            }
+
+            try
+            {
+                executor.execute(() -> {
+                    CognitoJwkStore loaded = null;
+                    try
+                    {
+                        loaded = load();
+                    }
+                    catch (IOException | JwkException | RuntimeException e)
+                    {
+                        log.log(Level.WARNING, "Unable to load JSON Web Keys for " + issuer, e);
+                    }
+                    finally
+                    {
+                        finish(load, loaded);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                // Closed concurrently
+                finish(load, null);
+                return null;
+            }
+            return load;
+        }
+
+        private void finish(CompletableFuture<CognitoJwkStore> load, CognitoJwkStore loaded)
+        {
+            loading.set(null);
+            load.complete(loaded);
+        }
+
+        /**
+         * Loads the pool's keys on the calling thread, unless they are already loaded
+         */
+        synchronized CognitoJwkStore load() throws IOException, JwkException
+        {
+            if (store != null)
+            {
+                return store;
+            }
+            lastAttempt = System.currentTimeMillis();
+
+            CognitoJwkStore loaded = new CognitoJwkStore();
+            loaded.setMetrics(metrics);
+            loaded.setFetchTimeout(fetchTimeout, TimeUnit.MILLISECONDS);
+            loaded.load(new URL(issuer + "/.well-known/jwks.json"));
+
+            if (closed)
+            {
+                // Removed from the store while loading
+                loaded.close();
+                return null;
+            }
+
+            if (refreshInterval > 0)
+            {
+                loaded.startRefresh(refreshInterval, TimeUnit.MILLISECONDS);
+            }
+
+            store = loaded;
+            return loaded;
+        }
+
+        synchronized void close()
+        {
+            closed = true;
+            CognitoJwkStore current = store;
+            if (current != null)
+            {
+                current.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.bwinant.cognito.spring;
+
+import java.math.BigInteger;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.KeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Reads PEM encoded RSA public keys, as written by user-pool-key-downloader/download-jwks.js.
+ * Both SubjectPublicKeyInfo ("PUBLIC KEY") and PKCS#1 ("RSA PUBLIC KEY") encodings are accepted.
+ */
+final class PemKeys
+{
+    private static final String SPKI_TYPE = "PUBLIC KEY";
+    private static final String PKCS1_TYPE = "RSA PUBLIC KEY";
+
+    private PemKeys()
+    {
+    }
+
+    /**
+     * Builds the key spec for a PEM encoded public key
+     *
+     * @param pem the PEM text
+     *
+     * @return the key spec
+     *
+     * @throws InvalidKeySpecException if the text is not a PEM encoded RSA public key
+     */
+    static KeySpec keySpec(String pem) throws InvalidKeySpecException
+    {
+        String text = pem.trim();
+        String type = pemType(text);
+        if (type == null)
+        {
+            throw new InvalidKeySpecException("Not a PEM encoded key");
+        }
+
+        int begin = text.indexOf('\n');
+        int end = text.lastIndexOf("-----END");
+        if (begin < 0 || end < begin)
+        {
+            throw new InvalidKeySpecException("Not a PEM encoded key");
+        }
+
+        byte[] der;
+        try
+        {
+            der = Base64.getMimeDecoder().decode(text.substring(begin + 1, end));
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new InvalidKeySpecException("Invalid PEM encoding", e);
+        }
+
+        switch (type)
+        {
+            case SPKI_TYPE:
+                return new X509EncodedKeySpec(der);
+            case PKCS1_TYPE:
+                return pkcs1KeySpec(der);
+            default:
+                throw new InvalidKeySpecException("Unsupported PEM type " + type);
+        }
+    }
+
+    private static String pemType(String text)
+    {
+        String prefix = "-----BEGIN ";
+        if (!text.startsWith(prefix))
+        {
+            return null;
+        }
+
+        int end = text.indexOf("-----", prefix.length());
+        return end > 0 ? text.substring(prefix.length(), end) : null;
+    }
+
+    /**
+     * RSAPublicKey ::= SEQUENCE { modulus INTEGER, publicExponent INTEGER }
+     */
+    private static RSAPublicKeySpec pkcs1KeySpec(byte[] der) throws InvalidKeySpecException
+    {
+        int[] pos = { 0 };
+        int seqLength = readHeader(der, pos, 0x30);
+        if (pos[0] + seqLength != der.length)
+        {
+            throw new InvalidKeySpecException("Invalid PKCS#1 key");
+        }
+
+        BigInteger modulus = readInteger(der, pos);
+        BigInteger exponent = readInteger(der, pos);
+        return new RSAPublicKeySpec(modulus, exponent);
+    }
+
+    private static BigInteger readInteger(byte[] der, int[] pos) throws InvalidKeySpecException
+    {
+        int length = readHeader(der, pos, 0x02);
+        BigInteger value = new BigInteger(1, Arrays.copyOfRange(der, pos[0], pos[0] + length));
+        pos[0] += length;
+        return value;
+    }
+
+    private static int readHeader(byte[] der, int[] pos, int tag) throws InvalidKeySpecException
+    {
+        int p = pos[0];
+        if (p + 2 > der.length || (der[p++] & 0xff) != tag)
+        {
+            throw new InvalidKeySpecException("Invalid PKCS#1 key");
+        }
+
+        int length = der[p++] & 0xff;
+        if (length > 0x80)
+        {
+            int count = length & 0x7f;
+            if (count > 3 || p + count > der.length)
+            {
+                throw new InvalidKeySpecException("Invalid PKCS#1 key");
+            }
+
+            length = 0;
+            for (int i = 0; i < count; i++)
+            {
+                length = (length << 8) | (der[p++] & 0xff);
+            }
+        }
+        else if (length == 0x80)
+        {
+            throw new InvalidKeySpecException("Invalid PKCS#1 key");
+        }
+
+        if (p + length > der.length)
+        {
+            throw new InvalidKeySpecException("Invalid PKCS#1 key");
+        }
+
+        pos[0] = p;
+        return length;
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.bwinant.cognito.spring;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of tokens that recently failed validation, so replaying the same bad token is rejected without
+ * parsing or verifying it again. Entries are keyed by a SHA-256 digest of the token and are dropped after a fixed time.
+ * <p>
+ * Tokens rejected for an unknown signing key are never cached, since a key rotation can make them valid moments later.
+ * A single instance is safe to share between request threads.
+ */
+public class RejectedTokenCache
+{
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    private final ExpiringCache<ByteBuffer, InvalidTokenException.Reason> cache;
+    private final long ttl;
+
+    /**
+     * Constructs a new RejectedTokenCache holding up to {@link #DEFAULT_MAX_SIZE} tokens for {@link #DEFAULT_TTL} ms
+     */
+    public RejectedTokenCache()
+    {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructs a new RejectedTokenCache
+     *
+     * @param maxSize the maximum number of tokens to hold
+     * @param ttl     how long a rejected token is remembered
+     * @param unit    the ttl time unit
+     */
+    public RejectedTokenCache(int maxSize, long ttl, TimeUnit unit)
+    {
+        this.cache = new ExpiringCache<>(maxSize);
+        this.ttl = unit.toMillis(ttl);
+    }
+
+    /**
+     * The number of tokens currently cached, including any expired tokens not yet evicted
+     *
+     * @return the number of cached tokens
+     */
+    public int size()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Removes all cached tokens
+     */
+    public void clear()
+    {
+        cache.clear();
+    }
+
+    InvalidTokenException.Reason get(ByteBuffer digest)
+    {
+        return cache.get(digest, System.currentTimeMillis());
+    }
+
+    void put(ByteBuffer digest, InvalidTokenException.Reason reason)
+    {
+        // Both can turn valid within the ttl, once the keys are refreshed or the nbf time has passed
+        if (reason == InvalidTokenException.Reason.UNKNOWN_KEY || reason == InvalidTokenException.Reason.NOT_YET_VALID)
+        {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        cache.put(digest, reason, now + ttl, now);
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.bwinant.cognito.spring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts token rejections per client and blocks clients that exceed a limit within a fixed time window.
+ * Blocked clients are turned away until their window ends, before any token parsing or signature verification.
+ * <p>
+ * At most a bounded number of clients are tracked; when that many are active, some are forgotten early.
+ * A single instance is safe to share between request threads.
+ */
+public class RejectionRateLimiter
+{
+    public static final int DEFAULT_MAX_CLIENTS = 10000;
+
+    private final ExpiringCache<String, Window> windows;
+    private final int maxRejections;
+    private final long windowMillis;
+
+    /**
+     * Constructs a new RejectionRateLimiter tracking up to {@link #DEFAULT_MAX_CLIENTS} clients
+     *
+     * @param maxRejections the number of rejections a client is allowed per window
+     * @param window        the window length
+     * @param unit          the window time unit
+     */
+    public RejectionRateLimiter(int maxRejections, long window, TimeUnit unit)
+    {
+        this(maxRejections, window, unit, DEFAULT_MAX_CLIENTS);
+    }
+
+    /**
+     * Constructs a new RejectionRateLimiter
+     *
+     * @param maxRejections the number of rejections a client is allowed per window
+     * @param window        the window length
+     * @param unit          the window time unit
+     * @param maxClients    the maximum number of clients tracked at once
+     */
+    public RejectionRateLimiter(int maxRejections, long window, TimeUnit unit, int maxClients)
+    {
+        if (maxRejections <= 0)
+        {
+            throw new IllegalArgumentException("maxRejections must be greater than 0");
+        }
+
+        this.windows = new ExpiringCache<>(maxClients);
+        this.maxRejections = maxRejections;
+        this.windowMillis = unit.toMillis(window);
+    }
+
+    /**
+     * Whether a client has used up its rejections for the current window
+     *
+     * @param client the client address
+     *
+     * @return true if requests from the client should be turned away
+     */
+    public boolean isBlocked(String client)
+    {
+        Window window = windows.get(client, System.currentTimeMillis());
+        return window != null && window.rejections.get() >= maxRejections;
+    }
+
+    /**
+     * Records a rejected token from a client
+     *
+     * @param client the client address
+     */
+    public void recordRejection(String client)
+    {
+        long now = System.currentTimeMillis();
+        Window window = windows.get(client, now);
+        if (window == null)
+        {
+            // Two threads may both start a window here, losing a count is harmless
+            window = new Window();
+            windows.put(client, window, now + windowMillis, now);
+        }
+        window.rejections.incrementAndGet();
+    }
+
+    private static final class Window
+    {
+        private final AtomicInteger rejections = new AtomicInteger();
+    }
+}
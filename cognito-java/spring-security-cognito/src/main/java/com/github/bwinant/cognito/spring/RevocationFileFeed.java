@@ -0,0 +1,306 @@
+package com.github.bwinant.cognito.spring;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Feeds a {@link TokenRevocationIndex} from a local, append-only text file, for example one written by a process that
+ * listens for sign out and user disable events.
+ * <p>
+ * Each line holds one revocation:
+ * <pre>
+ * jti &lt;jti&gt;
+ * origin_jti &lt;origin_jti&gt;
+ * sub &lt;sub&gt; [issued before, epoch seconds]
+ * </pre>
+ * A line starting with '-' undoes a revocation read earlier from the file, and lines starting with '#' are ignored.
+ * The file is polled and only lines appended since the last poll are read.
+ * <p>
+ * The file counts as rewritten when it is replaced by another file, shrinks, or the end of what was already read has
+ * changed. It is then read again into a new set of revocations, which replaces the old set in one step once it is
+ * complete, so tokens revoked in both versions are never accepted in between. Revocations made directly on the index
+ * are kept apart from the file's and survive a reload. Replacing the file with a rename is the safest way to rewrite it.
+ */
+public class RevocationFileFeed implements Closeable
+{
+    private static final Logger log = Logger.getLogger(RevocationFileFeed.class.getName());
+
+    // How much of what was already read is compared on every change, to notice a file rewritten in place
+    private static final int TAIL_LENGTH = 64;
+
+    private final TokenRevocationIndex index;
+    private final File file;
+    private final Object lock;
+
+    private TokenRevocationIndex revocations;
+    private Object fileKey;
+    private long lastModified;
+    private long length;
+    private long offset;
+    private byte[] tail;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param index the index to update
+     * @param file  the revocation file, which does not need to exist yet
+     */
+    public RevocationFileFeed(TokenRevocationIndex index, File file)
+    {
+        this.index = index;
+        this.file = file;
+        this.lock = new Object();
+        this.revocations = index.newFeed();
+        this.tail = new byte[0];
+
+        index.replaceFeed(null, revocations);
+    }
+
+    /**
+     * Reads any lines appended since the last poll
+     *
+     * @return the number of lines read
+     *
+     * @throws IOException if the file cannot be read
+     */
+    public int poll() throws IOException
+    {
+        synchronized (lock)
+        {
+            if (!file.isFile())
+            {
+                return 0;
+            }
+
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (modified == lastModified && attributes.size() == length && Objects.equals(attributes.fileKey(), fileKey))
+            {
+                return 0;
+            }
+
+            try (RandomAccessFile in = new RandomAccessFile(file, "r"))
+            {
+                long currentLength = in.length();
+                if (isRewritten(in, attributes.fileKey(), currentLength))
+                {
+                    log.info("Revocation file " + file + " was rewritten, reloading it");
+                    return reload(in, attributes, currentLength);
+                }
+
+                int read = readLines(in, offset, currentLength, revocations);
+                remember(in, attributes, currentLength);
+                return read;
+            }
+        }
+    }
+
+    /**
+     * Starts polling the file in the background. Failed polls are logged and retried at the next interval.
+     *
+     * @param interval the poll interval
+     * @param unit     the interval time unit
+     */
+    public void start(long interval, TimeUnit unit)
+    {
+        synchronized (lock)
+        {
+            if (scheduler == null)
+            {
+                scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "cognito-revocation-feed");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            scheduler.scheduleWithFixedDelay(this::pollQuietly, 0, interval, unit);
+        }
+    }
+
+    /**
+     * Stops background polling
+     */
+    @Override
+    public void close()
+    {
+        synchronized (lock)
+        {
+            if (scheduler != null)
+            {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+    }
+
+    private void pollQuietly()
+    {
+        try
+        {
+            poll();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            log.log(Level.WARNING, "Unable to read revocation file " + file, e);
+        }
+    }
+
+    private boolean isRewritten(RandomAccessFile in, Object currentKey, long currentLength) throws IOException
+    {
+        if (fileKey != null && currentKey != null && !fileKey.equals(currentKey))
+        {
+            return true;
+        }
+        if (currentLength < offset)
+        {
+            return true;
+        }
+        return !Arrays.equals(tail, readTail(in, offset));
+    }
+
+    /**
+     * Reads the whole file into a new set of revocations and swaps it for the current one
+     */
+    private int reload(RandomAccessFile in, BasicFileAttributes attributes, long currentLength) throws IOException
+    {
+        TokenRevocationIndex reloaded = index.newFeed();
+        long previousOffset = offset;
+        offset = 0;
+
+        int read;
+        try
+        {
+            read = readLines(in, 0, currentLength, reloaded);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // Keep serving the old revocations, the next poll sees the rewrite again
+            offset = previousOffset;
+            throw e;
+        }
+
+        index.replaceFeed(revocations, reloaded);
+        revocations = reloaded;
+        remember(in, attributes, currentLength);
+        return read;
+    }
+
+    private void remember(RandomAccessFile in, BasicFileAttributes attributes, long currentLength) throws IOException
+    {
+        fileKey = attributes.fileKey();
+        lastModified = attributes.lastModifiedTime().toMillis();
+        length = currentLength;
+        tail = readTail(in, offset);
+    }
+
+    private static byte[] readTail(RandomAccessFile in, long end) throws IOException
+    {
+        byte[] bytes = new byte[(int) Math.min(TAIL_LENGTH, end)];
+        in.seek(end - bytes.length);
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private int readLines(RandomAccessFile in, long from, long length, TokenRevocationIndex target) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        long position = from;
+        int applied = 0;
+
+        in.seek(from);
+
+        while (position < length)
+        {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, length - position));
+            if (read < 0)
+            {
+                break;
+            }
+
+            for (int i = 0; i < read; i++)
+            {
+                position++;
+                if (buffer[i] == '\n')
+                {
+                    apply(target, new String(line.toByteArray(), StandardCharsets.UTF_8).trim());
+                    line.reset();
+                    applied++;
+
+                    // Only complete lines are consumed, a partly written last line is read again next poll
+                    offset = position;
+                }
+                else
+                {
+                    line.write(buffer[i]);
+                }
+            }
+        }
+        return applied;
+    }
+
+    private void apply(TokenRevocationIndex target, String line)
+    {
+        if (line.isEmpty() || line.startsWith("#"))
+        {
+            return;
+        }
+
+        boolean undo = line.startsWith("-");
+        String[] parts = (undo ? line.substring(1) : line).trim().split("\\s+");
+        if (parts.length < 2)
+        {
+            log.warning("Ignoring malformed revocation " + line);
+            return;
+        }
+
+        TokenRevocationIndex.Type type;
+        switch (parts[0])
+        {
+            case "jti":
+                type = TokenRevocationIndex.Type.JTI;
+                break;
+            case "origin_jti":
+                type = TokenRevocationIndex.Type.ORIGIN_JTI;
+                break;
+            case "sub":
+                type = TokenRevocationIndex.Type.SUB;
+                break;
+            default:
+                log.warning("Ignoring malformed revocation " + line);
+                return;
+        }
+
+        if (undo)
+        {
+            target.unrevoke(type, parts[1]);
+        }
+        else if (type == TokenRevocationIndex.Type.SUB && parts.length > 2)
+        {
+            try
+            {
+                target.revokeSubject(parts[1], Long.parseLong(parts[2]));
+            }
+            catch (NumberFormatException e)
+            {
+                log.warning("Ignoring malformed revocation " + line);
+            }
+        }
+        else
+        {
+            target.revoke(type, parts[1]);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.bwinant.cognito.spring;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Verifies RS256 signatures of compact JWS tokens.
+ * <p>
+ * Every thread keeps one initialized {@link Signature} per key id, so the JCA provider lookup and key setup are paid
+ * once per key rather than once per token. The signing input and the signature are written into a per thread buffer
+ * straight from the token string, without intermediate strings or arrays.
+ * <p>
+ * Thread local values only hold JDK types, so pooled threads of a container do not pin the application's class loader
+ * after a redeploy.
+ */
+final class Rs256Verifier
+{
+    private static final String JCA_ALGORITHM = "SHA256withRSA";
+
+    // Enough for every key of dozens of pools; past that a thread simply starts over
+    private static final int MAX_KEYS_PER_THREAD = 256;
+
+    static final ThreadLocal<Map<String, Map.Entry<PublicKey, Signature>>> SIGNATURES = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[2048]);
+
+    private Rs256Verifier()
+    {
+    }
+
+    /**
+     * Verifies the signature of a token
+     *
+     * @param jws the split token
+     * @param key the public key named by the token's kid header
+     *
+     * @return true if the signature is valid
+     *
+     * @throws InvalidTokenException if the signature segment is not valid base64url or the key is not an RSA key
+     */
+    static boolean verify(UnverifiedJws jws, PublicKey key) throws InvalidTokenException
+    {
+        String token = jws.getToken();
+        int payloadEnd = jws.getPayloadEnd();
+
+        Map<String, Map.Entry<PublicKey, Signature>> signatures = SIGNATURES.get();
+        Signature signature = null;
+        boolean done = false;
+        try
+        {
+            int sigLength = Base64Url.decodedLength(token.length() - payloadEnd - 1);
+            if (sigLength < 0)
+            {
+                throw InvalidTokenException.rejected(InvalidTokenException.Reason.MALFORMED, "Malformed token signature");
+            }
+
+            // Signing input first, then the signature
+            byte[] buffer = buffer(payloadEnd + sigLength);
+            Base64Url.decode(token, payloadEnd + 1, token.length(), buffer, payloadEnd);
+
+            // Header and payload were already base64url decoded, so every char of the signing input is ASCII
+            for (int i = 0; i < payloadEnd; i++)
+            {
+                buffer[i] = (byte) token.charAt(i);
+            }
+
+            signature = signature(signatures, jws.getKid(), key);
+            signature.update(buffer, 0, payloadEnd);
+            boolean valid = signature.verify(buffer, payloadEnd, sigLength);
+            done = true;
+            return valid;
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.MALFORMED, "Malformed token signature: " + e.getMessage());
+        }
+        catch (SignatureException e)
+        {
+            return false;
+        }
+        catch (InvalidKeyException e)
+        {
+            throw new InvalidTokenException(InvalidTokenException.Reason.UNKNOWN_KEY, "Unusable signing key " + jws.getKid(), e);
+        }
+        finally
+        {
+            // Any failure once the Signature was fed leaves it in an unknown state, so do not reuse it
+            if (signature != null && !done)
+            {
+                signatures.remove(jws.getKid());
+            }
+        }
+    }
+
+    private static Signature signature(Map<String, Map.Entry<PublicKey, Signature>> signatures, String kid, PublicKey key) throws InvalidKeyException
+    {
+        Map.Entry<PublicKey, Signature> keyed = signatures.get(kid);
+        if (keyed == null || keyed.getKey() != key)
+        {
+            // First use of this kid on this thread, or the key behind the kid was rotated
+            if (keyed == null && signatures.size() >= MAX_KEYS_PER_THREAD)
+            {
+                signatures.clear();
+            }
+
+            Signature signature = newSignature();
+            signature.initVerify(key);
+            keyed = new AbstractMap.SimpleImmutableEntry<>(key, signature);
+            signatures.put(kid, keyed);
+        }
+
+        // A verify call, successful or not, resets the Signature for the same key
+        return keyed.getValue();
+    }
+
+    private static byte[] buffer(int length)
+    {
+        byte[] buffer = BUFFER.get();
+        if (buffer.length < length)
+        {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+            BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+
+    private static Signature newSignature()
+    {
+        try
+        {
+            return Signature.getInstance(JCA_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // This cannot happen, SHA256withRSA must be supported by JVM for it to be Java spec compliant
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.bwinant.cognito.spring;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encodes the claims of an already verified Cognito token into a short lived session token signed with HMAC-SHA256,
+ * so later requests can be authenticated with a symmetric MAC check instead of an RSA signature verification.
+ * <p>
+ * A session token is {@code cs1.<payload>.<mac>}, where the payload is the session expiry followed by the original
+ * token claims. Sessions never outlive the Cognito token they were issued from. Any node configured with the same key
+ * can verify a session token, so no state has to be shared between nodes. Keys can be rotated by moving the old key
+ * to {@link #setPreviousKey(byte[])} until sessions signed with it have expired.
+ * <p>
+ * A single instance is safe to share between request threads.
+ */
+public class SessionTokenCodec
+{
+    static final String PREFIX = "cs1.";
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MIN_KEY_LENGTH = 32;
+    private static final int EXPIRY_LENGTH = 8;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private final ThreadLocal<Mac> macs;
+    private volatile ThreadLocal<Mac> previousMacs;
+    private volatile long maxAgeMillis;
+
+    /**
+     * Constructs a new SessionTokenCodec
+     *
+     * @param key the HMAC key shared by every node, at least 32 bytes
+     */
+    public SessionTokenCodec(byte[] key)
+    {
+        this.macs = macs(key);
+    }
+
+    /**
+     * Sets a key that session tokens are still accepted with but no longer issued with, for key rotation
+     *
+     * @param key the previous HMAC key, or null once sessions signed with it have expired
+     */
+    public void setPreviousKey(byte[] key)
+    {
+        this.previousMacs = key != null ? macs(key) : null;
+    }
+
+    /**
+     * Caps how long a session lasts. By default a session lasts as long as the Cognito token it was issued from
+     *
+     * @param maxAge the maximum session lifetime, or 0 for no cap
+     * @param unit   the lifetime time unit
+     */
+    public void setMaxAge(long maxAge, TimeUnit unit)
+    {
+        this.maxAgeMillis = unit.toMillis(maxAge);
+    }
+
+    /**
+     * Whether a token looks like a session token rather than a Cognito JWT
+     */
+    static boolean isSessionToken(String token)
+    {
+        return token != null && token.startsWith(PREFIX);
+    }
+
+    /**
+     * Issues a session token for verified claims
+     *
+     * @return the session token, or null if the claims have no exp claim or have already expired
+     */
+    String encode(CompactClaims claims, long now)
+    {
+        if (claims.getExp() < 0)
+        {
+            return null;
+        }
+
+        long expiresAt = claims.getExp() * 1000;
+        long maxAge = maxAgeMillis;
+        if (maxAge > 0)
+        {
+            expiresAt = Math.min(expiresAt, now + maxAge);
+        }
+        if (expiresAt <= now)
+        {
+            return null;
+        }
+
+        byte[] claimBytes = claims.getPayload();
+        byte[] payload = ByteBuffer.allocate(EXPIRY_LENGTH + claimBytes.length)
+            .putLong(expiresAt)
+            .put(claimBytes)
+            .array();
+
+        byte[] mac = macs.get().doFinal(payload);
+        return PREFIX + ENCODER.encodeToString(payload) + '.' + ENCODER.encodeToString(mac);
+    }
+
+    /**
+     * Verifies a session token and returns the claims it carries
+     *
+     * @throws InvalidTokenException if the token is malformed, was not signed with a known key or has expired
+     */
+    CompactClaims decode(String token, long now) throws InvalidTokenException
+    {
+        int dot = token.indexOf('.', PREFIX.length());
+        if (dot < 0 || token.indexOf('.', dot + 1) >= 0)
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.MALFORMED, "Invalid session token");
+        }
+
+        byte[] payload;
+        byte[] mac;
+        try
+        {
+            payload = Base64Url.decode(token, PREFIX.length(), dot);
+            mac = Base64Url.decode(token, dot + 1, token.length());
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.MALFORMED, "Invalid session token");
+        }
+
+        if (!verify(macs, payload, mac))
+        {
+            ThreadLocal<Mac> previous = previousMacs;
+            if (previous == null || !verify(previous, payload, mac))
+            {
+                throw InvalidTokenException.rejected(InvalidTokenException.Reason.BAD_SIGNATURE, "Invalid session token signature");
+            }
+        }
+
+        if (payload.length <= EXPIRY_LENGTH)
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.MALFORMED, "Invalid session token");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        if (buffer.getLong() <= now)
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.EXPIRED, "Session token expired");
+        }
+
+        try
+        {
+            byte[] claims = new byte[buffer.remaining()];
+            buffer.get(claims);
+            return CompactClaims.parse(claims);
+        }
+        catch (IOException e)
+        {
+            // Only a node holding the key could have produced this, so the claims were valid JSON when issued
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.MALFORMED, "Invalid session token claims");
+        }
+    }
+
+    private static boolean verify(ThreadLocal<Mac> macs, byte[] payload, byte[] mac)
+    {
+        // Constant time comparison, so the MAC cannot be guessed byte by byte from response timings
+        return MessageDigest.isEqual(macs.get().doFinal(payload), mac);
+    }
+
+    private static ThreadLocal<Mac> macs(byte[] key)
+    {
+        if (key == null || key.length < MIN_KEY_LENGTH)
+        {
+            throw new IllegalArgumentException("Session token key must be at least " + MIN_KEY_LENGTH + " bytes");
+        }
+
+        SecretKeySpec keySpec = new SecretKeySpec(key, MAC_ALGORITHM);
+
+        // Fail on a bad key now rather than on the first request
+        newMac(keySpec);
+        return ThreadLocal.withInitial(() -> newMac(keySpec));
+    }
+
+    private static Mac newMac(SecretKeySpec keySpec)
+    {
+        try
+        {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(keySpec);
+            return mac;
+        }
+        catch (GeneralSecurityException e)
+        {
+            // HmacSHA256 must be supported by JVM for it to be Java spec compliant
+            throw new IllegalStateException(e);
+        }
+    }
+}
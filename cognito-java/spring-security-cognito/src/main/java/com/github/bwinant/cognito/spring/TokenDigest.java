@@ -0,0 +1,43 @@
+package com.github.bwinant.cognito.spring;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes fixed size SHA-256 digests of raw tokens so caches never have to hold on to the tokens themselves.
+ */
+final class TokenDigest
+{
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try
+        {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // This cannot happen, SHA-256 must be supported by JVM for it to be Java spec compliant
+            throw new RuntimeException(e);
+        }
+    });
+
+    private TokenDigest()
+    {
+    }
+
+    /**
+     * Digests a token. The returned buffer has content based equals and hashCode so it can be used as a map key.
+     *
+     * @param token the raw token
+     *
+     * @return the token digest
+     */
+    static ByteBuffer of(String token)
+    {
+        MessageDigest md = DIGESTS.get();
+        return ByteBuffer.wrap(md.digest(token.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
@@ -0,0 +1,266 @@
+package com.github.bwinant.cognito.spring;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of revoked tokens, checked by {@link CognitoTokenValidator} on every request.
+ * <p>
+ * Tokens can be revoked by jti, by origin_jti (every token issued from one refresh token session), or by sub
+ * (every token issued to a user before a given time, which is what GlobalSignOut and disabling a user amount to).
+ * Lookups first go to a Bloom filter, so the common case of a token that was never revoked costs a few hashes and
+ * never touches the exact entries. Updates can be made from any thread at any time without blocking lookups.
+ * Revocations read by a {@link RevocationFileFeed} are kept apart from the ones made directly on this index, so
+ * the feed can replace its own set as a whole without touching these.
+ * A single instance is safe to share between request threads.
+ */
+public class TokenRevocationIndex
+{
+    public static final int DEFAULT_CAPACITY = 100000;
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private static final TokenRevocationIndex[] NO_FEEDS = new TokenRevocationIndex[0];
+
+    /**
+     * The claim a revocation applies to
+     */
+    public enum Type
+    {
+        JTI("j:"),
+        ORIGIN_JTI("o:"),
+        SUB("s:");
+
+        private final String prefix;
+
+        Type(String prefix)
+        {
+            this.prefix = prefix;
+        }
+    }
+
+    private final Map<String, Long> revoked;
+    private final int capacity;
+    private final double falsePositiveRate;
+    private final Object lock;
+
+    private volatile BloomFilter filter;
+    private volatile TokenRevocationIndex[] feeds;
+    private int added;
+
+    /**
+     * Constructs a new TokenRevocationIndex sized for {@link #DEFAULT_CAPACITY} revocations
+     */
+    public TokenRevocationIndex()
+    {
+        this(DEFAULT_CAPACITY, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * Constructs a new TokenRevocationIndex. The index keeps working past its capacity, it just rebuilds its filter
+     * with room for twice the current number of revocations.
+     *
+     * @param capacity          the number of revocations the filter is sized for
+     * @param falsePositiveRate the fraction of lookups for tokens that are not revoked that fall back to the exact entries
+     */
+    public TokenRevocationIndex(int capacity, double falsePositiveRate)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity must be greater than 0");
+        }
+
+        this.revoked = new ConcurrentHashMap<>();
+        this.capacity = capacity;
+        this.falsePositiveRate = falsePositiveRate;
+        this.lock = new Object();
+        this.filter = new BloomFilter(capacity, falsePositiveRate);
+        this.feeds = NO_FEEDS;
+    }
+
+    /**
+     * Revokes every token with a jti or origin_jti value
+     *
+     * @param type  {@link Type#JTI} or {@link Type#ORIGIN_JTI}
+     * @param value the claim value
+     */
+    public void revoke(Type type, String value)
+    {
+        if (type == Type.SUB)
+        {
+            revokeSubject(value, Long.MAX_VALUE);
+            return;
+        }
+        add(type.prefix, value, Long.MAX_VALUE);
+    }
+
+    /**
+     * Revokes every token of a user issued before a point in time. Tokens issued later stay valid.
+     *
+     * @param sub          the user's sub
+     * @param issuedBefore epoch seconds, tokens with an earlier iat are revoked
+     */
+    public void revokeSubject(String sub, long issuedBefore)
+    {
+        add(Type.SUB.prefix, sub, issuedBefore);
+    }
+
+    /**
+     * Undoes a revocation
+     *
+     * @param type  the claim the revocation applies to
+     * @param value the claim value
+     */
+    public void unrevoke(Type type, String value)
+    {
+        // The filter keeps the bits, which only costs an extra exact lookup for this value
+        revoked.remove(type.prefix + value);
+    }
+
+    /**
+     * Removes every revocation made directly on this index. Revocations read by a feed are left to the feed
+     */
+    public void clear()
+    {
+        synchronized (lock)
+        {
+            revoked.clear();
+            filter = new BloomFilter(capacity, falsePositiveRate);
+            added = 0;
+        }
+    }
+
+    /**
+     * The number of revocations currently held, including those read by feeds
+     *
+     * @return the number of revocations
+     */
+    public int size()
+    {
+        int size = revoked.size();
+        for (TokenRevocationIndex feed : feeds)
+        {
+            size += feed.size();
+        }
+        return size;
+    }
+
+    /**
+     * Checks whether any of a token's identifying claims was revoked
+     *
+     * @param jti       the jti claim, may be null
+     * @param originJti the origin_jti claim, may be null
+     * @param sub       the sub claim, may be null
+     * @param iat       the iat claim in epoch seconds, or -1 if absent
+     *
+     * @return true if the token is revoked
+     */
+    public boolean isRevoked(String jti, String originJti, String sub, long iat)
+    {
+        if (!revoked.isEmpty())
+        {
+            BloomFilter current = filter;
+            if (isRevoked(current, Type.JTI, jti, iat)
+                || isRevoked(current, Type.ORIGIN_JTI, originJti, iat)
+                || isRevoked(current, Type.SUB, sub, iat))
+            {
+                return true;
+            }
+        }
+
+        for (TokenRevocationIndex feed : feeds)
+        {
+            if (feed.isRevoked(jti, originJti, sub, iat))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isRevoked(CompactClaims claims)
+    {
+        return isRevoked(claims.getJti(), claims.getOriginJti(), claims.getSub(), claims.getIat());
+    }
+
+    /**
+     * Creates an empty index sized like this one, for a feed to fill
+     */
+    TokenRevocationIndex newFeed()
+    {
+        return new TokenRevocationIndex(capacity, falsePositiveRate);
+    }
+
+    /**
+     * Atomically replaces the revocations of a feed. Lookups see either every old or every new revocation, never a mix
+     *
+     * @param previous the feed's current index, or null if the feed has not been attached yet
+     * @param next     the feed's new index, or null to detach the feed
+     */
+    void replaceFeed(TokenRevocationIndex previous, TokenRevocationIndex next)
+    {
+        synchronized (lock)
+        {
+            List<TokenRevocationIndex> updated = new ArrayList<>(Arrays.asList(feeds));
+            if (previous != null)
+            {
+                updated.remove(previous);
+            }
+            if (next != null)
+            {
+                updated.add(next);
+            }
+            feeds = updated.toArray(NO_FEEDS);
+        }
+    }
+
+    private boolean isRevoked(BloomFilter current, Type type, String value, long iat)
+    {
+        if (value == null)
+        {
+            return false;
+        }
+
+        if (!current.mightContain(type.prefix, value))
+        {
+            return false;
+        }
+
+        Long issuedBefore = revoked.get(type.prefix + value);
+        // A token without iat cannot prove it was issued after the revocation
+        return issuedBefore != null && (issuedBefore == Long.MAX_VALUE || iat < 0 || iat < issuedBefore);
+    }
+
+    private void add(String prefix, String value, long issuedBefore)
+    {
+        synchronized (lock)
+        {
+            // Exact entry first, so a reader that sees the filter bits also finds the entry
+            revoked.merge(prefix + value, issuedBefore, Math::max);
+
+            BloomFilter current = filter;
+            if (++added > current.capacity())
+            {
+                // Sized from the live entries, so revocations that were undone do not keep growing the filter
+                current = rebuild(Math.max(capacity, revoked.size() * 2));
+            }
+            current.add(prefix, value);
+        }
+    }
+
+    private BloomFilter rebuild(int capacity)
+    {
+        BloomFilter rebuilt = new BloomFilter(capacity, falsePositiveRate);
+        for (String key : revoked.keySet())
+        {
+            // The filter hashes prefix and value as one run of chars, so the stored key hashes the same way
+            rebuilt.add("", key);
+        }
+
+        filter = rebuilt;
+        added = revoked.size();
+        return rebuilt;
+    }
+}
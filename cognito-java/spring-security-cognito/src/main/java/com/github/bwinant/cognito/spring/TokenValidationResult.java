@@ -0,0 +1,76 @@
+package com.github.bwinant.cognito.spring;
+
+/**
+ * The outcome of validating one token in a {@link CognitoTokenValidator#validateAll(java.util.List)} batch:
+ * either the authenticated user or the reason the token was rejected.
+ */
+public class TokenValidationResult
+{
+    private final String token;
+    private final CognitoUserDetails userDetails;
+    private final InvalidTokenException.Reason reason;
+    private final String message;
+
+    private TokenValidationResult(String token, CognitoUserDetails userDetails, InvalidTokenException.Reason reason, String message)
+    {
+        this.token = token;
+        this.userDetails = userDetails;
+        this.reason = reason;
+        this.message = message;
+    }
+
+    static TokenValidationResult valid(String token, CognitoUserDetails userDetails)
+    {
+        return new TokenValidationResult(token, userDetails, null, null);
+    }
+
+    static TokenValidationResult rejected(String token, InvalidTokenException.Reason reason, String message)
+    {
+        return new TokenValidationResult(token, null, reason, message);
+    }
+
+    TokenValidationResult copy()
+    {
+        return userDetails != null ? valid(token, userDetails.copy()) : this;
+    }
+
+    public String getToken()
+    {
+        return token;
+    }
+
+    public boolean isValid()
+    {
+        return userDetails != null;
+    }
+
+    /**
+     * @return the authenticated user, or null if the token was rejected
+     */
+    public CognitoUserDetails getUserDetails()
+    {
+        return userDetails;
+    }
+
+    /**
+     * @return why the token was rejected, or null if it is valid
+     */
+    public InvalidTokenException.Reason getReason()
+    {
+        return reason;
+    }
+
+    /**
+     * @return the rejection message, or null if the token is valid
+     */
+    public String getMessage()
+    {
+        return message;
+    }
+
+    @Override
+    public String toString()
+    {
+        return isValid() ? "valid " + userDetails : "rejected " + reason + ": " + message;
+    }
+}
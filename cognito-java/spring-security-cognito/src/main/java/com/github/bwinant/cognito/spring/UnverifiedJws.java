@@ -0,0 +1,148 @@
+package com.github.bwinant.cognito.spring;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * The few fields of a compact JWS that can be read cheaply before any signature verification:
+ * segment boundaries, the alg and kid header values and the compact payload claims.
+ * Header and payload are read with a streaming parser so no claim maps are built.
+ */
+final class UnverifiedJws
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final String token;
+    private final int headerEnd;
+    private final int payloadEnd;
+    private final String alg;
+    private final String kid;
+    private final CompactClaims claims;
+
+    private UnverifiedJws(String token, int headerEnd, int payloadEnd, String alg, String kid, CompactClaims claims)
+    {
+        this.token = token;
+        this.headerEnd = headerEnd;
+        this.payloadEnd = payloadEnd;
+        this.alg = alg;
+        this.kid = kid;
+        this.claims = claims;
+    }
+
+    /**
+     * Splits a compact JWS and reads its alg and kid header values and its payload claims
+     *
+     * @param token the raw token
+     *
+     * @return the unverified token
+     *
+     * @throws InvalidTokenException if the token is not three non-empty base64url segments with JSON header and payload
+     */
+    static UnverifiedJws parse(String token) throws InvalidTokenException
+    {
+        if (token == null || token.isEmpty())
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.MALFORMED, "Missing token");
+        }
+
+        int headerEnd = token.indexOf('.');
+        int payloadEnd = headerEnd > 0 ? token.indexOf('.', headerEnd + 1) : -1;
+        if (payloadEnd <= headerEnd + 1 || payloadEnd == token.length() - 1 || token.indexOf('.', payloadEnd + 1) >= 0)
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.MALFORMED, "Token must have exactly three non-empty parts");
+        }
+
+        try
+        {
+            String alg = null;
+            String kid = null;
+            try (JsonParser parser = JSON_FACTORY.createParser(Base64Url.decode(token, 0, headerEnd)))
+            {
+                expectObject(parser);
+                while (parser.nextToken() == JsonToken.FIELD_NAME)
+                {
+                    String name = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if ("alg".equals(name) && value == JsonToken.VALUE_STRING)
+                    {
+                        alg = parser.getText();
+                    }
+                    else if ("kid".equals(name) && value == JsonToken.VALUE_STRING)
+                    {
+                        kid = parser.getText();
+                    }
+                    else
+                    {
+                        parser.skipChildren();
+                    }
+                }
+            }
+
+            CompactClaims claims = CompactClaims.parse(Base64Url.decode(token, headerEnd + 1, payloadEnd));
+
+            return new UnverifiedJws(token, headerEnd, payloadEnd, alg, kid, claims);
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            throw InvalidTokenException.rejected(InvalidTokenException.Reason.MALFORMED, "Malformed token: " + e.getMessage());
+        }
+    }
+
+    private static void expectObject(JsonParser parser) throws IOException
+    {
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+        {
+            throw new IOException("Expected a JSON object");
+        }
+    }
+
+    String getToken()
+    {
+        return token;
+    }
+
+    int getHeaderEnd()
+    {
+        return headerEnd;
+    }
+
+    int getPayloadEnd()
+    {
+        return payloadEnd;
+    }
+
+    String getAlg()
+    {
+        return alg;
+    }
+
+    String getKid()
+    {
+        return kid;
+    }
+
+    /**
+     * The payload claims. These are not trusted until the signature has been verified.
+     *
+     * @return the claims
+     */
+    CompactClaims getClaims()
+    {
+        return claims;
+    }
+
+    boolean isExpired(long nowMillis)
+    {
+        long exp = claims.getExp();
+        return exp >= 0 && exp * 1000 < nowMillis;
+    }
+
+    boolean isNotYetValid(long nowMillis)
+    {
+        long nbf = claims.getNbf();
+        return nbf >= 0 && nbf * 1000 > nowMillis;
+    }
+}
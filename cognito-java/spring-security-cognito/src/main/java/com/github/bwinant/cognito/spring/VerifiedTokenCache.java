@@ -0,0 +1,64 @@
+package com.github.bwinant.cognito.spring;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded cache of tokens that have already passed signature verification.
+ * Entries are keyed by a SHA-256 digest of the token and are never returned past the token's expiration time.
+ * A single instance is safe to share between request threads.
+ */
+public class VerifiedTokenCache
+{
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final ExpiringCache<ByteBuffer, CognitoUserDetails> cache;
+
+    /**
+     * Constructs a new VerifiedTokenCache holding up to {@link #DEFAULT_MAX_SIZE} tokens
+     */
+    public VerifiedTokenCache()
+    {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructs a new VerifiedTokenCache
+     *
+     * @param maxSize the maximum number of tokens to hold
+     */
+    public VerifiedTokenCache(int maxSize)
+    {
+        this.cache = new ExpiringCache<>(maxSize);
+    }
+
+    /**
+     * The number of tokens currently cached, including any expired tokens not yet evicted
+     *
+     * @return the number of cached tokens
+     */
+    public int size()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Removes all cached tokens
+     */
+    public void clear()
+    {
+        cache.clear();
+    }
+
+    CognitoUserDetails get(ByteBuffer digest)
+    {
+        CognitoUserDetails userDetails = cache.get(digest, System.currentTimeMillis());
+
+        // Hand out a copy so callers can add authorities without racing each other on the shared instance
+        return userDetails != null ? userDetails.copy() : null;
+    }
+
+    void put(ByteBuffer digest, CognitoUserDetails userDetails, long expiresAt)
+    {
+        cache.put(digest, userDetails.copy(), expiresAt, System.currentTimeMillis());
+    }
+}
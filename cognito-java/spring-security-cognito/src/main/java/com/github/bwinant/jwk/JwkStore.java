@@ -8,4 +8,17 @@ public interface JwkStore
     Set<String> getKeyIds();
 
     PublicKey getKey(String keyId);
+
+    /**
+     * Looks up a key published by a specific token issuer. Stores that only hold keys for a single issuer can ignore it
+     *
+     * @param issuer the iss claim of the token being verified, may be null
+     * @param keyId  the kid header of the token being verified
+     *
+     * @return the key, or null if the issuer did not publish a key with that id
+     */
+    default PublicKey getKey(String issuer, String keyId)
+    {
+        return getKey(keyId);
+    }
 }
@@ -0,0 +1,104 @@
+package com.github.bwinant.cognito.spring;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class Base64UrlTest
+{
+    @Test
+    public void decodesRfc4648Vectors()
+    {
+        String[][] vectors = {
+            { "", "" },
+            { "Zg", "f" },
+            { "Zm8", "fo" },
+            { "Zm9v", "foo" },
+            { "Zm9vYg", "foob" },
+            { "Zm9vYmE", "fooba" },
+            { "Zm9vYmFy", "foobar" }
+        };
+
+        for (String[] vector : vectors)
+        {
+            byte[] decoded = Base64Url.decode(vector[0], 0, vector[0].length());
+            assertEquals(vector[0], vector[1], new String(decoded, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void decodesUrlSafeAlphabet()
+    {
+        assertArrayEquals(new byte[] { (byte) 0xfb, (byte) 0xff }, Base64Url.decode("-_8", 0, 3));
+    }
+
+    @Test
+    public void agreesWithJdkDecoder()
+    {
+        Random random = new Random(42);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+        for (int length = 0; length < 300; length++)
+        {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String encoded = "xx" + encoder.encodeToString(data) + "yy";
+
+            byte[] decoded = Base64Url.decode(encoded, 2, encoded.length() - 2);
+            assertArrayEquals("length " + length, data, decoded);
+            assertEquals(length, Base64Url.decodedLength(encoded.length() - 4));
+
+            byte[] dst = new byte[length + 3];
+            assertEquals(length, Base64Url.decode(encoded, 2, encoded.length() - 2, dst, 3));
+            assertArrayEquals(data, Arrays.copyOfRange(dst, 3, dst.length));
+        }
+    }
+
+    @Test
+    public void rejectsImpossibleLength()
+    {
+        assertEquals(-1, Base64Url.decodedLength(1));
+        assertEquals(-1, Base64Url.decodedLength(5));
+        assertRejected("Zm9vY");
+    }
+
+    @Test
+    public void rejectsCharactersOutsideAlphabet()
+    {
+        assertRejected("Zm9v+g");
+        assertRejected("Zm9v/g");
+        assertRejected("Zm8=");
+        assertRejected("Zm 9");
+        assertRejected("Zm\u00e99");
+    }
+
+    @Test
+    public void rejectsNonCanonicalTrailingBits()
+    {
+        // "Zg" is the only encoding of "f"; "Zh" to "Zv" differ only in the unused low bits
+        assertRejected("Zh");
+        assertRejected("Zv");
+        assertRejected("Zm9");
+        assertRejected("Zm9vYmF");
+    }
+
+    private static void assertRejected(String encoded)
+    {
+        try
+        {
+            Base64Url.decode(encoded, 0, encoded.length());
+            fail("Accepted " + encoded);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+}
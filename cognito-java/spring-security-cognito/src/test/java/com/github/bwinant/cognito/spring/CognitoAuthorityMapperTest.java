@@ -0,0 +1,111 @@
+package com.github.bwinant.cognito.spring;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CognitoAuthorityMapperTest
+{
+    @Test
+    public void mapsGroupsScopesAndClaims()
+    {
+        CognitoAuthorityMapper mapper = CognitoAuthorityMapper.builder()
+            .defaultAuthorities("ROLE_USER")
+            .groupPrefix("GROUP_")
+            .mapGroup("admins", "ROLE_ADMIN")
+            .mapScope("orders/write", "ORDERS_WRITE")
+            .mapClaim("custom:tier", "gold", "TIER_GOLD")
+            .build();
+
+        Set<GrantedAuthority> authorities = mapper.map(user("u1", "orders/read orders/write", "gold", "admins", "staff"));
+
+        assertEquals(AuthorityUtils.createAuthorityList("ROLE_USER", "ROLE_ADMIN", "GROUP_admins", "GROUP_staff", "ORDERS_WRITE", "TIER_GOLD"),
+                     Arrays.asList(authorities.toArray()));
+    }
+
+    @Test
+    public void sharesOneEntryBetweenValuesNoRuleReads()
+    {
+        CognitoAuthorityMapper mapper = CognitoAuthorityMapper.builder()
+            .defaultAuthorities("ROLE_USER")
+            .mapGroup("admins", "ROLE_ADMIN")
+            .mapClaim("custom:tier", "gold", "TIER_GOLD")
+            .build();
+
+        Set<GrantedAuthority> first = mapper.map(user("u1", "openid", "silver", "admins", "team-1"));
+        for (int i = 2; i < 100; i++)
+        {
+            assertSame(first, mapper.map(user("u" + i, "scope-" + i, "tier-" + i, "team-" + i, "admins")));
+        }
+        assertEquals(1, mapper.getCacheSize());
+    }
+
+    @Test
+    public void sharesOneEntryWhateverTheGroupOrder()
+    {
+        CognitoAuthorityMapper mapper = CognitoAuthorityMapper.builder()
+            .groupPrefix("GROUP_")
+            .build();
+
+        Set<GrantedAuthority> authorities = mapper.map(user("u1", null, null, "staff", "admins"));
+        assertSame(authorities, mapper.map(user("u2", null, null, "admins", "staff")));
+        assertEquals(1, mapper.getCacheSize());
+        assertEquals(AuthorityUtils.createAuthorityList("GROUP_admins", "GROUP_staff"), Arrays.asList(authorities.toArray()));
+    }
+
+    @Test
+    public void staysWithinCapAndRefillsAfterClearing()
+    {
+        CognitoAuthorityMapper mapper = CognitoAuthorityMapper.builder()
+            .groupPrefix("GROUP_")
+            .maxCacheSize(2)
+            .build();
+
+        Set<GrantedAuthority> a = mapper.map(user("u1", null, null, "a"));
+        mapper.map(user("u2", null, null, "b"));
+        assertSame(a, mapper.map(user("u3", null, null, "a")));
+        assertEquals(2, mapper.getCacheSize());
+
+        for (int i = 0; i < 100; i++)
+        {
+            mapper.map(user("u" + i, null, null, "g" + i));
+            assertTrue(mapper.getCacheSize() <= 2);
+        }
+
+        // Dropped sets are computed again, equal to before
+        assertEquals(a, mapper.map(user("u4", null, null, "a")));
+        assertEquals(AuthorityUtils.createAuthorityList("GROUP_b"), Arrays.asList(mapper.map(user("u5", null, null, "b")).toArray()));
+        assertTrue(mapper.getCacheSize() <= 2);
+    }
+
+    @Test
+    public void mapsWithoutCacheWhenSizeIsZero()
+    {
+        CognitoAuthorityMapper mapper = CognitoAuthorityMapper.builder()
+            .mapGroup("admins", "ROLE_ADMIN")
+            .maxCacheSize(0)
+            .build();
+
+        assertEquals(AuthorityUtils.createAuthorityList("ROLE_ADMIN"), Arrays.asList(mapper.map(user("u1", null, null, "admins")).toArray()));
+        assertEquals(0, mapper.getCacheSize());
+    }
+
+    private static CognitoUserDetails user(String username, String scope, String tier, String... groups)
+    {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("cognito:groups", Arrays.asList(groups));
+        attributes.put("scope", scope);
+        attributes.put("custom:tier", tier);
+        return new CognitoUserDetails(TestTokens.USER_POOL_ID, UUID.randomUUID(), username, attributes);
+    }
+}
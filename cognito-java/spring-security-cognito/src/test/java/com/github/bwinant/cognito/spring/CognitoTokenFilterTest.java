@@ -0,0 +1,218 @@
+package com.github.bwinant.cognito.spring;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.http.Cookie;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CognitoTokenFilterTest
+{
+    private static final String COOKIE = "cognito-session";
+
+    private final AtomicInteger authentications = new AtomicInteger();
+
+    private CognitoTokenFilter filter;
+    private String token;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        TestTokens.MutableJwkStore jwkStore = new TestTokens.MutableJwkStore();
+        jwkStore.put(TestTokens.KEY_ID, TestTokens.publicKey());
+
+        PreAuthenticatedAuthenticationProvider provider = new PreAuthenticatedAuthenticationProvider();
+        provider.setPreAuthenticatedUserDetailsService(new CognitoUserDetailsService(new CognitoTokenValidator(jwkStore)));
+        AuthenticationManager manager = authentication -> {
+            authentications.incrementAndGet();
+            return provider.authenticate(authentication);
+        };
+
+        filter = new CognitoTokenFilter();
+        filter.setAuthenticationManager(manager);
+        filter.setSessionTokenCookie(COOKIE);
+        filter.afterPropertiesSet();
+
+        token = TestTokens.sign(TestTokens.header(TestTokens.KEY_ID), TestTokens.payload(), TestTokens.privateKey());
+        SecurityContextHolder.clearContext();
+    }
+
+    @After
+    public void tearDown()
+    {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void authorizationHeaderWinsOverCookie() throws Exception
+    {
+        MockHttpServletRequest request = request();
+        request.addHeader("Authorization", "Bearer " + token);
+        request.addHeader("X-Requested-With", "XMLHttpRequest");
+        request.setCookies(new Cookie(COOKIE, "cs1.forged.mac"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertEquals("alice", filter(request, response).getName());
+        assertTrue(response.getHeaders("Set-Cookie").isEmpty());
+    }
+
+    @Test
+    public void readsCookieOnlyWithRequestedWithHeader() throws Exception
+    {
+        // A cross-site form post carries the cookie but cannot add the header
+        MockHttpServletRequest request = request();
+        request.setCookies(new Cookie(COOKIE, token));
+
+        assertNull(filter(request, new MockHttpServletResponse()));
+        assertEquals(0, authentications.get());
+
+        request = request();
+        request.addHeader("X-Requested-With", "XMLHttpRequest");
+        request.setCookies(new Cookie(COOKIE, token));
+
+        assertEquals("alice", filter(request, new MockHttpServletResponse()).getName());
+        assertEquals(1, authentications.get());
+    }
+
+    @Test
+    public void clearsRejectedCookie() throws Exception
+    {
+        MockHttpServletRequest request = request();
+        request.addHeader("X-Requested-With", "XMLHttpRequest");
+        request.setCookies(new Cookie(COOKIE, "cs1.forged.mac"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertNull(filter(request, response));
+        assertEquals(COOKIE + "=; Path=/; Max-Age=0; HttpOnly; SameSite=Strict", response.getHeader("Set-Cookie"));
+    }
+
+    @Test
+    public void keepsCookieWhenRejectingAuthorizationHeader() throws Exception
+    {
+        MockHttpServletRequest request = request();
+        request.addHeader("Authorization", "Bearer not-a-token");
+        request.addHeader("X-Requested-With", "XMLHttpRequest");
+        request.setCookies(new Cookie(COOKIE, token));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertNull(filter(request, response));
+        assertTrue(response.getHeaders("Set-Cookie").isEmpty());
+    }
+
+    @Test
+    public void laterDispatchReusesAuthentication() throws Exception
+    {
+        MockHttpServletRequest request = request();
+        request.addHeader("Authorization", "Bearer " + token);
+
+        Authentication first = filter(request, new MockHttpServletResponse());
+        SecurityContextHolder.clearContext();
+        assertSame(first, filter(request, new MockHttpServletResponse()));
+        assertEquals(1, authentications.get());
+
+        // A header changed between dispatches is validated again
+        SecurityContextHolder.clearContext();
+        MockHttpServletRequest changed = request();
+        for (String name : Collections.list(request.getAttributeNames()))
+        {
+            changed.setAttribute(name, request.getAttribute(name));
+        }
+        changed.addHeader("Authorization", "Bearer not-a-token");
+        assertNull(filter(changed, new MockHttpServletResponse()));
+        assertEquals(2, authentications.get());
+    }
+
+    @Test
+    public void issuesSessionCookieOnlyWithoutValidOne() throws Exception
+    {
+        SessionTokenCodec codec = new SessionTokenCodec(new byte[32]);
+        filter.setSessionTokenCodec(codec);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter(bearer(), response);
+        String cookie = response.getHeader("Set-Cookie");
+        assertTrue(cookie, cookie.startsWith(COOKIE + "=cs1.") && cookie.endsWith("; HttpOnly; SameSite=Strict"));
+        String session = cookie.substring(COOKIE.length() + 1, cookie.indexOf(';'));
+
+        // The client keeps sending its Cognito token along with the cookie it was given
+        assertEquals(0, issued(bearer(), session).size());
+
+        // Forged, expired or another user's session cookies are replaced
+        assertEquals(1, issued(bearer(), "cs1.forged.mac").size());
+        long now = System.currentTimeMillis();
+        CompactClaims expired = CompactClaims.parse(TestTokens.payload(now / 1000 - 1800, -1).getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, issued(bearer(), codec.encode(expired, now - 3600 * 1000)).size());
+        CompactClaims other = CompactClaims.parse(TestTokens.payload().replace(TestTokens.SUB, UUID.randomUUID().toString()).getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, issued(bearer(), codec.encode(other, now)).size());
+    }
+
+    @Test
+    public void issuesSessionHeaderOnlyWithoutValidOne() throws Exception
+    {
+        filter.setSessionTokenCodec(new SessionTokenCodec(new byte[32]));
+        filter.setSessionTokenCookie(null);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter(bearer(), response);
+        String session = response.getHeader("X-Cognito-Session");
+        assertTrue(session, SessionTokenCodec.isSessionToken(session));
+        assertTrue(response.getHeaders("Set-Cookie").isEmpty());
+
+        SecurityContextHolder.clearContext();
+        MockHttpServletRequest request = bearer();
+        request.addHeader("X-Cognito-Session", session);
+        response = new MockHttpServletResponse();
+        filter(request, response);
+        assertNull(response.getHeader("X-Cognito-Session"));
+    }
+
+    private MockHttpServletRequest bearer()
+    {
+        MockHttpServletRequest request = request();
+        request.addHeader("Authorization", "Bearer " + token);
+        return request;
+    }
+
+    /**
+     * Runs a request carrying a session cookie and returns the cookies set on the response
+     */
+    private List<String> issued(MockHttpServletRequest request, String session) throws Exception
+    {
+        SecurityContextHolder.clearContext();
+        request.setCookies(new Cookie(COOKIE, session));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertEquals("alice", filter(request, response).getName());
+        return response.getHeaders("Set-Cookie");
+    }
+
+    private static MockHttpServletRequest request()
+    {
+        return new MockHttpServletRequest("GET", "/orders");
+    }
+
+    /**
+     * Runs the filter and returns the authentication the rest of the chain saw
+     */
+    private Authentication filter(MockHttpServletRequest request, MockHttpServletResponse response) throws Exception
+    {
+        Authentication[] seen = new Authentication[1];
+        filter.doFilter(request, response, (req, res) -> seen[0] = SecurityContextHolder.getContext().getAuthentication());
+        return seen[0];
+    }
+}
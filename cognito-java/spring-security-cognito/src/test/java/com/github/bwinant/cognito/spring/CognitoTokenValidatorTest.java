@@ -0,0 +1,182 @@
+package com.github.bwinant.cognito.spring;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CognitoTokenValidatorTest
+{
+    private TestTokens.MutableJwkStore jwkStore;
+    private CognitoTokenValidator validator;
+    private PrivateKey signingKey;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        jwkStore = new TestTokens.MutableJwkStore();
+        jwkStore.put(TestTokens.KEY_ID, TestTokens.publicKey());
+        validator = new CognitoTokenValidator(jwkStore);
+        signingKey = TestTokens.privateKey();
+    }
+
+    @Test
+    public void acceptsValidToken() throws Exception
+    {
+        CognitoUserDetails userDetails = validator.validate(TestTokens.sign(TestTokens.header(TestTokens.KEY_ID), TestTokens.payload(), signingKey));
+
+        assertEquals(TestTokens.USER_POOL_ID, userDetails.getUserPoolId());
+        assertEquals(TestTokens.SUB, userDetails.getSub().toString());
+        assertEquals("alice", userDetails.getUsername());
+    }
+
+    @Test
+    public void rejectsOtherAlgorithms() throws Exception
+    {
+        String payload = TestTokens.payload();
+
+        assertRejected(InvalidTokenException.Reason.UNSUPPORTED_ALGORITHM, TestTokens.sign("{\"alg\":\"HS256\",\"kid\":\"test-key\"}", payload, signingKey));
+        assertRejected(InvalidTokenException.Reason.UNSUPPORTED_ALGORITHM, TestTokens.sign("{\"alg\":\"RS512\",\"kid\":\"test-key\"}", payload, signingKey));
+        assertRejected(InvalidTokenException.Reason.UNSUPPORTED_ALGORITHM, TestTokens.sign("{\"alg\":\"rs256\",\"kid\":\"test-key\"}", payload, signingKey));
+        assertRejected(InvalidTokenException.Reason.UNSUPPORTED_ALGORITHM, TestTokens.sign("{\"kid\":\"test-key\"}", payload, signingKey));
+    }
+
+    @Test
+    public void rejectsAlgNone() throws Exception
+    {
+        String unsigned = TestTokens.encode("{\"alg\":\"none\",\"kid\":\"test-key\"}") + '.' + TestTokens.encode(TestTokens.payload());
+
+        assertRejected(InvalidTokenException.Reason.MALFORMED, unsigned + '.');
+        assertRejected(InvalidTokenException.Reason.UNSUPPORTED_ALGORITHM, unsigned + ".c2ln");
+        assertRejected(InvalidTokenException.Reason.UNSUPPORTED_ALGORITHM, TestTokens.sign("{\"alg\":\"none\",\"kid\":\"test-key\"}", TestTokens.payload(), signingKey));
+    }
+
+    @Test
+    public void rejectsUnknownOrMissingKid() throws Exception
+    {
+        assertRejected(InvalidTokenException.Reason.UNKNOWN_KEY, TestTokens.sign(TestTokens.header("other-key"), TestTokens.payload(), signingKey));
+        assertRejected(InvalidTokenException.Reason.UNKNOWN_KEY, TestTokens.sign("{\"alg\":\"RS256\"}", TestTokens.payload(), signingKey));
+    }
+
+    @Test
+    public void rejectsTokenSignedWithWrongKey() throws Exception
+    {
+        KeyPair otherKeys = TestTokens.newKeyPair();
+        jwkStore.put("other-key", otherKeys.getPublic());
+
+        // Signed by the test key but names a kid whose key is different
+        assertRejected(InvalidTokenException.Reason.BAD_SIGNATURE, TestTokens.sign(TestTokens.header("other-key"), TestTokens.payload(), signingKey));
+        assertRejected(InvalidTokenException.Reason.BAD_SIGNATURE, TestTokens.sign(TestTokens.header(TestTokens.KEY_ID), TestTokens.payload(), otherKeys.getPrivate()));
+    }
+
+    @Test
+    public void rejectsTamperedPayload() throws Exception
+    {
+        String token = TestTokens.sign(TestTokens.header(TestTokens.KEY_ID), TestTokens.payload(), signingKey);
+        String forged = TestTokens.encode(TestTokens.payload().replace("alice", "admin"));
+
+        int headerEnd = token.indexOf('.');
+        int payloadEnd = token.lastIndexOf('.');
+        assertRejected(InvalidTokenException.Reason.BAD_SIGNATURE, token.substring(0, headerEnd + 1) + forged + token.substring(payloadEnd));
+    }
+
+    @Test
+    public void rejectsExpiredToken() throws Exception
+    {
+        long now = System.currentTimeMillis() / 1000;
+        assertRejected(InvalidTokenException.Reason.EXPIRED, TestTokens.sign(TestTokens.header(TestTokens.KEY_ID), TestTokens.payload(now - 60, -1), signingKey));
+        assertRejected(InvalidTokenException.Reason.EXPIRED, TestTokens.resource("/keys/test-key.jwt"));
+    }
+
+    @Test
+    public void rejectsTokenNotYetValid() throws Exception
+    {
+        long now = System.currentTimeMillis() / 1000;
+        String header = TestTokens.header(TestTokens.KEY_ID);
+
+        assertRejected(InvalidTokenException.Reason.NOT_YET_VALID, TestTokens.sign(header, TestTokens.payload(now + 3600, now + 600), signingKey));
+        validator.validate(TestTokens.sign(header, TestTokens.payload(now + 3600, now - 1), signingKey));
+    }
+
+    @Test
+    public void doesNotCacheRejectionOfTokenNotYetValid() throws Exception
+    {
+        validator.setRejectedTokenCache(new RejectedTokenCache());
+        long now = System.currentTimeMillis() / 1000;
+        String token = TestTokens.sign(TestTokens.header(TestTokens.KEY_ID), TestTokens.payload(now + 3600, now + 600), signingKey);
+
+        assertRejected(InvalidTokenException.Reason.NOT_YET_VALID, token);
+        assertRejected(InvalidTokenException.Reason.NOT_YET_VALID, token);
+    }
+
+    @Test
+    public void rejectsMalformedTokens() throws Exception
+    {
+        String token = TestTokens.sign(TestTokens.header(TestTokens.KEY_ID), TestTokens.payload(), signingKey);
+
+        assertRejected(InvalidTokenException.Reason.MALFORMED, token.substring(0, token.lastIndexOf('.')));
+        assertRejected(InvalidTokenException.Reason.MALFORMED, token + ".c2ln");
+        assertRejected(InvalidTokenException.Reason.MALFORMED, "*" + token.substring(1));
+        assertRejected(InvalidTokenException.Reason.MALFORMED, token.substring(0, token.length() - 1) + '*');
+    }
+
+    @Test
+    public void rejectsTokenMissingSubOrIssuer() throws Exception
+    {
+        String header = TestTokens.header(TestTokens.KEY_ID);
+        long exp = System.currentTimeMillis() / 1000 + 3600;
+
+        assertRejected(InvalidTokenException.Reason.MALFORMED, TestTokens.sign(header, "{\"iss\":\"" + TestTokens.ISSUER + "\",\"token_use\":\"access\",\"exp\":" + exp + "}", signingKey));
+        assertRejected(InvalidTokenException.Reason.MALFORMED, TestTokens.sign(header, "{\"sub\":\"" + TestTokens.SUB + "\",\"token_use\":\"access\",\"exp\":" + exp + "}", signingKey));
+        assertRejected(InvalidTokenException.Reason.WRONG_TOKEN_USE, TestTokens.sign(header, "{\"sub\":\"" + TestTokens.SUB + "\",\"iss\":\"" + TestTokens.ISSUER + "\",\"exp\":" + exp + "}", signingKey));
+    }
+
+    @Test
+    public void rejectsSubThatIsNotUuid() throws Exception
+    {
+        String header = TestTokens.header(TestTokens.KEY_ID);
+        long exp = System.currentTimeMillis() / 1000 + 3600;
+
+        for (String sub : new String[] { "alice", "", TestTokens.SUB.replace('-', 'x'), TestTokens.SUB.substring(1) + "g", TestTokens.SUB + "0" })
+        {
+            assertRejected(InvalidTokenException.Reason.MALFORMED, TestTokens.sign(header, "{\"sub\":\"" + sub + "\",\"iss\":\"" + TestTokens.ISSUER + "\",\"token_use\":\"access\",\"exp\":" + exp + "}", signingKey));
+        }
+        assertTrue(CognitoTokenValidator.isUuid(TestTokens.SUB.toUpperCase()));
+    }
+
+    @Test
+    public void followsKeyRotation() throws Exception
+    {
+        String header = TestTokens.header(TestTokens.KEY_ID);
+        String oldToken = TestTokens.sign(header, TestTokens.payload(), signingKey);
+        validator.validate(oldToken);
+
+        // The pool publishes a new key under the same kid
+        KeyPair rotated = TestTokens.newKeyPair();
+        jwkStore.put(TestTokens.KEY_ID, rotated.getPublic());
+
+        validator.validate(TestTokens.sign(header, TestTokens.payload(), rotated.getPrivate()));
+        assertRejected(InvalidTokenException.Reason.BAD_SIGNATURE, oldToken);
+
+        jwkStore.put(TestTokens.KEY_ID, TestTokens.publicKey());
+        validator.validate(oldToken);
+    }
+
+    private void assertRejected(InvalidTokenException.Reason reason, String token)
+    {
+        try
+        {
+            validator.validate(token);
+            fail("Accepted " + token);
+        }
+        catch (InvalidTokenException e)
+        {
+            assertEquals(e.getMessage(), reason, e.getReason());
+        }
+    }
+}
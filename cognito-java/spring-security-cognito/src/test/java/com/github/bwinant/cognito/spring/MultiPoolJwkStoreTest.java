@@ -0,0 +1,94 @@
+package com.github.bwinant.cognito.spring;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class MultiPoolJwkStoreTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger refreshes = new AtomicInteger();
+
+    private MultiPoolJwkStore multiPool;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        File jwks = folder.newFile("jwks.json");
+        String keys = new ObjectMapper().writeValueAsString(Collections.singletonMap(TestTokens.KEY_ID, TestTokens.resource("/keys/test-key.pub.pem")));
+        Files.write(jwks.toPath(), keys.getBytes(StandardCharsets.US_ASCII));
+
+        multiPool = new MultiPoolJwkStore();
+        multiPool.addUserPool("us-east-1", TestTokens.USER_POOL_ID, pool(jwks));
+        multiPool.addUserPool("us-west-2", "us-west-2_Other", pool(jwks));
+    }
+
+    @After
+    public void tearDown()
+    {
+        multiPool.close();
+    }
+
+    @Test
+    public void legacyLookupDoesNotRefetchEveryPool() throws Exception
+    {
+        assertNotNull(multiPool.getKey(TestTokens.KEY_ID));
+        assertNull(multiPool.getKey("forged-key"));
+
+        Thread.sleep(200);
+        assertEquals(0, refreshes.get());
+
+        // Whereas a miss for the token's own issuer refetches that one pool
+        assertNull(multiPool.getKey(TestTokens.ISSUER, "forged-key"));
+        Thread.sleep(200);
+        assertEquals(1, refreshes.get());
+    }
+
+    @Test
+    public void rejectsIssuersNotAllowed()
+    {
+        assertNull(multiPool.getKey("https://cognito-idp.us-east-1.amazonaws.com/us-east-1_Unknown", TestTokens.KEY_ID));
+        assertNull(multiPool.getUserPoolId(null));
+    }
+
+    @Test
+    public void validatorTakesPoolIdFromStore() throws Exception
+    {
+        CognitoTokenValidator validator = new CognitoTokenValidator(multiPool);
+        CognitoUserDetails userDetails = validator.validate(TestTokens.sign(TestTokens.header(TestTokens.KEY_ID), TestTokens.payload(), TestTokens.privateKey()));
+
+        assertEquals(TestTokens.USER_POOL_ID, userDetails.getUserPoolId());
+    }
+
+    private CognitoJwkStore pool(File jwks) throws Exception
+    {
+        CognitoJwkStore store = new CognitoJwkStore();
+        store.load(jwks.toURI().toURL());
+        store.setMinRefetchInterval(0, TimeUnit.MILLISECONDS);
+        store.setMetrics(new CognitoMetrics()
+        {
+            @Override
+            public void keysRefreshed(int keyCount, long nanos)
+            {
+                refreshes.incrementAndGet();
+            }
+        });
+        return store;
+    }
+}
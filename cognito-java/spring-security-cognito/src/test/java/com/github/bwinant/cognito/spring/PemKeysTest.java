@@ -0,0 +1,73 @@
+package com.github.bwinant.cognito.spring;
+
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.KeySpec;
+import java.security.spec.RSAPublicKeySpec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PemKeysTest
+{
+    @Test
+    public void readsSpkiAndPkcs1EncodingsOfTheSameKey() throws Exception
+    {
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        PublicKey spki = keyFactory.generatePublic(PemKeys.keySpec(TestTokens.resource("/keys/test-key.pub.pem")));
+
+        KeySpec spec = PemKeys.keySpec(TestTokens.resource("/keys/test-key.rsa.pub.pem"));
+        assertTrue(spec instanceof RSAPublicKeySpec);
+        PublicKey pkcs1 = keyFactory.generatePublic(spec);
+
+        assertEquals(spki, pkcs1);
+    }
+
+    @Test
+    public void acceptsCrLfLineEndings() throws Exception
+    {
+        String pem = TestTokens.resource("/keys/test-key.rsa.pub.pem").replace("\n", "\r\n");
+        PublicKey key = KeyFactory.getInstance("RSA").generatePublic(PemKeys.keySpec(pem));
+        assertEquals(TestTokens.publicKey(), key);
+    }
+
+    @Test
+    public void rejectsTextThatIsNotPem()
+    {
+        assertRejected("MIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEA");
+        assertRejected("-----BEGIN PUBLIC KEY-----");
+        assertRejected("-----BEGIN CERTIFICATE-----\nMIIB\n-----END CERTIFICATE-----");
+    }
+
+    @Test
+    public void rejectsInvalidBase64()
+    {
+        assertRejected("-----BEGIN RSA PUBLIC KEY-----\nMII*Cg\n-----END RSA PUBLIC KEY-----");
+    }
+
+    @Test
+    public void rejectsTruncatedPkcs1Key()
+    {
+        String pem = TestTokens.resource("/keys/test-key.rsa.pub.pem");
+        String body = pem.substring(pem.indexOf('\n') + 1, pem.lastIndexOf("-----END")).replace("\n", "");
+        String truncated = body.substring(0, body.length() / 2 / 4 * 4);
+        assertRejected("-----BEGIN RSA PUBLIC KEY-----\n" + truncated + "\n-----END RSA PUBLIC KEY-----");
+    }
+
+    private static void assertRejected(String pem)
+    {
+        try
+        {
+            PemKeys.keySpec(pem);
+            fail("Accepted " + pem);
+        }
+        catch (InvalidKeySpecException e)
+        {
+            // expected
+        }
+    }
+}
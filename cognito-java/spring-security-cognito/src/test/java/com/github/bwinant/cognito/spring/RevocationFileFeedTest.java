@@ -0,0 +1,173 @@
+package com.github.bwinant.cognito.spring;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RevocationFileFeedTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TokenRevocationIndex index;
+    private File file;
+    private RevocationFileFeed feed;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        index = new TokenRevocationIndex();
+        file = new File(folder.getRoot(), "revocations.txt");
+        feed = new RevocationFileFeed(index, file);
+    }
+
+    @After
+    public void tearDown()
+    {
+        feed.close();
+    }
+
+    @Test
+    public void readsOnlyAppendedLines() throws IOException
+    {
+        assertEquals(0, feed.poll());
+
+        write("jti a\nsub u1 1000\n");
+        assertEquals(2, feed.poll());
+        assertTrue(isJtiRevoked("a"));
+        assertTrue(index.isRevoked(null, null, "u1", 999));
+        assertFalse(index.isRevoked(null, null, "u1", 1000));
+
+        append("-jti a\norigin_jti o");
+        assertEquals(1, feed.poll());
+        assertFalse(isJtiRevoked("a"));
+
+        // The partly written line is read once it is complete
+        append("\n");
+        assertEquals(1, feed.poll());
+        assertTrue(index.isRevoked(null, "o", null, -1));
+        assertEquals(0, feed.poll());
+    }
+
+    @Test
+    public void reloadsFileRewrittenShorter() throws IOException
+    {
+        write("jti a\njti b\njti c\n");
+        feed.poll();
+
+        write("jti b\n");
+        feed.poll();
+
+        assertFalse(isJtiRevoked("a"));
+        assertTrue(isJtiRevoked("b"));
+        assertFalse(isJtiRevoked("c"));
+    }
+
+    @Test
+    public void reloadsFileRewrittenToSameSize() throws IOException
+    {
+        write("jti a\n");
+        feed.poll();
+
+        write("jti b\n");
+        touch();
+        assertEquals(1, feed.poll());
+
+        assertFalse(isJtiRevoked("a"));
+        assertTrue(isJtiRevoked("b"));
+    }
+
+    @Test
+    public void reloadsFileRewrittenLarger() throws IOException
+    {
+        write("jti a\n");
+        feed.poll();
+
+        write("jti b\njti c\n");
+        touch();
+        assertEquals(2, feed.poll());
+
+        assertFalse(isJtiRevoked("a"));
+        assertTrue(isJtiRevoked("b"));
+        assertTrue(isJtiRevoked("c"));
+    }
+
+    @Test
+    public void reloadsFileReplacedByRename() throws IOException
+    {
+        write("jti a\njti b\n");
+        feed.poll();
+
+        File replacement = new File(folder.getRoot(), "revocations.tmp");
+        Files.write(replacement.toPath(), "jti a\njti b\njti c\n".getBytes(StandardCharsets.UTF_8));
+        Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        feed.poll();
+
+        assertTrue(isJtiRevoked("a"));
+        assertTrue(isJtiRevoked("b"));
+        assertTrue(isJtiRevoked("c"));
+    }
+
+    @Test
+    public void keepsRevocationsMadeOnIndexAcrossReload() throws IOException
+    {
+        index.revoke(TokenRevocationIndex.Type.JTI, "manual");
+        write("jti a\njti b\n");
+        feed.poll();
+        assertEquals(3, index.size());
+
+        write("jti b\n");
+        feed.poll();
+
+        assertTrue(isJtiRevoked("manual"));
+        assertFalse(isJtiRevoked("a"));
+        assertTrue(isJtiRevoked("b"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void undoInFileDoesNotTouchRevocationsMadeOnIndex() throws IOException
+    {
+        index.revoke(TokenRevocationIndex.Type.JTI, "manual");
+        write("-jti manual\n");
+        feed.poll();
+
+        assertTrue(isJtiRevoked("manual"));
+    }
+
+    private boolean isJtiRevoked(String jti)
+    {
+        return index.isRevoked(jti, null, null, -1);
+    }
+
+    private void write(String text) throws IOException
+    {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void append(String text) throws IOException
+    {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Moves the modification time forward, as a rewrite within the file system's timestamp granularity would not
+     */
+    private void touch()
+    {
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+    }
+}
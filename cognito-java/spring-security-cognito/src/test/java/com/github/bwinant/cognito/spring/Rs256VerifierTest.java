@@ -0,0 +1,240 @@
+package com.github.bwinant.cognito.spring;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.ProviderException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.AbstractMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Rs256VerifierTest
+{
+    @Test
+    public void verifiesTokenSignedByOpenssl() throws Exception
+    {
+        String token = TestTokens.resource("/keys/test-key.jwt");
+        assertTrue(Rs256Verifier.verify(UnverifiedJws.parse(token), TestTokens.publicKey()));
+    }
+
+    @Test
+    public void signsKnownTokenIdentically() throws Exception
+    {
+        // RSASSA-PKCS1-v1_5 is deterministic, so signing the same input must reproduce the openssl signature
+        String token = TestTokens.resource("/keys/test-key.jwt");
+        UnverifiedJws jws = UnverifiedJws.parse(token);
+
+        String header = new String(Base64Url.decode(token, 0, jws.getHeaderEnd()), "UTF-8");
+        String payload = new String(Base64Url.decode(token, jws.getHeaderEnd() + 1, jws.getPayloadEnd()), "UTF-8");
+        assertEquals(token, TestTokens.sign(header, payload, TestTokens.privateKey()));
+    }
+
+    @Test
+    public void rejectsTamperedPayload() throws Exception
+    {
+        String token = TestTokens.resource("/keys/test-key.jwt");
+        UnverifiedJws jws = UnverifiedJws.parse(token);
+        String payload = new String(Base64Url.decode(token, jws.getHeaderEnd() + 1, jws.getPayloadEnd()), "UTF-8");
+        String tampered = token.substring(0, jws.getHeaderEnd() + 1) + TestTokens.encode(payload.replace("alice", "admin")) +
+                          token.substring(jws.getPayloadEnd());
+
+        assertFalse(Rs256Verifier.verify(UnverifiedJws.parse(tampered), TestTokens.publicKey()));
+    }
+
+    @Test
+    public void rejectsTamperedSignature() throws Exception
+    {
+        String token = TestTokens.resource("/keys/test-key.jwt");
+        int at = token.lastIndexOf('.') + 20;
+        String tampered = token.substring(0, at) + (token.charAt(at) == 'A' ? 'B' : 'A') + token.substring(at + 1);
+
+        assertFalse(Rs256Verifier.verify(UnverifiedJws.parse(tampered), TestTokens.publicKey()));
+
+        // The failed verification must not leave the cached Signature in a bad state
+        assertTrue(Rs256Verifier.verify(UnverifiedJws.parse(token), TestTokens.publicKey()));
+    }
+
+    @Test
+    public void rejectsTruncatedSignature() throws Exception
+    {
+        String token = TestTokens.resource("/keys/test-key.jwt");
+        // Drops the last two characters, leaving 255 whole signature bytes
+        String truncated = token.substring(0, token.length() - 2);
+
+        assertFalse(Rs256Verifier.verify(UnverifiedJws.parse(truncated), TestTokens.publicKey()));
+        assertTrue(Rs256Verifier.verify(UnverifiedJws.parse(token), TestTokens.publicKey()));
+    }
+
+    @Test
+    public void rejectsMalformedSignature() throws Exception
+    {
+        String token = TestTokens.resource("/keys/test-key.jwt");
+
+        assertMalformed(token.substring(0, token.length() - 1) + '*');
+        assertMalformed(token + "AAA");
+        assertMalformed(token.substring(0, token.length() - 1) + 'B');
+    }
+
+    @Test
+    public void rejectsSignatureFromAnotherKey() throws Exception
+    {
+        String token = TestTokens.resource("/keys/test-key.jwt");
+        PublicKey otherKey = TestTokens.newKeyPair().getPublic();
+
+        assertFalse(Rs256Verifier.verify(UnverifiedJws.parse(token), otherKey));
+    }
+
+    @Test
+    public void reinitializesWhenKeyBehindKidIsRotated() throws Exception
+    {
+        KeyPair oldKeys = TestTokens.newKeyPair();
+        KeyPair newKeys = TestTokens.newKeyPair();
+        String header = TestTokens.header("rotated");
+        UnverifiedJws oldToken = UnverifiedJws.parse(TestTokens.sign(header, TestTokens.payload(), oldKeys.getPrivate()));
+        UnverifiedJws newToken = UnverifiedJws.parse(TestTokens.sign(header, TestTokens.payload(), newKeys.getPrivate()));
+
+        assertTrue(Rs256Verifier.verify(oldToken, oldKeys.getPublic()));
+        assertFalse(Rs256Verifier.verify(newToken, oldKeys.getPublic()));
+
+        // Same kid, different key: the Signature cached for the kid must be initialized again
+        assertTrue(Rs256Verifier.verify(newToken, newKeys.getPublic()));
+        assertFalse(Rs256Verifier.verify(oldToken, newKeys.getPublic()));
+
+        assertTrue(Rs256Verifier.verify(oldToken, oldKeys.getPublic()));
+    }
+
+    @Test
+    public void dropsSignatureAfterProviderFailure() throws Exception
+    {
+        UnverifiedJws jws = UnverifiedJws.parse(TestTokens.resource("/keys/test-key.jwt"));
+        PublicKey key = TestTokens.publicKey();
+        Signature failing = new FailingSignature();
+        failing.initVerify(key);
+        Rs256Verifier.SIGNATURES.get().put(jws.getKid(), new AbstractMap.SimpleImmutableEntry<>(key, failing));
+
+        try
+        {
+            Rs256Verifier.verify(jws, key);
+            fail("Provider failure was swallowed");
+        }
+        catch (ProviderException e)
+        {
+            // expected
+        }
+
+        assertFalse(Rs256Verifier.SIGNATURES.get().containsKey(jws.getKid()));
+        assertTrue(Rs256Verifier.verify(jws, key));
+    }
+
+    @Test
+    public void keepsOnlyJdkTypesInThreadLocal() throws Exception
+    {
+        assertTrue(Rs256Verifier.verify(UnverifiedJws.parse(TestTokens.resource("/keys/test-key.jwt")), TestTokens.publicKey()));
+
+        Map<String, Map.Entry<PublicKey, Signature>> signatures = Rs256Verifier.SIGNATURES.get();
+        assertNull(signatures.getClass().getClassLoader());
+        for (Map.Entry<PublicKey, Signature> entry : signatures.values())
+        {
+            assertNull(entry.getClass().getClassLoader());
+            assertNull(entry.getKey().getClass().getClassLoader());
+        }
+    }
+
+    @Test
+    public void rejectsKeyThatIsNotRsa() throws Exception
+    {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        UnverifiedJws jws = UnverifiedJws.parse(TestTokens.resource("/keys/test-key.jwt"));
+
+        try
+        {
+            Rs256Verifier.verify(jws, generator.generateKeyPair().getPublic());
+            fail("Verified with an EC key");
+        }
+        catch (InvalidTokenException e)
+        {
+            assertEquals(InvalidTokenException.Reason.UNKNOWN_KEY, e.getReason());
+        }
+    }
+
+    private static void assertMalformed(String token) throws Exception
+    {
+        try
+        {
+            Rs256Verifier.verify(UnverifiedJws.parse(token), TestTokens.publicKey());
+            fail("Accepted " + token);
+        }
+        catch (InvalidTokenException e)
+        {
+            assertEquals(InvalidTokenException.Reason.MALFORMED, e.getReason());
+        }
+    }
+
+    /**
+     * A Signature whose provider fails part way through a verification
+     */
+    private static class FailingSignature extends Signature
+    {
+        FailingSignature()
+        {
+            super("SHA256withRSA");
+        }
+
+        @Override
+        protected void engineInitVerify(PublicKey publicKey)
+        {
+        }
+
+        @Override
+        protected void engineInitSign(PrivateKey privateKey)
+        {
+        }
+
+        @Override
+        protected void engineUpdate(byte b)
+        {
+            throw new ProviderException("Provider failure");
+        }
+
+        @Override
+        protected void engineUpdate(byte[] b, int off, int len)
+        {
+            throw new ProviderException("Provider failure");
+        }
+
+        @Override
+        protected byte[] engineSign()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected boolean engineVerify(byte[] sigBytes)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @Deprecated
+        protected void engineSetParameter(String param, Object value)
+        {
+        }
+
+        @Override
+        @Deprecated
+        protected Object engineGetParameter(String param)
+        {
+            return null;
+        }
+    }
+}
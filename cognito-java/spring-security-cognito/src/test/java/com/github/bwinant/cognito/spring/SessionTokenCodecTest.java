@@ -0,0 +1,135 @@
+package com.github.bwinant.cognito.spring;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SessionTokenCodecTest
+{
+    private long now;
+    private CompactClaims claims;
+    private SessionTokenCodec codec;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        now = System.currentTimeMillis();
+        claims = claims(now / 1000 + 3600);
+        codec = new SessionTokenCodec(key('a'));
+    }
+
+    @Test
+    public void carriesVerifiedClaims() throws Exception
+    {
+        String token = codec.encode(claims, now);
+
+        assertTrue(SessionTokenCodec.isSessionToken(token));
+        CompactClaims decoded = codec.decode(token, now);
+        assertEquals(TestTokens.SUB, decoded.getSub());
+        assertEquals(TestTokens.ISSUER, decoded.getIssuer());
+        assertEquals(claims.getExp(), decoded.getExp());
+    }
+
+    @Test
+    public void expiresWithMaxAgeOrCognitoToken() throws Exception
+    {
+        codec.setMaxAge(1, TimeUnit.MINUTES);
+        String token = codec.encode(claims, now);
+        codec.decode(token, now + 59000);
+        assertRejected(InvalidTokenException.Reason.EXPIRED, token, now + 60000);
+
+        // Never outlives the Cognito token, whatever the max age
+        codec.setMaxAge(0, TimeUnit.MINUTES);
+        token = codec.encode(claims(now / 1000 + 30), now);
+        assertRejected(InvalidTokenException.Reason.EXPIRED, token, now + 31000);
+
+        assertNull(codec.encode(claims(now / 1000 - 1), now));
+    }
+
+    @Test
+    public void acceptsPreviousKeyUntilItIsDropped() throws Exception
+    {
+        String old = codec.encode(claims, now);
+
+        SessionTokenCodec rotated = new SessionTokenCodec(key('b'));
+        rotated.setPreviousKey(key('a'));
+        assertEquals(TestTokens.SUB, rotated.decode(old, now).getSub());
+
+        // New sessions are only signed with the current key
+        assertRejected(InvalidTokenException.Reason.BAD_SIGNATURE, codec, rotated.encode(claims, now), now);
+
+        rotated.setPreviousKey(null);
+        assertRejected(InvalidTokenException.Reason.BAD_SIGNATURE, rotated, old, now);
+    }
+
+    @Test
+    public void rejectsTamperedTokens() throws Exception
+    {
+        String token = codec.encode(claims, now);
+        int dot = token.lastIndexOf('.');
+
+        // Moving the expiry or changing a claim breaks the MAC
+        assertRejected(InvalidTokenException.Reason.BAD_SIGNATURE, flip(token, SessionTokenCodec.PREFIX.length() + 5), now);
+        assertRejected(InvalidTokenException.Reason.BAD_SIGNATURE, flip(token, dot - 3), now);
+        assertRejected(InvalidTokenException.Reason.BAD_SIGNATURE, flip(token, dot + 3), now);
+        assertRejected(InvalidTokenException.Reason.BAD_SIGNATURE, token.substring(0, dot + 1), now);
+
+        assertRejected(InvalidTokenException.Reason.MALFORMED, SessionTokenCodec.PREFIX + "payload", now);
+        assertRejected(InvalidTokenException.Reason.MALFORMED, token + ".extra", now);
+        assertRejected(InvalidTokenException.Reason.MALFORMED, token.substring(0, dot) + ".!!!", now);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesShortKey()
+    {
+        new SessionTokenCodec(new byte[16]);
+    }
+
+    private void assertRejected(InvalidTokenException.Reason reason, String token, long at)
+    {
+        assertRejected(reason, codec, token, at);
+    }
+
+    private static void assertRejected(InvalidTokenException.Reason reason, SessionTokenCodec codec, String token, long at)
+    {
+        try
+        {
+            codec.decode(token, at);
+            fail("Accepted " + token);
+        }
+        catch (InvalidTokenException e)
+        {
+            assertEquals(reason, e.getReason());
+        }
+    }
+
+    /**
+     * Replaces one Base64url character with another, so the token still decodes to different bytes
+     */
+    private static String flip(String token, int index)
+    {
+        char[] chars = token.toCharArray();
+        chars[index] = chars[index] == 'A' ? 'B' : 'A';
+        return new String(chars);
+    }
+
+    private static CompactClaims claims(long exp) throws Exception
+    {
+        return CompactClaims.parse(TestTokens.payload(exp, -1).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] key(char fill)
+    {
+        byte[] key = new byte[32];
+        Arrays.fill(key, (byte) fill);
+        return key;
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.bwinant.cognito.spring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.bwinant.jwk.JwkStore;
+
+/**
+ * Signing keys and compact JWS tokens for tests. The fixed key pair and token under /keys were generated with openssl,
+ * so they check this code against an independent RS256 implementation
+ */
+final class TestTokens
+{
+    static final String KEY_ID = "test-key";
+    static final String USER_POOL_ID = "us-east-1_Test1234";
+    static final String ISSUER = "https://cognito-idp.us-east-1.amazonaws.com/" + USER_POOL_ID;
+    static final String SUB = "7d8ca528-4931-4254-9273-ea5ee853f271";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private TestTokens()
+    {
+    }
+
+    static String resource(String name)
+    {
+        try (InputStream in = TestTokens.class.getResourceAsStream(name))
+        {
+            if (in == null)
+            {
+                throw new IllegalStateException("Missing test resource " + name);
+            }
+
+            byte[] buf = new byte[8192];
+            int length = 0;
+            int read;
+            while ((read = in.read(buf, length, buf.length - length)) > 0)
+            {
+                length += read;
+            }
+            return new String(buf, 0, length, StandardCharsets.US_ASCII).trim();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The public half of the fixed test key
+     */
+    static PublicKey publicKey() throws GeneralSecurityException
+    {
+        return KeyFactory.getInstance("RSA").generatePublic(PemKeys.keySpec(resource("/keys/test-key.pub.pem")));
+    }
+
+    /**
+     * The private half of the fixed test key
+     */
+    static PrivateKey privateKey() throws GeneralSecurityException
+    {
+        String pem = resource("/keys/test-key.pem");
+        String body = pem.substring(pem.indexOf('\n') + 1, pem.lastIndexOf("-----END"));
+        return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(Base64.getMimeDecoder().decode(body)));
+    }
+
+    static KeyPair newKeyPair() throws GeneralSecurityException
+    {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    static String encode(String json)
+    {
+        return ENCODER.encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Signs a header and payload with SHA256withRSA, whatever alg the header names
+     */
+    static String sign(String header, String payload, PrivateKey key) throws GeneralSecurityException
+    {
+        String input = encode(header) + '.' + encode(payload);
+
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(key);
+        signature.update(input.getBytes(StandardCharsets.US_ASCII));
+        return input + '.' + ENCODER.encodeToString(signature.sign());
+    }
+
+    static String header(String kid)
+    {
+        return "{\"alg\":\"RS256\",\"kid\":\"" + kid + "\"}";
+    }
+
+    /**
+     * An access token payload for the test pool
+     *
+     * @param exp the exp claim in seconds since the epoch
+     * @param nbf the nbf claim in seconds since the epoch, or -1 to leave it out
+     */
+    static String payload(long exp, long nbf)
+    {
+        long iat = System.currentTimeMillis() / 1000;
+        return "{\"sub\":\"" + SUB + "\",\"iss\":\"" + ISSUER + "\",\"token_use\":\"access\",\"scope\":\"aws.cognito.signin.user.admin\"," +
+               "\"username\":\"alice\",\"exp\":" + exp + ",\"iat\":" + iat + (nbf >= 0 ? ",\"nbf\":" + nbf : "") + "}";
+    }
+
+    /**
+     * An access token payload valid for the next hour
+     */
+    static String payload()
+    {
+        return payload(System.currentTimeMillis() / 1000 + 3600, -1);
+    }
+
+    /**
+     * A key store whose keys can be replaced while it is in use
+     */
+    static final class MutableJwkStore implements JwkStore
+    {
+        private final Map<String, PublicKey> keys = Collections.synchronizedMap(new HashMap<>());
+
+        void put(String keyId, PublicKey key)
+        {
+            keys.put(keyId, key);
+        }
+
+        @Override
+        public Set<String> getKeyIds()
+        {
+            return keys.keySet();
+        }
+
+        @Override
+        public PublicKey getKey(String keyId)
+        {
+            return keys.get(keyId);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.bwinant.cognito.spring;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UnverifiedJwsTest
+{
+    @Test
+    public void readsHeaderAndClaimsOfKnownToken() throws Exception
+    {
+        String token = TestTokens.resource("/keys/test-key.jwt");
+        UnverifiedJws jws = UnverifiedJws.parse(token);
+
+        assertEquals("RS256", jws.getAlg());
+        assertEquals(TestTokens.KEY_ID, jws.getKid());
+        assertEquals(token.indexOf('.'), jws.getHeaderEnd());
+        assertEquals(token.lastIndexOf('.'), jws.getPayloadEnd());
+
+        CompactClaims claims = jws.getClaims();
+        assertEquals(TestTokens.SUB, claims.getSub());
+        assertEquals(TestTokens.ISSUER, claims.getIssuer());
+        assertEquals("access", claims.getTokenUse());
+        assertEquals("alice", claims.getUsername());
+        assertEquals(1500003600L, claims.getExp());
+        assertEquals(1500000000L, claims.getIat());
+        assertEquals(-1L, claims.getNbf());
+    }
+
+    @Test
+    public void checksExpAndNbf() throws Exception
+    {
+        String header = TestTokens.encode(TestTokens.header("k"));
+        UnverifiedJws jws = UnverifiedJws.parse(header + '.' + TestTokens.encode("{\"exp\":2000,\"nbf\":1000}") + ".c2ln");
+
+        assertEquals(1000L, jws.getClaims().getNbf());
+        assertEquals(1000, jws.getClaims().get("nbf"));
+
+        assertTrue(jws.isNotYetValid(999999));
+        assertFalse(jws.isNotYetValid(1000000));
+        assertFalse(jws.isExpired(2000000));
+        assertTrue(jws.isExpired(2000001));
+    }
+
+    @Test
+    public void treatsMissingExpAndNbfAsUnbounded() throws Exception
+    {
+        UnverifiedJws jws = UnverifiedJws.parse(TestTokens.encode(TestTokens.header("k")) + '.' + TestTokens.encode("{}") + ".c2ln");
+
+        assertFalse(jws.isExpired(Long.MAX_VALUE));
+        assertFalse(jws.isNotYetValid(0));
+        assertNull(jws.getClaims().get("nbf"));
+    }
+
+    @Test
+    public void rejectsWrongSegmentCounts()
+    {
+        String header = TestTokens.encode(TestTokens.header("k"));
+        String payload = TestTokens.encode("{}");
+
+        assertMalformed(null);
+        assertMalformed("");
+        assertMalformed(header);
+        assertMalformed(header + '.' + payload);
+        assertMalformed(header + '.' + payload + '.');
+        assertMalformed(header + '.' + payload + ".c2ln.c2ln");
+        assertMalformed(header + ".." + "c2ln");
+        assertMalformed('.' + payload + ".c2ln");
+        assertMalformed("..");
+    }
+
+    @Test
+    public void rejectsMalformedBase64()
+    {
+        String header = TestTokens.encode(TestTokens.header("k"));
+        String payload = TestTokens.encode("{}");
+
+        assertMalformed(header + "*." + payload + ".c2ln");
+        assertMalformed(header + '.' + payload + "=.c2ln");
+        assertMalformed(header.substring(0, header.length() - 1) + '.' + payload + ".c2ln");
+    }
+
+    @Test
+    public void rejectsHeaderOrPayloadThatIsNotJsonObject()
+    {
+        String header = TestTokens.encode(TestTokens.header("k"));
+
+        assertMalformed(TestTokens.encode("[]") + '.' + TestTokens.encode("{}") + ".c2ln");
+        assertMalformed(TestTokens.encode("not json") + '.' + TestTokens.encode("{}") + ".c2ln");
+        assertMalformed(header + '.' + TestTokens.encode("\"claims\"") + ".c2ln");
+        assertMalformed(header + '.' + TestTokens.encode("{\"sub\":") + ".c2ln");
+    }
+
+    private static void assertMalformed(String token)
+    {
+        try
+        {
+            UnverifiedJws.parse(token);
+            fail("Accepted " + token);
+        }
+        catch (InvalidTokenException e)
+        {
+            assertEquals(InvalidTokenException.Reason.MALFORMED, e.getReason());
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.bwinant.cognito.testkit;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cognitoidp.AWSCognitoIdentityProvider;
+import com.amazonaws.services.cognitoidp.AbstractAWSCognitoIdentityProviderAsync;
+import com.amazonaws.services.cognitoidp.model.AdminCreateUserRequest;
+import com.amazonaws.services.cognitoidp.model.AdminCreateUserResult;
+import com.amazonaws.services.cognitoidp.model.AdminDeleteUserRequest;
+import com.amazonaws.services.cognitoidp.model.AdminDeleteUserResult;
+import com.amazonaws.services.cognitoidp.model.AdminInitiateAuthRequest;
+import com.amazonaws.services.cognitoidp.model.AdminInitiateAuthResult;
+import com.amazonaws.services.cognitoidp.model.AdminRespondToAuthChallengeRequest;
+import com.amazonaws.services.cognitoidp.model.AdminRespondToAuthChallengeResult;
+import com.amazonaws.services.cognitoidp.model.AdminUpdateUserAttributesRequest;
+import com.amazonaws.services.cognitoidp.model.AdminUpdateUserAttributesResult;
+import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
+import com.amazonaws.services.cognitoidp.model.ListUsersResult;
+
+/**
+ * Async client over a synchronous one, such as {@link InMemoryCognitoIdentityProvider}, covering the calls
+ * {@link com.github.bwinant.cognito.AsyncUserManager} makes. Simulated latency is applied with a timer rather than a
+ * sleeping thread, so many calls can be in flight on a small executor just as with a real network client.
+ */
+public class AsyncCognitoIdentityProvider extends AbstractAWSCognitoIdentityProviderAsync
+{
+    private final AWSCognitoIdentityProvider delegate;
+    private final ScheduledExecutorService executor;
+
+    private volatile long latencyNanos;
+
+    /**
+     * @param delegate the client calls are forwarded to
+     * @param executor runs the forwarded calls and completion handlers
+     */
+    public AsyncCognitoIdentityProvider(AWSCognitoIdentityProvider delegate, ScheduledExecutorService executor)
+    {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    /**
+     * Delays every call without holding a thread, to stand in for the network round trip to Cognito
+     *
+     * @param latency the delay
+     * @param unit    the delay time unit
+     */
+    public void setLatency(long latency, TimeUnit unit)
+    {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    @Override
+    public Future<AdminCreateUserResult> adminCreateUserAsync(AdminCreateUserRequest request,
+                                                              AsyncHandler<AdminCreateUserRequest, AdminCreateUserResult> handler)
+    {
+        return submit(request, handler, delegate::adminCreateUser);
+    }
+
+    @Override
+    public Future<AdminInitiateAuthResult> adminInitiateAuthAsync(AdminInitiateAuthRequest request,
+                                                                  AsyncHandler<AdminInitiateAuthRequest, AdminInitiateAuthResult> handler)
+    {
+        return submit(request, handler, delegate::adminInitiateAuth);
+    }
+
+    @Override
+    public Future<AdminRespondToAuthChallengeResult> adminRespondToAuthChallengeAsync(
+        AdminRespondToAuthChallengeRequest request,
+        AsyncHandler<AdminRespondToAuthChallengeRequest, AdminRespondToAuthChallengeResult> handler)
+    {
+        return submit(request, handler, delegate::adminRespondToAuthChallenge);
+    }
+
+    @Override
+    public Future<AdminUpdateUserAttributesResult> adminUpdateUserAttributesAsync(
+        AdminUpdateUserAttributesRequest request,
+        AsyncHandler<AdminUpdateUserAttributesRequest, AdminUpdateUserAttributesResult> handler)
+    {
+        return submit(request, handler, delegate::adminUpdateUserAttributes);
+    }
+
+    @Override
+    public Future<AdminDeleteUserResult> adminDeleteUserAsync(AdminDeleteUserRequest request,
+                                                              AsyncHandler<AdminDeleteUserRequest, AdminDeleteUserResult> handler)
+    {
+        return submit(request, handler, delegate::adminDeleteUser);
+    }
+
+    @Override
+    public Future<ListUsersResult> listUsersAsync(ListUsersRequest request, AsyncHandler<ListUsersRequest, ListUsersResult> handler)
+    {
+        return submit(request, handler, delegate::listUsers);
+    }
+
+    private <Q extends AmazonWebServiceRequest, R> Future<R> submit(Q request, AsyncHandler<Q, R> handler, Function<Q, R> operation)
+    {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        Runnable task = () -> {
+            R result;
+            try
+            {
+                result = operation.apply(request);
+            }
+            catch (RuntimeException e)
+            {
+                // Handlers are notified before the future completes, as the SDK's own clients do
+                if (handler != null)
+                {
+                    handler.onError(e);
+                }
+                future.completeExceptionally(e);
+                return;
+            }
+
+            if (handler != null)
+            {
+                handler.onSuccess(request, result);
+            }
+            future.complete(result);
+        };
+
+        long latency = latencyNanos;
+        if (latency > 0)
+        {
+            executor.schedule(task, latency, TimeUnit.NANOSECONDS);
+        }
+        else
+        {
+            executor.execute(task);
+        }
+        return future;
+    }
+}
@@ -0,0 +1,674 @@
+package com.github.bwinant.cognito.testkit;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.cognitoidp.AbstractAWSCognitoIdentityProvider;
+import com.amazonaws.services.cognitoidp.model.AdminAddUserToGroupRequest;
+import com.amazonaws.services.cognitoidp.model.AdminAddUserToGroupResult;
+import com.amazonaws.services.cognitoidp.model.AdminCreateUserRequest;
+import com.amazonaws.services.cognitoidp.model.AdminCreateUserResult;
+import com.amazonaws.services.cognitoidp.model.AdminDeleteUserRequest;
+import com.amazonaws.services.cognitoidp.model.AdminDeleteUserResult;
+import com.amazonaws.services.cognitoidp.model.AdminDisableUserRequest;
+import com.amazonaws.services.cognitoidp.model.AdminDisableUserResult;
+import com.amazonaws.services.cognitoidp.model.AdminGetUserRequest;
+import com.amazonaws.services.cognitoidp.model.AdminGetUserResult;
+import com.amazonaws.services.cognitoidp.model.AdminInitiateAuthRequest;
+import com.amazonaws.services.cognitoidp.model.AdminInitiateAuthResult;
+import com.amazonaws.services.cognitoidp.model.AdminRemoveUserFromGroupRequest;
+import com.amazonaws.services.cognitoidp.model.AdminRemoveUserFromGroupResult;
+import com.amazonaws.services.cognitoidp.model.AdminRespondToAuthChallengeRequest;
+import com.amazonaws.services.cognitoidp.model.AdminRespondToAuthChallengeResult;
+import com.amazonaws.services.cognitoidp.model.AdminUpdateUserAttributesRequest;
+import com.amazonaws.services.cognitoidp.model.AdminUpdateUserAttributesResult;
+import com.amazonaws.services.cognitoidp.model.AttributeType;
+import com.amazonaws.services.cognitoidp.model.AuthFlowType;
+import com.amazonaws.services.cognitoidp.model.AuthenticationResultType;
+import com.amazonaws.services.cognitoidp.model.ChallengeNameType;
+import com.amazonaws.services.cognitoidp.model.InvalidParameterException;
+import com.amazonaws.services.cognitoidp.model.InvalidPasswordException;
+import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
+import com.amazonaws.services.cognitoidp.model.ListUsersResult;
+import com.amazonaws.services.cognitoidp.model.NotAuthorizedException;
+import com.amazonaws.services.cognitoidp.model.ResourceNotFoundException;
+import com.amazonaws.services.cognitoidp.model.TooManyRequestsException;
+import com.amazonaws.services.cognitoidp.model.UserNotFoundException;
+import com.amazonaws.services.cognitoidp.model.UserStatusType;
+import com.amazonaws.services.cognitoidp.model.UserType;
+import com.amazonaws.services.cognitoidp.model.UsernameExistsException;
+
+/**
+ * In-memory stand-in for a single Cognito User Pool, covering the admin calls {@link com.github.bwinant.cognito.UserManager}
+ * and {@link com.github.bwinant.cognito.UserPoolPurger} make. Tokens are signed by a {@link TokenMinter}, so they validate
+ * against its JWKS like real user pool tokens.
+ * <p>
+ * ListUsers supports pagination, attributesToGet and the same = and ^= filters Cognito does. Throttling can be injected
+ * per operation, either at random or by enforcing a rate quota, to exercise retry and backoff paths. Operations not
+ * listed here throw UnsupportedOperationException.
+ */
+public class InMemoryCognitoIdentityProvider extends AbstractAWSCognitoIdentityProvider
+{
+    private static final int MAX_LIMIT = 60;
+    private static final int MIN_PASSWORD_LENGTH = 8;
+    private static final String ALL_OPERATIONS = "*";
+
+    // Attributes Cognito allows ListUsers to filter on
+    private static final Set<String> FILTER_ATTRIBUTES = new HashSet<>(Arrays.asList(
+        "username", "email", "phone_number", "name", "given_name", "family_name", "preferred_username",
+        "cognito:user_status", "status", "sub"
+    ));
+    private static final Pattern FILTER = Pattern.compile("\\s*([\\w:]+)\\s*(\\^?=)\\s*\"(.*)\"\\s*");
+
+    private final String userPoolId;
+    private final String clientId;
+    private final TokenMinter minter;
+
+    private final NavigableMap<String, StoredUser> users;
+    private final Map<String, String> sessions;
+    private final Map<String, Double> throttling;
+    private final Map<String, Quota> quotas;
+    private final Map<String, LongAdder> calls;
+    private final Map<String, LongAdder> throttled;
+
+    private volatile long latencyNanos;
+
+    /**
+     * Creates an empty user pool
+     *
+     * @param userPoolId the user pool id requests must use
+     * @param minter     signs tokens for authenticated users; its client id is the only App Client accepted
+     */
+    public InMemoryCognitoIdentityProvider(String userPoolId, TokenMinter minter)
+    {
+        this.userPoolId = userPoolId;
+        this.clientId = minter.getClientId();
+        this.minter = minter;
+
+        this.users = new ConcurrentSkipListMap<>();
+        this.sessions = new ConcurrentHashMap<>();
+        this.throttling = new ConcurrentHashMap<>();
+        this.quotas = new ConcurrentHashMap<>();
+        this.calls = new ConcurrentHashMap<>();
+        this.throttled = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Fails a fraction of all calls with TooManyRequestsException
+     *
+     * @param probability the chance of each call being throttled, between 0 and 1
+     */
+    public void setThrottling(double probability)
+    {
+        setThrottling(ALL_OPERATIONS, probability);
+    }
+
+    /**
+     * Fails a fraction of one operation's calls with TooManyRequestsException. Overrides {@link #setThrottling(double)}
+     * for that operation
+     *
+     * @param operation   the API operation name, e.g. AdminCreateUser or ListUsers
+     * @param probability the chance of each call being throttled, between 0 and 1
+     */
+    public void setThrottling(String operation, double probability)
+    {
+        throttling.put(operation, probability);
+    }
+
+    /**
+     * Enforces a request rate quota on an operation the way Cognito does, throttling calls beyond the rate with
+     * TooManyRequestsException. Operations listed together share one quota, like the operations of a Cognito quota
+     * category
+     *
+     * @param requestsPerSecond the allowed rate, or 0 to remove the quota
+     * @param operations        the API operation names, e.g. AdminInitiateAuth and AdminRespondToAuthChallenge
+     */
+    public void setQuota(double requestsPerSecond, String... operations)
+    {
+        Quota quota = requestsPerSecond > 0 ? new Quota(requestsPerSecond) : null;
+        for (String operation : operations)
+        {
+            if (quota != null)
+            {
+                quotas.put(operation, quota);
+            }
+            else
+            {
+                quotas.remove(operation);
+            }
+        }
+    }
+
+    /**
+     * Delays every call, to stand in for the network round trip to Cognito. By default calls return immediately
+     *
+     * @param latency the delay
+     * @param unit    the delay time unit
+     */
+    public void setLatency(long latency, TimeUnit unit)
+    {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * @param operation the API operation name, e.g. AdminCreateUser
+     *
+     * @return the number of calls made to the operation, including throttled calls
+     */
+    public long getCallCount(String operation)
+    {
+        LongAdder count = calls.get(operation);
+        return count != null ? count.sum() : 0;
+    }
+
+    /**
+     * @param operation the API operation name, e.g. AdminCreateUser
+     *
+     * @return the number of calls to the operation that were throttled
+     */
+    public long getThrottledCount(String operation)
+    {
+        LongAdder count = throttled.get(operation);
+        return count != null ? count.sum() : 0;
+    }
+
+    /**
+     * @return the number of users in the pool
+     */
+    public int getUserCount()
+    {
+        return users.size();
+    }
+
+    @Override
+    public AdminCreateUserResult adminCreateUser(AdminCreateUserRequest request)
+    {
+        enter("AdminCreateUser", request.getUserPoolId());
+
+        String password = request.getTemporaryPassword() != null ? request.getTemporaryPassword() : UUID.randomUUID().toString();
+        checkPassword(password);
+
+        StoredUser user = new StoredUser(required(request.getUsername(), "username"), password);
+        if (request.getUserAttributes() != null)
+        {
+            user.update(request.getUserAttributes());
+        }
+
+        if (users.putIfAbsent(user.username, user) != null)
+        {
+            throw new UsernameExistsException("User account already exists.");
+        }
+        return new AdminCreateUserResult().withUser(user.toUserType(null));
+    }
+
+    @Override
+    public AdminInitiateAuthResult adminInitiateAuth(AdminInitiateAuthRequest request)
+    {
+        enter("AdminInitiateAuth", request.getUserPoolId());
+        checkClient(request.getClientId());
+
+        if (!AuthFlowType.ADMIN_NO_SRP_AUTH.toString().equals(request.getAuthFlow()))
+        {
+            throw new InvalidParameterException("Unsupported auth flow " + request.getAuthFlow());
+        }
+
+        Map<String, String> params = request.getAuthParameters();
+        StoredUser user = signIn(params != null ? params.get("USERNAME") : null, params != null ? params.get("PASSWORD") : null);
+
+        AdminInitiateAuthResult result = new AdminInitiateAuthResult();
+        if (user.getStatus() == UserStatusType.FORCE_CHANGE_PASSWORD)
+        {
+            String session = UUID.randomUUID().toString();
+            sessions.put(session, user.username);
+
+            Map<String, String> challengeParams = new LinkedHashMap<>();
+            challengeParams.put("USER_ID_FOR_SRP", user.username);
+            challengeParams.put("requiredAttributes", "[]");
+            challengeParams.put("userAttributes", "{}");
+            return result.withChallengeName(ChallengeNameType.NEW_PASSWORD_REQUIRED)
+                .withSession(session)
+                .withChallengeParameters(challengeParams);
+        }
+
+        return result.withAuthenticationResult(tokens(user));
+    }
+
+    @Override
+    public AdminRespondToAuthChallengeResult adminRespondToAuthChallenge(AdminRespondToAuthChallengeRequest request)
+    {
+        enter("AdminRespondToAuthChallenge", request.getUserPoolId());
+        checkClient(request.getClientId());
+
+        if (!ChallengeNameType.NEW_PASSWORD_REQUIRED.toString().equals(request.getChallengeName()))
+        {
+            throw new InvalidParameterException("Unsupported challenge " + request.getChallengeName());
+        }
+
+        Map<String, String> responses = request.getChallengeResponses();
+        String username = responses != null ? responses.get("USERNAME") : null;
+        String password = responses != null ? responses.get("NEW_PASSWORD") : null;
+
+        // Sessions are single use, like Cognito's
+        String sessionUser = request.getSession() != null ? sessions.remove(request.getSession()) : null;
+        if (sessionUser == null || !sessionUser.equals(username))
+        {
+            throw new NotAuthorizedException("Invalid session for the user.");
+        }
+        checkPassword(required(password, "NEW_PASSWORD"));
+
+        StoredUser user = getUser(username);
+        user.changePassword(password);
+        return new AdminRespondToAuthChallengeResult().withAuthenticationResult(tokens(user));
+    }
+
+    @Override
+    public AdminUpdateUserAttributesResult adminUpdateUserAttributes(AdminUpdateUserAttributesRequest request)
+    {
+        enter("AdminUpdateUserAttributes", request.getUserPoolId());
+        getUser(request.getUsername()).update(request.getUserAttributes());
+        return new AdminUpdateUserAttributesResult();
+    }
+
+    @Override
+    public AdminDeleteUserResult adminDeleteUser(AdminDeleteUserRequest request)
+    {
+        enter("AdminDeleteUser", request.getUserPoolId());
+        if (users.remove(required(request.getUsername(), "username")) == null)
+        {
+            throw new UserNotFoundException("User does not exist.");
+        }
+        return new AdminDeleteUserResult();
+    }
+
+    @Override
+    public AdminDisableUserResult adminDisableUser(AdminDisableUserRequest request)
+    {
+        enter("AdminDisableUser", request.getUserPoolId());
+        getUser(request.getUsername()).disable();
+        return new AdminDisableUserResult();
+    }
+
+    @Override
+    public AdminGetUserResult adminGetUser(AdminGetUserRequest request)
+    {
+        enter("AdminGetUser", request.getUserPoolId());
+        UserType user = getUser(request.getUsername()).toUserType(null);
+        return new AdminGetUserResult()
+            .withUsername(user.getUsername())
+            .withUserAttributes(user.getAttributes())
+            .withUserCreateDate(user.getUserCreateDate())
+            .withUserLastModifiedDate(user.getUserLastModifiedDate())
+            .withEnabled(user.getEnabled())
+            .withUserStatus(user.getUserStatus());
+    }
+
+    @Override
+    public AdminAddUserToGroupResult adminAddUserToGroup(AdminAddUserToGroupRequest request)
+    {
+        enter("AdminAddUserToGroup", request.getUserPoolId());
+        getUser(request.getUsername()).addGroup(required(request.getGroupName(), "groupName"));
+        return new AdminAddUserToGroupResult();
+    }
+
+    @Override
+    public AdminRemoveUserFromGroupResult adminRemoveUserFromGroup(AdminRemoveUserFromGroupRequest request)
+    {
+        enter("AdminRemoveUserFromGroup", request.getUserPoolId());
+        getUser(request.getUsername()).removeGroup(required(request.getGroupName(), "groupName"));
+        return new AdminRemoveUserFromGroupResult();
+    }
+
+    @Override
+    public ListUsersResult listUsers(ListUsersRequest request)
+    {
+        enter("ListUsers", request.getUserPoolId());
+
+        int limit = request.getLimit() != null ? request.getLimit() : MAX_LIMIT;
+        if (limit < 1 || limit > MAX_LIMIT)
+        {
+            throw new InvalidParameterException("limit must be between 1 and " + MAX_LIMIT);
+        }
+
+        Matcher filter = null;
+        if (request.getFilter() != null && !request.getFilter().isEmpty())
+        {
+            filter = FILTER.matcher(request.getFilter());
+            if (!filter.matches() || !FILTER_ATTRIBUTES.contains(filter.group(1)))
+            {
+                throw new InvalidParameterException("Invalid filter " + request.getFilter());
+            }
+        }
+
+        // Pagination tokens are opaque to callers, here they simply hold the last username returned
+        NavigableMap<String, StoredUser> page = users;
+        if (request.getPaginationToken() != null)
+        {
+            page = users.tailMap(decodeToken(request.getPaginationToken()), false);
+        }
+
+        List<UserType> results = new ArrayList<>(limit);
+        String last = null;
+        for (StoredUser user : page.values())
+        {
+            if (results.size() == limit)
+            {
+                return new ListUsersResult().withUsers(results).withPaginationToken(encodeToken(last));
+            }
+
+            if (filter == null || user.matches(filter.group(1), filter.group(2).equals("^="), filter.group(3)))
+            {
+                results.add(user.toUserType(request.getAttributesToGet()));
+                last = user.username;
+            }
+        }
+        return new ListUsersResult().withUsers(results);
+    }
+
+    @Override
+    public void shutdown()
+    {
+        sessions.clear();
+    }
+
+    private void enter(String operation, String requestPoolId)
+    {
+        calls.computeIfAbsent(operation, k -> new LongAdder()).increment();
+
+        long latency = latencyNanos;
+        if (latency > 0)
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(latency);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new AbortedException("Interrupted while simulating Cognito latency", e);
+            }
+        }
+
+        Double probability = throttling.get(operation);
+        if (probability == null)
+        {
+            probability = throttling.get(ALL_OPERATIONS);
+        }
+        Quota quota = quotas.get(operation);
+        if ((probability != null && ThreadLocalRandom.current().nextDouble() < probability) || (quota != null && !quota.tryAcquire()))
+        {
+            throttled.computeIfAbsent(operation, k -> new LongAdder()).increment();
+            throw new TooManyRequestsException("Rate exceeded");
+        }
+
+        if (!userPoolId.equals(requestPoolId))
+        {
+            throw new ResourceNotFoundException("User pool " + requestPoolId + " does not exist.");
+        }
+    }
+
+    private void checkClient(String requestClientId)
+    {
+        if (!clientId.equals(requestClientId))
+        {
+            throw new ResourceNotFoundException("User pool client " + requestClientId + " does not exist.");
+        }
+    }
+
+    private StoredUser signIn(String username, String password)
+    {
+        StoredUser user = username != null ? users.get(username) : null;
+        if (user == null)
+        {
+            throw new UserNotFoundException("User does not exist.");
+        }
+        if (!user.isEnabled())
+        {
+            throw new NotAuthorizedException("User is disabled.");
+        }
+        if (!user.checkPassword(password))
+        {
+            throw new NotAuthorizedException("Incorrect username or password.");
+        }
+        return user;
+    }
+
+    private AuthenticationResultType tokens(StoredUser user)
+    {
+        Map<String, String> attributes = user.getAttributes();
+        Set<String> groups = user.getGroups();
+        String sub = attributes.get("sub");
+        String originJti = UUID.randomUUID().toString();
+
+        return new AuthenticationResultType()
+            .withIdToken(minter.mintIdToken(sub, user.username, attributes, groups, originJti))
+            .withAccessToken(minter.mintAccessToken(sub, user.username, groups, originJti))
+            .withRefreshToken(UUID.randomUUID().toString())
+            .withExpiresIn((int) minter.getTokenValiditySeconds())
+            .withTokenType("Bearer");
+    }
+
+    private StoredUser getUser(String username)
+    {
+        StoredUser user = users.get(required(username, "username"));
+        if (user == null)
+        {
+            throw new UserNotFoundException("User does not exist.");
+        }
+        return user;
+    }
+
+    private static void checkPassword(String password)
+    {
+        if (password.length() < MIN_PASSWORD_LENGTH)
+        {
+            throw new InvalidPasswordException("Password did not conform with policy: Password not long enough");
+        }
+    }
+
+    private static String required(String value, String name)
+    {
+        if (value == null)
+        {
+            throw new InvalidParameterException("Missing required parameter " + name);
+        }
+        return value;
+    }
+
+    private static String encodeToken(String username)
+    {
+        return Base64.getUrlEncoder().encodeToString(username.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeToken(String token)
+    {
+        try
+        {
+            return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new InvalidParameterException("Invalid pagination token");
+        }
+    }
+
+    /**
+     * Token bucket holding at most one second of requests
+     */
+    private static class Quota
+    {
+        private final double rate;
+        private double tokens;
+        private long last;
+
+        Quota(double rate)
+        {
+            this.rate = rate;
+            this.tokens = rate;
+            this.last = System.nanoTime();
+        }
+
+        synchronized boolean tryAcquire()
+        {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - last) * rate / TimeUnit.SECONDS.toNanos(1));
+            last = now;
+            if (tokens < 1)
+            {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+    }
+
+    /**
+     * A user and its mutable state. Every access goes through the user's monitor
+     */
+    private static class StoredUser
+    {
+        private final String username;
+        private final Date created;
+        private final Map<String, String> attributes;
+        private final Set<String> groups;
+
+        private String password;
+        private UserStatusType status;
+        private boolean enabled;
+        private Date modified;
+
+        StoredUser(String username, String temporaryPassword)
+        {
+            this.username = username;
+            this.created = new Date();
+            this.modified = created;
+            this.attributes = new LinkedHashMap<>();
+            this.attributes.put("sub", UUID.randomUUID().toString());
+            this.groups = new LinkedHashSet<>();
+            this.password = temporaryPassword;
+            this.status = UserStatusType.FORCE_CHANGE_PASSWORD;
+            this.enabled = true;
+        }
+
+        synchronized void update(Collection<AttributeType> changes)
+        {
+            for (AttributeType attr : changes)
+            {
+                if (attr.getName().equals("sub"))
+                {
+                    throw new InvalidParameterException("Cannot modify an immutable attribute: sub");
+                }
+                attributes.put(attr.getName(), attr.getValue());
+            }
+            modified = new Date();
+        }
+
+        synchronized void changePassword(String newPassword)
+        {
+            password = newPassword;
+            status = UserStatusType.CONFIRMED;
+            modified = new Date();
+        }
+
+        synchronized boolean checkPassword(String candidate)
+        {
+            return password.equals(candidate);
+        }
+
+        synchronized void disable()
+        {
+            enabled = false;
+            modified = new Date();
+        }
+
+        synchronized void addGroup(String group)
+        {
+            groups.add(group);
+        }
+
+        synchronized void removeGroup(String group)
+        {
+            groups.remove(group);
+        }
+
+        synchronized boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        synchronized UserStatusType getStatus()
+        {
+            return status;
+        }
+
+        synchronized Map<String, String> getAttributes()
+        {
+            return new LinkedHashMap<>(attributes);
+        }
+
+        synchronized Set<String> getGroups()
+        {
+            return new LinkedHashSet<>(groups);
+        }
+
+        synchronized boolean matches(String name, boolean prefix, String value)
+        {
+            String actual;
+            switch (name)
+            {
+                case "username":
+                    actual = username;
+                    break;
+                case "cognito:user_status":
+                    actual = status.toString();
+                    break;
+                case "status":
+                    actual = enabled ? "Enabled" : "Disabled";
+                    break;
+                default:
+                    actual = attributes.get(name);
+            }
+
+            return actual != null && (prefix ? actual.startsWith(value) : actual.equals(value));
+        }
+
+        synchronized UserType toUserType(List<String> attributesToGet)
+        {
+            List<AttributeType> attrs = new ArrayList<>(attributes.size());
+            for (Map.Entry<String, String> attr : attributes.entrySet())
+            {
+                if (attributesToGet == null || attributesToGet.isEmpty() || attributesToGet.contains(attr.getKey()))
+                {
+                    attrs.add(new AttributeType().withName(attr.getKey()).withValue(attr.getValue()));
+                }
+            }
+
+            return new UserType()
+                .withUsername(username)
+                .withAttributes(attrs)
+                .withUserCreateDate(created)
+                .withUserLastModifiedDate(modified)
+                .withEnabled(enabled)
+                .withUserStatus(status);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.bwinant.cognito.testkit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves JSON Web Key Sets over HTTP on the loopback interface, at the same /{userPoolId}/.well-known/jwks.json path
+ * Cognito uses, so key stores can load and refresh keys without network access.
+ */
+public class JwksServer implements Closeable
+{
+    private static final String JWKS_PATH = "/.well-known/jwks.json";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, byte[]> keySets;
+    private final LongAdder requests;
+
+    /**
+     * Starts a server on an ephemeral loopback port
+     *
+     * @throws IOException if the server cannot be bound
+     */
+    public JwksServer() throws IOException
+    {
+        this(0);
+    }
+
+    /**
+     * Starts a server on a loopback port
+     *
+     * @param port the port, or 0 for an ephemeral port
+     *
+     * @throws IOException if the server cannot be bound
+     */
+    public JwksServer(int port) throws IOException
+    {
+        this.keySets = new ConcurrentHashMap<>();
+        this.requests = new LongAdder();
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/", this::handle);
+
+        this.executor = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "jwks-server");
+            t.setDaemon(true);
+            return t;
+        });
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    /**
+     * Publishes a key set for a user pool, replacing any key set already published for it
+     *
+     * @param userPoolId the Cognito User Pool id
+     * @param jwks       the JWKS JSON
+     */
+    public void publish(String userPoolId, byte[] jwks)
+    {
+        keySets.put(userPoolId, jwks.clone());
+    }
+
+    /**
+     * Stops serving a user pool's key set. Later requests for it get a 404
+     *
+     * @param userPoolId the Cognito User Pool id
+     */
+    public void unpublish(String userPoolId)
+    {
+        keySets.remove(userPoolId);
+    }
+
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * The URL a user pool's key set is served at
+     *
+     * @param userPoolId the Cognito User Pool id
+     *
+     * @return the JWKS URL
+     */
+    public URL getJwksUrl(String userPoolId)
+    {
+        try
+        {
+            return new URL("http", server.getAddress().getHostString(), getPort(), "/" + userPoolId + JWKS_PATH);
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalArgumentException("Invalid user pool id " + userPoolId, e);
+        }
+    }
+
+    /**
+     * @return the number of requests served so far, including 404s
+     */
+    public long getRequestCount()
+    {
+        return requests.sum();
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        requests.increment();
+        try
+        {
+            String path = exchange.getRequestURI().getPath();
+            byte[] jwks = null;
+            if ("GET".equals(exchange.getRequestMethod()) && path.endsWith(JWKS_PATH))
+            {
+                jwks = keySets.get(path.substring(1, path.length() - JWKS_PATH.length()));
+            }
+
+            if (jwks == null)
+            {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, jwks.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(jwks);
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.github.bwinant.cognito.testkit;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+import com.amazonaws.services.cognitoidp.model.AdminInitiateAuthResult;
+import com.github.bwinant.cognito.AsyncUserManager;
+import com.github.bwinant.cognito.QuotaCategory;
+import com.github.bwinant.cognito.QuotaLimiter;
+import com.github.bwinant.cognito.UserDirectory;
+import com.github.bwinant.cognito.UserManager;
+import com.github.bwinant.cognito.spring.LatencyHistogram;
+import com.github.bwinant.examples.cognito.Application;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * End to end load harness that needs no AWS account. Drives {@link UserManager} against an
+ * {@link InMemoryCognitoIdentityProvider}, then drives the examples app's token filter chain over HTTP with the tokens
+ * those users were issued, with signing keys served by a local {@link JwksServer}.
+ * <p>
+ * Each phase reports throughput and latency percentiles. Options are passed as --name=value:
+ * <ul>
+ * <li>users - number of users to create and authenticate (default 200)</li>
+ * <li>threads - number of concurrent callers (default 8)</li>
+ * <li>requests - number of HTTP requests to send to the examples app (default 20000)</li>
+ * <li>throttle - fraction of Cognito calls to fail with TooManyRequestsException (default 0.02)</li>
+ * <li>latency - simulated Cognito round trip in milliseconds (default 0)</li>
+ * <li>invalid - fraction of HTTP requests sent with a forged token, which must be rejected (default 0)</li>
+ * <li>quotaScale - multiplier applied to Cognito's default rate quotas that UserManager paces calls to (default 1)</li>
+ * <li>available - fraction of the scaled quotas the simulated pool actually allows before throttling, as if other clients
+ * used the rest, or 0 to not enforce quotas (default 1)</li>
+ * <li>inflight - maximum concurrent calls in the AsyncUserManager phase, which runs on two threads (default 256)</li>
+ * <li>http - set to false to skip the examples app phase (default true)</li>
+ * </ul>
+ */
+public class LoadGenerator
+{
+    private static final String REGION = "us-east-1";
+    private static final String USER_POOL_ID = "us-east-1_Load12345";
+    private static final String CLIENT_ID = "loadclient1234567890";
+    private static final String PASSWORD = "Passw0rd!Load";
+
+    private final int users;
+    private final int threads;
+    private final int requests;
+    private final double throttle;
+    private final long latencyMillis;
+    private final double invalidRatio;
+    private final int inFlight;
+    private final double quotaScale;
+    private final double available;
+    private final boolean http;
+
+    public LoadGenerator(Map<String, String> options)
+    {
+        this.users = Integer.parseInt(options.getOrDefault("users", "200"));
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        this.requests = Integer.parseInt(options.getOrDefault("requests", "20000"));
+        this.throttle = Double.parseDouble(options.getOrDefault("throttle", "0.02"));
+        this.latencyMillis = Long.parseLong(options.getOrDefault("latency", "0"));
+        this.invalidRatio = Double.parseDouble(options.getOrDefault("invalid", "0"));
+        this.inFlight = Integer.parseInt(options.getOrDefault("inflight", "256"));
+        this.quotaScale = Double.parseDouble(options.getOrDefault("quotaScale", "1"));
+        this.available = Double.parseDouble(options.getOrDefault("available", "1"));
+        this.http = Boolean.parseBoolean(options.getOrDefault("http", "true"));
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args)
+        {
+            int idx = arg.indexOf('=');
+            if (!arg.startsWith("--") || idx < 0)
+            {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            options.put(arg.substring(2, idx), arg.substring(idx + 1));
+        }
+
+        new LoadGenerator(options).run();
+    }
+
+    public void run() throws Exception
+    {
+        TokenMinter minter = new TokenMinter(REGION, USER_POOL_ID, CLIENT_ID);
+
+        InMemoryCognitoIdentityProvider cognito = new InMemoryCognitoIdentityProvider(USER_POOL_ID, minter);
+        cognito.setThrottling(throttle);
+        cognito.setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+        cognito.setQuota(QuotaCategory.USER_CREATION.getDefaultRate() * quotaScale * available, "AdminCreateUser");
+        cognito.setQuota(QuotaCategory.USER_AUTHENTICATION.getDefaultRate() * quotaScale * available, "AdminInitiateAuth",
+                         "AdminRespondToAuthChallenge");
+        cognito.setQuota(QuotaCategory.USER_READ.getDefaultRate() * quotaScale * available, "AdminGetUser");
+        cognito.setQuota(QuotaCategory.USER_UPDATE.getDefaultRate() * quotaScale * available, "AdminUpdateUserAttributes");
+        cognito.setQuota(QuotaCategory.USER_LIST.getDefaultRate() * quotaScale * available, "ListUsers");
+
+        QuotaLimiter quotaLimiter = new QuotaLimiter();
+        for (QuotaCategory category : QuotaCategory.values())
+        {
+            quotaLimiter.setRate(category, category.getDefaultRate() * quotaScale);
+        }
+
+        UserManager userManager = new UserManager(cognito, USER_POOL_ID, CLIENT_ID);
+        userManager.setQuotaLimiter(quotaLimiter);
+
+        report("UserManager.createUser", users, i -> {
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("email", username(i) + "@example.com");
+            attributes.put("preferred_username", username(i));
+            userManager.createUser(username(i), PASSWORD, attributes);
+        });
+
+        List<String> tokens = Collections.synchronizedList(new ArrayList<>(users));
+        report("UserManager.authenticate", users, i -> {
+            AdminInitiateAuthResult result = userManager.authenticate(username(i), PASSWORD);
+            tokens.add(result.getAuthenticationResult().getAccessToken());
+        });
+
+        report("UserManager.searchUsers", users, i -> {
+            if (userManager.searchUsers("email", username(i) + "@example.com", null).size() != 1)
+            {
+                throw new IllegalStateException("User " + username(i) + " not found");
+            }
+        });
+
+        // Same lookups answered from a local replica instead of ListUsers filter scans
+        UserDirectory directory = new UserDirectory(cognito, USER_POOL_ID, Collections.singleton("email"));
+        directory.setQuotaLimiter(quotaLimiter);
+        directory.load();
+        userManager.setUserDirectory(directory);
+        report("UserManager.searchUsers (directory)", users, i -> {
+            if (userManager.searchUsers("email", username(i) + "@example.com", null).size() != 1)
+            {
+                throw new IllegalStateException("User " + username(i) + " not found");
+            }
+        });
+        userManager.setUserDirectory(null);
+
+        report("UserManager.listUsers", Math.max(threads, 10), i -> {
+            if (userManager.listUsers(0, null).size() != users)
+            {
+                throw new IllegalStateException("Incomplete user listing");
+            }
+        });
+
+        // Same authentications through the async API; latency moves to a timer so no thread waits on it
+        ScheduledExecutorService asyncExecutor = Executors.newScheduledThreadPool(2);
+        try
+        {
+            AsyncCognitoIdentityProvider asyncCognito = new AsyncCognitoIdentityProvider(cognito, asyncExecutor);
+            asyncCognito.setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+            cognito.setLatency(0, TimeUnit.MILLISECONDS);
+
+            AsyncUserManager asyncUserManager = new AsyncUserManager(asyncCognito, USER_POOL_ID, CLIENT_ID);
+            asyncUserManager.setQuotaLimiter(quotaLimiter);
+            reportAsync("AsyncUserManager.authenticate", users, i -> asyncUserManager.authenticate(username(i), PASSWORD));
+        }
+        finally
+        {
+            cognito.setLatency(latencyMillis, TimeUnit.MILLISECONDS);
+            asyncExecutor.shutdownNow();
+        }
+
+        System.out.printf("Cognito calls: AdminCreateUser=%d AdminInitiateAuth=%d ListUsers=%d, throttled: AdminCreateUser=%d AdminInitiateAuth=%d ListUsers=%d%n",
+                          cognito.getCallCount("AdminCreateUser"), cognito.getCallCount("AdminInitiateAuth"), cognito.getCallCount("ListUsers"),
+                          cognito.getThrottledCount("AdminCreateUser"), cognito.getThrottledCount("AdminInitiateAuth"), cognito.getThrottledCount("ListUsers"));
+
+        for (QuotaCategory category : QuotaCategory.values())
+        {
+            System.out.println(quotaLimiter.getStats(category));
+        }
+
+        if (http && !tokens.isEmpty())
+        {
+            runHttp(minter, tokens);
+        }
+    }
+
+    private void runHttp(TokenMinter minter, List<String> tokens) throws Exception
+    {
+        String forged = forge(tokens.get(0));
+        int forgedEvery = invalidRatio > 0 ? (int) Math.max(Math.round(1 / invalidRatio), 1) : 0;
+
+        try (JwksServer jwksServer = new JwksServer())
+        {
+            jwksServer.publish(USER_POOL_ID, minter.getJwks());
+
+            SpringApplication app = new SpringApplication(Application.class);
+            app.setHeadless(true);
+            try (ConfigurableApplicationContext context = app.run(
+                "--server.port=0",
+                "--aws.region=" + REGION,
+                "--aws.cognito.userpool.id=" + USER_POOL_ID,
+                "--aws.cognito.jwks.url=" + jwksServer.getJwksUrl(USER_POOL_ID)))
+            {
+                int port = context.getEnvironment().getProperty("local.server.port", Integer.class);
+                URL url = new URL("http", "localhost", port, "/example/authtest");
+
+                report("GET /example/authtest", requests, i -> {
+                    boolean forge = forgedEvery > 0 && i % forgedEvery == 0;
+                    int status = get(url, forge ? forged : tokens.get(i % tokens.size()));
+                    if (forge ? status != 401 && status != 403 : status != 200)
+                    {
+                        throw new IllegalStateException("Unexpected HTTP status " + status);
+                    }
+                });
+            }
+
+            System.out.printf("JWKS requests: %d%n", jwksServer.getRequestCount());
+        }
+    }
+
+    private void report(String name, int operations, Operation operation) throws InterruptedException
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LongAdder errors = new LongAdder();
+        AtomicReference<Throwable> firstError = new AtomicReference<>();
+        AtomicInteger next = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++)
+        {
+            executor.execute(() -> {
+                for (int i = next.getAndIncrement(); i < operations; i = next.getAndIncrement())
+                {
+                    long opStart = System.nanoTime();
+                    try
+                    {
+                        operation.run(i);
+                    }
+                    catch (Exception e)
+                    {
+                        // Count and keep going, a load run should report failures rather than stop at the first one
+                        firstError.compareAndSet(null, e);
+                        errors.increment();
+                    }
+                    histogram.record(System.nanoTime() - opStart);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - start;
+
+        print(name, operations, errors.sum(), firstError.get(), elapsed, histogram);
+    }
+
+    private void reportAsync(String name, int operations, IntFunction<CompletableFuture<?>> operation) throws InterruptedException
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LongAdder errors = new LongAdder();
+        AtomicReference<Throwable> firstError = new AtomicReference<>();
+        Semaphore permits = new Semaphore(inFlight);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++)
+        {
+            permits.acquire();
+            long opStart = System.nanoTime();
+            operation.apply(i).whenComplete((result, e) -> {
+                if (e != null)
+                {
+                    firstError.compareAndSet(null, e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    errors.increment();
+                }
+                histogram.record(System.nanoTime() - opStart);
+                permits.release();
+            });
+        }
+        permits.acquire(inFlight);
+        long elapsed = System.nanoTime() - start;
+
+        print(name, operations, errors.sum(), firstError.get(), elapsed, histogram);
+    }
+
+    private static void print(String name, int operations, long errors, Throwable firstError, long elapsed, LatencyHistogram histogram)
+    {
+        System.out.printf("%-38s ops=%-7d errors=%-5d throughput=%.1f ops/s  p50=%dus p90=%dus p99=%dus p99.9=%dus%n",
+                          name, operations, errors, operations * 1e9 / elapsed,
+                          micros(histogram.getPercentile(50)), micros(histogram.getPercentile(90)),
+                          micros(histogram.getPercentile(99)), micros(histogram.getPercentile(99.9)));
+        if (firstError != null)
+        {
+            System.out.printf("%-38s first error: %s%n", "", firstError);
+        }
+    }
+
+    private static int get(URL url, String token) throws IOException
+    {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestProperty("Authorization", "Bearer " + token);
+        int status = conn.getResponseCode();
+
+        // Drain the body so the connection goes back into the keep-alive pool
+        try (InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream())
+        {
+            if (in != null)
+            {
+                byte[] buf = new byte[4096];
+                while (in.read(buf) >= 0)
+                {
+                    // discard
+                }
+            }
+        }
+        return status;
+    }
+
+    private static String forge(String token)
+    {
+        // Same header and claims as a real token, with a corrupted signature
+        char[] chars = token.toCharArray();
+        int idx = token.lastIndexOf('.') + 10;
+        chars[idx] = chars[idx] == 'A' ? 'B' : 'A';
+        return new String(chars);
+    }
+
+    private static String username(int i)
+    {
+        return "load-user-" + i;
+    }
+
+    private static long micros(long nanos)
+    {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @FunctionalInterface
+    private interface Operation
+    {
+        void run(int i) throws Exception;
+    }
+}
@@ -0,0 +1,229 @@
+package com.github.bwinant.cognito.testkit;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Signs Cognito shaped id and access tokens with a locally generated RSA key, so tokens can be validated against
+ * {@link #getJwks()} exactly as if they came from a real user pool.
+ */
+public class TokenMinter
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Base64.Encoder BASE64_URL = Base64.getUrlEncoder().withoutPadding();
+
+    private final String issuer;
+    private final String clientId;
+    private final String keyId;
+    private final KeyPair keys;
+    private final byte[] jwks;
+
+    private volatile long validitySeconds = TimeUnit.HOURS.toSeconds(1);
+
+    /**
+     * Creates a minter with a new 2048 bit signing key
+     *
+     * @param region     the AWS region of the pretend user pool
+     * @param userPoolId the pretend Cognito User Pool id
+     * @param clientId   the App Client id tokens are issued to
+     */
+    public TokenMinter(String region, String userPoolId, String clientId)
+    {
+        this.issuer = "https://cognito-idp." + region + ".amazonaws.com/" + userPoolId;
+        this.clientId = clientId;
+        this.keyId = UUID.randomUUID().toString();
+
+        try
+        {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            this.keys = generator.generateKeyPair();
+        }
+        catch (GeneralSecurityException e)
+        {
+            // This cannot happen, RSA must be supported by JVM for it to be Java spec compliant
+            throw new RuntimeException(e);
+        }
+
+        this.jwks = buildJwks(keyId, (RSAPublicKey) keys.getPublic());
+    }
+
+    /**
+     * Sets how long minted tokens are valid for. Defaults to one hour, like Cognito
+     *
+     * @param validity the token lifetime
+     * @param unit     the lifetime time unit
+     */
+    public void setTokenValidity(long validity, TimeUnit unit)
+    {
+        this.validitySeconds = unit.toSeconds(validity);
+    }
+
+    public long getTokenValiditySeconds()
+    {
+        return validitySeconds;
+    }
+
+    public String getIssuer()
+    {
+        return issuer;
+    }
+
+    public String getClientId()
+    {
+        return clientId;
+    }
+
+    /**
+     * The JWKS JSON containing the public signing key, in the format served at .well-known/jwks.json
+     *
+     * @return the JWKS JSON bytes
+     */
+    public byte[] getJwks()
+    {
+        return jwks.clone();
+    }
+
+    /**
+     * Mints an id token
+     *
+     * @param sub        the user's sub
+     * @param username   the user's username
+     * @param attributes user attributes to include as claims, e.g. email
+     * @param groups     the user's groups, or null if the user is in no groups
+     * @param originJti  the origin_jti shared by tokens from the same authentication, or null to generate one
+     *
+     * @return the signed token
+     */
+    public String mintIdToken(String sub, String username, Map<String, String> attributes, Collection<String> groups, String originJti)
+    {
+        long now = System.currentTimeMillis() / 1000;
+
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("sub", sub);
+        if (groups != null && !groups.isEmpty())
+        {
+            claims.put("cognito:groups", groups);
+        }
+        if (attributes != null)
+        {
+            for (Map.Entry<String, String> attr : attributes.entrySet())
+            {
+                if (!attr.getKey().equals("sub"))
+                {
+                    claims.put(attr.getKey(), attr.getValue());
+                }
+            }
+        }
+        claims.put("iss", issuer);
+        claims.put("cognito:username", username);
+        claims.put("origin_jti", originJti != null ? originJti : UUID.randomUUID().toString());
+        claims.put("aud", clientId);
+        claims.put("event_id", UUID.randomUUID().toString());
+        claims.put("token_use", "id");
+        claims.put("auth_time", now);
+        claims.put("exp", now + validitySeconds);
+        claims.put("iat", now);
+        claims.put("jti", UUID.randomUUID().toString());
+        return sign(claims);
+    }
+
+    /**
+     * Mints an access token
+     *
+     * @param sub       the user's sub
+     * @param username  the user's username
+     * @param groups    the user's groups, or null if the user is in no groups
+     * @param originJti the origin_jti shared by tokens from the same authentication, or null to generate one
+     *
+     * @return the signed token
+     */
+    public String mintAccessToken(String sub, String username, Collection<String> groups, String originJti)
+    {
+        long now = System.currentTimeMillis() / 1000;
+
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("sub", sub);
+        if (groups != null && !groups.isEmpty())
+        {
+            claims.put("cognito:groups", groups);
+        }
+        claims.put("iss", issuer);
+        claims.put("client_id", clientId);
+        claims.put("origin_jti", originJti != null ? originJti : UUID.randomUUID().toString());
+        claims.put("event_id", UUID.randomUUID().toString());
+        claims.put("token_use", "access");
+        claims.put("scope", "aws.cognito.signin.user.admin");
+        claims.put("auth_time", now);
+        claims.put("exp", now + validitySeconds);
+        claims.put("iat", now);
+        claims.put("jti", UUID.randomUUID().toString());
+        claims.put("username", username);
+        return sign(claims);
+    }
+
+    /**
+     * Signs arbitrary claims with this minter's key, for tokens the other methods cannot produce
+     *
+     * @param claims the token claims
+     *
+     * @return the signed token
+     */
+    public String sign(Map<String, ?> claims)
+    {
+        try
+        {
+            String header = "{\"kid\":\"" + keyId + "\",\"alg\":\"RS256\"}";
+            String signingInput = BASE64_URL.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + '.'
+                + BASE64_URL.encodeToString(OBJECT_MAPPER.writeValueAsBytes(claims));
+
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(keys.getPrivate());
+            signature.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+            return signingInput + '.' + BASE64_URL.encodeToString(signature.sign());
+        }
+        catch (JsonProcessingException | GeneralSecurityException e)
+        {
+            throw new IllegalStateException("Unable to sign token", e);
+        }
+    }
+
+    private static byte[] buildJwks(String keyId, RSAPublicKey key)
+    {
+        String json = "{\"keys\":[{"
+            + "\"alg\":\"RS256\","
+            + "\"e\":\"" + base64Url(key.getPublicExponent()) + "\","
+            + "\"kid\":\"" + keyId + "\","
+            + "\"kty\":\"RSA\","
+            + "\"n\":\"" + base64Url(key.getModulus()) + "\","
+            + "\"use\":\"sig\""
+            + "}]}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String base64Url(BigInteger value)
+    {
+        // Drop the sign byte BigInteger adds to values with the high bit set
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0)
+        {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return BASE64_URL.encodeToString(bytes);
+    }
+}
@@ -0,0 +1,176 @@
+package com.github.bwinant.cognito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.cognitoidp.model.InvalidPasswordException;
+import com.amazonaws.services.cognitoidp.model.UserStatusType;
+import com.amazonaws.services.cognitoidp.model.UserType;
+import com.amazonaws.services.cognitoidp.model.UsernameExistsException;
+import com.github.bwinant.cognito.testkit.AsyncCognitoIdentityProvider;
+import com.github.bwinant.cognito.testkit.InMemoryCognitoIdentityProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncUserManagerTest
+{
+    private InMemoryCognitoIdentityProvider cognito;
+    private ScheduledExecutorService executor;
+    private AsyncUserManager manager;
+    private UserDirectory directory;
+
+    @Before
+    public void setUp()
+    {
+        cognito = TestPool.newPool();
+        executor = Executors.newScheduledThreadPool(2, new DaemonThreadFactory("async-test"));
+
+        manager = new AsyncUserManager(new AsyncCognitoIdentityProvider(cognito, executor), TestPool.USER_POOL_ID, TestPool.CLIENT_ID);
+
+        directory = new UserDirectory(cognito, TestPool.USER_POOL_ID, Collections.singletonList("email"));
+        manager.setUserDirectory(directory);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void createUserChainsEveryStep() throws Exception
+    {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("email", "alice@example.com");
+        attributes.put("preferred_username", "ally");
+
+        UserType user = get(manager.createUser("alice", TestPool.PASSWORD, attributes));
+
+        assertEquals(UserStatusType.CONFIRMED.toString(), user.getUserStatus());
+        assertEquals("ally", TestPool.attribute(user, "preferred_username"));
+        assertEquals(1, cognito.getCallCount("AdminCreateUser"));
+        assertEquals(1, cognito.getCallCount("AdminInitiateAuth"));
+        assertEquals(1, cognito.getCallCount("AdminRespondToAuthChallenge"));
+        assertEquals(1, cognito.getCallCount("AdminUpdateUserAttributes"));
+
+        // Written through once the whole pipeline is done, and the user can sign in with the chosen password
+        assertEquals("ally", TestPool.attribute(directory.getUser("alice", null), "preferred_username"));
+        assertNotNull(get(manager.authenticate("alice", TestPool.PASSWORD)).getAuthenticationResult());
+    }
+
+    @Test
+    public void failedStepSkipsTheRestOfThePipeline() throws Exception
+    {
+        TestPool.addUsers(cognito, 1);
+        assertFailsWith(UsernameExistsException.class, manager.createUser("user000", TestPool.PASSWORD, Collections.emptyMap()));
+        assertEquals(0, cognito.getCallCount("AdminInitiateAuth"));
+
+        // The temporary password works, the chosen one is refused by the challenge
+        assertFailsWith(InvalidPasswordException.class,
+                        manager.createUser("bob", "short", Collections.singletonMap("preferred_username", "bobby")));
+        assertEquals(1, cognito.getCallCount("AdminRespondToAuthChallenge"));
+        assertEquals(0, cognito.getCallCount("AdminUpdateUserAttributes"));
+        assertNull(directory.getUser("bob", null));
+    }
+
+    @Test
+    public void listsAndSearchesAcrossPages() throws Exception
+    {
+        List<String> usernames = TestPool.addUsers(cognito, 150);
+
+        assertEquals(usernames, TestPool.usernames(get(manager.listUsers(0, null))));
+        assertEquals(3, cognito.getCallCount("ListUsers"));
+
+        assertEquals(usernames.subList(0, 70), TestPool.usernames(get(manager.listUsers(70, null))));
+        assertEquals(5, cognito.getCallCount("ListUsers"));
+
+        assertEquals(Collections.singletonList("user142"), TestPool.usernames(get(manager.searchUsers("email", "user142@example.com", null))));
+    }
+
+    @Test
+    public void fetchesPagesOnlyWhenAsked() throws Exception
+    {
+        List<String> usernames = TestPool.addUsers(cognito, 150);
+
+        UserPage page = get(manager.listUserPages(null));
+        assertEquals(1, cognito.getCallCount("ListUsers"));
+
+        List<UserType> users = new ArrayList<>(page.getUsers());
+        while (page.hasNextPage())
+        {
+            page = get(page.nextPage());
+            users.addAll(page.getUsers());
+        }
+
+        assertEquals(usernames, TestPool.usernames(users));
+        assertEquals(3, cognito.getCallCount("ListUsers"));
+
+        try
+        {
+            page.nextPage();
+            fail("Fetched past the last page");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void retriesThrottledCallsOfConcurrentPipelines() throws Exception
+    {
+        QuotaLimiter limiter = TestPool.fastLimiter();
+        limiter.setMaxRetries(20);
+        manager.setQuotaLimiter(limiter);
+        cognito.setThrottling(0.2);
+
+        List<CompletableFuture<UserType>> futures = new ArrayList<>();
+        for (int i = 0; i < 30; i++)
+        {
+            futures.add(manager.createUser("user" + i, TestPool.PASSWORD, Collections.emptyMap()));
+        }
+        for (CompletableFuture<UserType> future : futures)
+        {
+            assertEquals(UserStatusType.CONFIRMED.toString(), get(future).getUserStatus());
+        }
+
+        assertEquals(30, cognito.getUserCount());
+        assertTrue(cognito.getThrottledCount("AdminCreateUser") + cognito.getThrottledCount("AdminInitiateAuth") > 0);
+        assertTrue(limiter.getStats(QuotaCategory.USER_CREATION).getRetries() + limiter.getStats(QuotaCategory.USER_AUTHENTICATION).getRetries() > 0);
+    }
+
+    private static <T> T get(CompletableFuture<T> future) throws Exception
+    {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    private static void assertFailsWith(Class<? extends Exception> expected, CompletableFuture<?> future) throws Exception
+    {
+        try
+        {
+            get(future);
+            fail("Expected " + expected.getSimpleName());
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(String.valueOf(e.getCause()), expected.isInstance(e.getCause()));
+        }
+        assertFalse(future.isCancelled());
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.bwinant.cognito;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import com.amazonaws.services.cognitoidp.model.InvalidPasswordException;
+import com.amazonaws.services.cognitoidp.model.UserStatusType;
+import com.amazonaws.services.cognitoidp.model.UsernameExistsException;
+import com.github.bwinant.cognito.testkit.InMemoryCognitoIdentityProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BulkUserCreationTest
+{
+    private InMemoryCognitoIdentityProvider cognito;
+    private UserManager manager;
+
+    @Before
+    public void setUp()
+    {
+        cognito = TestPool.newPool();
+        manager = new UserManager(cognito, TestPool.USER_POOL_ID, TestPool.CLIENT_ID);
+    }
+
+    @Test
+    public void reportsStatusPerUser()
+    {
+        TestPool.addUsers(cognito, 1);
+
+        Map<String, UserCreationResult> results;
+        try (Stream<UserCreationResult> stream = manager.createUsers(Stream.of(spec("alice", TestPool.PASSWORD), spec("user000", TestPool.PASSWORD),
+                                                                              spec("bob", "short")), 2))
+        {
+            results = stream.collect(Collectors.toMap(UserCreationResult::getUsername, r -> r));
+        }
+
+        UserCreationResult created = results.get("alice");
+        assertEquals(UserCreationResult.Status.CREATED, created.getStatus());
+        assertEquals(UserStatusType.CONFIRMED.toString(), created.getUser().getUserStatus());
+        assertNull(created.getError());
+        assertNotNull(manager.authenticate("alice", TestPool.PASSWORD).getAuthenticationResult());
+
+        UserCreationResult exists = results.get("user000");
+        assertEquals(UserCreationResult.Status.EXISTS, exists.getStatus());
+        assertTrue(exists.getError() instanceof UsernameExistsException);
+
+        UserCreationResult failed = results.get("bob");
+        assertEquals(UserCreationResult.Status.FAILED, failed.getStatus());
+        assertTrue(failed.getError() instanceof InvalidPasswordException);
+        assertNull(failed.getUser());
+    }
+
+    @Test
+    public void pullsSpecsOnlyAsResultsAreConsumed()
+    {
+        AtomicInteger pulled = new AtomicInteger();
+        Iterator<UserSpec> specs = IntStream.range(0, 100).mapToObj(i -> {
+            pulled.incrementAndGet();
+            return spec("user" + i, TestPool.PASSWORD);
+        }).iterator();
+
+        BulkUserCreation bulk = new BulkUserCreation(manager, specs, 3, SharedExecutor.INSTANCE);
+        bulk.next();
+        assertTrue("pulled " + pulled.get(), pulled.get() <= 3);
+
+        // Closing stops new submissions, only users already in flight are still returned
+        bulk.close();
+        int remaining = 0;
+        while (bulk.hasNext())
+        {
+            bulk.next();
+            remaining++;
+        }
+        assertTrue("remaining " + remaining, remaining <= 2);
+        assertEquals(pulled.get(), cognito.getUserCount());
+    }
+
+    @Test
+    public void retriesThrottledCallsThroughQuotaLimiter()
+    {
+        QuotaLimiter limiter = new QuotaLimiter();
+        for (QuotaCategory category : QuotaCategory.values())
+        {
+            limiter.setRate(category, 1000);
+        }
+        limiter.setMaxRetries(20);
+        manager.setQuotaLimiter(limiter);
+        cognito.setThrottling(0.2);
+
+        Map<UserCreationResult.Status, Integer> counts = new EnumMap<>(UserCreationResult.Status.class);
+        List<UserSpec> specs = IntStream.range(0, 50).mapToObj(i -> spec("user" + i, TestPool.PASSWORD)).collect(Collectors.toList());
+        try (Stream<UserCreationResult> stream = manager.createUsers(specs.stream(), 8))
+        {
+            stream.forEach(r -> counts.merge(r.getStatus(), 1, Integer::sum));
+        }
+
+        assertEquals(Collections.singletonMap(UserCreationResult.Status.CREATED, 50), counts);
+        assertTrue(cognito.getThrottledCount("AdminCreateUser") > 0);
+        assertTrue(limiter.getStats(QuotaCategory.USER_CREATION).getRetries() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroConcurrency()
+    {
+        new BulkUserCreation(manager, Arrays.asList(spec("alice", TestPool.PASSWORD)).iterator(), 0, Runnable::run);
+    }
+
+    private static UserSpec spec(String username, String password)
+    {
+        return new UserSpec(username, password, Collections.singletonMap("email", username + "@example.com"));
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.bwinant.cognito;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.amazonaws.services.cognitoidp.model.TooManyRequestsException;
+import com.amazonaws.services.cognitoidp.model.UserType;
+import com.github.bwinant.cognito.testkit.InMemoryCognitoIdentityProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PartitionedUserScanTest
+{
+    private InMemoryCognitoIdentityProvider cognito;
+    private UserManager manager;
+    private List<String> usernames;
+
+    @Before
+    public void setUp()
+    {
+        cognito = TestPool.newPool();
+        usernames = TestPool.addUsers(cognito, 200);
+        manager = new UserManager(cognito, TestPool.USER_POOL_ID, TestPool.CLIENT_ID);
+    }
+
+    @Test
+    public void dropsPrefixesCoveredByShorterOnes()
+    {
+        assertEquals(Arrays.asList("a", "b", "cd"), PartitionedUserScan.disjoint(Arrays.asList("ab", "b", "a", "cd", "abc", "cde")));
+        assertEquals(Collections.singletonList(""), PartitionedUserScan.disjoint(Arrays.asList("a", "", "b")));
+    }
+
+    @Test
+    public void returnsEveryUserOnceAcrossSubPartitions()
+    {
+        List<String> scanned;
+        try (Stream<UserType> users = manager.parallelScan(null, 4, 1000))
+        {
+            scanned = users.map(UserType::getUsername).collect(Collectors.toList());
+        }
+
+        assertEquals(usernames.size(), scanned.size());
+        assertEquals(new TreeSet<>(usernames), new TreeSet<>(scanned));
+        assertEquals(16, cognito.getCallCount("ListUsers"));
+    }
+
+    @Test
+    public void overlappingPrefixesDoNotDuplicateUsers()
+    {
+        List<String> scanned;
+        try (Stream<UserType> users = manager.parallelScan("username", Arrays.asList("user0", "user00", "user1", "user01"), null, 3, 1000))
+        {
+            scanned = users.map(UserType::getUsername).collect(Collectors.toList());
+        }
+
+        Set<String> unique = new TreeSet<>(scanned);
+        assertEquals(scanned.size(), unique.size());
+        assertEquals(new TreeSet<>(usernames), unique);
+    }
+
+    @Test
+    public void propagatesWorkerFailure()
+    {
+        cognito.setThrottling("ListUsers", 1.0);
+
+        try (Stream<UserType> users = manager.parallelScan(null, 4, 1000))
+        {
+            users.count();
+            fail("Throttled scan ended normally");
+        }
+        catch (TooManyRequestsException e)
+        {
+            // expected
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void interruptedWorkerFailsScanInsteadOfEndingIt() throws InterruptedException
+    {
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        PartitionedUserScan scan = new PartitionedUserScan(cognito, UserManager.listUsersRequest(TestPool.USER_POOL_ID, null, null), "username",
+                                                           Collections.singletonList(""), 2, 1, new RateLimiter(1000), null);
+        scan.start(task -> {
+            Thread thread = new Thread(task);
+            threads.add(thread);
+            thread.start();
+        });
+
+        // Let the worker fill the small queue and block on it, then interrupt it
+        scan.next();
+        Thread.sleep(300);
+        threads.get(0).interrupt();
+        threads.get(0).join();
+
+        int read = 1;
+        try
+        {
+            while (scan.hasNext())
+            {
+                scan.next();
+                read++;
+            }
+            fail("Scan ended normally after " + read + " of " + usernames.size() + " users");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.github.bwinant.cognito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.cognitoidp.model.AdminInitiateAuthResult;
+import com.amazonaws.services.cognitoidp.model.TooManyRequestsException;
+import com.amazonaws.services.cognitoidp.model.UserNotFoundException;
+import com.github.bwinant.cognito.testkit.AsyncCognitoIdentityProvider;
+import com.github.bwinant.cognito.testkit.InMemoryCognitoIdentityProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QuotaLimiterTest
+{
+    private InMemoryCognitoIdentityProvider cognito;
+    private UserManager manager;
+
+    @Before
+    public void setUp()
+    {
+        cognito = TestPool.newPool();
+        TestPool.addUsers(cognito, 10);
+        manager = new UserManager(cognito, TestPool.USER_POOL_ID, TestPool.CLIENT_ID);
+    }
+
+    @Test
+    public void callsAreUnpacedUnlessGivenALimiter()
+    {
+        assertNull(manager.getQuotaLimiter());
+        assertNull(new UserPoolPurger(cognito, null).getQuotaLimiter());
+
+        cognito.setThrottling("ListUsers", 1.0);
+        try
+        {
+            manager.listUsers(5, null);
+            fail("Throttled call was retried");
+        }
+        catch (TooManyRequestsException e)
+        {
+            assertEquals(1, cognito.getCallCount("ListUsers"));
+        }
+    }
+
+    @Test
+    public void retriesThrottledCallsUpToMaxRetries()
+    {
+        QuotaLimiter limiter = TestPool.fastLimiter();
+        limiter.setMaxRetries(3);
+        manager.setQuotaLimiter(limiter);
+        cognito.setThrottling("ListUsers", 1.0);
+
+        try
+        {
+            manager.listUsers(5, null);
+            fail("Throttled call succeeded");
+        }
+        catch (TooManyRequestsException e)
+        {
+            // expected, once retries ran out
+        }
+
+        QuotaStats stats = limiter.getStats(QuotaCategory.USER_LIST);
+        assertEquals(4, cognito.getCallCount("ListUsers"));
+        assertEquals(4, stats.getThrottled());
+        assertEquals(3, stats.getRetries());
+        assertEquals(1, stats.getFailed());
+    }
+
+    @Test
+    public void doesNotRetryOtherFailures()
+    {
+        QuotaLimiter limiter = TestPool.fastLimiter();
+        manager.setQuotaLimiter(limiter);
+
+        try
+        {
+            manager.updateUser("nobody", new ArrayList<>());
+            fail("Updated a missing user");
+        }
+        catch (UserNotFoundException e)
+        {
+            // expected
+        }
+
+        assertEquals(1, cognito.getCallCount("AdminUpdateUserAttributes"));
+        assertEquals(0, limiter.getStats(QuotaCategory.USER_UPDATE).getRetries());
+    }
+
+    @Test
+    public void halvesRateOnThrottlingAndGrowsBackOnSuccess()
+    {
+        AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(100);
+
+        bucket.throttled();
+        assertEquals(50, bucket.getRate(), 0.001);
+
+        // Throttles arriving together only count once
+        bucket.throttled();
+        assertEquals(50, bucket.getRate(), 0.001);
+
+        double previous = bucket.getRate();
+        for (int i = 0; i < 10; i++)
+        {
+            bucket.succeeded();
+            assertTrue(bucket.getRate() > previous);
+            previous = bucket.getRate();
+        }
+
+        for (int i = 0; i < 10000; i++)
+        {
+            bucket.succeeded();
+        }
+        assertEquals(100, bucket.getRate(), 0.001);
+        assertEquals(100, bucket.getMaxRate(), 0.001);
+    }
+
+    @Test
+    public void spacesReservationsPastTheBurst()
+    {
+        AdaptiveTokenBucket bucket = new AdaptiveTokenBucket(10);
+
+        assertEquals(0, bucket.reserve());
+        long second = bucket.reserve();
+        long third = bucket.reserve();
+
+        assertTrue("waited " + second, second > TimeUnit.MILLISECONDS.toNanos(80) && second <= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue("waited " + third, third > second + TimeUnit.MILLISECONDS.toNanos(80));
+    }
+
+    @Test
+    public void convergesOnTheQuotaLeftInCognito()
+    {
+        QuotaLimiter limiter = new QuotaLimiter();
+        limiter.setRate(QuotaCategory.USER_LIST, 100);
+        limiter.setMaxRetries(20);
+        manager.setQuotaLimiter(limiter);
+        cognito.setQuota(25, "ListUsers");
+
+        for (int i = 0; i < 50; i++)
+        {
+            assertEquals(5, manager.listUsers(5, null).size());
+        }
+
+        QuotaStats stats = limiter.getStats(QuotaCategory.USER_LIST);
+        assertTrue(stats.getThrottled() > 0);
+        assertEquals(0, stats.getFailed());
+        assertTrue("rate " + stats.getCurrentRate(), stats.getCurrentRate() < 100);
+    }
+
+    @Test
+    public void asyncCallsWaitOnTimerNotOnCaller() throws Exception
+    {
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, new DaemonThreadFactory("quota-test"));
+        try
+        {
+            QuotaLimiter limiter = new QuotaLimiter();
+            limiter.setRate(QuotaCategory.USER_AUTHENTICATION, 10);
+            AsyncUserManager asyncManager = new AsyncUserManager(new AsyncCognitoIdentityProvider(cognito, executor), TestPool.USER_POOL_ID,
+                                                                 TestPool.CLIENT_ID);
+            asyncManager.setQuotaLimiter(limiter);
+
+            long start = System.nanoTime();
+            List<CompletableFuture<AdminInitiateAuthResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++)
+            {
+                futures.add(asyncManager.authenticate("user00" + i, TestPool.PASSWORD));
+            }
+            long submitted = System.nanoTime() - start;
+
+            for (CompletableFuture<AdminInitiateAuthResult> future : futures)
+            {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            long completed = System.nanoTime() - start;
+
+            assertTrue("submitting took " + submitted, submitted < TimeUnit.MILLISECONDS.toNanos(200));
+            assertTrue("completing took " + completed, completed >= TimeUnit.MILLISECONDS.toNanos(350));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
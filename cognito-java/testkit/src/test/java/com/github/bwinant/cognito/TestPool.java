@@ -0,0 +1,87 @@
+package com.github.bwinant.cognito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.amazonaws.services.cognitoidp.model.AdminCreateUserRequest;
+import com.amazonaws.services.cognitoidp.model.AttributeType;
+import com.amazonaws.services.cognitoidp.model.UserType;
+import com.github.bwinant.cognito.testkit.InMemoryCognitoIdentityProvider;
+import com.github.bwinant.cognito.testkit.TokenMinter;
+
+/**
+ * In-memory user pools for the user-management tests
+ */
+final class TestPool
+{
+    static final String REGION = "us-east-1";
+    static final String USER_POOL_ID = "us-east-1_Test1234";
+    static final String CLIENT_ID = "test-client";
+    static final String PASSWORD = "Passw0rd!";
+
+    private static TokenMinter minter;
+
+    private TestPool()
+    {
+    }
+
+    static synchronized TokenMinter minter()
+    {
+        // Generating the signing key is the slow part, so every pool shares one
+        if (minter == null)
+        {
+            minter = new TokenMinter(REGION, USER_POOL_ID, CLIENT_ID);
+        }
+        return minter;
+    }
+
+    static InMemoryCognitoIdentityProvider newPool()
+    {
+        return new InMemoryCognitoIdentityProvider(USER_POOL_ID, minter());
+    }
+
+    /**
+     * Creates users named user000, user001 and so on, straight in the pool
+     *
+     * @return the usernames, in order
+     */
+    static List<String> addUsers(InMemoryCognitoIdentityProvider cognito, int count)
+    {
+        List<String> usernames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            String username = String.format("user%03d", i);
+            cognito.adminCreateUser(new AdminCreateUserRequest()
+                                        .withUserPoolId(USER_POOL_ID)
+                                        .withUsername(username)
+                                        .withTemporaryPassword(PASSWORD)
+                                        .withUserAttributes(UserManager.attribute("email", username + "@example.com")));
+            usernames.add(username);
+        }
+        return usernames;
+    }
+
+    /**
+     * A limiter that retries throttled calls but hardly paces them, so tests run fast
+     */
+    static QuotaLimiter fastLimiter()
+    {
+        QuotaLimiter limiter = new QuotaLimiter();
+        for (QuotaCategory category : QuotaCategory.values())
+        {
+            limiter.setRate(category, 10000);
+        }
+        return limiter;
+    }
+
+    static List<String> usernames(List<UserType> users)
+    {
+        return users.stream().map(UserType::getUsername).collect(Collectors.toList());
+    }
+
+    static String attribute(UserType user, String name)
+    {
+        return user.getAttributes().stream().filter(a -> a.getName().equals(name)).map(AttributeType::getValue).findFirst().orElse(null);
+    }
+}
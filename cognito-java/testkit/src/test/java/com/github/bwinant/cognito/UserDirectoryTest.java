@@ -0,0 +1,168 @@
+package com.github.bwinant.cognito;
+
+import java.util.Collections;
+
+import com.amazonaws.services.cognitoidp.model.AdminDeleteUserRequest;
+import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
+import com.amazonaws.services.cognitoidp.model.ListUsersResult;
+import com.amazonaws.services.cognitoidp.model.UserType;
+import com.github.bwinant.cognito.testkit.InMemoryCognitoIdentityProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UserDirectoryTest
+{
+    private RacingPool cognito;
+    private UserManager manager;
+    private UserDirectory directory;
+
+    @Before
+    public void setUp()
+    {
+        cognito = new RacingPool();
+        TestPool.addUsers(cognito, 150);
+
+        manager = new UserManager(cognito, TestPool.USER_POOL_ID, TestPool.CLIENT_ID);
+
+        directory = new UserDirectory(cognito, TestPool.USER_POOL_ID, Collections.singletonList("email"));
+        manager.setUserDirectory(directory);
+    }
+
+    @Test
+    public void loadsAndIndexesWholePool()
+    {
+        assertFalse(directory.isLoaded());
+        directory.load();
+
+        assertTrue(directory.isLoaded());
+        assertEquals(150, directory.size());
+        assertEquals(3, cognito.getCallCount("ListUsers"));
+        assertEquals("user042", TestPool.usernames(directory.find("email", "user042@example.com", null)).get(0));
+        assertTrue(directory.find("email", "nobody@example.com", null).isEmpty());
+        assertNull(directory.getUser("nobody", null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLookupOnAttributeNotIndexed()
+    {
+        directory.find("phone_number", "+15555550100", null);
+    }
+
+    @Test
+    public void writesManagerChangesThrough()
+    {
+        directory.load();
+        long listCalls = cognito.getCallCount("ListUsers");
+
+        manager.createUser("alice", TestPool.PASSWORD, Collections.singletonMap("email", "alice@example.com"));
+        assertEquals("alice", manager.searchUsers("email", "alice@example.com", null).get(0).getUsername());
+
+        manager.updateUser("alice", Collections.singletonList(UserManager.attribute("email", "alice@example.org")));
+        assertTrue(manager.searchUsers("email", "alice@example.com", null).isEmpty());
+        assertEquals("alice", manager.searchUsers("email", "alice@example.org", null).get(0).getUsername());
+
+        // Every search was answered by the directory
+        assertEquals(listCalls, cognito.getCallCount("ListUsers"));
+    }
+
+    @Test
+    public void returnsCopiesWithRequestedAttributesOnly()
+    {
+        directory.load();
+
+        UserType user = directory.getUser("user007", Collections.singletonList("sub"));
+        assertNull(TestPool.attribute(user, "email"));
+        user.getAttributes().clear();
+
+        assertEquals("user007@example.com", TestPool.attribute(directory.getUser("user007", null), "email"));
+    }
+
+    @Test
+    public void refreshDropsUsersDeletedInCognito()
+    {
+        directory.load();
+        cognito.adminDeleteUser(new AdminDeleteUserRequest().withUserPoolId(TestPool.USER_POOL_ID).withUsername("user005"));
+
+        directory.refresh();
+
+        assertNull(directory.getUser("user005", null));
+        assertTrue(directory.find("email", "user005@example.com", null).isEmpty());
+        assertEquals(149, directory.size());
+    }
+
+    @Test
+    public void userRemovedWhileScanningIsNotBroughtBack()
+    {
+        // The first page already lists user010 when it is deleted and removed from the directory
+        cognito.onFirstPage = () -> {
+            cognito.adminDeleteUser(new AdminDeleteUserRequest().withUserPoolId(TestPool.USER_POOL_ID).withUsername("user010"));
+            directory.remove("user010");
+        };
+
+        directory.load();
+
+        assertNull(directory.getUser("user010", null));
+        assertTrue(directory.find("email", "user010@example.com", null).isEmpty());
+        assertEquals(149, directory.size());
+    }
+
+    @Test
+    public void userWrittenThroughWhileScanningIsKept()
+    {
+        // Sorts before the first page's pagination token, so the running scan never lists it
+        cognito.onFirstPage = () -> manager.createUser("aaron", TestPool.PASSWORD, Collections.singletonMap("email", "aaron@example.com"));
+
+        directory.load();
+
+        assertNotNull(directory.getUser("aaron", null));
+        assertEquals(151, directory.size());
+    }
+
+    @Test
+    public void staleScanCopyDoesNotOverwriteNewerWrite()
+    {
+        directory.load();
+
+        // The page is read before the update, then the update is written through before the page is applied
+        cognito.onFirstPage = () -> manager.updateUser("user010", Collections.singletonList(UserManager.attribute("email", "new010@example.com")));
+
+        directory.refresh();
+
+        assertEquals("new010@example.com", TestPool.attribute(directory.getUser("user010", null), "email"));
+        assertTrue(directory.find("email", "user010@example.com", null).isEmpty());
+        assertEquals(1, directory.find("email", "new010@example.com", null).size());
+    }
+
+    /**
+     * In-memory pool that runs a callback after reading the first ListUsers page, before it is returned
+     */
+    private static class RacingPool extends InMemoryCognitoIdentityProvider
+    {
+        private volatile Runnable onFirstPage;
+
+        RacingPool()
+        {
+            super(TestPool.USER_POOL_ID, TestPool.minter());
+        }
+
+        @Override
+        public ListUsersResult listUsers(ListUsersRequest request)
+        {
+            ListUsersResult result = super.listUsers(request);
+
+            Runnable callback = onFirstPage;
+            if (callback != null && request.getPaginationToken() == null)
+            {
+                onFirstPage = null;
+                callback.run();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.bwinant.cognito;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.amazonaws.services.cognitoidp.model.InternalErrorException;
+import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
+import com.amazonaws.services.cognitoidp.model.ListUsersResult;
+import com.github.bwinant.cognito.testkit.InMemoryCognitoIdentityProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UserExportTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FailingPool cognito;
+    private UserManager manager;
+    private List<String> usernames;
+    private Path file;
+    private Path checkpoint;
+
+    @Before
+    public void setUp()
+    {
+        cognito = new FailingPool();
+        usernames = TestPool.addUsers(cognito, 150);
+        manager = new UserManager(cognito, TestPool.USER_POOL_ID, TestPool.CLIENT_ID);
+
+        file = folder.getRoot().toPath().resolve("users.ndjson.gz");
+        checkpoint = file.resolveSibling("users.ndjson.gz.checkpoint");
+    }
+
+    @Test
+    public void writesEveryUserAsGzipNdjson() throws IOException
+    {
+        ExportResult result = manager.exportUsers(file, null);
+
+        List<String> lines = readLines(file);
+        assertEquals(150, lines.size());
+        assertTrue(lines.get(42), lines.get(42).startsWith("{\"username\":\"user042\",\"status\":\"FORCE_CHANGE_PASSWORD\",\"enabled\":true,"));
+        assertTrue(lines.get(42), lines.get(42).contains("\"email\":\"user042@example.com\""));
+        assertEquals(usernames, exportedUsernames(lines));
+
+        assertEquals(150, result.getRecords());
+        assertFalse(result.isResumed());
+        assertEquals(Files.size(file), result.getBytes());
+        assertFalse(Files.exists(checkpoint));
+    }
+
+    @Test
+    public void resumesFromCheckpointAfterFailure() throws IOException
+    {
+        // The third page fails, after two pages were written and checkpointed
+        cognito.failOnCall = 3;
+        try
+        {
+            manager.exportUsers(file, Collections.singletonList("email"));
+            fail("Export survived a failed page");
+        }
+        catch (InternalErrorException e)
+        {
+            // expected
+        }
+        assertTrue(Files.exists(checkpoint));
+        assertEquals(120, readLines(file).size());
+
+        ExportResult result = manager.exportUsers(file, Collections.singletonList("email"));
+
+        assertTrue(result.isResumed());
+        assertEquals(120, result.getResumedRecords());
+        assertEquals(150, result.getRecords());
+        assertEquals(4, cognito.getCallCount("ListUsers"));
+        assertEquals(usernames, exportedUsernames(readLines(file)));
+        assertFalse(Files.exists(checkpoint));
+    }
+
+    @Test
+    public void truncatesPartlyWrittenPageOnResume() throws IOException
+    {
+        cognito.failOnCall = 2;
+        try
+        {
+            manager.exportUsers(file, null);
+            fail("Export survived a failed page");
+        }
+        catch (InternalErrorException e)
+        {
+            // expected
+        }
+
+        // A crash in the middle of a page leaves a torn gzip member past the checkpoint
+        long checkpointed = Files.size(file);
+        Files.write(file, new byte[] { 0x1f, (byte) 0x8b, 8, 0, 42, 42, 42 }, StandardOpenOption.APPEND);
+
+        manager.exportUsers(file, null);
+
+        assertEquals(usernames, exportedUsernames(readLines(file)));
+        assertTrue(Files.size(file) > checkpointed);
+    }
+
+    @Test
+    public void overwritesExistingFileWithoutCheckpoint() throws IOException
+    {
+        byte[] junk = new byte[1024 * 1024];
+        Files.write(file, junk);
+
+        ExportResult result = manager.exportUsers(file, null);
+
+        assertFalse(result.isResumed());
+        assertEquals(Files.size(file), result.getBytes());
+        assertTrue(Files.size(file) < junk.length);
+        assertEquals(usernames, exportedUsernames(readLines(file)));
+    }
+
+    @Test
+    public void refusesCheckpointOfAnotherExport() throws IOException
+    {
+        cognito.failOnCall = 2;
+        try
+        {
+            manager.exportUsers(file, Collections.singletonList("email"));
+            fail("Export survived a failed page");
+        }
+        catch (InternalErrorException e)
+        {
+            // expected
+        }
+
+        try
+        {
+            manager.exportUsers(file, null);
+            fail("Resumed an export with other attributes");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+        assertEquals(60, readLines(file).size());
+        assertTrue(Files.exists(checkpoint));
+    }
+
+    private static List<String> readLines(Path file) throws IOException
+    {
+        // GZIPInputStream reads concatenated members as one stream
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private static List<String> exportedUsernames(List<String> lines)
+    {
+        List<String> names = new ArrayList<>();
+        for (String line : lines)
+        {
+            int start = "{\"username\":\"".length();
+            names.add(line.substring(start, line.indexOf('"', start)));
+        }
+        return names;
+    }
+
+    /**
+     * In-memory pool whose ListUsers call number {@code failOnCall} fails once
+     */
+    private static class FailingPool extends InMemoryCognitoIdentityProvider
+    {
+        private volatile int failOnCall;
+
+        FailingPool()
+        {
+            super(TestPool.USER_POOL_ID, TestPool.minter());
+        }
+
+        @Override
+        public ListUsersResult listUsers(ListUsersRequest request)
+        {
+            ListUsersResult result = super.listUsers(request);
+            if (getCallCount("ListUsers") == failOnCall)
+            {
+                failOnCall = 0;
+                throw new InternalErrorException("Injected failure");
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.bwinant.cognito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
+import com.amazonaws.services.cognitoidp.model.ListUsersResult;
+import com.amazonaws.services.cognitoidp.model.TooManyRequestsException;
+import com.amazonaws.services.cognitoidp.model.UserType;
+import com.github.bwinant.cognito.testkit.InMemoryCognitoIdentityProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UserIteratorTest
+{
+    private InMemoryCognitoIdentityProvider cognito;
+    private List<String> usernames;
+
+    @Before
+    public void setUp()
+    {
+        cognito = TestPool.newPool();
+        usernames = TestPool.addUsers(cognito, 150);
+    }
+
+    @Test
+    public void walksEveryPage()
+    {
+        UserIterator it = iterator(-1, null);
+
+        assertEquals(usernames, drain(it));
+        assertEquals(3, cognito.getCallCount("ListUsers"));
+    }
+
+    @Test
+    public void stopsAtLimitWithoutFetchingMore()
+    {
+        assertEquals(usernames.subList(0, 70), drain(iterator(70, null)));
+        assertEquals(2, cognito.getCallCount("ListUsers"));
+
+        // A limit within the first page is not followed by a prefetch
+        assertEquals(usernames.subList(0, 60), drain(iterator(60, Runnable::run)));
+        assertEquals(3, cognito.getCallCount("ListUsers"));
+    }
+
+    @Test
+    public void prefetchesNextPageWhileCurrentIsConsumed()
+    {
+        UserIterator it = iterator(-1, Runnable::run);
+
+        assertTrue(it.hasNext());
+        assertEquals(2, cognito.getCallCount("ListUsers"));
+
+        assertEquals(usernames, drain(it));
+        assertEquals(3, cognito.getCallCount("ListUsers"));
+    }
+
+    @Test
+    public void closeCancelsPrefetch()
+    {
+        List<Runnable> pending = new ArrayList<>();
+        UserIterator it = iterator(-1, pending::add);
+
+        assertEquals("user000", it.next().getUsername());
+        assertEquals(1, pending.size());
+
+        it.close();
+        pending.get(0).run();
+
+        assertFalse(it.hasNext());
+        assertEquals(1, cognito.getCallCount("ListUsers"));
+    }
+
+    @Test
+    public void prefetchFailureSurfacesWhenItsPageIsReached()
+    {
+        AtomicInteger calls = new AtomicInteger();
+        InMemoryCognitoIdentityProvider failing = new InMemoryCognitoIdentityProvider(TestPool.USER_POOL_ID, TestPool.minter())
+        {
+            @Override
+            public ListUsersResult listUsers(ListUsersRequest request)
+            {
+                if (calls.incrementAndGet() > 1)
+                {
+                    throw new TooManyRequestsException("Rate exceeded");
+                }
+                return cognito.listUsers(request);
+            }
+        };
+
+        UserIterator it = new UserIterator(failing, UserManager.listUsersRequest(TestPool.USER_POOL_ID, null, null), UserManager.LIMIT, -1,
+                                           Runnable::run);
+        for (int i = 0; i < UserManager.LIMIT; i++)
+        {
+            it.next();
+        }
+
+        try
+        {
+            it.hasNext();
+            fail("Prefetch failure was not reported");
+        }
+        catch (TooManyRequestsException e)
+        {
+            // expected, as if the page had been fetched on this thread
+        }
+    }
+
+    private UserIterator iterator(int limit, Executor executor)
+    {
+        return new UserIterator(cognito, UserManager.listUsersRequest(TestPool.USER_POOL_ID, null, null), UserManager.LIMIT, limit, executor);
+    }
+
+    private static List<String> drain(UserIterator it)
+    {
+        List<UserType> users = new ArrayList<>();
+        it.forEachRemaining(users::add);
+        return TestPool.usernames(users);
+    }
+}
@@ -0,0 +1,192 @@
+package com.github.bwinant.cognito;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.cognitoidentity.AbstractAmazonCognitoIdentity;
+import com.amazonaws.services.cognitoidentity.model.DeleteIdentitiesRequest;
+import com.amazonaws.services.cognitoidentity.model.DeleteIdentitiesResult;
+import com.amazonaws.services.cognitoidentity.model.IdentityDescription;
+import com.amazonaws.services.cognitoidentity.model.ListIdentitiesRequest;
+import com.amazonaws.services.cognitoidentity.model.ListIdentitiesResult;
+import com.amazonaws.services.cognitoidentity.model.UnprocessedIdentityId;
+import com.amazonaws.services.cognitoidp.model.AdminCreateUserRequest;
+import com.github.bwinant.cognito.testkit.InMemoryCognitoIdentityProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UserPoolPurgerTest
+{
+    private static final String IDENTITY_POOL_ID = "us-east-1:test-identity-pool";
+
+    private InMemoryCognitoIdentityProvider cognito;
+    private IdentityPool identities;
+    private UserPoolPurger purger;
+
+    @Before
+    public void setUp()
+    {
+        cognito = TestPool.newPool();
+        TestPool.addUsers(cognito, 130);
+        identities = new IdentityPool(150);
+
+        purger = new UserPoolPurger(cognito, identities);
+        purger.setQuotaLimiter(TestPool.fastLimiter());
+    }
+
+    @Test
+    public void deletesEveryUser()
+    {
+        PurgeResult result = purger.purgeUserPool(TestPool.USER_POOL_ID);
+
+        assertEquals(130, result.getDeleted());
+        assertEquals(0, result.getFailed());
+        assertEquals(0, cognito.getUserCount());
+    }
+
+    @Test
+    public void dryRunListsOnceAndDeletesNothing()
+    {
+        purger.setDryRun(true);
+        PurgeResult result = purger.purgeUserPool(TestPool.USER_POOL_ID);
+
+        assertTrue(result.isDryRun());
+        assertEquals(130, result.getDeleted());
+        assertEquals(130, cognito.getUserCount());
+        assertEquals(0, cognito.getCallCount("AdminDeleteUser"));
+        assertEquals(3, cognito.getCallCount("ListUsers"));
+
+        assertEquals(150, purger.purgeIdentityPool(IDENTITY_POOL_ID).getDeleted());
+        assertEquals(150, identities.ids.size());
+    }
+
+    @Test
+    public void walksAgainUntilPassFindsNothing()
+    {
+        // Users created behind the first pass's position are only found by a second pass
+        AtomicInteger added = new AtomicInteger();
+        purger.setListener(new PurgeListener()
+        {
+            @Override
+            public void onDelete(String poolId, String id)
+            {
+                int n = added.getAndIncrement();
+                if (n < 5)
+                {
+                    cognito.adminCreateUser(new AdminCreateUserRequest()
+                                                .withUserPoolId(TestPool.USER_POOL_ID)
+                                                .withUsername("a" + n)
+                                                .withTemporaryPassword(TestPool.PASSWORD));
+                }
+            }
+
+            @Override
+            public void onError(String poolId, String id, Exception error)
+            {
+            }
+        });
+
+        PurgeResult result = purger.purgeUserPool(TestPool.USER_POOL_ID);
+
+        assertEquals(135, result.getDeleted());
+        assertEquals(0, cognito.getUserCount());
+        assertTrue(cognito.getCallCount("ListUsers") > 3);
+    }
+
+    @Test
+    public void deletesIdentitiesInBatchesAndReportsUnprocessed()
+    {
+        identities.stuck.add(identities.ids.first());
+        identities.stuck.add(identities.ids.last());
+
+        PurgeResult result = purger.purgeIdentityPool(IDENTITY_POOL_ID);
+
+        assertEquals(148, result.getDeleted());
+        assertTrue(result.getFailed() >= 2);
+        assertEquals(identities.stuck, identities.ids);
+        assertTrue("batch of " + identities.largestBatch, identities.largestBatch.get() <= 60);
+    }
+
+    @Test
+    public void commandLineRunPrintsProgressAndFailsOnUndeleted()
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        purger.setDryRun(true);
+        assertEquals(0, purger.run(TestPool.USER_POOL_ID, null, new PrintStream(buffer, true)));
+        String output = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(output, output.contains("Cleaning user pool " + TestPool.USER_POOL_ID));
+        assertTrue(output, output.contains("Would delete user042"));
+
+        identities.stuck.add(identities.ids.first());
+        purger.setDryRun(false);
+        assertEquals(1, purger.run(null, IDENTITY_POOL_ID, new PrintStream(new ByteArrayOutputStream(), true)));
+    }
+
+    /**
+     * Identity pool whose ListIdentities pages by identity id and whose DeleteIdentities leaves stuck ids unprocessed
+     */
+    private static class IdentityPool extends AbstractAmazonCognitoIdentity
+    {
+        private final NavigableSet<String> ids = new ConcurrentSkipListSet<>();
+        private final Set<String> stuck = Collections.synchronizedSet(new HashSet<>());
+        private final AtomicInteger largestBatch = new AtomicInteger();
+
+        IdentityPool(int count)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                ids.add(String.format("us-east-1:%08d", i));
+            }
+        }
+
+        @Override
+        public ListIdentitiesResult listIdentities(ListIdentitiesRequest request)
+        {
+            assertEquals(IDENTITY_POOL_ID, request.getIdentityPoolId());
+
+            NavigableSet<String> page = request.getNextToken() != null ? ids.tailSet(request.getNextToken(), false) : ids;
+            List<IdentityDescription> results = new ArrayList<>();
+            for (String id : page)
+            {
+                if (results.size() == request.getMaxResults())
+                {
+                    return new ListIdentitiesResult().withIdentities(results).withNextToken(results.get(results.size() - 1).getIdentityId());
+                }
+                results.add(new IdentityDescription().withIdentityId(id));
+            }
+            return new ListIdentitiesResult().withIdentities(results);
+        }
+
+        @Override
+        public DeleteIdentitiesResult deleteIdentities(DeleteIdentitiesRequest request)
+        {
+            largestBatch.accumulateAndGet(request.getIdentityIdsToDelete().size(), Math::max);
+
+            List<UnprocessedIdentityId> unprocessed = new ArrayList<>();
+            for (String id : request.getIdentityIdsToDelete())
+            {
+                if (stuck.contains(id))
+                {
+                    unprocessed.add(new UnprocessedIdentityId().withIdentityId(id).withErrorCode("InternalServerError"));
+                }
+                else
+                {
+                    ids.remove(id);
+                }
+            }
+            return new DeleteIdentitiesResult().withUnprocessedIdentityIds(unprocessed);
+        }
+    }
+}
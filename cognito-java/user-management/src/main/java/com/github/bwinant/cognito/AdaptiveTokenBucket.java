@@ -0,0 +1,103 @@
+package com.github.bwinant.cognito;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket whose rate adapts to throttling: it is halved when a request is throttled and grows back additively with
+ * each success, up to the configured rate (AIMD). Callers reserve a token and are told how long to wait for it, so the
+ * bucket itself never blocks.
+ */
+class AdaptiveTokenBucket
+{
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // Throttles arriving together are one congestion signal, not several
+    private static final long DECREASE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+
+    // Fraction of the configured rate regained per second of successful requests
+    private static final double INCREASE_PER_SECOND = 0.05;
+
+    private double maxRate;
+    private double rate;
+    private double tokens;
+    private long lastRefill;
+    private long lastDecrease;
+
+    AdaptiveTokenBucket(double rate)
+    {
+        setRate(rate);
+        this.tokens = capacity();
+        this.lastRefill = System.nanoTime();
+        this.lastDecrease = lastRefill - DECREASE_INTERVAL;
+    }
+
+    synchronized void setRate(double rate)
+    {
+        if (rate <= 0)
+        {
+            throw new IllegalArgumentException("rate must be greater than 0");
+        }
+        this.maxRate = rate;
+        this.rate = rate;
+    }
+
+    synchronized double getMaxRate()
+    {
+        return maxRate;
+    }
+
+    synchronized double getRate()
+    {
+        return rate;
+    }
+
+    /**
+     * Takes a token, going into debt if none is left
+     *
+     * @return how long to wait in nanoseconds before using the token
+     */
+    synchronized long reserve()
+    {
+        refill(System.nanoTime());
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens * SECOND / rate);
+    }
+
+    synchronized void succeeded()
+    {
+        if (rate < maxRate)
+        {
+            // rate successes per second each add a 1/rate share, so the rate grows linearly with time
+            rate = Math.min(maxRate, rate + maxRate * INCREASE_PER_SECOND / rate);
+        }
+    }
+
+    synchronized void throttled()
+    {
+        long now = System.nanoTime();
+        if (now - lastDecrease >= DECREASE_INTERVAL)
+        {
+            refill(now);
+            rate = Math.max(minRate(), rate / 2);
+            tokens = Math.min(tokens, capacity());
+            lastDecrease = now;
+        }
+    }
+
+    private void refill(long now)
+    {
+        tokens = Math.min(capacity(), tokens + (double) (now - lastRefill) * rate / SECOND);
+        lastRefill = now;
+    }
+
+    private double capacity()
+    {
+        // Allow a tenth of a second worth of burst, Cognito counts requests over short windows
+        return Math.max(1, rate / 10);
+    }
+
+    private double minRate()
+    {
+        return Math.min(maxRate, Math.max(maxRate / 32, 0.1));
+    }
+}
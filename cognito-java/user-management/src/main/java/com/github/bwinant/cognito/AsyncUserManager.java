@@ -0,0 +1,331 @@
+package com.github.bwinant.cognito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.cognitoidp.AWSCognitoIdentityProviderAsync;
+import com.amazonaws.services.cognitoidp.model.AdminCreateUserRequest;
+import com.amazonaws.services.cognitoidp.model.AdminCreateUserResult;
+import com.amazonaws.services.cognitoidp.model.AdminInitiateAuthRequest;
+import com.amazonaws.services.cognitoidp.model.AdminInitiateAuthResult;
+import com.amazonaws.services.cognitoidp.model.AdminRespondToAuthChallengeRequest;
+import com.amazonaws.services.cognitoidp.model.AdminRespondToAuthChallengeResult;
+import com.amazonaws.services.cognitoidp.model.AdminUpdateUserAttributesRequest;
+import com.amazonaws.services.cognitoidp.model.AdminUpdateUserAttributesResult;
+import com.amazonaws.services.cognitoidp.model.AttributeType;
+import com.amazonaws.services.cognitoidp.model.AuthFlowType;
+import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
+import com.amazonaws.services.cognitoidp.model.ListUsersResult;
+import com.amazonaws.services.cognitoidp.model.MessageActionType;
+import com.amazonaws.services.cognitoidp.model.UserStatusType;
+import com.amazonaws.services.cognitoidp.model.UserType;
+
+/**
+ * Non-blocking counterpart of {@link UserManager}. Every method returns as soon as its first Cognito call has been
+ * handed to the async client, so a few threads can keep many calls in flight.
+ * <p>
+ * Calls can be paced and throttled calls retried by a {@link QuotaLimiter}, waiting on a timer rather than a sleeping
+ * thread. Returned futures complete on the async client's callback threads, so dependent stages should not
+ * block; use the *Async stage methods with an executor for slow work.
+ */
+public class AsyncUserManager
+{
+    private final AWSCognitoIdentityProviderAsync cognito;
+    private final String userPoolId;
+    private final String clientId;
+
+    private UserDirectory directory;
+    private QuotaLimiter quotaLimiter;
+
+    /**
+     * Create a new AsyncUserManager that manages a specific User Pool.
+     * For this class to work, clientId should specify an App Client that allows ADMIN_NO_SRP_AUTH
+     *
+     * @param cognito       a properly configured AWSCognitoIdentityProviderAsync instance
+     * @param userPoolId    the Cognito User Pool id
+     * @param clientId      the Cognito User Pool App Client id
+     */
+    public AsyncUserManager(AWSCognitoIdentityProviderAsync cognito, String userPoolId, String clientId)
+    {
+        this.cognito = cognito;
+        this.userPoolId = userPoolId;
+        this.clientId = clientId;
+    }
+
+    /**
+     * Sets the limiter that paces this manager's Cognito calls and retries throttled calls, see
+     * {@link UserManager#setQuotaLimiter(QuotaLimiter)}
+     *
+     * @param quotaLimiter the limiter, or null to call Cognito unpaced and without retries
+     */
+    public void setQuotaLimiter(QuotaLimiter quotaLimiter)
+    {
+        this.quotaLimiter = quotaLimiter;
+    }
+
+    public QuotaLimiter getQuotaLimiter()
+    {
+        return quotaLimiter;
+    }
+
+    /**
+     * Sets a local replica to write user changes through to, see {@link UserManager#setUserDirectory(UserDirectory)}
+     *
+     * @param directory the user directory for this manager's user pool, or null to stop using it
+     */
+    public void setUserDirectory(UserDirectory directory)
+    {
+        this.directory = directory;
+    }
+
+    /**
+     * Creates a user in Cognito and sets up the user with a specified password, like {@link UserManager#createUser}.
+     * The create, authenticate, new password challenge and preferred username steps are chained without blocking.
+     *
+     * @param username      the Cognito username
+     * @param password      the desired user password
+     * @param attributes    the user's attributes
+     *
+     * @return future completing with the created user, or exceptionally with e.g. UsernameExistsException
+     */
+    public CompletableFuture<UserType> createUser(String username, String password, Map<String, String> attributes)
+    {
+        // Generate a temporary password - this only needs to be reasonably secure - it won't exist past this pipeline
+        String tempPassword = UserManager.generatePassword(12);
+
+        // Create user and suppress any confirmation notifications - will be in NEW_PASSWORD_REQUIRED state
+        AdminCreateUserRequest createRequest = new AdminCreateUserRequest()
+            .withUserPoolId(userPoolId)
+            .withUsername(username)
+            .withUserAttributes(UserManager.creationAttributes(attributes))
+            .withTemporaryPassword(tempPassword)
+            .withMessageAction(MessageActionType.SUPPRESS);
+
+        return this.<AdminCreateUserRequest, AdminCreateUserResult>call(QuotaCategory.USER_CREATION, cognito::adminCreateUserAsync, createRequest)
+            .thenCompose(createResult -> authenticate(username, tempPassword)
+                .thenCompose(authResult -> setPassword(username, password, authResult))
+                .thenCompose(v -> {
+                    UserType user = createResult.getUser();
+                    user.setUserStatus(UserStatusType.CONFIRMED);
+
+                    // Now set preferred username - it can't be set at creation time if it is used as a user pool alias
+                    String preferredUsername = attributes.get("preferred_username");
+                    if (preferredUsername == null)
+                    {
+                        return CompletableFuture.completedFuture(user);
+                    }
+
+                    AttributeType prefUsernameAttr = UserManager.attribute("preferred_username", preferredUsername);
+                    return updateUser(username, Collections.singletonList(prefUsernameAttr))
+                        .thenApply(updated -> {
+                            user.getAttributes().add(prefUsernameAttr);
+                            return user;
+                        });
+                }))
+            .thenApply(user -> {
+                UserDirectory directory = this.directory;
+                if (directory != null)
+                {
+                    directory.put(user);
+                }
+                return user;
+            });
+    }
+
+    /**
+     * Updates a user's attributes.
+     *
+     * @param username    a username
+     * @param attributes  list of attributes to update
+     *
+     * @return future completing once Cognito has applied the update
+     */
+    public CompletableFuture<Void> updateUser(String username, List<AttributeType> attributes)
+    {
+        AdminUpdateUserAttributesRequest request = new AdminUpdateUserAttributesRequest()
+            .withUserPoolId(userPoolId)
+            .withUsername(username)
+            .withUserAttributes(attributes);
+
+        return this.<AdminUpdateUserAttributesRequest, AdminUpdateUserAttributesResult>call(QuotaCategory.USER_UPDATE, cognito::adminUpdateUserAttributesAsync, request)
+            .thenApply(result -> {
+                UserDirectory directory = this.directory;
+                if (directory != null)
+                {
+                    directory.update(username, attributes);
+                }
+                return null;
+            });
+    }
+
+    /**
+     * Authenticate a user against Cognito.
+     *
+     * @param username  a username
+     * @param password  a password
+     *
+     * @return future completing with the authentication result, or exceptionally with NotAuthorizedException if
+     *         username/password is incorrect
+     */
+    public CompletableFuture<AdminInitiateAuthResult> authenticate(String username, String password)
+    {
+        Map<String, String> authParams = new HashMap<>();
+        authParams.put("USERNAME", username);
+        authParams.put("PASSWORD", password);
+
+        AdminInitiateAuthRequest request = new AdminInitiateAuthRequest()
+            .withUserPoolId(userPoolId)
+            .withClientId(clientId)
+            .withAuthFlow(AuthFlowType.ADMIN_NO_SRP_AUTH)
+            .withAuthParameters(authParams);
+
+        return call(QuotaCategory.USER_AUTHENTICATION, cognito::adminInitiateAuthAsync, request);
+    }
+
+    /**
+     * Search for users, fetching every page of results.
+     *
+     * @param filterName    the Cognito user attribute to search on
+     * @param filterValue   the value of the Cognito user attribute to look for
+     * @param attributes    optional list of Cognito user attributes to return; if not specified, all attributes are returned
+     *
+     * @return future completing with the list of users
+     */
+    public CompletableFuture<List<UserType>> searchUsers(String filterName, String filterValue, List<String> attributes)
+    {
+        String filterExpression = filterName + " = \"" + filterValue + "\"";
+        return listPages(filterExpression, attributes).thenCompose(page -> collect(page, new ArrayList<>(), -1));
+    }
+
+    /**
+     * Return all Cognito users, up to an optional max limit.
+     * If limit is less than or equal to 0, all users are returned
+     *
+     * @param limit        the number of users to return
+     * @param attributes   optional list of Cognito user attributes to return; if not specified, all attributes are returned
+     *
+     * @return future completing with the list of users
+     */
+    public CompletableFuture<List<UserType>> listUsers(int limit, List<String> attributes)
+    {
+        return listPages(null, attributes).thenCompose(page -> collect(page, new ArrayList<>(), limit));
+    }
+
+    /**
+     * Fetches the first page of users. Further pages are fetched one at a time with {@link UserPage#nextPage()}, so the
+     * caller decides how many pages are in flight.
+     *
+     * @param attributes   optional list of Cognito user attributes to return; if not specified, all attributes are returned
+     *
+     * @return future completing with the first page
+     */
+    public CompletableFuture<UserPage> listUserPages(List<String> attributes)
+    {
+        return listPages(null, attributes);
+    }
+
+    private CompletableFuture<UserPage> listPages(String filterExpression, List<String> attributes)
+    {
+        return page(UserManager.listUsersRequest(userPoolId, filterExpression, attributes));
+    }
+
+    CompletableFuture<UserPage> page(ListUsersRequest request)
+    {
+        return this.<ListUsersRequest, ListUsersResult>call(QuotaCategory.USER_LIST, cognito::listUsersAsync, request).thenApply(result -> new UserPage(this, request, result));
+    }
+
+    private CompletableFuture<Void> setPassword(String username, String password, AdminInitiateAuthResult authResult)
+    {
+        String challenge = authResult.getChallengeName();
+
+        // We should get a change password auth challenge
+        if (authResult.getAuthenticationResult() != null || !"NEW_PASSWORD_REQUIRED".equals(challenge))
+        {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new RuntimeException("Unexpected response from adminInitiateAuth. Authentication result: "
+                                                              + authResult.getAuthenticationResult() + ", Challenge: " + challenge));
+            return failed;
+        }
+
+        Map<String, String> challengeResponses = new HashMap<>();
+        challengeResponses.put("USERNAME", username);
+        challengeResponses.put("NEW_PASSWORD", password);
+
+        AdminRespondToAuthChallengeRequest request = new AdminRespondToAuthChallengeRequest()
+            .withUserPoolId(userPoolId)
+            .withClientId(clientId)
+            .withChallengeName("NEW_PASSWORD_REQUIRED")
+            .withSession(authResult.getSession())
+            .withChallengeResponses(challengeResponses);
+
+        return this.<AdminRespondToAuthChallengeRequest, AdminRespondToAuthChallengeResult>call(QuotaCategory.USER_AUTHENTICATION, cognito::adminRespondToAuthChallengeAsync, request)
+            .thenApply(challengeResult -> {
+                // Challenge result should indicate user is logged in
+                if (challengeResult.getAuthenticationResult() == null)
+                {
+                    throw new RuntimeException("Unexpected response from adminRespondToAuthChallenge: " + challengeResult);
+                }
+                return null;
+            });
+    }
+
+    private static CompletableFuture<List<UserType>> collect(UserPage page, List<UserType> users, int limit)
+    {
+        for (UserType user : page.getUsers())
+        {
+            if (limit > 0 && users.size() >= limit)
+            {
+                break;
+            }
+            users.add(user);
+        }
+
+        if (!page.hasNextPage() || (limit > 0 && users.size() >= limit))
+        {
+            return CompletableFuture.completedFuture(users);
+        }
+        return page.nextPage().thenCompose(next -> collect(next, users, limit));
+    }
+
+    private <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> call(QuotaCategory category, AsyncCall<Q, R> operation, Q request)
+    {
+        QuotaLimiter limiter = quotaLimiter;
+        return limiter != null ? limiter.submit(category, () -> send(operation, request)) : send(operation, request);
+    }
+
+    private static <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> send(AsyncCall<Q, R> operation, Q request)
+    {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        operation.call(request, new AsyncHandler<Q, R>()
+        {
+            @Override
+            public void onError(Exception e)
+            {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void onSuccess(Q request, R response)
+            {
+                result.complete(response);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The async client method taking a completion handler
+     */
+    @FunctionalInterface
+    private interface AsyncCall<Q extends AmazonWebServiceRequest, R>
+    {
+        Future<R> call(Q request, AsyncHandler<Q, R> handler);
+    }
+}
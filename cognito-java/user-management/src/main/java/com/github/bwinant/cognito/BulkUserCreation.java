@@ -0,0 +1,124 @@
+package com.github.bwinant.cognito;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.amazonaws.services.cognitoidp.model.UserType;
+import com.amazonaws.services.cognitoidp.model.UsernameExistsException;
+
+/**
+ * Creates users from a stream of specs with bounded concurrency, pipelining the create and password challenge calls
+ * of many users at once. The consumer drives the pipeline: each call to hasNext tops up the in-flight work from the
+ * spec iterator and then waits for the next completed user, so neither specs nor results pile up in memory.
+ * Results are returned in completion order.
+ */
+class BulkUserCreation implements Iterator<UserCreationResult>, AutoCloseable
+{
+    private final UserManager userManager;
+    private final Iterator<UserSpec> specs;
+    private final int concurrency;
+    private final Executor executor;
+    private final BlockingQueue<UserCreationResult> results;
+
+    private int inFlight;
+    private boolean closed;
+    private UserCreationResult next;
+
+    BulkUserCreation(UserManager userManager, Iterator<UserSpec> specs, int concurrency, Executor executor)
+    {
+        if (concurrency <= 0)
+        {
+            throw new IllegalArgumentException("concurrency must be greater than 0");
+        }
+
+        this.userManager = userManager;
+        this.specs = specs;
+        this.concurrency = concurrency;
+        this.executor = executor;
+        this.results = new LinkedBlockingQueue<>();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (next != null)
+        {
+            return true;
+        }
+
+        while (!closed && inFlight < concurrency && specs.hasNext())
+        {
+            UserSpec spec = specs.next();
+            inFlight++;
+            try
+            {
+                executor.execute(() -> results.add(create(spec)));
+            }
+            catch (RejectedExecutionException e)
+            {
+                results.add(new UserCreationResult(spec.getUsername(), UserCreationResult.Status.FAILED, null, e));
+            }
+        }
+
+        if (inFlight == 0)
+        {
+            return false;
+        }
+
+        try
+        {
+            next = results.take();
+            inFlight--;
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while waiting for users to be created", e);
+        }
+    }
+
+    @Override
+    public UserCreationResult next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+
+        UserCreationResult result = next;
+        next = null;
+        return result;
+    }
+
+    /**
+     * Stops submitting new users. Users already in flight are still created.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+    }
+
+    private UserCreationResult create(UserSpec spec)
+    {
+        try
+        {
+            UserType user = userManager.createUser(spec.getUsername(), spec.getPassword(), spec.getAttributes());
+            return new UserCreationResult(spec.getUsername(), UserCreationResult.Status.CREATED, user, null);
+        }
+        catch (UsernameExistsException e)
+        {
+            return new UserCreationResult(spec.getUsername(), UserCreationResult.Status.EXISTS, null, e);
+        }
+        catch (RuntimeException e)
+        {
+            return new UserCreationResult(spec.getUsername(), UserCreationResult.Status.FAILED, null, e);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.bwinant.cognito;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads so background Cognito work never keeps the JVM alive
+ */
+class DaemonThreadFactory implements ThreadFactory
+{
+    private final String prefix;
+    private final AtomicInteger count;
+
+    DaemonThreadFactory(String prefix)
+    {
+        this.prefix = prefix;
+        this.count = new AtomicInteger();
+    }
+
+    @Override
+    public Thread newThread(Runnable r)
+    {
+        Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+}
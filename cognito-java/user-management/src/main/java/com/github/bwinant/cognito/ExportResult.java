@@ -0,0 +1,85 @@
+package com.github.bwinant.cognito;
+
+import java.nio.file.Path;
+
+/**
+ * Summary of a {@link UserManager#exportUsers(Path, java.util.List)} run
+ */
+public class ExportResult
+{
+    private final Path file;
+    private final long resumedRecords;
+    private final long start;
+    private long records;
+    private long bytes;
+    private long durationMillis;
+
+    ExportResult(Path file, long resumedRecords)
+    {
+        this.file = file;
+        this.resumedRecords = resumedRecords;
+        this.records = resumedRecords;
+        this.start = System.currentTimeMillis();
+    }
+
+    public Path getFile()
+    {
+        return file;
+    }
+
+    /**
+     * The number of users in the file, including those written by earlier interrupted runs
+     *
+     * @return the record count
+     */
+    public long getRecords()
+    {
+        return records;
+    }
+
+    /**
+     * The number of users already in the file when this run resumed from a checkpoint, or 0 if it started from scratch
+     *
+     * @return the resumed record count
+     */
+    public long getResumedRecords()
+    {
+        return resumedRecords;
+    }
+
+    public boolean isResumed()
+    {
+        return resumedRecords > 0;
+    }
+
+    /**
+     * @return the compressed size of the file
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    public long getDurationMillis()
+    {
+        return durationMillis;
+    }
+
+    void exported(long count, long totalBytes)
+    {
+        records += count;
+        bytes = totalBytes;
+    }
+
+    ExportResult complete()
+    {
+        durationMillis = System.currentTimeMillis() - start;
+        return this;
+    }
+
+    @Override
+    public String toString()
+    {
+        return file + ": exported " + records + (isResumed() ? " (resumed after " + resumedRecords + ")" : "") + ", " + bytes + " bytes in " + durationMillis + "ms";
+    }
+}
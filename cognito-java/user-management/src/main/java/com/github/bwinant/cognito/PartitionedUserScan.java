@@ -0,0 +1,215 @@
+package com.github.bwinant.cognito;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.amazonaws.services.cognitoidp.AWSCognitoIdentityProvider;
+import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
+import com.amazonaws.services.cognitoidp.model.UserType;
+
+/**
+ * Scans a user pool by splitting it into prefix filtered partitions that are walked concurrently.
+ * Users from all partitions are merged into a single iterator through a bounded queue, so a slow consumer
+ * pushes back on the partition workers instead of growing the heap.
+ * <p>
+ * Partition prefixes are normalized so that no prefix starts with another, which makes partitions disjoint
+ * and the merged result free of duplicates as long as the partition attribute does not change during the scan.
+ * The scan only ends normally once every worker has finished; a failed or interrupted worker fails the scan.
+ */
+class PartitionedUserScan implements Iterator<UserType>, AutoCloseable
+{
+    private static final Object DONE = new Object();
+
+    private final AWSCognitoIdentityProvider cognito;
+    private final ListUsersRequest request;
+    private final String partitionAttribute;
+    private final Queue<String> partitions;
+    private final int pageSize;
+    private final int workers;
+    private final RateLimiter rateLimiter;
+    private final QuotaLimiter quotaLimiter;
+    private final BlockingQueue<Object> queue;
+    private final AtomicReference<RuntimeException> failure;
+
+    private volatile boolean closed;
+    private int finished;
+    private Object next;
+
+    /**
+     * @param cognito            the Cognito client
+     * @param request            the request template; its filter is replaced for each partition
+     * @param partitionAttribute the user attribute used for prefix filters, such as sub or username
+     * @param prefixes           the partition prefixes; together they must cover every value of the attribute
+     * @param pageSize           the maximum number of users per page
+     * @param parallelism        the maximum number of partitions walked at once
+     * @param rateLimiter        limiter shared by all partitions, acquired before every page request
+     * @param quotaLimiter       optional quota limiter that paces page requests and retries throttled ones
+     */
+    PartitionedUserScan(AWSCognitoIdentityProvider cognito, ListUsersRequest request, String partitionAttribute, Collection<String> prefixes,
+                        int pageSize, int parallelism, RateLimiter rateLimiter, QuotaLimiter quotaLimiter)
+    {
+        if (parallelism <= 0)
+        {
+            throw new IllegalArgumentException("parallelism must be greater than 0");
+        }
+
+        this.cognito = cognito;
+        this.request = request;
+        this.partitionAttribute = partitionAttribute;
+        this.partitions = new ConcurrentLinkedQueue<>(disjoint(prefixes));
+        this.pageSize = pageSize;
+        this.workers = Math.min(parallelism, Math.max(partitions.size(), 1));
+        this.rateLimiter = rateLimiter;
+        this.quotaLimiter = quotaLimiter;
+        this.queue = new ArrayBlockingQueue<>(pageSize * (workers + 1));
+        this.failure = new AtomicReference<>();
+    }
+
+    /**
+     * Starts the partition workers
+     *
+     * @param executor executor to run the workers on
+     *
+     * @return this scan
+     */
+    PartitionedUserScan start(Executor executor)
+    {
+        for (int i = 0; i < workers; i++)
+        {
+            executor.execute(this::work);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        while (next == null && finished < workers && !closed)
+        {
+            // A worker that fails cannot be relied on to get its failure into a full queue, so it is checked directly
+            RuntimeException e = failure.get();
+            if (e != null)
+            {
+                close();
+                throw e;
+            }
+
+            Object item;
+            try
+            {
+                item = queue.poll(100, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                close();
+                throw new IllegalStateException("Interrupted while waiting for users", ie);
+            }
+
+            if (item == DONE)
+            {
+                finished++;
+            }
+            else if (item != null)
+            {
+                next = item;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public UserType next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+
+        UserType user = (UserType) next;
+        next = null;
+        return user;
+    }
+
+    /**
+     * Stops the scan. Workers finish their current page request and then exit.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        partitions.clear();
+        queue.clear();
+    }
+
+    private void work()
+    {
+        try
+        {
+            String prefix;
+            while (!closed && (prefix = partitions.poll()) != null)
+            {
+                ListUsersRequest partitionRequest = request.clone();
+                if (!prefix.isEmpty())
+                {
+                    partitionRequest.withFilter(partitionAttribute + " ^= \"" + prefix + "\"");
+                }
+
+                UserIterator it = new UserIterator(cognito, partitionRequest, pageSize, -1, null, rateLimiter, quotaLimiter);
+                while (!closed && it.hasNext())
+                {
+                    put(it.next());
+                }
+            }
+
+            // Only a worker that got through all its partitions reports done
+            put(DONE);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new IllegalStateException("Interrupted while scanning users", e));
+        }
+        catch (RuntimeException e)
+        {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    private void put(Object item) throws InterruptedException
+    {
+        // Poll the closed flag while the queue is full so an abandoned scan never strands a worker
+        while (!closed && !queue.offer(item, 100, TimeUnit.MILLISECONDS))
+        {
+            // Consumer is behind, keep waiting
+        }
+    }
+
+    /**
+     * Drops any prefix that starts with another prefix, since its users are already covered by the shorter one
+     */
+    static List<String> disjoint(Collection<String> prefixes)
+    {
+        List<String> result = new ArrayList<>();
+        for (String prefix : new TreeSet<>(prefixes))
+        {
+            // Sorted order puts a prefix immediately before everything that starts with it
+            if (result.isEmpty() || !prefix.startsWith(result.get(result.size() - 1)))
+            {
+                result.add(prefix);
+            }
+        }
+        return result;
+    }
+}
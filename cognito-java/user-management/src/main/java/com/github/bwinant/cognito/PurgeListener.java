@@ -0,0 +1,24 @@
+package com.github.bwinant.cognito;
+
+/**
+ * Receives progress from a {@link UserPoolPurger}. Methods are called from purge worker threads.
+ */
+public interface PurgeListener
+{
+    /**
+     * Called after a user or identity has been deleted, or would have been deleted in a dry run
+     *
+     * @param poolId    the user pool or identity pool id
+     * @param id        the username or identity id
+     */
+    void onDelete(String poolId, String id);
+
+    /**
+     * Called when a user or identity could not be deleted
+     *
+     * @param poolId    the user pool or identity pool id
+     * @param id        the username or identity id
+     * @param error     the reason, may be null if Cognito only returned an error code
+     */
+    void onError(String poolId, String id, Exception error);
+}
@@ -0,0 +1,77 @@
+package com.github.bwinant.cognito;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Summary of a {@link UserPoolPurger} run against a single pool
+ */
+public class PurgeResult
+{
+    private final String poolId;
+    private final boolean dryRun;
+    private final long start;
+    private final AtomicLong deleted;
+    private final AtomicLong failed;
+    private volatile long durationMillis;
+
+    PurgeResult(String poolId, boolean dryRun)
+    {
+        this.poolId = poolId;
+        this.dryRun = dryRun;
+        this.start = System.currentTimeMillis();
+        this.deleted = new AtomicLong();
+        this.failed = new AtomicLong();
+    }
+
+    public String getPoolId()
+    {
+        return poolId;
+    }
+
+    public boolean isDryRun()
+    {
+        return dryRun;
+    }
+
+    /**
+     * The number of users or identities deleted, or that would have been deleted in a dry run
+     *
+     * @return the deleted count
+     */
+    public long getDeleted()
+    {
+        return deleted.get();
+    }
+
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    public long getDurationMillis()
+    {
+        return durationMillis;
+    }
+
+    void deleted(long count)
+    {
+        deleted.addAndGet(count);
+    }
+
+    void failed(long count)
+    {
+        failed.addAndGet(count);
+    }
+
+    PurgeResult complete()
+    {
+        durationMillis = System.currentTimeMillis() - start;
+        return this;
+    }
+
+    @Override
+    public String toString()
+    {
+        return poolId + ": " + (dryRun ? "would delete " : "deleted ") + getDeleted() + ", failed " + getFailed() + " in " + durationMillis + "ms";
+    }
+}
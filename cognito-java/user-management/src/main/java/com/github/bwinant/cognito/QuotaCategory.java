@@ -0,0 +1,38 @@
+package com.github.bwinant.cognito;
+
+/**
+ * Cognito User Pool and Identity Pool API rate quota categories. Every API operation counts against the quota of its
+ * category, shared by all callers in the AWS account, so calls are paced per category rather than per operation.
+ */
+public enum QuotaCategory
+{
+    /** AdminCreateUser */
+    USER_CREATION(50),
+    /** AdminInitiateAuth and AdminRespondToAuthChallenge */
+    USER_AUTHENTICATION(120),
+    /** AdminGetUser */
+    USER_READ(120),
+    /** AdminUpdateUserAttributes, AdminDisableUser and AdminDeleteUser */
+    USER_UPDATE(25),
+    /** ListUsers */
+    USER_LIST(30),
+    /** Identity Pool ListIdentities */
+    IDENTITY_LIST(5),
+    /** Identity Pool DeleteIdentities */
+    IDENTITY_DELETE(10);
+
+    private final double defaultRate;
+
+    QuotaCategory(double defaultRate)
+    {
+        this.defaultRate = defaultRate;
+    }
+
+    /**
+     * @return Cognito's default quota for the category, in requests per second
+     */
+    public double getDefaultRate()
+    {
+        return defaultRate;
+    }
+}
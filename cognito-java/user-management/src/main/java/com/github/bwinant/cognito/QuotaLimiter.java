@@ -0,0 +1,268 @@
+package com.github.bwinant.cognito;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.services.cognitoidp.model.TooManyRequestsException;
+
+/**
+ * Paces Cognito User Pool and Identity Pool calls with a token bucket per {@link QuotaCategory} and retries calls that
+ * are throttled anyway.
+ * <p>
+ * Each bucket starts at the category's configured rate. When Cognito throttles a call, the bucket's rate is halved and
+ * then grows back linearly with each successful call (AIMD), so callers sharing a limiter converge on whatever share of
+ * the quota is actually left for them instead of repeatedly overshooting it. Managers and purgers only use a limiter
+ * they are given; pass one instance to every manager and purger that uses the same AWS account and region.
+ * <p>
+ * Throttled calls are retried after a jittered exponential delay. Asynchronous calls wait for tokens and retries on a
+ * timer, never on the caller's thread.
+ */
+public class QuotaLimiter
+{
+    private static final long BASE_RETRY_MILLIS = 50;
+    private static final long MAX_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final int DEFAULT_MAX_RETRIES = 8;
+
+    private final Map<QuotaCategory, Quota> quotas;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile int maxRetries;
+
+    /**
+     * Creates a limiter using Cognito's default quota for every category
+     */
+    public QuotaLimiter()
+    {
+        this.quotas = new EnumMap<>(QuotaCategory.class);
+        for (QuotaCategory category : QuotaCategory.values())
+        {
+            quotas.put(category, new Quota(category));
+        }
+        this.scheduler = SharedExecutor.SCHEDULER;
+        this.maxRetries = DEFAULT_MAX_RETRIES;
+    }
+
+    /**
+     * Sets the rate calls in a category are paced to. Use the quota raised for the account, or a lower rate to leave
+     * headroom for other clients
+     *
+     * @param category          the quota category
+     * @param requestsPerSecond the rate, in requests per second
+     */
+    public void setRate(QuotaCategory category, double requestsPerSecond)
+    {
+        quotas.get(category).bucket.setRate(requestsPerSecond);
+    }
+
+    /**
+     * Sets how many times a throttled call is retried before its TooManyRequestsException is passed on. Defaults to 8
+     *
+     * @param maxRetries the maximum number of retries
+     */
+    public void setMaxRetries(int maxRetries)
+    {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @param category the quota category
+     *
+     * @return the category's current counters
+     */
+    public QuotaStats getStats(QuotaCategory category)
+    {
+        return quotas.get(category).stats();
+    }
+
+    /**
+     * Calls Cognito on the calling thread, waiting for a token first and retrying if throttled
+     */
+    <T> T call(QuotaCategory category, Supplier<T> operation)
+    {
+        Quota quota = quotas.get(category);
+        for (int attempt = 0; ; attempt++)
+        {
+            sleep(quota.acquire());
+
+            try
+            {
+                T result = operation.get();
+                quota.bucket.succeeded();
+                return result;
+            }
+            catch (RuntimeException e)
+            {
+                long retryDelay = quota.failed(e, attempt, maxRetries);
+                if (retryDelay < 0)
+                {
+                    throw e;
+                }
+
+                sleep(TimeUnit.MILLISECONDS.toNanos(retryDelay));
+            }
+        }
+    }
+
+    /**
+     * Calls Cognito asynchronously. The operation is started on a timer thread once a token is available, and throttled
+     * calls are restarted the same way
+     *
+     * @param category  the quota category
+     * @param operation starts the call and returns its future
+     */
+    <T> CompletableFuture<T> submit(QuotaCategory category, Supplier<CompletableFuture<T>> operation)
+    {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(quotas.get(category), operation, 0, result);
+        return result;
+    }
+
+    private <T> void attempt(Quota quota, Supplier<CompletableFuture<T>> operation, int attempt, CompletableFuture<T> result)
+    {
+        long wait = quota.acquire();
+        if (wait > 0)
+        {
+            scheduler.schedule(() -> send(quota, operation, attempt, result), wait, TimeUnit.NANOSECONDS);
+        }
+        else
+        {
+            send(quota, operation, attempt, result);
+        }
+    }
+
+    private <T> void send(Quota quota, Supplier<CompletableFuture<T>> operation, int attempt, CompletableFuture<T> result)
+    {
+        if (result.isDone())
+        {
+            // Cancelled by the caller while waiting for a token
+            return;
+        }
+
+        CompletableFuture<T> call;
+        try
+        {
+            call = operation.get();
+        }
+        catch (RuntimeException e)
+        {
+            // e.g. the client's executor rejected the call
+            result.completeExceptionally(e);
+            return;
+        }
+
+        call.whenComplete((response, error) -> {
+            if (error == null)
+            {
+                quota.bucket.succeeded();
+                result.complete(response);
+                return;
+            }
+
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            long retryDelay = cause instanceof RuntimeException ? quota.failed((RuntimeException) cause, attempt, maxRetries) : -1;
+            if (retryDelay < 0)
+            {
+                result.completeExceptionally(cause);
+                return;
+            }
+
+            scheduler.schedule(() -> attempt(quota, operation, attempt + 1, result), retryDelay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private static void sleep(long nanos)
+    {
+        if (nanos <= 0)
+        {
+            return;
+        }
+
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting for Cognito rate quota", e);
+        }
+    }
+
+    /**
+     * A category's bucket and counters
+     */
+    private static class Quota
+    {
+        private final QuotaCategory category;
+        private final AdaptiveTokenBucket bucket;
+        private final LongAdder requests;
+        private final LongAdder throttled;
+        private final LongAdder retries;
+        private final LongAdder failed;
+        private final LongAdder waitNanos;
+
+        Quota(QuotaCategory category)
+        {
+            this.category = category;
+            this.bucket = new AdaptiveTokenBucket(category.getDefaultRate());
+            this.requests = new LongAdder();
+            this.throttled = new LongAdder();
+            this.retries = new LongAdder();
+            this.failed = new LongAdder();
+            this.waitNanos = new LongAdder();
+        }
+
+        long acquire()
+        {
+            long wait = bucket.reserve();
+            requests.increment();
+            waitNanos.add(wait);
+            return wait;
+        }
+
+        /**
+         * @return how long to wait in milliseconds before retrying, or -1 if the call should not be retried
+         */
+        long failed(RuntimeException e, int attempt, int maxRetries)
+        {
+            if (!isThrottled(e))
+            {
+                return -1;
+            }
+
+            throttled.increment();
+            bucket.throttled();
+            if (attempt >= maxRetries)
+            {
+                failed.increment();
+                return -1;
+            }
+
+            retries.increment();
+
+            // Full jitter spreads the retries of calls throttled together
+            long ceiling = Math.min(BASE_RETRY_MILLIS << Math.min(attempt, 16), MAX_RETRY_MILLIS);
+            return ThreadLocalRandom.current().nextLong(ceiling + 1);
+        }
+
+        private static boolean isThrottled(RuntimeException e)
+        {
+            return e instanceof TooManyRequestsException
+                || e instanceof com.amazonaws.services.cognitoidentity.model.TooManyRequestsException;
+        }
+
+        QuotaStats stats()
+        {
+            return new QuotaStats(category, bucket.getMaxRate(), bucket.getRate(), requests.sum(), throttled.sum(), retries.sum(),
+                                  failed.sum(), waitNanos.sum());
+        }
+    }
+}
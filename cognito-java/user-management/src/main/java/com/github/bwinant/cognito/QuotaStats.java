@@ -0,0 +1,97 @@
+package com.github.bwinant.cognito;
+
+/**
+ * Snapshot of the counters {@link QuotaLimiter} keeps for one quota category
+ */
+public class QuotaStats
+{
+    private final QuotaCategory category;
+    private final double configuredRate;
+    private final double currentRate;
+    private final long requests;
+    private final long throttled;
+    private final long retries;
+    private final long failed;
+    private final long waitNanos;
+
+    QuotaStats(QuotaCategory category, double configuredRate, double currentRate, long requests, long throttled, long retries,
+               long failed, long waitNanos)
+    {
+        this.category = category;
+        this.configuredRate = configuredRate;
+        this.currentRate = currentRate;
+        this.requests = requests;
+        this.throttled = throttled;
+        this.retries = retries;
+        this.failed = failed;
+        this.waitNanos = waitNanos;
+    }
+
+    public QuotaCategory getCategory()
+    {
+        return category;
+    }
+
+    /**
+     * @return the rate set for the category, in requests per second
+     */
+    public double getConfiguredRate()
+    {
+        return configuredRate;
+    }
+
+    /**
+     * @return the rate currently allowed after adapting to throttling, in requests per second
+     */
+    public double getCurrentRate()
+    {
+        return currentRate;
+    }
+
+    /**
+     * @return the number of requests sent to Cognito, including retries
+     */
+    public long getRequests()
+    {
+        return requests;
+    }
+
+    /**
+     * @return the number of requests Cognito throttled
+     */
+    public long getThrottled()
+    {
+        return throttled;
+    }
+
+    /**
+     * @return the number of throttled requests that were retried
+     */
+    public long getRetries()
+    {
+        return retries;
+    }
+
+    /**
+     * @return the number of calls that gave up after running out of retries
+     */
+    public long getFailed()
+    {
+        return failed;
+    }
+
+    /**
+     * @return the total time requests waited for the limiter, in nanoseconds
+     */
+    public long getWaitNanos()
+    {
+        return waitNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return category + ": rate=" + String.format("%.1f/%.1f", currentRate, configuredRate) + " requests=" + requests
+            + " throttled=" + throttled + " retries=" + retries + " failed=" + failed + " waitMs=" + waitNanos / 1000000;
+    }
+}
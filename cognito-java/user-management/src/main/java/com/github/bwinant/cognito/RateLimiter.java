@@ -0,0 +1,54 @@
+package com.github.bwinant.cognito;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces callers to a fixed number of permits per second by handing out evenly spaced time slots
+ */
+class RateLimiter
+{
+    private final long intervalNanos;
+    private long nextFree;
+
+    RateLimiter(double permitsPerSecond)
+    {
+        if (permitsPerSecond <= 0)
+        {
+            throw new IllegalArgumentException("permitsPerSecond must be greater than 0");
+        }
+
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.nextFree = System.nanoTime();
+    }
+
+    /**
+     * Blocks until a permit is available. If the calling thread is interrupted while waiting, this returns
+     * immediately with the interrupt flag set.
+     */
+    void acquire()
+    {
+        long wait;
+        synchronized (this)
+        {
+            long now = System.nanoTime();
+            if (nextFree < now)
+            {
+                nextFree = now;
+            }
+            wait = nextFree - now;
+            nextFree += intervalNanos;
+        }
+
+        if (wait > 0)
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
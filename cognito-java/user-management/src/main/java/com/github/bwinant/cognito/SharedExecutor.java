@@ -0,0 +1,20 @@
+package com.github.bwinant.cognito;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Default pools of daemon threads for background Cognito work when no executor is configured
+ */
+final class SharedExecutor
+{
+    static final ExecutorService INSTANCE = Executors.newCachedThreadPool(new DaemonThreadFactory("cognito-users"));
+
+    // Only fires timers, such as delayed retries of async calls, so one thread is plenty
+    static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("cognito-timer"));
+
+    private SharedExecutor()
+    {
+    }
+}
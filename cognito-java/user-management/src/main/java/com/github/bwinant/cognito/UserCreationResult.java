@@ -0,0 +1,68 @@
+package com.github.bwinant.cognito;
+
+import com.amazonaws.services.cognitoidp.model.UserType;
+
+/**
+ * Outcome of creating a single user with {@link UserManager#createUsers}
+ */
+public class UserCreationResult
+{
+    public enum Status
+    {
+        /** The user was created and its password set */
+        CREATED,
+        /** A user with the same username already exists */
+        EXISTS,
+        /** The user could not be created, see {@link #getError()} */
+        FAILED
+    }
+
+    private final String username;
+    private final Status status;
+    private final UserType user;
+    private final Exception error;
+
+    UserCreationResult(String username, Status status, UserType user, Exception error)
+    {
+        this.username = username;
+        this.status = status;
+        this.user = user;
+        this.error = error;
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * The created user
+     *
+     * @return the user, or null unless the status is CREATED
+     */
+    public UserType getUser()
+    {
+        return user;
+    }
+
+    /**
+     * The reason the user could not be created
+     *
+     * @return the error, or null unless the status is FAILED or EXISTS
+     */
+    public Exception getError()
+    {
+        return error;
+    }
+
+    @Override
+    public String toString()
+    {
+        return username + ": " + status;
+    }
+}
@@ -0,0 +1,503 @@
+package com.github.bwinant.cognito;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.services.cognitoidp.AWSCognitoIdentityProvider;
+import com.amazonaws.services.cognitoidp.model.AttributeType;
+import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
+import com.amazonaws.services.cognitoidp.model.UserType;
+
+/**
+ * Local replica of a Cognito User Pool with hash indexes on chosen attributes, so lookups by e.g. email or
+ * preferred_username are answered from memory instead of a rate limited ListUsers filter scan.
+ * <p>
+ * The replica is filled by a full scan with {@link #load()}. ListUsers cannot filter on modification time, so
+ * {@link #refresh()} still lists the whole pool, but only re-indexes users whose UserLastModifiedDate moved past the
+ * copy already held and drops users that disappeared. Scans can be paced with {@link #setRequestsPerSecond(double)}.
+ * Changes made through a {@link UserManager} the directory is set on are written through immediately. Entries are
+ * only ever ordered by Cognito's UserLastModifiedDate, never by the local clock, and a user removed while a scan runs
+ * is not brought back by that scan.
+ * <p>
+ * Lookups never block and may briefly see the state before a concurrent change.
+ */
+public class UserDirectory implements Closeable
+{
+    private static final Logger log = Logger.getLogger(UserDirectory.class.getName());
+
+    private static final int PAGE_SIZE = 60;
+
+    private final AWSCognitoIdentityProvider cognito;
+    private final String userPoolId;
+    private final Set<String> indexedAttributes;
+
+    private final Map<String, Entry> users;
+    private final Map<String, Map<String, Set<String>>> indexes;
+    private final Map<String, Long> removed;
+    private final List<Long> scans;
+    private final Object lock = new Object();
+
+    private volatile boolean loaded;
+    private volatile long lastRefresh;
+    private volatile RateLimiter rateLimiter;
+    private volatile QuotaLimiter quotaLimiter;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates an empty directory. Call {@link #load()} before using it
+     *
+     * @param cognito           a properly configured AWSCognitoIdentityProvider instance
+     * @param userPoolId        the Cognito User Pool id
+     * @param indexedAttributes the user attributes to index, e.g. email; username is always indexed
+     */
+    public UserDirectory(AWSCognitoIdentityProvider cognito, String userPoolId, Collection<String> indexedAttributes)
+    {
+        this.cognito = cognito;
+        this.userPoolId = userPoolId;
+        this.indexedAttributes = Collections.unmodifiableSet(new HashSet<>(indexedAttributes));
+
+        this.users = new ConcurrentHashMap<>();
+        this.removed = new HashMap<>();
+        this.scans = new ArrayList<>();
+        this.indexes = new HashMap<>();
+        for (String attribute : this.indexedAttributes)
+        {
+            indexes.put(attribute, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Caps the ListUsers request rate of {@link #load()} and {@link #refresh()}, leaving headroom under Cognito's
+     * rate limit for other callers. By default pages are requested as fast as Cognito returns them
+     *
+     * @param requestsPerSecond the maximum ListUsers request rate, or 0 for no cap
+     */
+    public void setRequestsPerSecond(double requestsPerSecond)
+    {
+        this.rateLimiter = requestsPerSecond > 0 ? new RateLimiter(requestsPerSecond) : null;
+    }
+
+    /**
+     * Sets a quota limiter to pace scans against the ListUsers quota shared with other callers and to retry throttled
+     * pages, e.g. {@link UserManager#getQuotaLimiter()}. By default throttled pages fail the scan
+     *
+     * @param quotaLimiter the limiter, or null to call Cognito unpaced
+     */
+    public void setQuotaLimiter(QuotaLimiter quotaLimiter)
+    {
+        this.quotaLimiter = quotaLimiter;
+    }
+
+    /**
+     * Fills the directory with a full scan of the user pool
+     */
+    public void load()
+    {
+        refresh();
+    }
+
+    /**
+     * Lists the whole user pool, re-indexing users modified since they were last seen and removing users that no
+     * longer exist. Users written through while the scan runs are kept even if the scan missed them, and users removed
+     * while it runs stay removed even if the scan listed them before they were deleted.
+     */
+    public void refresh()
+    {
+        long start;
+        synchronized (lock)
+        {
+            start = System.currentTimeMillis();
+            scans.add(start);
+        }
+
+        try
+        {
+            scan(start);
+        }
+        finally
+        {
+            synchronized (lock)
+            {
+                scans.remove(Long.valueOf(start));
+
+                // A removal only matters to scans that started before it, which are the only ones that can still list the user
+                long oldest = scans.isEmpty() ? Long.MAX_VALUE : Collections.min(scans);
+                removed.values().removeIf(removedAt -> removedAt < oldest);
+            }
+        }
+
+        lastRefresh = System.currentTimeMillis();
+        loaded = true;
+    }
+
+    private void scan(long start)
+    {
+        Set<String> seen = new HashSet<>();
+
+        ListUsersRequest request = new ListUsersRequest().withUserPoolId(userPoolId).withLimit(PAGE_SIZE);
+        try (UserIterator it = new UserIterator(cognito, request, PAGE_SIZE, 0, null, rateLimiter, quotaLimiter))
+        {
+            while (it.hasNext())
+            {
+                UserType user = it.next();
+                seen.add(user.getUsername());
+
+                Entry current = users.get(user.getUsername());
+                if (current == null || isNewer(user, current))
+                {
+                    synchronized (lock)
+                    {
+                        // Re-check under the lock, a write through may have landed since
+                        current = users.get(user.getUsername());
+                        Long removedAt = removed.get(user.getUsername());
+                        if ((current == null || isNewer(user, current)) && (removedAt == null || removedAt < start))
+                        {
+                            index(new Entry(snapshot(user, null), lastModified(user), start));
+                        }
+                    }
+                }
+            }
+        }
+
+        synchronized (lock)
+        {
+            Iterator<Entry> it = users.values().iterator();
+            while (it.hasNext())
+            {
+                Entry entry = it.next();
+                if (!seen.contains(entry.user.getUsername()) && entry.written < start)
+                {
+                    it.remove();
+                    unindex(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Refreshes the directory in the background. Failed refreshes are logged and the current contents kept
+     *
+     * @param interval the refresh interval
+     * @param unit     the interval time unit
+     */
+    public void startRefresh(long interval, TimeUnit unit)
+    {
+        synchronized (lock)
+        {
+            if (scheduler == null)
+            {
+                scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("cognito-directory"));
+            }
+            scheduler.scheduleWithFixedDelay(this::refreshQuietly, interval, interval, unit);
+        }
+    }
+
+    /**
+     * Stops any background refresh
+     */
+    @Override
+    public void close()
+    {
+        synchronized (lock)
+        {
+            if (scheduler != null)
+            {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+    }
+
+    /**
+     * @return true once the first full scan has completed
+     */
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    /**
+     * @return when the last scan completed, in epoch millis, or 0 if none has
+     */
+    public long getLastRefresh()
+    {
+        return lastRefresh;
+    }
+
+    public int size()
+    {
+        return users.size();
+    }
+
+    /**
+     * @param attribute a user attribute name
+     *
+     * @return true if lookups on the attribute can be answered by this directory
+     */
+    public boolean isIndexed(String attribute)
+    {
+        return attribute.equals("username") || indexedAttributes.contains(attribute);
+    }
+
+    /**
+     * Looks up a user by username
+     *
+     * @param username   the username
+     * @param attributes optional list of attributes to return; if not specified, all attributes are returned
+     *
+     * @return a copy of the user, or null if there is no such user
+     */
+    public UserType getUser(String username, List<String> attributes)
+    {
+        Entry entry = users.get(username);
+        return entry != null ? snapshot(entry.user, attributes) : null;
+    }
+
+    /**
+     * Finds users whose attribute exactly matches a value, like a ListUsers = filter
+     *
+     * @param attribute  an indexed attribute, or username
+     * @param value      the value to look for
+     * @param attributes optional list of attributes to return; if not specified, all attributes are returned
+     *
+     * @return copies of the matching users
+     *
+     * @throws IllegalArgumentException if the attribute is not indexed
+     */
+    public List<UserType> find(String attribute, String value, List<String> attributes)
+    {
+        if (attribute.equals("username"))
+        {
+            UserType user = getUser(value, attributes);
+            return user != null ? Collections.singletonList(user) : Collections.emptyList();
+        }
+
+        Map<String, Set<String>> index = indexes.get(attribute);
+        if (index == null)
+        {
+            throw new IllegalArgumentException("Attribute " + attribute + " is not indexed");
+        }
+
+        Set<String> usernames = index.get(value);
+        if (usernames == null)
+        {
+            return Collections.emptyList();
+        }
+
+        List<UserType> found = new ArrayList<>(usernames.size());
+        for (String username : usernames)
+        {
+            Entry entry = users.get(username);
+            if (entry != null && value.equals(entry.attributes.get(attribute)))
+            {
+                found.add(snapshot(entry.user, attributes));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Writes a newly created or fetched user through to the directory
+     *
+     * @param user the user as returned by Cognito, with all of its attributes and its UserLastModifiedDate
+     */
+    public void put(UserType user)
+    {
+        synchronized (lock)
+        {
+            removed.remove(user.getUsername());
+            index(new Entry(snapshot(user, null), lastModified(user), System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Writes an attribute update through to the directory. Unknown users are ignored, the next refresh picks them up.
+     * AdminUpdateUserAttributes does not return the new UserLastModifiedDate, so the entry keeps the one it had, and the
+     * next refresh that lists the user after the update replaces it with Cognito's copy
+     *
+     * @param username   the username
+     * @param attributes the updated attributes
+     */
+    public void update(String username, Collection<AttributeType> attributes)
+    {
+        synchronized (lock)
+        {
+            Entry current = users.get(username);
+            if (current == null)
+            {
+                return;
+            }
+
+            Map<String, String> merged = new LinkedHashMap<>(current.attributes);
+            for (AttributeType attr : attributes)
+            {
+                merged.put(attr.getName(), attr.getValue());
+            }
+
+            UserType user = snapshot(current.user, null).withAttributes(toAttributes(merged));
+            index(new Entry(user, current.modified, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Writes a deletion through to the directory
+     *
+     * @param username the username
+     */
+    public void remove(String username)
+    {
+        synchronized (lock)
+        {
+            if (!scans.isEmpty())
+            {
+                removed.put(username, System.currentTimeMillis());
+            }
+
+            Entry entry = users.remove(username);
+            if (entry != null)
+            {
+                unindex(entry);
+            }
+        }
+    }
+
+    private void refreshQuietly()
+    {
+        try
+        {
+            refresh();
+        }
+        catch (RuntimeException e)
+        {
+            log.log(Level.WARNING, "Unable to refresh user directory for " + userPoolId + ", keeping current users", e);
+        }
+    }
+
+    /**
+     * Replaces a user's entry and moves it between index buckets. Callers hold the lock
+     */
+    private void index(Entry entry)
+    {
+        Entry previous = users.put(entry.user.getUsername(), entry);
+        for (Map.Entry<String, Map<String, Set<String>>> index : indexes.entrySet())
+        {
+            String attribute = index.getKey();
+            String oldValue = previous != null ? previous.attributes.get(attribute) : null;
+            String newValue = entry.attributes.get(attribute);
+            if (oldValue != null && !oldValue.equals(newValue))
+            {
+                removeFromBucket(index.getValue(), oldValue, entry.user.getUsername());
+            }
+            if (newValue != null)
+            {
+                index.getValue().computeIfAbsent(newValue, k -> ConcurrentHashMap.newKeySet()).add(entry.user.getUsername());
+            }
+        }
+    }
+
+    private void unindex(Entry entry)
+    {
+        for (Map.Entry<String, Map<String, Set<String>>> index : indexes.entrySet())
+        {
+            String value = entry.attributes.get(index.getKey());
+            if (value != null)
+            {
+                removeFromBucket(index.getValue(), value, entry.user.getUsername());
+            }
+        }
+    }
+
+    private static void removeFromBucket(Map<String, Set<String>> index, String value, String username)
+    {
+        Set<String> bucket = index.get(value);
+        if (bucket != null)
+        {
+            bucket.remove(username);
+            if (bucket.isEmpty())
+            {
+                index.remove(value);
+            }
+        }
+    }
+
+    private static boolean isNewer(UserType user, Entry current)
+    {
+        return lastModified(user) > current.modified;
+    }
+
+    private static long lastModified(UserType user)
+    {
+        Date modified = user.getUserLastModifiedDate();
+        return modified != null ? modified.getTime() : 0;
+    }
+
+    /**
+     * Copies a user, optionally keeping only some attributes, so callers can never modify the directory's copy
+     */
+    private static UserType snapshot(UserType user, List<String> attributes)
+    {
+        List<AttributeType> attrs = new ArrayList<>();
+        if (user.getAttributes() != null)
+        {
+            for (AttributeType attr : user.getAttributes())
+            {
+                if (attributes == null || attributes.isEmpty() || attributes.contains(attr.getName()))
+                {
+                    attrs.add(new AttributeType().withName(attr.getName()).withValue(attr.getValue()));
+                }
+            }
+        }
+
+        return user.clone().withAttributes(attrs);
+    }
+
+    private static List<AttributeType> toAttributes(Map<String, String> attributes)
+    {
+        List<AttributeType> attrs = new ArrayList<>(attributes.size());
+        for (Map.Entry<String, String> attr : attributes.entrySet())
+        {
+            attrs.add(new AttributeType().withName(attr.getKey()).withValue(attr.getValue()));
+        }
+        return attrs;
+    }
+
+    /**
+     * A user as held by the directory, with its attributes unpacked for indexing
+     */
+    private static class Entry
+    {
+        private final UserType user;
+        private final Map<String, String> attributes;
+        private final long modified;
+        private final long written;
+
+        Entry(UserType user, long modified, long written)
+        {
+            this.user = user;
+            this.modified = modified;
+            this.written = written;
+
+            this.attributes = new HashMap<>();
+            for (AttributeType attr : user.getAttributes())
+            {
+                attributes.put(attr.getName(), attr.getValue());
+            }
+        }
+    }
+}
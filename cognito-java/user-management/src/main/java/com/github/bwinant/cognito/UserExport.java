@@ -0,0 +1,404 @@
+package com.github.bwinant.cognito;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.amazonaws.services.cognitoidp.AWSCognitoIdentityProvider;
+import com.amazonaws.services.cognitoidp.model.AttributeType;
+import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
+import com.amazonaws.services.cognitoidp.model.ListUsersResult;
+import com.amazonaws.services.cognitoidp.model.UserType;
+
+/**
+ * Writes every user in a pool to a gzip compressed NDJSON file, one page at a time.
+ * <p>
+ * Each page is compressed as its own gzip member and appended to the file, then the file is synced and a checkpoint
+ * holding the pagination token, record count and file length is saved next to it. Concatenated members read back as a
+ * single gzip stream. If an export fails, running it again truncates the file to the checkpointed length, dropping any
+ * partly written page, and carries on from the saved token. The checkpoint is deleted once the export completes.
+ * <p>
+ * Only the page being written and the page being prefetched are held in memory, whatever the size of the pool.
+ */
+class UserExport
+{
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    private static final String USER_POOL_ID = "userPoolId";
+    private static final String ATTRIBUTES = "attributes";
+    private static final String PAGINATION_TOKEN = "paginationToken";
+    private static final String RECORDS = "records";
+    private static final String BYTES = "bytes";
+
+    private final AWSCognitoIdentityProvider cognito;
+    private final ListUsersRequest request;
+    private final Executor executor;
+    private final QuotaLimiter quotaLimiter;
+
+    /**
+     * @param cognito      the Cognito client
+     * @param request      the request template, copied for every page
+     * @param executor     executor used to prefetch the next page, or null to fetch pages on the calling thread
+     * @param quotaLimiter optional quota limiter that paces page requests and retries throttled ones
+     */
+    UserExport(AWSCognitoIdentityProvider cognito, ListUsersRequest request, Executor executor, QuotaLimiter quotaLimiter)
+    {
+        this.cognito = cognito;
+        this.request = request;
+        this.executor = executor;
+        this.quotaLimiter = quotaLimiter;
+    }
+
+    ExportResult run(Path file)
+    {
+        Path checkpointFile = file.resolveSibling(file.getFileName() + CHECKPOINT_SUFFIX);
+        Properties checkpoint = loadCheckpoint(checkpointFile);
+
+        String paginationToken = null;
+        long records = 0;
+        long bytes = 0;
+        if (checkpoint != null)
+        {
+            paginationToken = checkpoint.getProperty(PAGINATION_TOKEN);
+            records = Long.parseLong(checkpoint.getProperty(RECORDS));
+            bytes = Long.parseLong(checkpoint.getProperty(BYTES));
+        }
+
+        ExportResult result = new ExportResult(file, records);
+        PageEncoder encoder = new PageEncoder();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            if (channel.size() < bytes)
+            {
+                throw new IllegalStateException(file + " is shorter than its checkpoint, delete both files to export again");
+            }
+
+            // Drops whatever part of a page was written after the last checkpoint
+            channel.truncate(bytes);
+            channel.position(bytes);
+
+            CompletableFuture<ListUsersResult> nextPage = null;
+            boolean first = checkpoint == null;
+            while (first || paginationToken != null)
+            {
+                ListUsersResult page = nextPage != null ? join(nextPage) : fetch(paginationToken);
+                first = false;
+                paginationToken = page.getPaginationToken();
+
+                // Fetch the next page while this one is compressed and written
+                if (executor != null && paginationToken != null)
+                {
+                    String token = paginationToken;
+                    nextPage = CompletableFuture.supplyAsync(() -> fetch(token), executor);
+                }
+                else
+                {
+                    nextPage = null;
+                }
+
+                List<UserType> users = page.getUsers();
+                if (users.isEmpty() && paginationToken != null)
+                {
+                    continue;
+                }
+
+                ByteBuffer buffer = encoder.encode(users);
+                bytes += buffer.remaining();
+                while (buffer.hasRemaining())
+                {
+                    channel.write(buffer);
+                }
+                records += users.size();
+                result.exported(users.size(), bytes);
+
+                if (paginationToken != null)
+                {
+                    // The checkpoint must never point past data that is not yet on disk
+                    channel.force(false);
+                    saveCheckpoint(checkpointFile, paginationToken, records, bytes);
+                }
+            }
+
+            channel.force(true);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed to export users to " + file, e);
+        }
+        finally
+        {
+            encoder.close();
+        }
+
+        try
+        {
+            Files.deleteIfExists(checkpointFile);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed to delete checkpoint " + checkpointFile, e);
+        }
+
+        return result.complete();
+    }
+
+    private ListUsersResult fetch(String token)
+    {
+        ListUsersRequest pageRequest = request.clone().withPaginationToken(token);
+        if (quotaLimiter != null)
+        {
+            return quotaLimiter.call(QuotaCategory.USER_LIST, () -> cognito.listUsers(pageRequest));
+        }
+        return cognito.listUsers(pageRequest);
+    }
+
+    private Properties loadCheckpoint(Path checkpointFile)
+    {
+        if (!Files.exists(checkpointFile))
+        {
+            return null;
+        }
+
+        Properties checkpoint = new Properties();
+        try (InputStream in = Files.newInputStream(checkpointFile))
+        {
+            checkpoint.load(in);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Failed to read checkpoint " + checkpointFile, e);
+        }
+
+        // Resuming with a different pool or projection would silently mix two exports in one file
+        if (!request.getUserPoolId().equals(checkpoint.getProperty(USER_POOL_ID)) ||
+            !attributes().equals(checkpoint.getProperty(ATTRIBUTES, "")))
+        {
+            throw new IllegalStateException("Checkpoint " + checkpointFile + " belongs to a different export, delete it to start over");
+        }
+        return checkpoint;
+    }
+
+    private void saveCheckpoint(Path checkpointFile, String paginationToken, long records, long bytes) throws IOException
+    {
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty(USER_POOL_ID, request.getUserPoolId());
+        checkpoint.setProperty(ATTRIBUTES, attributes());
+        checkpoint.setProperty(PAGINATION_TOKEN, paginationToken);
+        checkpoint.setProperty(RECORDS, Long.toString(records));
+        checkpoint.setProperty(BYTES, Long.toString(bytes));
+
+        // Replace the checkpoint atomically so a crash leaves either the old one or the new one
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp))
+        {
+            checkpoint.store(out, null);
+        }
+        Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String attributes()
+    {
+        List<String> attributes = request.getAttributesToGet();
+        return attributes != null ? String.join(",", attributes) : "";
+    }
+
+    private static ListUsersResult join(CompletableFuture<ListUsersResult> future)
+    {
+        try
+        {
+            return future.join();
+        }
+        catch (CompletionException e)
+        {
+            // Surface the Cognito exception as if the page had been fetched on this thread
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Serializes a page of users to NDJSON and compresses it as one gzip member. The deflater, checksum and buffers are
+     * reused from page to page
+     */
+    static class PageEncoder
+    {
+        // Magic, deflate, no flags, no mtime, no extra flags, unknown OS
+        private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+        private static final int TRAILER_LENGTH = 8;
+
+        private final StringBuilder json;
+        private final Deflater deflater;
+        private final CRC32 crc;
+        private byte[] out;
+
+        PageEncoder()
+        {
+            this.json = new StringBuilder();
+            this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            this.crc = new CRC32();
+            this.out = new byte[64 * 1024];
+        }
+
+        /**
+         * @return buffer over the encoded member, valid until the next call
+         */
+        ByteBuffer encode(List<UserType> users)
+        {
+            json.setLength(0);
+            for (UserType user : users)
+            {
+                appendUser(user);
+                json.append('\n');
+            }
+            byte[] data = json.toString().getBytes(StandardCharsets.UTF_8);
+
+            crc.reset();
+            crc.update(data, 0, data.length);
+            deflater.reset();
+            deflater.setInput(data);
+            deflater.finish();
+
+            System.arraycopy(HEADER, 0, out, 0, HEADER.length);
+            int length = HEADER.length;
+            while (!deflater.finished())
+            {
+                if (length == out.length)
+                {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                length += deflater.deflate(out, length, out.length - length);
+            }
+
+            if (out.length - length < TRAILER_LENGTH)
+            {
+                out = Arrays.copyOf(out, length + TRAILER_LENGTH);
+            }
+            length = putIntLE(out, length, (int) crc.getValue());
+            length = putIntLE(out, length, data.length);
+
+            return ByteBuffer.wrap(out, 0, length);
+        }
+
+        void close()
+        {
+            deflater.end();
+        }
+
+        private void appendUser(UserType user)
+        {
+            json.append("{\"username\":");
+            appendString(user.getUsername());
+            if (user.getUserStatus() != null)
+            {
+                json.append(",\"status\":");
+                appendString(user.getUserStatus());
+            }
+            if (user.getEnabled() != null)
+            {
+                json.append(",\"enabled\":").append(user.getEnabled().booleanValue());
+            }
+            appendDate("created", user.getUserCreateDate());
+            appendDate("lastModified", user.getUserLastModifiedDate());
+
+            json.append(",\"attributes\":{");
+            if (user.getAttributes() != null)
+            {
+                boolean first = true;
+                for (AttributeType attribute : user.getAttributes())
+                {
+                    if (!first)
+                    {
+                        json.append(',');
+                    }
+                    first = false;
+                    appendString(attribute.getName());
+                    json.append(':');
+                    appendString(attribute.getValue());
+                }
+            }
+            json.append("}}");
+        }
+
+        private void appendDate(String name, Date date)
+        {
+            if (date != null)
+            {
+                json.append(",\"").append(name).append("\":");
+                appendString(date.toInstant().toString());
+            }
+        }
+
+        private void appendString(String value)
+        {
+            if (value == null)
+            {
+                json.append("null");
+                return;
+            }
+
+            json.append('"');
+            for (int i = 0; i < value.length(); i++)
+            {
+                char ch = value.charAt(i);
+                switch (ch)
+                {
+                    case '"':
+                        json.append("\\\"");
+                        break;
+                    case '\\':
+                        json.append("\\\\");
+                        break;
+                    case '\n':
+                        json.append("\\n");
+                        break;
+                    case '\r':
+                        json.append("\\r");
+                        break;
+                    case '\t':
+                        json.append("\\t");
+                        break;
+                    default:
+                        if (ch < 0x20)
+                        {
+                            json.append(String.format("\\u%04x", (int) ch));
+                        }
+                        else
+                        {
+                            json.append(ch);
+                        }
+                }
+            }
+            json.append('"');
+        }
+
+        private static int putIntLE(byte[] buf, int offset, int value)
+        {
+            buf[offset] = (byte) value;
+            buf[offset + 1] = (byte) (value >>> 8);
+            buf[offset + 2] = (byte) (value >>> 16);
+            buf[offset + 3] = (byte) (value >>> 24);
+            return offset + 4;
+        }
+    }
+}
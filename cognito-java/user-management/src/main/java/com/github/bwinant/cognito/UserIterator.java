@@ -0,0 +1,202 @@
+package com.github.bwinant.cognito;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import com.amazonaws.services.cognitoidp.AWSCognitoIdentityProvider;
+import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
+import com.amazonaws.services.cognitoidp.model.ListUsersResult;
+import com.amazonaws.services.cognitoidp.model.UserType;
+
+/**
+ * Lazily walks the pages of a ListUsers request. A page is only requested once the previous page has been handed out,
+ * and if an executor is given the next page is prefetched in the background while the caller works through the
+ * current one, so at most two pages are held in memory at a time.
+ */
+class UserIterator implements Iterator<UserType>, AutoCloseable
+{
+    private final AWSCognitoIdentityProvider cognito;
+    private final ListUsersRequest request;
+    private final int pageSize;
+    private final int limit;
+    private final Executor executor;
+    private final RateLimiter rateLimiter;
+    private final QuotaLimiter quotaLimiter;
+
+    private Iterator<UserType> page;
+    private String paginationToken;
+    private CompletableFuture<ListUsersResult> nextPage;
+    private boolean started;
+    private boolean closed;
+    private int fetched;
+    private int returned;
+
+    /**
+     * @param cognito   the Cognito client
+     * @param request   the request template, copied for every page
+     * @param pageSize  the maximum number of users per page
+     * @param limit     the maximum number of users to return, or less than or equal to 0 for all users
+     * @param executor  executor used to prefetch the next page, or null to fetch pages on the calling thread
+     */
+    UserIterator(AWSCognitoIdentityProvider cognito, ListUsersRequest request, int pageSize, int limit, Executor executor)
+    {
+        this(cognito, request, pageSize, limit, executor, null);
+    }
+
+    /**
+     * @param cognito     the Cognito client
+     * @param request     the request template, copied for every page
+     * @param pageSize    the maximum number of users per page
+     * @param limit       the maximum number of users to return, or less than or equal to 0 for all users
+     * @param executor    executor used to prefetch the next page, or null to fetch pages on the calling thread
+     * @param rateLimiter optional limiter acquired before every page request
+     */
+    UserIterator(AWSCognitoIdentityProvider cognito, ListUsersRequest request, int pageSize, int limit, Executor executor, RateLimiter rateLimiter)
+    {
+        this(cognito, request, pageSize, limit, executor, rateLimiter, null);
+    }
+
+    /**
+     * @param cognito      the Cognito client
+     * @param request      the request template, copied for every page
+     * @param pageSize     the maximum number of users per page
+     * @param limit        the maximum number of users to return, or less than or equal to 0 for all users
+     * @param executor     executor used to prefetch the next page, or null to fetch pages on the calling thread
+     * @param rateLimiter  optional limiter acquired before every page request
+     * @param quotaLimiter optional quota limiter that paces page requests and retries throttled ones
+     */
+    UserIterator(AWSCognitoIdentityProvider cognito, ListUsersRequest request, int pageSize, int limit, Executor executor, RateLimiter rateLimiter,
+                 QuotaLimiter quotaLimiter)
+    {
+        this.cognito = cognito;
+        this.request = request;
+        this.pageSize = pageSize;
+        this.limit = limit;
+        this.executor = executor;
+        this.rateLimiter = rateLimiter;
+        this.quotaLimiter = quotaLimiter;
+        this.page = Collections.emptyIterator();
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (closed || (limit > 0 && returned >= limit))
+        {
+            return false;
+        }
+
+        while (!page.hasNext())
+        {
+            if (!advance())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public UserType next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+
+        returned++;
+        return page.next();
+    }
+
+    /**
+     * Stops iteration and cancels any page being prefetched
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        page = Collections.emptyIterator();
+        if (nextPage != null)
+        {
+            nextPage.cancel(false);
+            nextPage = null;
+        }
+    }
+
+    private boolean advance()
+    {
+        ListUsersResult result;
+        if (nextPage != null)
+        {
+            result = join(nextPage);
+            nextPage = null;
+        }
+        else if (!started || paginationToken != null)
+        {
+            result = fetch(paginationToken, remaining());
+        }
+        else
+        {
+            return false;
+        }
+
+        started = true;
+        paginationToken = result.getPaginationToken();
+        page = result.getUsers().iterator();
+        fetched += result.getUsers().size();
+
+        // Fetch the next page while the caller works through this one
+        if (executor != null && paginationToken != null && (limit <= 0 || fetched < limit))
+        {
+            String token = paginationToken;
+            int remaining = remaining();
+            nextPage = CompletableFuture.supplyAsync(() -> fetch(token, remaining), executor);
+        }
+
+        return true;
+    }
+
+    private int remaining()
+    {
+        return limit > 0 ? Math.min(pageSize, limit - fetched) : pageSize;
+    }
+
+    private ListUsersResult fetch(String token, int size)
+    {
+        ListUsersRequest pageRequest = request.clone()
+            .withLimit(size)
+            .withPaginationToken(token);
+
+        if (rateLimiter != null)
+        {
+            rateLimiter.acquire();
+        }
+
+        if (quotaLimiter != null)
+        {
+            return quotaLimiter.call(QuotaCategory.USER_LIST, () -> cognito.listUsers(pageRequest));
+        }
+        return cognito.listUsers(pageRequest);
+    }
+
+    private static ListUsersResult join(CompletableFuture<ListUsersResult> future)
+    {
+        try
+        {
+            return future.join();
+        }
+        catch (CompletionException e)
+        {
+            // Surface the Cognito exception as if the page had been fetched on this thread
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -1,12 +1,21 @@
 package com.github.bwinant.cognito;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import com.amazonaws.services.cognitoidp.AWSCognitoIdentityProvider;
 import com.amazonaws.services.cognitoidp.model.AdminCreateUserRequest;
@@ -20,7 +29,6 @@ import com.amazonaws.services.cognitoidp.model.AttributeType;
 import com.amazonaws.services.cognitoidp.model.AuthFlowType;
 import com.amazonaws.services.cognitoidp.model.AuthenticationResultType;
 import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
-import com.amazonaws.services.cognitoidp.model.ListUsersResult;
 import com.amazonaws.services.cognitoidp.model.MessageActionType;
 import com.amazonaws.services.cognitoidp.model.UserStatusType;
 import com.amazonaws.services.cognitoidp.model.UserType;
@@ -30,12 +38,21 @@ import com.amazonaws.services.cognitoidp.model.UserType;
  */
 public class UserManager
 {
-    private static final int LIMIT = 60;
+    static final int LIMIT = 60;
+
+    // sub is an immutable lowercase UUID, so its first hex digit splits any pool into 16 disjoint partitions
+    private static final List<String> SUB_PREFIXES = Collections.unmodifiableList(Arrays.asList(
+        "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "a", "b", "c", "d", "e", "f"
+    ));
 
     private final AWSCognitoIdentityProvider cognito;
     private final String userPoolId;
     private final String clientId;
 
+    private Executor executor;
+    private UserDirectory directory;
+    private QuotaLimiter quotaLimiter;
+
     /**
      * Create a new UserManager that manages a specific User Pool.
      * For this class to work, clientId should specify an App Client that allows ADMIN_NO_SRP_AUTH
@@ -49,6 +66,49 @@ public class UserManager
         this.cognito = cognito;
         this.userPoolId = userPoolId;
         this.clientId = clientId;
+        this.executor = SharedExecutor.INSTANCE;
+    }
+
+    /**
+     * Sets the executor used for background work such as prefetching the next page of users.
+     * By default a shared pool of daemon threads is used
+     *
+     * @param executor  the executor
+     */
+    public void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the limiter that paces this manager's Cognito calls per quota category and retries throttled calls.
+     * By default calls are not paced and throttled calls fail; share one limiter between every manager and purger that
+     * uses the same AWS account so they split the quota instead of competing for it
+     *
+     * @param quotaLimiter the limiter, or null to call Cognito unpaced and without retries
+     */
+    public void setQuotaLimiter(QuotaLimiter quotaLimiter)
+    {
+        this.quotaLimiter = quotaLimiter;
+    }
+
+    /**
+     * @return the limiter pacing this manager's Cognito calls, for sharing with other managers or reading its counters
+     */
+    public QuotaLimiter getQuotaLimiter()
+    {
+        return quotaLimiter;
+    }
+
+    /**
+     * Sets a local replica to answer searches from and to write user changes through to. Searches on attributes the
+     * directory does not index, or made before it has loaded, still go to Cognito. By default every search goes to Cognito
+     *
+     * @param directory the user directory for this manager's user pool, or null to stop using it
+     */
+    public void setUserDirectory(UserDirectory directory)
+    {
+        this.directory = directory;
     }
 
     /**
@@ -65,28 +125,20 @@ public class UserManager
      */
     public UserType createUser(String username, String password, Map<String, String> attributes)
     {
-        List<AttributeType> attrList = new ArrayList<>(attributes.size());
-        for (Map.Entry<String, String> entry : attributes.entrySet())
-        {
-            // preferred_username cannot be set at user creation time if preferred_username is also a user pool alias
-            if (!entry.getKey().equals("preferred_username"))
-            {
-                 attrList.add(attribute(entry.getKey(), entry.getValue()));
-            }
-        }
+        List<AttributeType> attrList = creationAttributes(attributes);
 
         // Generate a temporary password - this only needs to be reasonably secure - it won't exist past this method
         String tempPassword = generatePassword(12);
 
         // Create user and suppress any confirmation notifications - will be in NEW_PASSWORD_REQUIRED state
-        AdminCreateUserResult createUserResult = cognito.adminCreateUser(
+        AdminCreateUserResult createUserResult = call(QuotaCategory.USER_CREATION, () -> cognito.adminCreateUser(
             new AdminCreateUserRequest()
                 .withUserPoolId(userPoolId)
                 .withUsername(username)
                 .withUserAttributes(attrList)
                 .withTemporaryPassword(tempPassword)
                 .withMessageAction(MessageActionType.SUPPRESS)
-        );
+        ));
 
         // Login as new user with temp password
         AdminInitiateAuthResult authResult = authenticate(username, tempPassword);
@@ -100,14 +152,14 @@ public class UserManager
             challengeResponses.put("USERNAME", username);
             challengeResponses.put("NEW_PASSWORD", password);
 
-            AdminRespondToAuthChallengeResult challengeResult = cognito.adminRespondToAuthChallenge(
+            AdminRespondToAuthChallengeResult challengeResult = call(QuotaCategory.USER_AUTHENTICATION, () -> cognito.adminRespondToAuthChallenge(
                 new AdminRespondToAuthChallengeRequest()
                     .withUserPoolId(userPoolId)
                     .withClientId(clientId)
                     .withChallengeName("NEW_PASSWORD_REQUIRED")
                     .withSession(authResult.getSession())
                     .withChallengeResponses(challengeResponses)
-            );
+            ));
 
             // Prep return value
             UserType user = createUserResult.getUser();
@@ -130,6 +182,12 @@ public class UserManager
                 throw new RuntimeException("Unexpected response from adminRespondToAuthChallenge: " + challengeResult);
             }
 
+            UserDirectory directory = this.directory;
+            if (directory != null)
+            {
+                directory.put(user);
+            }
+
             return user;
         }
         else
@@ -138,6 +196,25 @@ public class UserManager
         }
     }
 
+    /**
+     * Creates many users, pipelining the create and password setup calls of up to {@code concurrency} users at once on this manager's executor.
+     * Calls are paced and throttled calls retried by this manager's {@link QuotaLimiter}, if it has one, shared by all in-flight users.
+     * Specs are only pulled from the input as results are consumed. Failures are reported per user instead of being thrown.
+     * Close the returned stream to stop submitting new users if it is not fully consumed.
+     *
+     * @param specs         the users to create
+     * @param concurrency   the maximum number of users being created at once
+     *
+     * @return stream of per-user results in completion order
+     */
+    public Stream<UserCreationResult> createUsers(Stream<UserSpec> specs, int concurrency)
+    {
+        BulkUserCreation bulk = new BulkUserCreation(this, specs.iterator(), concurrency, executor);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(bulk, Spliterator.NONNULL), false)
+            .onClose(bulk::close)
+            .onClose(specs::close);
+    }
+
     /**
      * Updates a user's attributes.
      *
@@ -146,12 +223,18 @@ public class UserManager
      */
     public void updateUser(String username, List<AttributeType> attributes)
     {
-        cognito.adminUpdateUserAttributes(
+        call(QuotaCategory.USER_UPDATE, () -> cognito.adminUpdateUserAttributes(
             new AdminUpdateUserAttributesRequest()
                 .withUserPoolId(userPoolId)
                 .withUsername(username)
                 .withUserAttributes(attributes)
-        );
+        ));
+
+        UserDirectory directory = this.directory;
+        if (directory != null)
+        {
+            directory.update(username, attributes);
+        }
     }
 
     /**
@@ -170,13 +253,13 @@ public class UserManager
         authParams.put("USERNAME", username);
         authParams.put("PASSWORD", password);
 
-        return cognito.adminInitiateAuth(
+        return call(QuotaCategory.USER_AUTHENTICATION, () -> cognito.adminInitiateAuth(
             new AdminInitiateAuthRequest()
                 .withUserPoolId(userPoolId)
                 .withClientId(clientId)
                 .withAuthFlow(AuthFlowType.ADMIN_NO_SRP_AUTH)
                 .withAuthParameters(authParams)
-        );
+        ));
     }
 
     /**
@@ -190,6 +273,12 @@ public class UserManager
      */
     public List<UserType> searchUsers(String filterName, String filterValue, List<String> attributes)
     {
+        UserDirectory directory = this.directory;
+        if (canSearch(directory, filterName))
+        {
+            return directory.find(filterName, filterValue, attributes);
+        }
+
         String filterExpression = filterName + " = \"" + filterValue + "\"";
         return listUsers(filterExpression, attributes, -1);
     }
@@ -205,15 +294,136 @@ public class UserManager
      */
     public List<UserType> listUsers(int limit, List<String> attributes)
     {
-        List<UserType> users = listUsers(null, attributes, limit);
-        if (users.size() > limit && limit > 0)
+        return listUsers(null, attributes, limit);
+    }
+
+    /**
+     * Search for users, fetching pages lazily as the stream is consumed.
+     * The next page is prefetched in the background while the current page is processed.
+     * Close the stream to cancel any prefetch if it is not fully consumed.
+     *
+     * @param filterName    the Cognito user attribute to search on
+     * @param filterValue   the value of the Cognito user attribute to look for
+     * @param attributes    optional list of Cognito user attributes to return; if not specified, all attributes are returned
+     *
+     * @return stream of users
+     */
+    public Stream<UserType> streamSearchUsers(String filterName, String filterValue, List<String> attributes)
+    {
+        UserDirectory directory = this.directory;
+        if (canSearch(directory, filterName))
         {
-            users = users.subList(0, limit);
+            return directory.find(filterName, filterValue, attributes).stream();
         }
-        return users;
+
+        String filterExpression = filterName + " = \"" + filterValue + "\"";
+        return streamUsers(filterExpression, attributes, -1);
+    }
+
+    /**
+     * Return all Cognito users, up to an optional max limit, fetching pages lazily as the stream is consumed.
+     * If limit is less than or equal to 0, all users are returned.
+     * The next page is prefetched in the background while the current page is processed, so at most two pages are held in memory.
+     * Close the stream to cancel any prefetch if it is not fully consumed.
+     *
+     * @param limit        the number of users to return
+     * @param attributes   optional list of Cognito user attributes to return; if not specified, all attributes are returned
+     *
+     * @return stream of users
+     */
+    public Stream<UserType> streamUsers(int limit, List<String> attributes)
+    {
+        return streamUsers(null, attributes, limit);
+    }
+
+    /**
+     * Export all Cognito users to a gzip compressed file with one JSON object per line, without holding the pool in memory.
+     * Progress is checkpointed to a file next to the export after every page; if an export fails, calling this method
+     * again with the same arguments resumes it where it stopped. An existing file without a checkpoint is overwritten.
+     *
+     * @param file         the file to write
+     * @param attributes   optional list of Cognito user attributes to export; if not specified, all attributes are exported
+     *
+     * @return the export summary
+     *
+     * @throws java.io.UncheckedIOException if the file or its checkpoint cannot be written
+     * @throws IllegalStateException if the checkpoint belongs to an export of another pool or attribute list
+     */
+    public ExportResult exportUsers(Path file, List<String> attributes)
+    {
+        return new UserExport(cognito, listUsersRequest(userPoolId, null, attributes), executor, quotaLimiter).run(file);
+    }
+
+    /**
+     * Return all Cognito users by scanning the pool in parallel.
+     * The pool is split into 16 partitions by the first character of each user's sub attribute, and the partitions are
+     * walked concurrently on this manager's executor. Users are returned in no particular order, without duplicates.
+     * Close the stream to stop the scan if it is not fully consumed.
+     *
+     * @param attributes        optional list of Cognito user attributes to return; if not specified, all attributes are returned
+     * @param parallelism       the maximum number of partitions to walk at once
+     * @param requestsPerSecond the maximum ListUsers request rate across all partitions
+     *
+     * @return stream of users
+     */
+    public Stream<UserType> parallelScan(List<String> attributes, int parallelism, double requestsPerSecond)
+    {
+        return parallelScan("sub", SUB_PREFIXES, attributes, parallelism, requestsPerSecond);
+    }
+
+    /**
+     * Return all Cognito users by scanning the pool in parallel using custom prefix partitions.
+     * The prefixes together must cover every value of the partition attribute, e.g. every first character a username can start with,
+     * otherwise users will be missed. Prefixes that start with another prefix are ignored, so partitions never overlap.
+     * Close the stream to stop the scan if it is not fully consumed.
+     *
+     * @param partitionAttribute the Cognito user attribute to filter partitions on, e.g. username or sub
+     * @param prefixes           the attribute prefixes that define the partitions
+     * @param attributes         optional list of Cognito user attributes to return; if not specified, all attributes are returned
+     * @param parallelism        the maximum number of partitions to walk at once
+     * @param requestsPerSecond  the maximum ListUsers request rate across all partitions
+     *
+     * @return stream of users
+     */
+    public Stream<UserType> parallelScan(String partitionAttribute, Collection<String> prefixes, List<String> attributes,
+                                         int parallelism, double requestsPerSecond)
+    {
+        PartitionedUserScan scan = new PartitionedUserScan(cognito, listUsersRequest(userPoolId, null, attributes), partitionAttribute, prefixes,
+                                                           LIMIT, parallelism, new RateLimiter(requestsPerSecond), quotaLimiter);
+        scan.start(executor);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(scan, Spliterator.NONNULL), false)
+            .onClose(scan::close);
+    }
+
+    private <T> T call(QuotaCategory category, Supplier<T> operation)
+    {
+        QuotaLimiter limiter = quotaLimiter;
+        return limiter != null ? limiter.call(category, operation) : operation.get();
+    }
+
+    private static boolean canSearch(UserDirectory directory, String filterName)
+    {
+        return directory != null && directory.isLoaded() && directory.isIndexed(filterName);
+    }
+
+    private Stream<UserType> streamUsers(String filterExpression, List<String> attributes, int limit)
+    {
+        UserIterator it = new UserIterator(cognito, listUsersRequest(userPoolId, filterExpression, attributes), LIMIT, limit, executor, null, quotaLimiter);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(it::close);
     }
 
     private List<UserType> listUsers(String filterExpression, List<String> attributes, int limit)
+    {
+        // Collecting everything anyway, so there is nothing to overlap page fetches with
+        UserIterator it = new UserIterator(cognito, listUsersRequest(userPoolId, filterExpression, attributes), LIMIT, limit, null, null, quotaLimiter);
+
+        List<UserType> users = new ArrayList<>();
+        it.forEachRemaining(users::add);
+        return users;
+    }
+
+    static ListUsersRequest listUsersRequest(String userPoolId, String filterExpression, List<String> attributes)
     {
         ListUsersRequest request = new ListUsersRequest()
             .withUserPoolId(userPoolId)
@@ -229,29 +439,29 @@ public class UserManager
             request.withAttributesToGet(attributes);
         }
 
-        List<UserType> users = new ArrayList<>();
+        return request;
+    }
 
-        String paginationToken = null;
-        do
+    static List<AttributeType> creationAttributes(Map<String, String> attributes)
+    {
+        List<AttributeType> attrList = new ArrayList<>(attributes.size());
+        for (Map.Entry<String, String> entry : attributes.entrySet())
         {
-            request.withPaginationToken(paginationToken);
-
-            ListUsersResult result = cognito.listUsers(request);
-            paginationToken = result.getPaginationToken();
-
-            users.addAll(result.getUsers());
+            // preferred_username cannot be set at user creation time if preferred_username is also a user pool alias
+            if (!entry.getKey().equals("preferred_username"))
+            {
+                 attrList.add(attribute(entry.getKey(), entry.getValue()));
+            }
         }
-        while (paginationToken != null && (users.size() < limit || limit <= 0));
-
-        return users;
+        return attrList;
     }
 
-    private AttributeType attribute(String name, String value)
+    static AttributeType attribute(String name, String value)
     {
         return new AttributeType().withName(name).withValue(value);
     }
 
-    private String generatePassword(int length)
+    static String generatePassword(int length)
     {
         final String chars = "abcdefghijklmnopqrstuvwxyz0123456789";
         final Random random = ThreadLocalRandom.current();
@@ -0,0 +1,54 @@
+package com.github.bwinant.cognito;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
+import com.amazonaws.services.cognitoidp.model.ListUsersResult;
+import com.amazonaws.services.cognitoidp.model.UserType;
+
+/**
+ * One page of users returned by {@link AsyncUserManager#listUserPages(List)}
+ */
+public class UserPage
+{
+    private final AsyncUserManager manager;
+    private final ListUsersRequest request;
+    private final List<UserType> users;
+    private final String paginationToken;
+
+    UserPage(AsyncUserManager manager, ListUsersRequest request, ListUsersResult result)
+    {
+        this.manager = manager;
+        this.request = request;
+        this.users = result.getUsers() != null ? result.getUsers() : Collections.emptyList();
+        this.paginationToken = result.getPaginationToken();
+    }
+
+    public List<UserType> getUsers()
+    {
+        return users;
+    }
+
+    public boolean hasNextPage()
+    {
+        return paginationToken != null;
+    }
+
+    /**
+     * Fetches the page after this one
+     *
+     * @return future completing with the next page
+     *
+     * @throws IllegalStateException if this is the last page
+     */
+    public CompletableFuture<UserPage> nextPage()
+    {
+        if (paginationToken == null)
+        {
+            throw new IllegalStateException("No more pages");
+        }
+        return manager.page(request.clone().withPaginationToken(paginationToken));
+    }
+}
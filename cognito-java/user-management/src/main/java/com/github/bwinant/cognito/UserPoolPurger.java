@@ -0,0 +1,484 @@
+package com.github.bwinant.cognito;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.auth.profile.ProfileCredentialsProvider;
+import com.amazonaws.services.cognitoidentity.AmazonCognitoIdentity;
+import com.amazonaws.services.cognitoidentity.AmazonCognitoIdentityClientBuilder;
+import com.amazonaws.services.cognitoidentity.model.DeleteIdentitiesRequest;
+import com.amazonaws.services.cognitoidentity.model.DeleteIdentitiesResult;
+import com.amazonaws.services.cognitoidentity.model.IdentityDescription;
+import com.amazonaws.services.cognitoidentity.model.ListIdentitiesRequest;
+import com.amazonaws.services.cognitoidentity.model.ListIdentitiesResult;
+import com.amazonaws.services.cognitoidentity.model.UnprocessedIdentityId;
+import com.amazonaws.services.cognitoidp.AWSCognitoIdentityProvider;
+import com.amazonaws.services.cognitoidp.AWSCognitoIdentityProviderClientBuilder;
+import com.amazonaws.services.cognitoidp.model.AdminDeleteUserRequest;
+import com.amazonaws.services.cognitoidp.model.ListUsersRequest;
+
+/**
+ * Deletes every user in a Cognito User Pool and every identity in a Cognito Identity Pool.
+ * <p>
+ * Users are streamed page by page and deleted concurrently. Identities are deleted in batches of up to 60 per
+ * DeleteIdentities call. Set a {@link QuotaLimiter} to pace every call and retry throttled ones, so a purge leaves
+ * room for the other clients of the same quota. Since deleting entries while paginating can shift later pages,
+ * a pool is walked again until a pass finds nothing left to delete.
+ * <p>
+ * {@link #main} runs a purge from the command line, taking the same options scripts/poolCleaner.sh always has.
+ */
+public class UserPoolPurger
+{
+    private static final int PAGE_SIZE = 60;
+    private static final int IDENTITY_BATCH_SIZE = 60;
+    private static final int MAX_PASSES = 5;
+
+    private static final PurgeListener NO_LISTENER = new PurgeListener()
+    {
+        @Override
+        public void onDelete(String poolId, String id)
+        {
+        }
+
+        @Override
+        public void onError(String poolId, String id, Exception error)
+        {
+        }
+    };
+
+    private final AWSCognitoIdentityProvider cognito;
+    private final AmazonCognitoIdentity cognitoIdentity;
+
+    private Executor executor;
+    private int concurrency;
+    private QuotaLimiter quotaLimiter;
+    private boolean dryRun;
+    private PurgeListener listener;
+
+    /**
+     * Create a new UserPoolPurger. Either client may be null if only the other kind of pool will be purged.
+     *
+     * @param cognito           a properly configured AWSCognitoIdentityProvider instance
+     * @param cognitoIdentity   a properly configured AmazonCognitoIdentity instance
+     */
+    public UserPoolPurger(AWSCognitoIdentityProvider cognito, AmazonCognitoIdentity cognitoIdentity)
+    {
+        this.cognito = cognito;
+        this.cognitoIdentity = cognitoIdentity;
+        this.executor = SharedExecutor.INSTANCE;
+        this.concurrency = 10;
+        this.listener = NO_LISTENER;
+    }
+
+    /**
+     * Purges pools from the command line:
+     * <pre>
+     * UserPoolPurger -r &lt;region&gt; [-u &lt;user pool id&gt;] [-i &lt;identity pool id&gt;] [-p &lt;profile&gt;] [-n | --dry-run]
+     * </pre>
+     * Credentials come from the named profile, or the default provider chain without -p. Every deleted user and identity
+     * is printed. Exits with status 1 on bad arguments or if anything could not be deleted
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args)
+    {
+        String region = null;
+        String userPoolId = null;
+        String identityPoolId = null;
+        String profile = null;
+        boolean dryRun = false;
+
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "-r":
+                    region = argument(args, ++i);
+                    break;
+                case "-u":
+                    userPoolId = argument(args, ++i);
+                    break;
+                case "-i":
+                    identityPoolId = argument(args, ++i);
+                    break;
+                case "-p":
+                    profile = argument(args, ++i);
+                    break;
+                case "-n":
+                case "--dry-run":
+                    dryRun = true;
+                    break;
+                default:
+                    usage();
+            }
+        }
+
+        if (region == null || (userPoolId == null && identityPoolId == null))
+        {
+            usage();
+        }
+
+        AWSCredentialsProvider credentials = profile != null ? new ProfileCredentialsProvider(profile) : DefaultAWSCredentialsProviderChain.getInstance();
+        AWSCognitoIdentityProvider cognito = userPoolId == null ? null : AWSCognitoIdentityProviderClientBuilder.standard()
+            .withRegion(region)
+            .withCredentials(credentials)
+            .build();
+        AmazonCognitoIdentity cognitoIdentity = identityPoolId == null ? null : AmazonCognitoIdentityClientBuilder.standard()
+            .withRegion(region)
+            .withCredentials(credentials)
+            .build();
+
+        UserPoolPurger purger = new UserPoolPurger(cognito, cognitoIdentity);
+        purger.setQuotaLimiter(new QuotaLimiter());
+        purger.setDryRun(dryRun);
+        System.exit(purger.run(userPoolId, identityPoolId, System.out));
+    }
+
+    /**
+     * Purges the given pools, printing progress and results
+     *
+     * @return the process exit status, 1 if anything could not be deleted
+     */
+    int run(String userPoolId, String identityPoolId, PrintStream out)
+    {
+        String action = dryRun ? "Would delete" : "Deleted";
+        setListener(new PurgeListener()
+        {
+            @Override
+            public void onDelete(String poolId, String id)
+            {
+                out.println(action + " " + id);
+            }
+
+            @Override
+            public void onError(String poolId, String id, Exception error)
+            {
+                out.println("Failed to delete " + id + (error != null ? ": " + error : ""));
+            }
+        });
+
+        long failed = 0;
+        if (userPoolId != null)
+        {
+            out.println("Cleaning user pool " + userPoolId);
+            PurgeResult result = purgeUserPool(userPoolId);
+            out.println(result);
+            failed += result.getFailed();
+        }
+        if (identityPoolId != null)
+        {
+            out.println("Cleaning identity pool " + identityPoolId);
+            PurgeResult result = purgeIdentityPool(identityPoolId);
+            out.println(result);
+            failed += result.getFailed();
+        }
+        return failed > 0 ? 1 : 0;
+    }
+
+    private static String argument(String[] args, int i)
+    {
+        if (i >= args.length)
+        {
+            usage();
+        }
+        return args[i];
+    }
+
+    private static void usage()
+    {
+        System.err.println("Usage: UserPoolPurger -r <region> [-u <user pool id>] [-i <identity pool id>] [-p <profile>] [-n | --dry-run]");
+        System.exit(1);
+    }
+
+    /**
+     * Sets the executor delete calls are run on. By default a shared pool of daemon threads is used
+     *
+     * @param executor  the executor
+     */
+    public void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the maximum number of delete calls in flight at once. Defaults to 10
+     *
+     * @param concurrency   the maximum concurrent delete calls
+     */
+    public void setConcurrency(int concurrency)
+    {
+        if (concurrency <= 0)
+        {
+            throw new IllegalArgumentException("concurrency must be greater than 0");
+        }
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Sets the limiter that paces list calls and delete calls and retries throttled ones, e.g.
+     * {@link UserManager#getQuotaLimiter()}. Deletes count against {@link QuotaCategory#USER_UPDATE} and
+     * {@link QuotaCategory#IDENTITY_DELETE}; lower those rates on the limiter to purge more gently.
+     * By default calls are not paced and throttled deletes are reported as failures
+     *
+     * @param quotaLimiter the limiter, or null to call Cognito unpaced and without retries
+     */
+    public void setQuotaLimiter(QuotaLimiter quotaLimiter)
+    {
+        this.quotaLimiter = quotaLimiter;
+    }
+
+    public QuotaLimiter getQuotaLimiter()
+    {
+        return quotaLimiter;
+    }
+
+    /**
+     * In a dry run pools are listed and progress is reported, but nothing is deleted
+     *
+     * @param dryRun    true to only report what would be deleted
+     */
+    public void setDryRun(boolean dryRun)
+    {
+        this.dryRun = dryRun;
+    }
+
+    public void setListener(PurgeListener listener)
+    {
+        this.listener = listener != null ? listener : NO_LISTENER;
+    }
+
+    /**
+     * Deletes every user in a user pool
+     *
+     * @param userPoolId    the Cognito User Pool id
+     *
+     * @return the purge summary
+     */
+    public PurgeResult purgeUserPool(String userPoolId)
+    {
+        PurgeResult result = new PurgeResult(userPoolId, dryRun);
+        Workers workers = new Workers();
+
+        ListUsersRequest request = new ListUsersRequest()
+            .withUserPoolId(userPoolId)
+            .withAttributesToGet("sub");
+
+        for (int pass = 0; pass < (dryRun ? 1 : MAX_PASSES); pass++)
+        {
+            long deleted = result.getDeleted();
+
+            UserIterator it = new UserIterator(cognito, request, PAGE_SIZE, -1, executor, null, quotaLimiter);
+            try
+            {
+                while (it.hasNext())
+                {
+                    String username = it.next().getUsername();
+                    workers.submit(() -> deleteUser(userPoolId, username, result));
+                }
+            }
+            finally
+            {
+                it.close();
+                workers.await();
+            }
+
+            if (result.getDeleted() == deleted)
+            {
+                break;
+            }
+        }
+
+        return result.complete();
+    }
+
+    /**
+     * Deletes every identity in an identity pool
+     *
+     * @param identityPoolId    the Cognito Identity Pool id
+     *
+     * @return the purge summary
+     */
+    public PurgeResult purgeIdentityPool(String identityPoolId)
+    {
+        PurgeResult result = new PurgeResult(identityPoolId, dryRun);
+        Workers workers = new Workers();
+
+        for (int pass = 0; pass < (dryRun ? 1 : MAX_PASSES); pass++)
+        {
+            long deleted = result.getDeleted();
+
+            try
+            {
+                String nextToken = null;
+                do
+                {
+                    ListIdentitiesRequest request = new ListIdentitiesRequest()
+                        .withIdentityPoolId(identityPoolId)
+                        .withMaxResults(IDENTITY_BATCH_SIZE)
+                        .withNextToken(nextToken);
+
+                    ListIdentitiesResult page = call(QuotaCategory.IDENTITY_LIST, () -> cognitoIdentity.listIdentities(request));
+                    nextToken = page.getNextToken();
+
+                    List<String> batch = new ArrayList<>(page.getIdentities().size());
+                    for (IdentityDescription identity : page.getIdentities())
+                    {
+                        batch.add(identity.getIdentityId());
+                    }
+
+                    if (!batch.isEmpty())
+                    {
+                        workers.submit(() -> deleteIdentities(identityPoolId, batch, result));
+                    }
+                }
+                while (nextToken != null);
+            }
+            finally
+            {
+                workers.await();
+            }
+
+            if (result.getDeleted() == deleted)
+            {
+                break;
+            }
+        }
+
+        return result.complete();
+    }
+
+    private void deleteUser(String userPoolId, String username, PurgeResult result)
+    {
+        try
+        {
+            if (!dryRun)
+            {
+                call(QuotaCategory.USER_UPDATE, () -> cognito.adminDeleteUser(
+                    new AdminDeleteUserRequest()
+                        .withUserPoolId(userPoolId)
+                        .withUsername(username)
+                ));
+            }
+
+            result.deleted(1);
+            listener.onDelete(userPoolId, username);
+        }
+        catch (RuntimeException e)
+        {
+            result.failed(1);
+            listener.onError(userPoolId, username, e);
+        }
+    }
+
+    private void deleteIdentities(String identityPoolId, List<String> identityIds, PurgeResult result)
+    {
+        try
+        {
+            List<String> unprocessed = new ArrayList<>();
+            if (!dryRun)
+            {
+                DeleteIdentitiesResult deleteResult = call(QuotaCategory.IDENTITY_DELETE, () -> cognitoIdentity.deleteIdentities(
+                    new DeleteIdentitiesRequest().withIdentityIdsToDelete(identityIds)
+                ));
+
+                if (deleteResult.getUnprocessedIdentityIds() != null)
+                {
+                    for (UnprocessedIdentityId id : deleteResult.getUnprocessedIdentityIds())
+                    {
+                        unprocessed.add(id.getIdentityId());
+                        result.failed(1);
+                        listener.onError(identityPoolId, id.getIdentityId(), null);
+                    }
+                }
+            }
+
+            for (String identityId : identityIds)
+            {
+                if (!unprocessed.contains(identityId))
+                {
+                    result.deleted(1);
+                    listener.onDelete(identityPoolId, identityId);
+                }
+            }
+        }
+        catch (RuntimeException e)
+        {
+            result.failed(identityIds.size());
+            for (String identityId : identityIds)
+            {
+                listener.onError(identityPoolId, identityId, e);
+            }
+        }
+    }
+
+    private <T> T call(QuotaCategory category, Supplier<T> operation)
+    {
+        QuotaLimiter limiter = quotaLimiter;
+        return limiter != null ? limiter.call(category, operation) : operation.get();
+    }
+
+    /**
+     * Runs delete calls on the executor, at most {@link #concurrency} at a time
+     */
+    private class Workers
+    {
+        private final Semaphore permits;
+        private final int size;
+
+        Workers()
+        {
+            this.size = concurrency;
+            this.permits = new Semaphore(size);
+        }
+
+        void submit(Runnable task)
+        {
+            acquire(1);
+            try
+            {
+                executor.execute(() -> {
+                    try
+                    {
+                        task.run();
+                    }
+                    finally
+                    {
+                        permits.release();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                permits.release();
+                throw e;
+            }
+        }
+
+        void await()
+        {
+            acquire(size);
+            permits.release(size);
+        }
+
+        private void acquire(int count)
+        {
+            try
+            {
+                permits.acquire(count);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new AbortedException("Interrupted while purging", e);
+            }
+        }
+    }
+}
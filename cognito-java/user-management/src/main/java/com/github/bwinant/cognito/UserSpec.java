@@ -0,0 +1,49 @@
+package com.github.bwinant.cognito;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Describes a user to create with {@link UserManager#createUsers}
+ */
+public class UserSpec
+{
+    private final String username;
+    private final String password;
+    private final Map<String, String> attributes;
+
+    /**
+     * Construct a new UserSpec
+     *
+     * @param username      the Cognito username
+     * @param password      the desired user password
+     * @param attributes    the user's attributes
+     */
+    public UserSpec(String username, String password, Map<String, String> attributes)
+    {
+        this.username = username;
+        this.password = password;
+        this.attributes = attributes != null ? attributes : Collections.emptyMap();
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+
+    public String getPassword()
+    {
+        return password;
+    }
+
+    public Map<String, String> getAttributes()
+    {
+        return attributes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return username;
+    }
+}